@@ -0,0 +1,166 @@
+package me.prettyprint.cassandra.service;
+
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import me.prettyprint.hector.api.exceptions.HectorException;
+
+/**
+ * Fetches the next pages of a slice in background while the current page is
+ * being consumed, keeping up to <code>depth</code> pages ahead.
+ * Each page starts at the last column of the previous one, so the fetches are
+ * chained: a page is only submitted to the executor after the previous one was
+ * fetched. So no task waits for another one (that would block the threads of an
+ * executor that is shared with other queries), and the query object is never
+ * used by two threads at the same time.
+ *
+ * @author pescuma
+ */
+public abstract class SlicePrefetcher<N, C> {
+
+	private final Executor executor;
+	private final int depth;
+	private final int count;
+	/** Guarded by this */
+	private final LinkedList<Future<List<C>>> pages = new LinkedList<Future<List<C>>>();
+	/** The last page submitted. Guarded by this */
+	private Future<List<C>> last;
+	/** Guarded by this */
+	private boolean cancelled;
+
+	/**
+	 * Constructor
+	 *
+	 * @param executor Executor to run the queries
+	 * @param depth Max number of pages to fetch ahead
+	 * @param count the amount of columns to retrieve per batch
+	 */
+	public SlicePrefetcher(Executor executor, int depth, int count) {
+		if (depth < 1)
+			throw new IllegalArgumentException("depth must be >= 1");
+
+		this.executor = executor;
+		this.depth = depth;
+		this.count = count;
+	}
+
+	/**
+	 * Runs the query for a page
+	 *
+	 * @param start Starting point of the page
+	 * @return the columns of the page
+	 */
+	protected abstract List<C> fetch(N start);
+
+	/**
+	 * @return the name of the column
+	 */
+	protected abstract N getName(C column);
+
+	/**
+	 * Starts fetching the pages after the first one
+	 *
+	 * @param first The first page, fetched by the caller
+	 */
+	public synchronized void start(final List<C> first) {
+		FutureTask<List<C>> page = new FutureTask<List<C>>(new Callable<List<C>>() {
+			@Override
+			public List<C> call() {
+				return first;
+			}
+		});
+		page.run();
+
+		last = page;
+		fill();
+	}
+
+	/**
+	 * @return the next page, waiting for it if it is still being fetched
+	 */
+	public List<C> next() {
+		Future<List<C>> page;
+		synchronized (this) {
+			// The last page may have been returned before its done() submitted
+			// the next one
+			fill();
+			if (pages.isEmpty())
+				return Collections.emptyList();
+
+			page = pages.removeFirst();
+			fill();
+		}
+
+		// Outside the lock: the fetch needs it to submit the next page
+		return get(page);
+	}
+
+	/**
+	 * Cancels the pages not fetched yet and stops submitting new ones. A page
+	 * being fetched is not interrupted, but its result is dropped.
+	 */
+	public synchronized void cancel() {
+		cancelled = true;
+		for (Future<List<C>> page : pages)
+			page.cancel(false);
+		pages.clear();
+	}
+
+	/**
+	 * Submits the page after the last one, if there is space for it and the
+	 * last one was already fetched. Otherwise it is called again when the last
+	 * page is fetched.
+	 */
+	private synchronized void fill() {
+		if (cancelled || pages.size() >= depth || !last.isDone())
+			return;
+
+		List<C> prev;
+		try {
+			prev = get(last);
+		} catch (RuntimeException e) {
+			// The error is thrown when the page is used
+			return;
+		}
+
+		// Last page was not complete, so there is nothing more to fetch
+		if (prev.size() < count)
+			return;
+
+		final N start = getName(prev.get(prev.size() - 1));
+		FutureTask<List<C>> page = new FutureTask<List<C>>(new Callable<List<C>>() {
+			@Override
+			public List<C> call() {
+				return fetch(start);
+			}
+		}) {
+			@Override
+			protected void done() {
+				fill();
+			}
+		};
+
+		pages.add(page);
+		last = page;
+		executor.execute(page);
+	}
+
+	private List<C> get(Future<List<C>> page) {
+		try {
+			return page.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new HectorException("Interrupted while fetching the next page", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new HectorException(e.getCause());
+		}
+	}
+}
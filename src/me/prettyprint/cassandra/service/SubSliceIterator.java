@@ -1,8 +1,10 @@
 package me.prettyprint.cassandra.service;
 
 
+import java.io.Closeable;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import me.prettyprint.hector.api.beans.HColumn;
 import me.prettyprint.hector.api.query.SubSliceQuery;
@@ -16,7 +18,7 @@ import me.prettyprint.hector.api.query.SubSliceQuery;
  * @author thrykol
  * @author pescuma
  */
-public class SubSliceIterator<K, SN, N, V> implements Iterator<HColumn<N, V>> {
+public class SubSliceIterator<K, SN, N, V> implements Iterator<HColumn<N, V>>, Closeable {
 
 	private static final int DEFAULT_COUNT = 100;
 	private SubSliceQuery<K, SN, N, V> query;
@@ -26,6 +28,7 @@ public class SubSliceIterator<K, SN, N, V> implements Iterator<HColumn<N, V>> {
 	private boolean reversed;
 	private int count = DEFAULT_COUNT;
 	private int columns = 0;
+	private SlicePrefetcher<N, HColumn<N, V>> prefetcher;
 
 	/**
 	 * Constructor
@@ -49,13 +52,29 @@ public class SubSliceIterator<K, SN, N, V> implements Iterator<HColumn<N, V>> {
 	 * @param count the amount of columns to retrieve per batch
 	 */
 	public SubSliceIterator(SubSliceQuery<K, SN, N, V> query, N start, final N finish, boolean reversed, int count) {
+		this(query, start, finish, reversed, count, null, 0);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param query Base SliceQuery to execute
+	 * @param start Starting point of the range
+	 * @param finish Finish point of the range.
+	 * @param reversed Whether or not the columns should be reversed
+	 * @param count the amount of columns to retrieve per batch
+	 * @param executor Executor used to fetch the next pages in background
+	 * @param prefetchDepth Number of pages to fetch ahead. 0 to only fetch a
+	 * page after the current one was consumed
+	 */
+	public SubSliceIterator(SubSliceQuery<K, SN, N, V> query, N start, final N finish, boolean reversed, int count, Executor executor, int prefetchDepth) {
 		this(query, start, new ColumnSliceFinish<N>() {
 
 			@Override
 			public N function() {
 				return finish;
 			}
-		}, reversed, count);
+		}, reversed, count, executor, prefetchDepth);
 	}
 
 	/**
@@ -82,22 +101,58 @@ public class SubSliceIterator<K, SN, N, V> implements Iterator<HColumn<N, V>> {
 	 * @param count the amount of columns to retrieve per batch
 	 */
 	public SubSliceIterator(SubSliceQuery<K, SN, N, V> query, N start, ColumnSliceFinish<N> finish, boolean reversed, int count) {
+		this(query, start, finish, reversed, count, null, 0);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param query Base SliceQuery to execute
+	 * @param start Starting point of the range
+	 * @param finish Finish point of the range. Allows for a dynamically
+	 * determined point
+	 * @param reversed Whether or not the columns should be reversed
+	 * @param count the amount of columns to retrieve per batch
+	 * @param executor Executor used to fetch the next pages in background
+	 * @param prefetchDepth Number of pages to fetch ahead. 0 to only fetch a
+	 * page after the current one was consumed
+	 */
+	public SubSliceIterator(SubSliceQuery<K, SN, N, V> query, N start, ColumnSliceFinish<N> finish, boolean reversed, int count, Executor executor, int prefetchDepth) {
 		this.query = query;
 		this.start = start;
 		this.finish = finish;
 		this.reversed = reversed;
 		this.count = count;
 		this.query.setRange(this.start, this.finish.function(), this.reversed, this.count);
+
+		if (executor != null && prefetchDepth > 0) {
+			prefetcher = new SlicePrefetcher<N, HColumn<N, V>>(executor, prefetchDepth, count) {
+
+				@Override
+				protected List<HColumn<N, V>> fetch(N start) {
+					return SubSliceIterator.this.fetch(start);
+				}
+
+				@Override
+				protected N getName(HColumn<N, V> column) {
+					return column.getName();
+				}
+			};
+		}
 	}
 
 	@Override
 	public boolean hasNext() {
 		if (iterator == null) {
-			iterator = query.execute().get().getColumns().iterator();
+			List<HColumn<N, V>> list = query.execute().get().getColumns();
+			iterator = list.iterator();
+
+			if (prefetcher != null) {
+				prefetcher.start(list);
+			}
 		} else if (!iterator.hasNext() && columns == count) {  // only need to do another query if maximum columns were retrieved
-			query.setRange(start, finish.function(), reversed, count);
 			columns = 0;
-			List<HColumn<N, V>> list = query.execute().get().getColumns();
+			List<HColumn<N, V>> list = prefetcher == null ? fetch(start) : prefetcher.next();
 			iterator = list.iterator();
 
 			if (iterator.hasNext()) {
@@ -106,7 +161,7 @@ public class SubSliceIterator<K, SN, N, V> implements Iterator<HColumn<N, V>> {
 				// as the lower bound column.  If both columns are the same, skip the column
 				N first = list.get(0).getName();
 				if (first.equals(start)) {
-					iterator.next();
+					next();
 				}
 			}
 		}
@@ -114,6 +169,11 @@ public class SubSliceIterator<K, SN, N, V> implements Iterator<HColumn<N, V>> {
 		return iterator.hasNext();
 	}
 
+	private List<HColumn<N, V>> fetch(N start) {
+		query.setRange(start, finish.function(), reversed, count);
+		return query.execute().get().getColumns();
+	}
+
 	@Override
 	public HColumn<N, V> next() {
 		HColumn<N, V> column = iterator.next();
@@ -123,6 +183,17 @@ public class SubSliceIterator<K, SN, N, V> implements Iterator<HColumn<N, V>> {
 		return column;
 	}
 
+	/**
+	 * Stops fetching pages in background, when the iteration is abandoned
+	 * before the end
+	 */
+	@Override
+	public void close() {
+		if (prefetcher != null) {
+			prefetcher.cancel();
+		}
+	}
+
 	@Override
 	public void remove() {
 		iterator.remove();
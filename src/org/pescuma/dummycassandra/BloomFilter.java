@@ -0,0 +1,99 @@
+package org.pescuma.dummycassandra;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+class BloomFilter
+{
+	private static final int BITS_PER_KEY = 10;
+	private static final int HASHES = 7;
+	
+	private final long[] bits;
+	private final int hashes;
+	
+	BloomFilter(long expectedKeys)
+	{
+		this(new long[(int) Math.min(Integer.MAX_VALUE - 8, Math.max(1, expectedKeys * BITS_PER_KEY / 64 + 1))],
+				HASHES);
+	}
+	
+	private BloomFilter(long[] bits, int hashes)
+	{
+		this.bits = bits;
+		this.hashes = hashes;
+	}
+	
+	void add(ByteBuffer key)
+	{
+		addHash(hash(key));
+	}
+	
+	void addHash(long hash)
+	{
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		
+		long size = bits.length * 64L;
+		for (int i = 0; i < hashes; i++)
+		{
+			long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % size;
+			bits[(int) (bit >>> 6)] |= 1L << bit;
+		}
+	}
+	
+	boolean mightContain(ByteBuffer key)
+	{
+		long hash = hash(key);
+		int h1 = (int) hash;
+		int h2 = (int) (hash >>> 32);
+		
+		long size = bits.length * 64L;
+		for (int i = 0; i < hashes; i++)
+		{
+			long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % size;
+			if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0)
+				return false;
+		}
+		return true;
+	}
+	
+	static long hash(ByteBuffer key)
+	{
+		long hash = 0xcbf29ce484222325L;
+		for (int i = key.position(); i < key.limit(); i++)
+		{
+			hash ^= key.get(i) & 0xFF;
+			hash *= 0x100000001b3L;
+		}
+		
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+	
+	int getSerializedSize()
+	{
+		return 4 + 4 + bits.length * 8;
+	}
+	
+	void write(DataOutput out) throws IOException
+	{
+		out.writeInt(hashes);
+		out.writeInt(bits.length);
+		for (long word : bits)
+			out.writeLong(word);
+	}
+	
+	static BloomFilter read(ByteBuffer in)
+	{
+		int hashes = in.getInt();
+		long[] bits = new long[in.getInt()];
+		in.asLongBuffer().get(bits);
+		in.position(in.position() + bits.length * 8);
+		return new BloomFilter(bits, hashes);
+	}
+}
@@ -0,0 +1,284 @@
+package org.pescuma.dummycassandra;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import me.prettyprint.cassandra.serializers.ByteBufferSerializer;
+import me.prettyprint.hector.api.beans.HColumn;
+import me.prettyprint.hector.api.beans.HCounterColumn;
+import me.prettyprint.hector.api.beans.HCounterSuperColumn;
+import me.prettyprint.hector.api.beans.HSuperColumn;
+import me.prettyprint.hector.api.exceptions.HectorException;
+import me.prettyprint.hector.api.factory.HFactory;
+import me.prettyprint.hector.api.mutation.Mutator;
+
+@SuppressWarnings({ "unchecked", "rawtypes" })
+public class CassandraBatch
+{
+	public static final int DEFAULT_MAX_MUTATIONS = 1000;
+	public static final long DEFAULT_MAX_BYTES = 1024 * 1024;
+	
+	private static final int LONG_SIZE = 8;
+	
+	private final CassandraKeyspace keyspace;
+	private final int maxMutations;
+	private final long maxBytes;
+	
+	private Mutator<ByteBuffer> mutator;
+	private int mutations;
+	private long bytes;
+	private final Map<HectorColumnFamilyFacade, Set<Object>> writtenRows = //
+			new HashMap<HectorColumnFamilyFacade, Set<Object>>();
+	
+	CassandraBatch(CassandraKeyspace keyspace, int maxMutations, long maxBytes)
+	{
+		if (maxMutations < 1)
+			throw new IllegalArgumentException("maxMutations must be >= 1");
+		if (maxBytes < 1)
+			throw new IllegalArgumentException("maxBytes must be >= 1");
+		
+		this.keyspace = keyspace;
+		this.maxMutations = maxMutations;
+		this.maxBytes = maxBytes;
+	}
+	
+	public CassandraKeyspace getKeyspace()
+	{
+		return keyspace;
+	}
+	
+	public int getMaxMutations()
+	{
+		return maxMutations;
+	}
+	
+	public long getMaxBytes()
+	{
+		return maxBytes;
+	}
+	
+	public int size()
+	{
+		return mutations;
+	}
+	
+	public boolean isEmpty()
+	{
+		return mutations == 0;
+	}
+	
+	public long getByteSize()
+	{
+		return bytes;
+	}
+	
+	public void execute()
+	{
+		if (mutations == 0)
+			return;
+		
+		try
+		{
+			mutator.execute();
+		}
+		catch (HectorException e)
+		{
+			throw new CassandraException("Error executing batch", e);
+		}
+		finally
+		{
+			// Hector already discarded the mutations, even in case of error
+			mutations = 0;
+			bytes = 0;
+			
+			// Some of them may have been applied, even in case of error
+			invalidateWrittenRows();
+		}
+	}
+	
+	private void invalidateWrittenRows()
+	{
+		if (writtenRows.isEmpty())
+			return;
+		
+		for (Map.Entry<HectorColumnFamilyFacade, Set<Object>> entry : writtenRows.entrySet())
+			for (Object rowKey : entry.getValue())
+				entry.getKey().rowWritten(rowKey);
+		
+		writtenRows.clear();
+	}
+	
+	public void discard()
+	{
+		if (mutator != null)
+			mutator.discardPendingMutations();
+		
+		mutations = 0;
+		bytes = 0;
+		writtenRows.clear();
+	}
+	
+	void insertColumn(HectorColumnFamilyFacade hector, Object rowKey, Object column, Object value)
+	{
+		insertColumn(hector, rowKey, column, value, hector.createClock());
+	}
+	
+	void insertColumn(HectorColumnFamilyFacade hector, Object rowKey, Object column, Object value, long clock)
+	{
+		ByteBuffer key = toRowKey(hector, rowKey);
+		HColumn col = hector.createColumn(column, value, clock);
+		
+		getMutator().addInsertion(key, hector.getName(), col);
+		
+		added(key.remaining() + sizeOf(col));
+	}
+	
+	void insertRawColumn(HectorColumnFamilyFacade hector, Object rowKey, ByteBuffer column, ByteBuffer value)
+	{
+		insertRawColumn(hector, rowKey, column, value, hector.createClock());
+	}
+	
+	void insertRawColumn(HectorColumnFamilyFacade hector, Object rowKey, ByteBuffer column, ByteBuffer value,
+			long clock)
+	{
+		ByteBuffer key = toRowKey(hector, rowKey);
+		HColumn col = hector.createRawColumn(column, value, clock);
+		
+		getMutator().addInsertion(key, hector.getName(), col);
+		
+		added(key.remaining() + sizeOf(col));
+	}
+	
+	void insertColumn(HectorColumnFamilyFacade hector, Object rowKey, Object superColumn, Object column, Object value)
+	{
+		insertColumn(hector, rowKey, superColumn, column, value, hector.createClock());
+	}
+	
+	void insertColumn(HectorColumnFamilyFacade hector, Object rowKey, Object superColumn, Object column, Object value,
+			long clock)
+	{
+		ByteBuffer key = toRowKey(hector, rowKey);
+		HSuperColumn col = hector.createSuperColumn(superColumn, column, value, clock);
+		
+		getMutator().addInsertion(key, hector.getName(), col);
+		
+		added(key.remaining() + col.getNameByteBuffer().remaining() + sizeOf(col.get(0)));
+	}
+	
+	void incrementCounter(HectorColumnFamilyFacade hector, Object rowKey, Object column, long toAdd)
+	{
+		ByteBuffer key = toRowKey(hector, rowKey);
+		HCounterColumn col = hector.createCounterColumn(column, toAdd);
+		
+		getMutator().addCounter(key, hector.getName(), col);
+		
+		added(key.remaining() + col.getNameBytes().remaining() + LONG_SIZE);
+	}
+	
+	void incrementRawCounter(HectorColumnFamilyFacade hector, Object rowKey, ByteBuffer column, long toAdd)
+	{
+		ByteBuffer key = toRowKey(hector, rowKey);
+		HCounterColumn col = hector.createRawCounterColumn(column, toAdd);
+		
+		getMutator().addCounter(key, hector.getName(), col);
+		
+		added(key.remaining() + column.remaining() + LONG_SIZE);
+	}
+	
+	void incrementCounter(HectorColumnFamilyFacade hector, Object rowKey, Object superColumn, Object column,
+			long toAdd)
+	{
+		ByteBuffer key = toRowKey(hector, rowKey);
+		HCounterSuperColumn col = hector.createSuperCounterColumn(superColumn, column, toAdd);
+		
+		getMutator().addCounter(key, hector.getName(), col);
+		
+		added(key.remaining() + col.getNameByteBuffer().remaining() + col.get(0).getNameBytes().remaining()
+				+ LONG_SIZE);
+	}
+	
+	void deleteColumn(HectorColumnFamilyFacade hector, Object rowKey, Object column)
+	{
+		deleteColumn(hector, rowKey, column, hector.createClock());
+	}
+	
+	void deleteColumn(HectorColumnFamilyFacade hector, Object rowKey, Object column, long clock)
+	{
+		ByteBuffer key = toRowKey(hector, rowKey);
+		ByteBuffer name = hector.getColumnSerializer().toByteBuffer(hector.toColumnKey(column));
+		
+		getMutator().addDeletion(key, hector.getName(), name, ByteBufferSerializer.get(), clock);
+		
+		added(key.remaining() + name.remaining() + LONG_SIZE);
+	}
+	
+	void deleteColumn(HectorColumnFamilyFacade hector, Object rowKey, Object superColumn, Object column)
+	{
+		deleteColumn(hector, rowKey, superColumn, column, hector.createClock());
+	}
+	
+	void deleteColumn(HectorColumnFamilyFacade hector, Object rowKey, Object superColumn, Object column, long clock)
+	{
+		ByteBuffer key = toRowKey(hector, rowKey);
+		ByteBuffer superName = hector.getColumnSerializer().toByteBuffer(hector.toColumnKey(superColumn));
+		ByteBuffer name = hector.getSubColumnSerializer().toByteBuffer(hector.toSubColumnKey(column));
+		
+		getMutator().addSubDelete(key, hector.getName(), superName, name, ByteBufferSerializer.get(),
+				ByteBufferSerializer.get(), clock);
+		
+		added(key.remaining() + superName.remaining() + name.remaining() + LONG_SIZE);
+	}
+	
+	private ByteBuffer toRowKey(HectorColumnFamilyFacade hector, Object rowKey)
+	{
+		if (hector.getKeyspace() != keyspace)
+			throw new IllegalArgumentException("The column family " + hector.getName()
+					+ " is not from the keyspace of this batch (" + keyspace.getName() + ")");
+		
+		hector.checkWritable();
+		
+		if (hector.hasReadCache())
+		{
+			Set<Object> rows = writtenRows.get(hector);
+			if (rows == null)
+			{
+				rows = new HashSet<Object>();
+				writtenRows.put(hector, rows);
+			}
+			rows.add(rowKey);
+		}
+		
+		return hector.getKeySerializer().toByteBuffer(rowKey);
+	}
+	
+	private Mutator<ByteBuffer> getMutator()
+	{
+		if (keyspace.keyspace == null)
+			throw new IllegalStateException("You have to be connected to be able to add mutations to a batch");
+		
+		// Keys are serialized here, so one mutator can hold rows of column
+		// families with different key types
+		if (mutator == null)
+			mutator = HFactory.createMutator(keyspace.keyspace, ByteBufferSerializer.get());
+		
+		return mutator;
+	}
+	
+	private static int sizeOf(HColumn col)
+	{
+		ByteBuffer value = col.getValueBytes();
+		return col.getNameBytes().remaining() + (value == null ? 0 : value.remaining()) + LONG_SIZE;
+	}
+	
+	private void added(int size)
+	{
+		mutations++;
+		bytes += size;
+		
+		if (mutations >= maxMutations || bytes >= maxBytes)
+			execute();
+	}
+}
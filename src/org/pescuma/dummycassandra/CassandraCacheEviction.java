@@ -0,0 +1,8 @@
+package org.pescuma.dummycassandra;
+
+public enum CassandraCacheEviction
+{
+	LRU,
+	// New rows only replace old ones if they were read more often recently
+	TinyLFU
+}
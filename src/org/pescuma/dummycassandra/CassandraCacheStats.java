@@ -0,0 +1,57 @@
+package org.pescuma.dummycassandra;
+
+public class CassandraCacheStats
+{
+	private final long hits;
+	private final long misses;
+	private final long evictions;
+	private final long size;
+	private final long byteSize;
+	
+	CassandraCacheStats(long hits, long misses, long evictions, long size, long byteSize)
+	{
+		this.hits = hits;
+		this.misses = misses;
+		this.evictions = evictions;
+		this.size = size;
+		this.byteSize = byteSize;
+	}
+	
+	public long getHits()
+	{
+		return hits;
+	}
+	
+	public long getMisses()
+	{
+		return misses;
+	}
+	
+	public double getHitRate()
+	{
+		long requests = hits + misses;
+		return (requests == 0 ? 0 : (double) hits / requests);
+	}
+	
+	public long getEvictions()
+	{
+		return evictions;
+	}
+	
+	public long getSize()
+	{
+		return size;
+	}
+	
+	public long getByteSize()
+	{
+		return byteSize;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "hits=" + hits + " misses=" + misses + " evictions=" + evictions + " size=" + size + " bytes="
+				+ byteSize;
+	}
+}
@@ -65,7 +65,10 @@ public class CassandraCluster
 	{
 		try
 		{
-			cluster = HFactory.getOrCreateCluster(name, host + ":" + port);
+			if (LocalStorage.isLocal(host))
+				cluster = new LocalCluster(name, host);
+			else
+				cluster = HFactory.getOrCreateCluster(name, host + ":" + port);
 			
 			for (CassandraKeyspace keyspace : keyspaces.values())
 				keyspace.connect(cluster);
@@ -86,7 +89,10 @@ public class CassandraCluster
 			for (CassandraKeyspace keyspace : keyspaces.values())
 				keyspace.shutdown();
 			
-			HFactory.shutdownCluster(cluster);
+			if (cluster instanceof LocalCluster)
+				cluster.getConnectionManager().shutdown();
+			else
+				HFactory.shutdownCluster(cluster);
 		}
 		catch (HectorException e)
 		{
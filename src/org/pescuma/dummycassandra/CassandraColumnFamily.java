@@ -1,5 +1,10 @@
 package org.pescuma.dummycassandra;
 
+import java.io.File;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
 import me.prettyprint.hector.api.ddl.ColumnFamilyDefinition;
 
 public class CassandraColumnFamily
@@ -12,6 +17,13 @@ public class CassandraColumnFamily
 		this.hector = new HectorColumnFamilyFacade(keyspace, name, rowKeyType, columnKeyType, null, valueType);
 	}
 	
+	public CassandraColumnFamily(CassandraKeyspace keyspace, String name, CassandraType rowKeyType,
+			CassandraType[] columnKeyComponents, CassandraType valueType)
+	{
+		this.hector = new HectorColumnFamilyFacade(keyspace, name, rowKeyType, CassandraType.Composite,
+				columnKeyComponents, null, valueType);
+	}
+	
 	public String getName()
 	{
 		return hector.getName();
@@ -27,6 +39,11 @@ public class CassandraColumnFamily
 		return hector.getColumnKeyType();
 	}
 	
+	public CassandraType[] getColumnKeyComponents()
+	{
+		return hector.getColumnKeyComponents();
+	}
+	
 	public CassandraType getValueType()
 	{
 		return hector.getValueType();
@@ -42,27 +59,281 @@ public class CassandraColumnFamily
 		hector.setReplicateOnWrite(getReplicateOnWrite());
 	}
 	
-	int getPageSize()
+	public void enableWriteBehind(CassandraWriteFailureListener listener)
+	{
+		enableWriteBehind(WriteBehindBuffer.DEFAULT_QUEUE_SIZE, WriteBehindBuffer.DEFAULT_FLUSHER_THREADS, listener);
+	}
+	
+	public void enableWriteBehind(int queueSize, int flusherThreads, CassandraWriteFailureListener listener)
+	{
+		hector.enableWriteBehind(queueSize, flusherThreads, listener);
+	}
+	
+	public void disableWriteBehind()
+	{
+		hector.disableWriteBehind();
+	}
+	
+	public boolean isWriteBehindEnabled()
+	{
+		return hector.isWriteBehindEnabled();
+	}
+	
+	public void enableCounterCoalescing(CassandraWriteFailureListener listener)
+	{
+		enableCounterCoalescing(CounterCoalescer.DEFAULT_FLUSH_INTERVAL_MS, CounterCoalescer.DEFAULT_MAX_DELTAS,
+				listener);
+	}
+	
+	// The pending increments are added to getColumn and getColumns of a row and to
+	// getColumn of many rows, but not to the other reads
+	public void enableCounterCoalescing(long flushIntervalMs, int maxDeltas, CassandraWriteFailureListener listener)
+	{
+		hector.enableCounterCoalescing(flushIntervalMs, maxDeltas, listener);
+	}
+	
+	public void disableCounterCoalescing()
+	{
+		hector.disableCounterCoalescing();
+	}
+	
+	public boolean isCounterCoalescingEnabled()
+	{
+		return hector.isCounterCoalescingEnabled();
+	}
+	
+	public void enableRowCache(int maxRows, long ttlMs)
+	{
+		enableRowCache(CassandraCacheEviction.LRU, maxRows, 0, ttlMs);
+	}
+	
+	// Writes of other clients are only seen after the row expires
+	public void enableRowCache(CassandraCacheEviction eviction, int maxRows, long maxBytes, long ttlMs)
+	{
+		hector.enableRowCache(eviction, maxRows, maxBytes, ttlMs);
+	}
+	
+	public void disableRowCache()
+	{
+		hector.disableRowCache();
+	}
+	
+	public boolean isRowCacheEnabled()
+	{
+		return hector.isRowCacheEnabled();
+	}
+	
+	public CassandraCacheStats getRowCacheStats()
+	{
+		return hector.getRowCacheStats();
+	}
+	
+	public void enableNegativeCache(int maxEntries, long ttlMs)
+	{
+		hector.enableNegativeCache(maxEntries, ttlMs);
+	}
+	
+	public void disableNegativeCache()
+	{
+		hector.disableNegativeCache();
+	}
+	
+	public boolean isNegativeCacheEnabled()
+	{
+		return hector.isNegativeCacheEnabled();
+	}
+	
+	public CassandraCacheStats getNegativeCacheStats()
+	{
+		return hector.getNegativeCacheStats();
+	}
+	
+	public void enableCounterCache(long maxStalenessMs, int maxEntries)
+	{
+		hector.enableCounterCache(maxStalenessMs, maxEntries);
+	}
+	
+	public void disableCounterCache()
+	{
+		hector.disableCounterCache();
+	}
+	
+	public boolean isCounterCacheEnabled()
+	{
+		return hector.isCounterCacheEnabled();
+	}
+	
+	public CassandraCacheStats getCounterCacheStats()
+	{
+		return hector.getCounterCacheStats();
+	}
+	
+	public void enableValueCompression(int minSize)
+	{
+		enableValueCompression(new CassandraDeflateCodec(), minSize);
+	}
+	
+	public void enableValueCompression(CassandraValueCodec codec, int minSize)
+	{
+		hector.enableValueCompression(codec, minSize);
+	}
+	
+	public void disableValueCompression()
+	{
+		hector.disableValueCompression();
+	}
+	
+	public boolean isValueCompressionEnabled()
+	{
+		return hector.isValueCompressionEnabled();
+	}
+	
+	public void exportSnapshot(File file)
+	{
+		hector.exportSnapshot(file);
+	}
+	
+	// Writes throw IllegalStateException while it is enabled. Scans of token
+	// ranges still read from cassandra
+	public void enableSnapshot(File file)
+	{
+		hector.enableSnapshot(file);
+	}
+	
+	public void disableSnapshot()
+	{
+		hector.disableSnapshot();
+	}
+	
+	public boolean isSnapshotEnabled()
+	{
+		return hector.isSnapshotEnabled();
+	}
+	
+	public void flush()
+	{
+		hector.flush();
+	}
+	
+	public int getMultigetBatchSize()
+	{
+		return hector.getMultigetBatchSize();
+	}
+	
+	public void setMultigetBatchSize(int multigetBatchSize)
+	{
+		hector.setMultigetBatchSize(multigetBatchSize);
+	}
+	
+	public int getPageSize()
 	{
 		return hector.getPageSize();
 	}
 	
-	void setPageSize(int pageSize)
+	public void setPageSize(int pageSize)
 	{
 		hector.setPageSize(pageSize);
 	}
 	
+	public int getPrefetchPages()
+	{
+		return hector.getPrefetchPages();
+	}
+	
+	public void setPrefetchPages(int prefetchPages)
+	{
+		hector.setPrefetchPages(prefetchPages);
+	}
+	
+	public <K, N, V> CassandraTypedColumnFamily<K, N, V> typed(Class<K> rowKeyClass, Class<N> columnKeyClass,
+			Class<V> valueClass)
+	{
+		return new CassandraTypedColumnFamily<K, N, V>(hector, rowKeyClass, columnKeyClass, valueClass);
+	}
+	
+	public CassandraCounterView counterView()
+	{
+		return new CassandraCounterView(hector);
+	}
+	
 	public CassandraRow getRow(Object key)
 	{
 		return new CassandraRow(hector, key);
 	}
 	
+	@SuppressWarnings("rawtypes")
+	public Map getRows(Collection keys)
+	{
+		return hector.getRows(keys);
+	}
+	
+	@SuppressWarnings("rawtypes")
+	public Map getColumn(Collection keys, Object column)
+	{
+		return hector.getValues(keys, column);
+	}
+	
 	@SuppressWarnings("rawtypes")
 	public Iterable getRowKeys()
 	{
 		return hector.getRowKeys();
 	}
 	
+	public List<CassandraTokenRange> getTokenRanges()
+	{
+		return hector.getTokenRanges(0);
+	}
+	
+	public List<CassandraTokenRange> getTokenRanges(int keysPerSplit)
+	{
+		return hector.getTokenRanges(keysPerSplit);
+	}
+	
+	public CassandraScan scanRowKeys(int parallelism)
+	{
+		return hector.scanRowKeys(getTokenRanges(), parallelism);
+	}
+	
+	public CassandraScan scanRowKeys(List<CassandraTokenRange> ranges, int parallelism)
+	{
+		return hector.scanRowKeys(ranges, parallelism);
+	}
+	
+	public CassandraScan scanRows()
+	{
+		return hector.scanRows(getTokenRanges(), 1);
+	}
+	
+	public CassandraScan scanRows(int parallelism)
+	{
+		return hector.scanRows(getTokenRanges(), parallelism);
+	}
+	
+	public CassandraScan scanRows(List<CassandraTokenRange> ranges, int parallelism)
+	{
+		return hector.scanRows(ranges, parallelism);
+	}
+	
+	public CassandraScan resumeScan(CassandraScanCursor cursor)
+	{
+		return hector.resumeScan(cursor, 1);
+	}
+	
+	public CassandraScan resumeScan(CassandraScanCursor cursor, int parallelism)
+	{
+		return hector.resumeScan(cursor, parallelism);
+	}
+	
+	public void scanRowKeys(int parallelism, CassandraRowKeyListener listener)
+	{
+		hector.scanRowKeys(getTokenRanges(), parallelism, listener);
+	}
+	
+	public void scanRowKeys(List<CassandraTokenRange> ranges, int parallelism, CassandraRowKeyListener listener)
+	{
+		hector.scanRowKeys(ranges, parallelism, listener);
+	}
+	
 	// It don't allow to query for a slice because, depending on the
 	// partitioner, the slice makes no sense.
 	// So I won't implement the slice option here.
@@ -71,4 +342,9 @@ public class CassandraColumnFamily
 	{
 		return hector.createColumnFamilyDefinition();
 	}
+	
+	void flushBeforeShutdown()
+	{
+		hector.flush();
+	}
 }
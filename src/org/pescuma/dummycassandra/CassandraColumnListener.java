@@ -0,0 +1,6 @@
+package org.pescuma.dummycassandra;
+
+public interface CassandraColumnListener
+{
+	boolean onColumn(Object name, Object value);
+}
@@ -0,0 +1,161 @@
+package org.pescuma.dummycassandra;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+@SuppressWarnings("rawtypes")
+public class CassandraColumns extends AbstractMap
+{
+	private final Object[] names;
+	private final Object[] values;
+	private final int size;
+	private final Comparator comparator;
+	
+	CassandraColumns(Object[] names, Object[] values, int size, Comparator comparator)
+	{
+		this.names = names;
+		this.values = values;
+		this.size = size;
+		this.comparator = comparator;
+	}
+	
+	@Override
+	public int size()
+	{
+		return size;
+	}
+	
+	public Object getName(int index)
+	{
+		checkIndex(index);
+		return names[index];
+	}
+	
+	public Object getValue(int index)
+	{
+		checkIndex(index);
+		return values[index];
+	}
+	
+	private void checkIndex(int index)
+	{
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+	}
+	
+	@SuppressWarnings("unchecked")
+	public int indexOf(Object name)
+	{
+		if (name == null)
+			return -1;
+		
+		int low = 0;
+		int high = size - 1;
+		while (low <= high)
+		{
+			int mid = (low + high) >>> 1;
+			int cmp = comparator.compare(names[mid], name);
+			if (cmp < 0)
+				low = mid + 1;
+			else if (cmp > 0)
+				high = mid - 1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+	
+	@Override
+	public boolean containsKey(Object name)
+	{
+		return indexOf(name) >= 0;
+	}
+	
+	@Override
+	public Object get(Object name)
+	{
+		int index = indexOf(name);
+		return (index >= 0 ? values[index] : null);
+	}
+	
+	@Override
+	public Set entrySet()
+	{
+		return new AbstractSet() {
+			@Override
+			public int size()
+			{
+				return size;
+			}
+			
+			@Override
+			public Iterator iterator()
+			{
+				return new Iterator() {
+					private int next;
+					
+					@Override
+					public boolean hasNext()
+					{
+						return next < size;
+					}
+					
+					@Override
+					public Object next()
+					{
+						if (next >= size)
+							throw new NoSuchElementException();
+						
+						int index = next++;
+						return new SimpleImmutableEntry<Object, Object>(names[index], values[index]);
+					}
+					
+					@Override
+					public void remove()
+					{
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+	
+	static class Builder
+	{
+		private Object[] names;
+		private Object[] values;
+		private int size;
+		private final Comparator comparator;
+		
+		Builder(int initialCapacity, Comparator comparator)
+		{
+			names = new Object[Math.max(initialCapacity, 1)];
+			values = new Object[names.length];
+			this.comparator = comparator;
+		}
+		
+		void add(Object name, Object value)
+		{
+			if (size == names.length)
+			{
+				int capacity = names.length * 2;
+				names = Arrays.copyOf(names, capacity);
+				values = Arrays.copyOf(values, capacity);
+			}
+			
+			names[size] = name;
+			values[size] = value;
+			size++;
+		}
+		
+		CassandraColumns build()
+		{
+			return new CassandraColumns(names, values, size, comparator);
+		}
+	}
+}
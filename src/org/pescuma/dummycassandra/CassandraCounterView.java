@@ -0,0 +1,75 @@
+package org.pescuma.dummycassandra;
+
+import java.nio.ByteBuffer;
+
+public class CassandraCounterView
+{
+	private final HectorColumnFamilyFacade hector;
+	private final boolean longColumns;
+	
+	CassandraCounterView(HectorColumnFamilyFacade hector)
+	{
+		if (hector.getValueType() != CassandraType.Counter)
+			throw new IllegalStateException("Counter views can only be created for Counter column families");
+		
+		this.hector = hector;
+		this.longColumns = (hector.getColumnKeyType() == CassandraType.Long);
+	}
+	
+	public String getName()
+	{
+		return hector.getName();
+	}
+	
+	public void increment(Object rowKey, Object columnKey, long delta)
+	{
+		hector.incrementCounter(rowKey, columnKey, delta);
+	}
+	
+	public void increment(Object rowKey, long columnKey, long delta)
+	{
+		checkLongColumns();
+		hector.incrementRawCounter(rowKey, toColumnName(columnKey), delta);
+	}
+	
+	public void increment(CassandraBatch batch, Object rowKey, Object columnKey, long delta)
+	{
+		batch.incrementCounter(hector, rowKey, columnKey, delta);
+	}
+	
+	public void increment(CassandraBatch batch, Object rowKey, long columnKey, long delta)
+	{
+		checkLongColumns();
+		batch.incrementRawCounter(hector, rowKey, toColumnName(columnKey), delta);
+	}
+	
+	public long get(Object rowKey, Object columnKey)
+	{
+		Long result = (Long) hector.getValue(rowKey, columnKey);
+		return (result != null ? result.longValue() : 0);
+	}
+	
+	public long get(Object rowKey, long columnKey)
+	{
+		checkLongColumns();
+		return hector.getRawCounter(rowKey, toColumnName(columnKey));
+	}
+	
+	public CassandraLongColumns getColumns(Object rowKey, Object startColumnKey, Object endColumnKey)
+	{
+		return hector.getLongColumns(rowKey, startColumnKey, endColumnKey);
+	}
+	
+	private static ByteBuffer toColumnName(long columnKey)
+	{
+		ByteBuffer result = ByteBuffer.allocate(8);
+		result.putLong(0, columnKey);
+		return result;
+	}
+	
+	private void checkLongColumns()
+	{
+		if (!longColumns)
+			throw new IllegalStateException("The column keys of " + hector.getName() + " are not Long");
+	}
+}
@@ -0,0 +1,112 @@
+package org.pescuma.dummycassandra;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+public class CassandraDeflateCodec implements CassandraValueCodec
+{
+	public static final byte ID = 1;
+	
+	private final int level;
+	
+	public CassandraDeflateCodec()
+	{
+		this(Deflater.BEST_SPEED);
+	}
+	
+	public CassandraDeflateCodec(int level)
+	{
+		if (level < 0 || level > 9)
+			throw new IllegalArgumentException("level must be between 0 and 9");
+		
+		this.level = level;
+	}
+	
+	@Override
+	public byte getId()
+	{
+		return ID;
+	}
+	
+	@Override
+	public ByteBuffer encode(ByteBuffer value)
+	{
+		int size = value.remaining();
+		
+		Deflater deflater = new Deflater(level);
+		try
+		{
+			if (value.hasArray())
+			{
+				deflater.setInput(value.array(), value.arrayOffset() + value.position(), size);
+			}
+			else
+			{
+				byte[] input = new byte[size];
+				value.duplicate().get(input);
+				deflater.setInput(input);
+			}
+			deflater.finish();
+			
+			// Only worth it if it gets smaller
+			byte[] output = new byte[4 + size];
+			int length = 4;
+			while (!deflater.finished() && length < output.length)
+				length += deflater.deflate(output, length, output.length - length);
+			
+			if (!deflater.finished())
+				return null;
+			
+			ByteBuffer result = ByteBuffer.wrap(output, 0, length);
+			result.putInt(0, size);
+			return result;
+		}
+		finally
+		{
+			deflater.end();
+		}
+	}
+	
+	@Override
+	public ByteBuffer decode(ByteBuffer encoded)
+	{
+		int size = encoded.getInt(encoded.position());
+		
+		byte[] input = new byte[encoded.remaining() - 4];
+		ByteBuffer compressed = encoded.duplicate();
+		compressed.position(compressed.position() + 4);
+		compressed.get(input);
+		
+		Inflater inflater = new Inflater();
+		try
+		{
+			inflater.setInput(input);
+			
+			byte[] output = new byte[size];
+			int length = 0;
+			while (!inflater.finished() && length < size)
+			{
+				int read = inflater.inflate(output, length, size - length);
+				if (read == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					break;
+				length += read;
+			}
+			
+			if (length != size)
+				throw new CassandraException("Invalid compressed value: expected " + size + " bytes but got "
+						+ length);
+			
+			return ByteBuffer.wrap(output);
+		}
+		catch (DataFormatException e)
+		{
+			throw new CassandraException("Invalid compressed value", e);
+		}
+		finally
+		{
+			inflater.end();
+		}
+	}
+}
@@ -3,9 +3,17 @@ package org.pescuma.dummycassandra;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import me.prettyprint.cassandra.model.ExecutingKeyspace;
+import me.prettyprint.cassandra.service.Operation;
 import me.prettyprint.cassandra.service.ThriftKsDef;
 import me.prettyprint.hector.api.Cluster;
 import me.prettyprint.hector.api.Keyspace;
@@ -13,6 +21,8 @@ import me.prettyprint.hector.api.ddl.ColumnFamilyDefinition;
 import me.prettyprint.hector.api.ddl.KeyspaceDefinition;
 import me.prettyprint.hector.api.factory.HFactory;
 
+import org.apache.cassandra.thrift.TokenRange;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -25,7 +35,12 @@ public class CassandraKeyspace
 	private final Map<String, CassandraColumnFamily> columnFamilies = new HashMap<String, CassandraColumnFamily>();
 	private final Map<String, CassandraSuperColumnFamily> superColumnFamilies = new HashMap<String, CassandraSuperColumnFamily>();
 	
+	private ExecutorService executor;
+	private boolean ownExecutor;
+	
 	Keyspace keyspace;
+	private Cluster cluster;
+	private TokenFactory tokenFactory;
 	
 	CassandraKeyspace(String name)
 	{
@@ -47,6 +62,66 @@ public class CassandraKeyspace
 		this.replicationFactor = replicationFactor;
 	}
 	
+	public synchronized void setExecutor(ExecutorService executor)
+	{
+		if (ownExecutor)
+			this.executor.shutdown();
+		
+		this.executor = executor;
+		this.ownExecutor = false;
+	}
+	
+	synchronized ExecutorService getExecutor()
+	{
+		if (executor == null)
+		{
+			executor = Executors.newCachedThreadPool(new DaemonThreadFactory("cassandra-" + name));
+			ownExecutor = true;
+		}
+		
+		return executor;
+	}
+	
+	<T> List<T> invokeAll(List<Callable<T>> tasks)
+	{
+		List<T> result = new ArrayList<T>(tasks.size());
+		
+		try
+		{
+			// No need to switch threads
+			if (tasks.size() == 1)
+			{
+				result.add(tasks.get(0).call());
+				return result;
+			}
+			
+			for (Future<T> future : getExecutor().invokeAll(tasks))
+				result.add(future.get());
+			
+			return result;
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			
+			throw new CassandraException(e.getCause());
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new CassandraException("Interrupted while waiting for queries", e);
+		}
+		catch (RuntimeException e)
+		{
+			throw e;
+		}
+		catch (Exception e)
+		{
+			throw new CassandraException(e);
+		}
+	}
+	
 	public CassandraColumnFamily addColumnFamily(String name, CassandraType rowKeyType, CassandraType columnKeyType,
 			CassandraType valueType)
 	{
@@ -58,6 +133,17 @@ public class CassandraKeyspace
 		return cf;
 	}
 	
+	public CassandraColumnFamily addCompositeColumnFamily(String name, CassandraType rowKeyType,
+			CassandraType[] columnKeyComponents, CassandraType valueType)
+	{
+		if (columnFamilies.get(name) != null)
+			throw new IllegalArgumentException("ColumnFamily already registered: " + name);
+		
+		CassandraColumnFamily cf = new CassandraColumnFamily(this, name, rowKeyType, columnKeyComponents, valueType);
+		columnFamilies.put(name, cf);
+		return cf;
+	}
+	
 	public CassandraSuperColumnFamily addSuperColumnFamily(String name, CassandraType rowKeyType,
 			CassandraType columnKeyType, CassandraType subColumnKeyType, CassandraType valueType)
 	{
@@ -70,16 +156,66 @@ public class CassandraKeyspace
 		return cf;
 	}
 	
+	public CassandraBatch createBatch()
+	{
+		return createBatch(CassandraBatch.DEFAULT_MAX_MUTATIONS, CassandraBatch.DEFAULT_MAX_BYTES);
+	}
+	
+	public CassandraBatch createBatch(int maxMutations, long maxBytes)
+	{
+		return new CassandraBatch(this, maxMutations, maxBytes);
+	}
+	
 	void connect(Cluster cluster)
 	{
 		syncSchema(cluster);
 		
 		keyspace = HFactory.createKeyspace(name, cluster);
+		this.cluster = cluster;
 	}
 	
 	void shutdown()
 	{
+		for (CassandraColumnFamily cf : columnFamilies.values())
+			cf.flushBeforeShutdown();
+		
+		for (CassandraSuperColumnFamily cf : superColumnFamilies.values())
+			cf.flushBeforeShutdown();
+		
+		synchronized (this)
+		{
+			if (ownExecutor)
+			{
+				executor.shutdown();
+				executor = null;
+				ownExecutor = false;
+			}
+		}
+		
 		keyspace = null;
+		cluster = null;
+		tokenFactory = null;
+	}
+	
+	<T> T execute(Operation<T> operation)
+	{
+		return ((ExecutingKeyspace) keyspace).doExecuteOperation(operation).get();
+	}
+	
+	List<CassandraTokenRange> describeRing()
+	{
+		List<CassandraTokenRange> result = new ArrayList<CassandraTokenRange>();
+		for (TokenRange range : cluster.describeRing(name))
+			result.add(new CassandraTokenRange(range.getStart_token(), range.getEnd_token()));
+		return result;
+	}
+	
+	synchronized TokenFactory getTokenFactory()
+	{
+		if (tokenFactory == null)
+			tokenFactory = TokenFactory.forPartitioner(cluster.describePartitioner());
+		
+		return tokenFactory;
 	}
 	
 	private void syncSchema(Cluster cluster)
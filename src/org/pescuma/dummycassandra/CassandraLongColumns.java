@@ -0,0 +1,125 @@
+package org.pescuma.dummycassandra;
+
+import java.util.Arrays;
+
+public class CassandraLongColumns
+{
+	private final long[] longNames;
+	private final Object[] names;
+	private final boolean intNames;
+	private final long[] values;
+	private final int size;
+	
+	CassandraLongColumns(long[] longNames, Object[] names, boolean intNames, long[] values, int size)
+	{
+		this.longNames = longNames;
+		this.names = names;
+		this.intNames = intNames;
+		this.values = values;
+		this.size = size;
+	}
+	
+	public int size()
+	{
+		return size;
+	}
+	
+	public boolean isEmpty()
+	{
+		return size == 0;
+	}
+	
+	public boolean hasLongNames()
+	{
+		return longNames != null;
+	}
+	
+	public Object getName(int index)
+	{
+		checkIndex(index);
+		
+		if (longNames == null)
+			return names[index];
+		else if (intNames)
+			return Integer.valueOf((int) longNames[index]);
+		else
+			return Long.valueOf(longNames[index]);
+	}
+	
+	public long getLongName(int index)
+	{
+		checkIndex(index);
+		
+		if (longNames == null)
+			throw new IllegalStateException("The column names are not Long or Integer");
+		
+		return longNames[index];
+	}
+	
+	public long getValue(int index)
+	{
+		checkIndex(index);
+		return values[index];
+	}
+	
+	private void checkIndex(int index)
+	{
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+	}
+	
+	public int indexOf(long name)
+	{
+		if (longNames == null)
+			throw new IllegalStateException("The column names are not Long or Integer");
+		
+		int index = Arrays.binarySearch(longNames, 0, size, name);
+		return (index >= 0 ? index : -1);
+	}
+	
+	static class Builder
+	{
+		private long[] longNames;
+		private Object[] names;
+		private final boolean intNames;
+		private long[] values;
+		private int size;
+		
+		Builder(int initialCapacity, CassandraType columnKeyType)
+		{
+			int capacity = Math.max(initialCapacity, 1);
+			
+			intNames = (columnKeyType == CassandraType.Integer);
+			if (intNames || columnKeyType == CassandraType.Long)
+				longNames = new long[capacity];
+			else
+				names = new Object[capacity];
+			values = new long[capacity];
+		}
+		
+		void add(Object name, Number value)
+		{
+			if (size == values.length)
+			{
+				int capacity = values.length * 2;
+				if (longNames != null)
+					longNames = Arrays.copyOf(longNames, capacity);
+				else
+					names = Arrays.copyOf(names, capacity);
+				values = Arrays.copyOf(values, capacity);
+			}
+			
+			if (longNames != null)
+				longNames[size] = ((Number) name).longValue();
+			else
+				names[size] = name;
+			values[size] = value.longValue();
+			size++;
+		}
+		
+		CassandraLongColumns build()
+		{
+			return new CassandraLongColumns(longNames, names, intNames, values, size);
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package org.pescuma.dummycassandra;
+
+import java.nio.ByteBuffer;
+
+public class CassandraMutation
+{
+	public static enum Type
+	{
+		Insert, InsertRaw, Increment, Delete
+	}
+	
+	private final HectorColumnFamilyFacade hector;
+	private final Type type;
+	private final Object rowKey;
+	private final Object superColumnKey;
+	private final Object column;
+	private final Object value;
+	private final long clock;
+	
+	CassandraMutation(HectorColumnFamilyFacade hector, Type type, Object rowKey, Object superColumnKey, Object column,
+			Object value)
+	{
+		this.hector = hector;
+		this.type = type;
+		this.rowKey = rowKey;
+		this.superColumnKey = superColumnKey;
+		this.column = column;
+		this.value = value;
+		
+		// Counters have no timestamps. The others keep the order of the writes
+		// even if they are applied in parallel
+		this.clock = (type == Type.Increment ? 0 : hector.createClock());
+	}
+	
+	public String getColumnFamilyName()
+	{
+		return hector.getName();
+	}
+	
+	public Type getType()
+	{
+		return type;
+	}
+	
+	public Object getRowKey()
+	{
+		return rowKey;
+	}
+	
+	public Object getSuperColumnKey()
+	{
+		return superColumnKey;
+	}
+	
+	public Object getColumn()
+	{
+		return column;
+	}
+	
+	public Object getValue()
+	{
+		return value;
+	}
+	
+	void addTo(CassandraBatch batch)
+	{
+		switch (type)
+		{
+			case Insert:
+				if (superColumnKey == null)
+					batch.insertColumn(hector, rowKey, column, value, clock);
+				else
+					batch.insertColumn(hector, rowKey, superColumnKey, column, value, clock);
+				break;
+				
+			case InsertRaw:
+				batch.insertRawColumn(hector, rowKey, (ByteBuffer) column, (ByteBuffer) value, clock);
+				break;
+				
+			case Increment:
+				if (superColumnKey == null)
+					batch.incrementCounter(hector, rowKey, column, (Long) value);
+				else
+					batch.incrementCounter(hector, rowKey, superColumnKey, column, (Long) value);
+				break;
+				
+			case Delete:
+				if (superColumnKey == null)
+					batch.deleteColumn(hector, rowKey, column, clock);
+				else
+					batch.deleteColumn(hector, rowKey, superColumnKey, column, clock);
+				break;
+				
+			default:
+				throw new CassandraException("Something was not implemented (invalid type: " + type + ")");
+		}
+	}
+	
+	@Override
+	public String toString()
+	{
+		StringBuilder result = new StringBuilder();
+		result.append(type).append(" ").append(getColumnFamilyName()).append("[").append(rowKey).append("]");
+		if (superColumnKey != null)
+			result.append("[").append(superColumnKey).append("]");
+		result.append("[").append(column).append("]");
+		if (value != null)
+			result.append(" = ").append(value);
+		return result.toString();
+	}
+}
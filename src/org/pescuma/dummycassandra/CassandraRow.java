@@ -1,5 +1,7 @@
 package org.pescuma.dummycassandra;
 
+import java.nio.ByteBuffer;
+import java.util.Collection;
 import java.util.Map;
 
 @SuppressWarnings("unchecked")
@@ -19,7 +21,15 @@ public class CassandraRow
 		if (hector.getValueType() != CassandraType.Counter)
 			throw new IllegalStateException("You can only call incrementCounter on a Counter column");
 		
-		hector.mutator().insertCounter(rowKey, hector.getName(), hector.createCounterColumn(column, toAdd));
+		hector.incrementCounter(rowKey, column, toAdd);
+	}
+	
+	public void incrementCounter(CassandraBatch batch, Object column, long toAdd)
+	{
+		if (hector.getValueType() != CassandraType.Counter)
+			throw new IllegalStateException("You can only call incrementCounter on a Counter column");
+		
+		batch.incrementCounter(hector, rowKey, column, toAdd);
 	}
 	
 	public void insertColumn(Object column, Object value)
@@ -27,12 +37,38 @@ public class CassandraRow
 		if (hector.getValueType() == CassandraType.Counter)
 			throw new IllegalStateException("You can't call incrementCounter on a Counter column");
 		
-		hector.mutator().insert(rowKey, hector.getName(), hector.createColumn(column, value));
+		hector.insertColumn(rowKey, column, value);
+	}
+	
+	public void insertColumn(CassandraBatch batch, Object column, Object value)
+	{
+		if (hector.getValueType() == CassandraType.Counter)
+			throw new IllegalStateException("You can't call insertColumn on a Counter column");
+		
+		batch.insertColumn(hector, rowKey, column, value);
+	}
+	
+	public void insertRaw(ByteBuffer name, ByteBuffer value)
+	{
+		hector.insertRawColumn(rowKey, name, value);
+	}
+	
+	public void insertRaw(CassandraBatch batch, ByteBuffer name, ByteBuffer value)
+	{
+		if (hector.getValueType() == CassandraType.Counter)
+			throw new IllegalStateException("You can't insert raw values in a Counter column family");
+		
+		batch.insertRawColumn(hector, rowKey, name, value);
 	}
 	
 	public void deleteColumn(Object column)
 	{
-		hector.mutator().delete(rowKey, hector.getName(), column, hector.getColumnSerializer());
+		hector.deleteColumn(rowKey, column);
+	}
+	
+	public void deleteColumn(CassandraBatch batch, Object column)
+	{
+		batch.deleteColumn(hector, rowKey, column);
 	}
 	
 	@SuppressWarnings("rawtypes")
@@ -44,7 +80,44 @@ public class CassandraRow
 	@SuppressWarnings("rawtypes")
 	public Map getColumns(Object startColumnKey, Object endColumnKey)
 	{
-		return hector.getColumnsSlice(rowKey, startColumnKey, endColumnKey);
+		return hector.getColumns(rowKey, startColumnKey, endColumnKey);
+	}
+	
+	public void forEachColumn(Object startColumnKey, Object endColumnKey, CassandraColumnListener listener)
+	{
+		hector.forEachColumn(rowKey, startColumnKey, endColumnKey, listener);
+	}
+	
+	@SuppressWarnings("rawtypes")
+	public Iterable<Map.Entry> iterateColumns(Object startColumnKey, Object endColumnKey)
+	{
+		return hector.iterateColumns(rowKey, startColumnKey, endColumnKey);
+	}
+	
+	public CassandraColumns getOrderedColumns(Object startColumnKey, Object endColumnKey)
+	{
+		return hector.getOrderedColumns(rowKey, startColumnKey, endColumnKey);
+	}
+	
+	public CassandraLongColumns getLongColumns(Object startColumnKey, Object endColumnKey)
+	{
+		return hector.getLongColumns(rowKey, startColumnKey, endColumnKey);
+	}
+	
+	public CassandraColumns getRawColumns()
+	{
+		return hector.getRawColumns(rowKey, null, null);
+	}
+	
+	public CassandraColumns getRawColumns(ByteBuffer startColumnName, ByteBuffer endColumnName)
+	{
+		return hector.getRawColumns(rowKey, startColumnName, endColumnName);
+	}
+	
+	@SuppressWarnings("rawtypes")
+	public Map getColumns(Collection columnKeys)
+	{
+		return hector.getColumnsByName(rowKey, columnKeys);
 	}
 	
 	@SuppressWarnings("rawtypes")
@@ -68,4 +141,9 @@ public class CassandraRow
 	{
 		return hector.countColumns(rowKey);
 	}
+	
+	public int getColumnCount(Object startColumnKey, Object endColumnKey, int max)
+	{
+		return hector.countColumns(rowKey, startColumnKey, endColumnKey, max);
+	}
 }
@@ -0,0 +1,6 @@
+package org.pescuma.dummycassandra;
+
+public interface CassandraRowKeyListener
+{
+	void onRowKey(CassandraTokenRange range, Object rowKey);
+}
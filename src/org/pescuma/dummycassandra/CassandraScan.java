@@ -0,0 +1,57 @@
+package org.pescuma.dummycassandra;
+
+import java.util.Iterator;
+
+import org.apache.cassandra.thrift.KeySlice;
+
+@SuppressWarnings("rawtypes")
+public class CassandraScan implements Iterable
+{
+	private final String columnFamilyName;
+	private final boolean withColumns;
+	private final ParallelRangeScan.MergedIterator rows;
+	private final Iterator iterator;
+	
+	CassandraScan(String columnFamilyName, boolean withColumns, ParallelRangeScan scan,
+			final TransformIterable.Transformation<KeySlice, Object> transform)
+	{
+		this.columnFamilyName = columnFamilyName;
+		this.withColumns = withColumns;
+		this.rows = scan.iterator();
+		this.iterator = new Iterator() {
+			@Override
+			public boolean hasNext()
+			{
+				return rows.hasNext();
+			}
+			
+			@Override
+			public Object next()
+			{
+				return transform.transfor(rows.next());
+			}
+			
+			@Override
+			public void remove()
+			{
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+	
+	@Override
+	public Iterator iterator()
+	{
+		return iterator;
+	}
+	
+	public void close()
+	{
+		rows.close();
+	}
+	
+	public CassandraScanCursor getCursor()
+	{
+		return new CassandraScanCursor(columnFamilyName, withColumns, rows.getPositions());
+	}
+}
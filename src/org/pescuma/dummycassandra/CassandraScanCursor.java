@@ -0,0 +1,143 @@
+package org.pescuma.dummycassandra;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class CassandraScanCursor implements Serializable
+{
+	private static final long serialVersionUID = -6297416180562392386L;
+	
+	private final String columnFamilyName;
+	private final boolean withColumns;
+	private final List<Position> positions;
+	
+	CassandraScanCursor(String columnFamilyName, boolean withColumns, List<Position> positions)
+	{
+		this.columnFamilyName = columnFamilyName;
+		this.withColumns = withColumns;
+		this.positions = Collections.unmodifiableList(new ArrayList<Position>(positions));
+	}
+	
+	public String getColumnFamilyName()
+	{
+		return columnFamilyName;
+	}
+	
+	boolean isWithColumns()
+	{
+		return withColumns;
+	}
+	
+	List<Position> getPositions()
+	{
+		return positions;
+	}
+	
+	public boolean isFinished()
+	{
+		for (Position position : positions)
+			if (!position.done)
+				return false;
+		
+		return true;
+	}
+	
+	public void save(File file)
+	{
+		File tmp = new File(file.getPath() + ".tmp");
+		
+		try
+		{
+			ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(tmp));
+			try
+			{
+				out.writeObject(this);
+			}
+			finally
+			{
+				out.close();
+			}
+		}
+		catch (IOException e)
+		{
+			throw new CassandraException("Error writing scan cursor to " + tmp, e);
+		}
+		
+		// Windows does not rename over an existing file
+		if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file)))
+			throw new CassandraException("Error renaming " + tmp + " to " + file);
+	}
+	
+	public static CassandraScanCursor load(File file)
+	{
+		try
+		{
+			ObjectInputStream in = new ObjectInputStream(new FileInputStream(file));
+			try
+			{
+				return (CassandraScanCursor) in.readObject();
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		catch (IOException e)
+		{
+			throw new CassandraException("Error reading scan cursor from " + file, e);
+		}
+		catch (ClassNotFoundException e)
+		{
+			throw new CassandraException("Error reading scan cursor from " + file, e);
+		}
+	}
+	
+	static List<Position> startOf(List<CassandraTokenRange> ranges)
+	{
+		List<Position> result = new ArrayList<Position>(ranges.size());
+		for (CassandraTokenRange range : ranges)
+			result.add(new Position(range, null, false));
+		return result;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "CassandraScanCursor[" + columnFamilyName + " " + positions + "]";
+	}
+	
+	static class Position implements Serializable
+	{
+		private static final long serialVersionUID = 2146470513869372719L;
+		
+		final CassandraTokenRange range;
+		final String lastToken;
+		final boolean done;
+		
+		Position(CassandraTokenRange range, String lastToken, boolean done)
+		{
+			this.range = range;
+			this.lastToken = lastToken;
+			this.done = done;
+		}
+		
+		@Override
+		public String toString()
+		{
+			if (done)
+				return range + " done";
+			else if (lastToken == null)
+				return range + " not started";
+			else
+				return range + " after " + lastToken;
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package org.pescuma.dummycassandra;
 
+import java.util.Collection;
 import java.util.Map;
 
 @SuppressWarnings("unchecked")
@@ -21,8 +22,15 @@ public class CassandraSuperColumn
 		if (hector.getValueType() != CassandraType.Counter)
 			throw new IllegalStateException("You can only call incrementCounter on a Counter column");
 		
-		hector.mutator().insertCounter(rowKey, hector.getName(),
-				hector.createSuperCounterColumn(superColumnKey, column, toAdd));
+		hector.incrementCounter(rowKey, superColumnKey, column, toAdd);
+	}
+	
+	public void incrementCounter(CassandraBatch batch, Object column, long toAdd)
+	{
+		if (hector.getValueType() != CassandraType.Counter)
+			throw new IllegalStateException("You can only call incrementCounter on a Counter column");
+		
+		batch.incrementCounter(hector, rowKey, superColumnKey, column, toAdd);
 	}
 	
 	public void insertColumn(Object column, Object value)
@@ -30,7 +38,15 @@ public class CassandraSuperColumn
 		if (hector.getValueType() == CassandraType.Counter)
 			throw new IllegalStateException("You can't call incrementCounter on a Counter column");
 		
-		hector.mutator().insert(rowKey, hector.getName(), hector.createSuperColumn(superColumnKey, column, value));
+		hector.insertColumn(rowKey, superColumnKey, column, value);
+	}
+	
+	public void insertColumn(CassandraBatch batch, Object column, Object value)
+	{
+		if (hector.getValueType() == CassandraType.Counter)
+			throw new IllegalStateException("You can't call insertColumn on a Counter column");
+		
+		batch.insertColumn(hector, rowKey, superColumnKey, column, value);
 	}
 	
 	public void deleteColumn(Object column)
@@ -38,7 +54,15 @@ public class CassandraSuperColumn
 		if (hector.getValueType() == CassandraType.Counter)
 			throw new IllegalStateException("You can't delete a Counter column");
 		
-		hector.mutator().delete(rowKey, hector.getName(), column, hector.getColumnSerializer());
+		hector.deleteColumn(rowKey, superColumnKey, column);
+	}
+	
+	public void deleteColumn(CassandraBatch batch, Object column)
+	{
+		if (hector.getValueType() == CassandraType.Counter)
+			throw new IllegalStateException("You can't delete a Counter column");
+		
+		batch.deleteColumn(hector, rowKey, superColumnKey, column);
 	}
 	
 	@SuppressWarnings("rawtypes")
@@ -53,6 +77,33 @@ public class CassandraSuperColumn
 		return hector.getSubColumnsSlice(rowKey, superColumnKey, startColumnKey, endColumnKey);
 	}
 	
+	public void forEachColumn(Object startColumnKey, Object endColumnKey, CassandraColumnListener listener)
+	{
+		hector.forEachSubColumn(rowKey, superColumnKey, startColumnKey, endColumnKey, listener);
+	}
+	
+	@SuppressWarnings("rawtypes")
+	public Iterable<Map.Entry> iterateColumns(Object startColumnKey, Object endColumnKey)
+	{
+		return hector.iterateSubColumns(rowKey, superColumnKey, startColumnKey, endColumnKey);
+	}
+	
+	public CassandraColumns getOrderedColumns(Object startColumnKey, Object endColumnKey)
+	{
+		return hector.getOrderedSubColumns(rowKey, superColumnKey, startColumnKey, endColumnKey);
+	}
+	
+	public CassandraLongColumns getLongColumns(Object startColumnKey, Object endColumnKey)
+	{
+		return hector.getLongSubColumns(rowKey, superColumnKey, startColumnKey, endColumnKey);
+	}
+	
+	@SuppressWarnings("rawtypes")
+	public Map getColumns(Collection columnKeys)
+	{
+		return hector.getSubColumnsByName(rowKey, superColumnKey, columnKeys);
+	}
+	
 	@SuppressWarnings("rawtypes")
 	public Iterable getColumnNames()
 	{
@@ -74,4 +125,9 @@ public class CassandraSuperColumn
 	{
 		return hector.countSubColumns(rowKey, superColumnKey);
 	}
+	
+	public int getColumnCount(Object startColumnKey, Object endColumnKey, int max)
+	{
+		return hector.countSubColumns(rowKey, superColumnKey, startColumnKey, endColumnKey, max);
+	}
 }
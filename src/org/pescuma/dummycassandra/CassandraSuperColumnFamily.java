@@ -1,5 +1,7 @@
 package org.pescuma.dummycassandra;
 
+import java.util.List;
+
 import me.prettyprint.hector.api.ddl.ColumnFamilyDefinition;
 
 public class CassandraSuperColumnFamily
@@ -48,16 +50,73 @@ public class CassandraSuperColumnFamily
 		hector.setReplicateOnWrite(getReplicateOnWrite());
 	}
 	
-	int getPageSize()
+	public void enableWriteBehind(CassandraWriteFailureListener listener)
+	{
+		enableWriteBehind(WriteBehindBuffer.DEFAULT_QUEUE_SIZE, WriteBehindBuffer.DEFAULT_FLUSHER_THREADS, listener);
+	}
+	
+	public void enableWriteBehind(int queueSize, int flusherThreads, CassandraWriteFailureListener listener)
+	{
+		hector.enableWriteBehind(queueSize, flusherThreads, listener);
+	}
+	
+	public void disableWriteBehind()
+	{
+		hector.disableWriteBehind();
+	}
+	
+	public boolean isWriteBehindEnabled()
+	{
+		return hector.isWriteBehindEnabled();
+	}
+	
+	public void enableCounterCoalescing(CassandraWriteFailureListener listener)
+	{
+		enableCounterCoalescing(CounterCoalescer.DEFAULT_FLUSH_INTERVAL_MS, CounterCoalescer.DEFAULT_MAX_DELTAS,
+				listener);
+	}
+	
+	// The pending increments are only added to getColumn of a super column
+	public void enableCounterCoalescing(long flushIntervalMs, int maxDeltas, CassandraWriteFailureListener listener)
+	{
+		hector.enableCounterCoalescing(flushIntervalMs, maxDeltas, listener);
+	}
+	
+	public void disableCounterCoalescing()
+	{
+		hector.disableCounterCoalescing();
+	}
+	
+	public boolean isCounterCoalescingEnabled()
+	{
+		return hector.isCounterCoalescingEnabled();
+	}
+	
+	public void flush()
+	{
+		hector.flush();
+	}
+	
+	public int getPageSize()
 	{
 		return hector.getPageSize();
 	}
 	
-	void setPageSize(int pageSize)
+	public void setPageSize(int pageSize)
 	{
 		hector.setPageSize(pageSize);
 	}
 	
+	public int getPrefetchPages()
+	{
+		return hector.getPrefetchPages();
+	}
+	
+	public void setPrefetchPages(int prefetchPages)
+	{
+		hector.setPrefetchPages(prefetchPages);
+	}
+	
 	public CassandraSuperRow getRow(Object key)
 	{
 		return new CassandraSuperRow(hector, key);
@@ -69,6 +128,61 @@ public class CassandraSuperColumnFamily
 		return hector.getRowKeys();
 	}
 	
+	public List<CassandraTokenRange> getTokenRanges()
+	{
+		return hector.getTokenRanges(0);
+	}
+	
+	public List<CassandraTokenRange> getTokenRanges(int keysPerSplit)
+	{
+		return hector.getTokenRanges(keysPerSplit);
+	}
+	
+	public CassandraScan scanRowKeys(int parallelism)
+	{
+		return hector.scanRowKeys(getTokenRanges(), parallelism);
+	}
+	
+	public CassandraScan scanRowKeys(List<CassandraTokenRange> ranges, int parallelism)
+	{
+		return hector.scanRowKeys(ranges, parallelism);
+	}
+	
+	public CassandraScan scanRows()
+	{
+		return hector.scanRows(getTokenRanges(), 1);
+	}
+	
+	public CassandraScan scanRows(int parallelism)
+	{
+		return hector.scanRows(getTokenRanges(), parallelism);
+	}
+	
+	public CassandraScan scanRows(List<CassandraTokenRange> ranges, int parallelism)
+	{
+		return hector.scanRows(ranges, parallelism);
+	}
+	
+	public CassandraScan resumeScan(CassandraScanCursor cursor)
+	{
+		return hector.resumeScan(cursor, 1);
+	}
+	
+	public CassandraScan resumeScan(CassandraScanCursor cursor, int parallelism)
+	{
+		return hector.resumeScan(cursor, parallelism);
+	}
+	
+	public void scanRowKeys(int parallelism, CassandraRowKeyListener listener)
+	{
+		hector.scanRowKeys(getTokenRanges(), parallelism, listener);
+	}
+	
+	public void scanRowKeys(List<CassandraTokenRange> ranges, int parallelism, CassandraRowKeyListener listener)
+	{
+		hector.scanRowKeys(ranges, parallelism, listener);
+	}
+	
 	// It don't allow to query for a slice because, depending on the
 	// partitioner, the slice makes no sense.
 	// So I won't implement the slice option here.
@@ -77,4 +191,9 @@ public class CassandraSuperColumnFamily
 	{
 		return hector.createColumnFamilyDefinition();
 	}
+	
+	void flushBeforeShutdown()
+	{
+		hector.flush();
+	}
 }
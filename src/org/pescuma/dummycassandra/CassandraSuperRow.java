@@ -32,4 +32,9 @@ public class CassandraSuperRow
 	{
 		return hector.countSuperColumns(rowKey);
 	}
+	
+	public int getSuperColumnCount(Object startColumnKey, Object endColumnKey, int max)
+	{
+		return hector.countSuperColumns(rowKey, startColumnKey, endColumnKey, max);
+	}
 }
@@ -0,0 +1,108 @@
+package org.pescuma.dummycassandra;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+import me.prettyprint.cassandra.serializers.TimeUUIDSerializer;
+
+import com.eaio.uuid.UUID;
+
+/**
+ * Creates the TimeUUIDs (version 1 UUIDs) used as names of TimeUUID columns.
+ * <p>
+ * next() works as cassandra's UUIDGen, without locks: the last timestamp (in
+ * 100ns intervals) is kept in an AtomicLong and each UUID takes the next one,
+ * or the current time if it is bigger. So they are unique and sorted by
+ * creation in the JVM.
+ * <p>
+ * next(date) can't do that, because the date may be before the last
+ * timestamp. Its UUIDs take the last timestamp of the millisecond and the next
+ * value of a counter in the last 4 bytes of the node, so the UUIDs of a
+ * millisecond are also unique and sorted by creation (until 2^32 of them are
+ * created in the JVM).
+ * <p>
+ * The clock sequence and the rest of the node are random, chosen once per JVM.
+ */
+public class CassandraTimeUUID
+{
+	private static final long UUID_EPOCH_OFFSET = 0x01b21dd213814000L;
+	private static final int SLOTS_PER_MS = 10000;
+	
+	// Variant, random clock sequence and node (with the multicast bit set), then
+	// the counter
+	private static final long CLOCK_SEQ_AND_NODE = 0x8000000000000000L
+			| ((new SecureRandom().nextLong() & 0x3FFFFFFFL) << 32) | 0x010000000000L;
+	
+	// Cassandra compares the UUIDs with the same timestamp by their signed bytes
+	private static final long MIN_CLOCK_SEQ_AND_NODE = 0x8080808080808080L;
+	private static final long MAX_CLOCK_SEQ_AND_NODE = 0x7F7F7F7F7F7F7F7FL;
+	
+	private static final AtomicLong lastTimestamp = new AtomicLong();
+	private static final AtomicLong counter = new AtomicLong();
+	
+	private CassandraTimeUUID()
+	{
+	}
+	
+	public static UUID next()
+	{
+		long now = System.currentTimeMillis() * SLOTS_PER_MS + UUID_EPOCH_OFFSET;
+		
+		while (true)
+		{
+			long last = lastTimestamp.get();
+			long timestamp = Math.max(now, last + 1);
+			if (lastTimestamp.compareAndSet(last, timestamp))
+				return new UUID(toTime(timestamp), withCounter(0));
+		}
+	}
+	
+	public static UUID next(Date date)
+	{
+		return next(date.getTime());
+	}
+	
+	public static UUID next(long millis)
+	{
+		long timestamp = millis * SLOTS_PER_MS + SLOTS_PER_MS - 1 + UUID_EPOCH_OFFSET;
+		return new UUID(toTime(timestamp), withCounter(counter.incrementAndGet()));
+	}
+	
+	// Flips the highest bit of each byte, so bigger counts are bigger as signed
+	// bytes
+	private static long withCounter(long count)
+	{
+		return CLOCK_SEQ_AND_NODE | ((count & 0xFFFFFFFFL) ^ 0x80808080L);
+	}
+	
+	public static UUID min(Date date)
+	{
+		return new UUID(toTime(date.getTime(), 0), MIN_CLOCK_SEQ_AND_NODE);
+	}
+	
+	public static UUID max(Date date)
+	{
+		return new UUID(toTime(date.getTime(), SLOTS_PER_MS - 1), MAX_CLOCK_SEQ_AND_NODE);
+	}
+	
+	public static long getMillis(UUID uuid)
+	{
+		ByteBuffer bytes = TimeUUIDSerializer.get().toByteBuffer(uuid);
+		long time = bytes.getLong(bytes.position());
+		long timestamp = ((time & 0x0FFFL) << 48) | (((time >>> 16) & 0xFFFFL) << 32) | (time >>> 32);
+		return (timestamp - UUID_EPOCH_OFFSET) / SLOTS_PER_MS;
+	}
+	
+	static long toTime(long millis, int slot)
+	{
+		return toTime(millis * SLOTS_PER_MS + slot + UUID_EPOCH_OFFSET);
+	}
+	
+	private static long toTime(long timestamp)
+	{
+		return (timestamp << 32) | ((timestamp & 0xFFFF00000000L) >>> 16) | 0x1000L
+				| ((timestamp >>> 48) & 0x0FFFL);
+	}
+}
@@ -0,0 +1,54 @@
+package org.pescuma.dummycassandra;
+
+import java.io.Serializable;
+
+public class CassandraTokenRange implements Serializable
+{
+	private static final long serialVersionUID = 4386125082341739214L;
+	
+	private final String startToken;
+	private final String endToken;
+	
+	CassandraTokenRange(String startToken, String endToken)
+	{
+		if (startToken == null || endToken == null)
+			throw new IllegalArgumentException("Tokens can't be null");
+		
+		this.startToken = startToken;
+		this.endToken = endToken;
+	}
+	
+	public String getStartToken()
+	{
+		return startToken;
+	}
+	
+	public String getEndToken()
+	{
+		return endToken;
+	}
+	
+	@Override
+	public int hashCode()
+	{
+		return 31 * startToken.hashCode() + endToken.hashCode();
+	}
+	
+	@Override
+	public boolean equals(Object obj)
+	{
+		if (this == obj)
+			return true;
+		if (!(obj instanceof CassandraTokenRange))
+			return false;
+		
+		CassandraTokenRange other = (CassandraTokenRange) obj;
+		return startToken.equals(other.startToken) && endToken.equals(other.endToken);
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "(" + startToken + ", " + endToken + "]";
+	}
+}
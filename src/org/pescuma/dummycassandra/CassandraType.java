@@ -1,6 +1,8 @@
 package org.pescuma.dummycassandra;
 
+// Dates in TimeUUID columns are always the same UUID. Use
+// CassandraTimeUUID.next(Date) to get columns that don't overwrite each other
 public enum CassandraType
 {
-	UTF8, Integer, Long, TimeUUID, UUID, Counter
+	UTF8, Integer, Long, TimeUUID, UUID, Counter, Bytes, Double, Boolean, Date, Composite
 }
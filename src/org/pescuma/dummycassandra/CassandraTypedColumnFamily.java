@@ -0,0 +1,133 @@
+package org.pescuma.dummycassandra;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+import java.util.UUID;
+
+import me.prettyprint.hector.api.beans.Composite;
+
+@SuppressWarnings("unchecked")
+public class CassandraTypedColumnFamily<K, N, V>
+{
+	private final HectorColumnFamilyFacade hector;
+	
+	CassandraTypedColumnFamily(HectorColumnFamilyFacade hector, Class<K> rowKeyClass, Class<N> columnKeyClass,
+			Class<V> valueClass)
+	{
+		checkType("row key", hector.getRowKeyType(), rowKeyClass);
+		checkType("column key", hector.getColumnKeyType(), columnKeyClass);
+		checkType("value", hector.getValueType(), valueClass);
+		
+		this.hector = hector;
+	}
+	
+	private static void checkType(String what, CassandraType type, Class<?> cls)
+	{
+		if (cls != javaClassOf(type))
+			throw new IllegalArgumentException("Invalid class for " + what + " of type " + type + ": "
+					+ cls.getName());
+	}
+	
+	static Class<?> javaClassOf(CassandraType type)
+	{
+		switch (type)
+		{
+			case UTF8:
+				return String.class;
+			case Integer:
+				return Integer.class;
+			case Long:
+			case Counter:
+				return Long.class;
+			case TimeUUID:
+				return com.eaio.uuid.UUID.class;
+			case UUID:
+				return UUID.class;
+			case Bytes:
+				return ByteBuffer.class;
+			case Double:
+				return Double.class;
+			case Boolean:
+				return Boolean.class;
+			case Date:
+				return Date.class;
+			case Composite:
+				return Composite.class;
+			default:
+				throw new CassandraException("Something was not implemented (invalid type: " + type + ")");
+		}
+	}
+	
+	public String getName()
+	{
+		return hector.getName();
+	}
+	
+	public V get(K rowKey, N columnKey)
+	{
+		return (V) hector.getValue(rowKey, columnKey);
+	}
+	
+	public void insert(K rowKey, N columnKey, V value)
+	{
+		if (hector.getValueType() == CassandraType.Counter)
+			throw new IllegalStateException("You can't call insert on a Counter column");
+		
+		hector.insertColumn(rowKey, columnKey, value);
+	}
+	
+	public void insert(CassandraBatch batch, K rowKey, N columnKey, V value)
+	{
+		if (hector.getValueType() == CassandraType.Counter)
+			throw new IllegalStateException("You can't call insert on a Counter column");
+		
+		batch.insertColumn(hector, rowKey, columnKey, value);
+	}
+	
+	public void delete(K rowKey, N columnKey)
+	{
+		hector.deleteColumn(rowKey, columnKey);
+	}
+	
+	public void delete(CassandraBatch batch, K rowKey, N columnKey)
+	{
+		batch.deleteColumn(hector, rowKey, columnKey);
+	}
+	
+	public Map<N, V> getColumns(K rowKey)
+	{
+		return hector.getColumns(rowKey);
+	}
+	
+	public Map<N, V> getColumns(K rowKey, N startColumnKey, N endColumnKey)
+	{
+		return hector.getColumns(rowKey, startColumnKey, endColumnKey);
+	}
+	
+	public Map<N, V> getColumns(K rowKey, Collection<N> columnKeys)
+	{
+		return hector.getColumnsByName(rowKey, columnKeys);
+	}
+	
+	public Iterable<N> getColumnNames(K rowKey)
+	{
+		return hector.getColumnKeys(rowKey);
+	}
+	
+	public Iterable<N> getColumnNames(K rowKey, N startColumnKey, N endColumnKey)
+	{
+		return hector.getColumnKeysSlice(rowKey, startColumnKey, endColumnKey);
+	}
+	
+	public int getColumnCount(K rowKey)
+	{
+		return hector.countColumns(rowKey);
+	}
+	
+	public Iterable<K> getRowKeys()
+	{
+		return hector.getRowKeys();
+	}
+}
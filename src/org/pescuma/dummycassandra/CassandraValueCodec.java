@@ -0,0 +1,12 @@
+package org.pescuma.dummycassandra;
+
+import java.nio.ByteBuffer;
+
+public interface CassandraValueCodec
+{
+	byte getId();
+	
+	ByteBuffer encode(ByteBuffer value);
+	
+	ByteBuffer decode(ByteBuffer encoded);
+}
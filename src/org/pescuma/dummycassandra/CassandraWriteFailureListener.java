@@ -0,0 +1,8 @@
+package org.pescuma.dummycassandra;
+
+import java.util.List;
+
+public interface CassandraWriteFailureListener
+{
+	void onWriteFailure(List<CassandraMutation> mutations, RuntimeException error);
+}
@@ -0,0 +1,57 @@
+package org.pescuma.dummycassandra;
+
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+import java.util.Iterator;
+
+import org.apache.cassandra.thrift.CfDef;
+
+/**
+ * The data of one column family in a local backend.
+ * <p>
+ * Rows are sorted by their keys (as in the ByteOrderedPartitioner) and columns
+ * by the comparator of the column family. The thrift semantics (predicates,
+ * counts, super columns in the results) are handled by LocalCassandraClient,
+ * so a store only has to keep the columns sorted.
+ * <p>
+ * The buffers passed to a store may be kept by it, and the ones it returns
+ * must not be changed.
+ */
+abstract class ColumnFamilyStore
+{
+	final String name;
+	final boolean superColumnFamily;
+	final boolean counters;
+	final Comparator<ByteBuffer> comparator;
+	final Comparator<ByteBuffer> subComparator;
+	
+	ColumnFamilyStore(CfDef def)
+	{
+		name = def.getName();
+		superColumnFamily = "Super".equalsIgnoreCase(def.getColumn_type());
+		counters = def.getDefault_validation_class() != null
+				&& def.getDefault_validation_class().endsWith("CounterColumnType");
+		comparator = LocalComparators.forType(def.getComparator_type());
+		subComparator = (superColumnFamily ? LocalComparators.forType(def.getSubcomparator_type()) : null);
+	}
+	
+	abstract Iterator<ByteBuffer> rowKeys(ByteBuffer startKey);
+	
+	abstract Iterator<LocalColumn> columns(ByteBuffer key, ByteBuffer superColumn, ByteBuffer start, boolean reversed);
+	
+	abstract Iterator<ByteBuffer> superColumnNames(ByteBuffer key, ByteBuffer start, boolean reversed);
+	
+	abstract LocalColumn getColumn(ByteBuffer key, ByteBuffer superColumn, ByteBuffer name);
+	
+	abstract void insert(ByteBuffer key, ByteBuffer superColumn, LocalColumn column);
+	
+	abstract void add(ByteBuffer key, ByteBuffer superColumn, ByteBuffer name, long delta);
+	
+	abstract void remove(ByteBuffer key, ByteBuffer superColumn, ByteBuffer name, long timestamp);
+	
+	abstract void truncate();
+	
+	void drop()
+	{
+	}
+}
@@ -0,0 +1,28 @@
+package org.pescuma.dummycassandra;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import me.prettyprint.cassandra.serializers.CompositeSerializer;
+import me.prettyprint.hector.api.Serializer;
+import me.prettyprint.hector.api.beans.Composite;
+
+class CompositeNameSerializer extends CompositeSerializer
+{
+	private final List<Serializer<?>> componentSerializers;
+	
+	CompositeNameSerializer(Serializer<?>... componentSerializers)
+	{
+		this.componentSerializers = Arrays.asList(componentSerializers);
+	}
+	
+	@Override
+	public Composite fromByteBuffer(ByteBuffer bytes)
+	{
+		Composite result = new Composite();
+		result.setSerializersByPosition(componentSerializers);
+		result.deserialize(bytes.duplicate());
+		return result;
+	}
+}
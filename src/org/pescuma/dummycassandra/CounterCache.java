@@ -0,0 +1,159 @@
+package org.pescuma.dummycassandra;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A client-side cache of the values of counters, read from cassandra at most
+ * once each maxStalenessMs. The increments not sent to cassandra yet (by the
+ * CounterCoalescer) are added to the cached value when it is read.
+ * <p>
+ * The counters are grouped by row, in LRU order: when the cache has more than
+ * maxEntries counters, the least recently used rows are dropped. Writing a row
+ * drops all its counters, and a value read while the row was being written is
+ * not added (see {@link #getWriteStamp()}).
+ */
+class CounterCache
+{
+	static final Object ABSENT = new Object();
+	
+	private final long maxStalenessMs;
+	private final int maxEntries;
+	
+	private final LinkedHashMap<Object, Map<Object, Entry>> rows = new LinkedHashMap<Object, Map<Object, Entry>>(16,
+			0.75f, true);
+	private int size;
+	private long bytes;
+	private long writeStamp;
+	
+	private long hits;
+	private long misses;
+	private long evictions;
+	
+	CounterCache(long maxStalenessMs, int maxEntries)
+	{
+		if (maxStalenessMs < 1)
+			throw new IllegalArgumentException("maxStalenessMs must be >= 1");
+		if (maxEntries < 1)
+			throw new IllegalArgumentException("maxEntries must be >= 1");
+		
+		this.maxStalenessMs = maxStalenessMs;
+		this.maxEntries = maxEntries;
+	}
+	
+	synchronized Object get(Object rowKey, Object columnKey)
+	{
+		Map<Object, Entry> columns = rows.get(rowKey);
+		Entry entry = (columns != null ? columns.get(columnKey) : null);
+		
+		if (entry != null && System.currentTimeMillis() - entry.loadedAt > maxStalenessMs)
+		{
+			columns.remove(columnKey);
+			removed(columnKey);
+			if (columns.isEmpty())
+			{
+				rows.remove(rowKey);
+				bytes -= sizeOfRow(rowKey);
+			}
+			evictions++;
+			entry = null;
+		}
+		
+		if (entry == null)
+		{
+			misses++;
+			return null;
+		}
+		
+		hits++;
+		return entry.value;
+	}
+	
+	synchronized long getWriteStamp()
+	{
+		return writeStamp;
+	}
+	
+	synchronized void put(Object rowKey, Object columnKey, Long value, long stamp)
+	{
+		if (stamp != writeStamp)
+			return;
+		
+		Map<Object, Entry> columns = rows.get(rowKey);
+		if (columns == null)
+		{
+			columns = new HashMap<Object, Entry>();
+			rows.put(rowKey, columns);
+			bytes += sizeOfRow(rowKey);
+		}
+		
+		Entry entry = new Entry(value != null ? value : ABSENT, System.currentTimeMillis());
+		if (columns.put(columnKey, entry) == null)
+		{
+			size++;
+			bytes += sizeOf(columnKey);
+		}
+		
+		Iterator<Map.Entry<Object, Map<Object, Entry>>> it = rows.entrySet().iterator();
+		while (size > maxEntries && it.hasNext())
+		{
+			Map.Entry<Object, Map<Object, Entry>> eldest = it.next();
+			it.remove();
+			bytes -= sizeOfRow(eldest.getKey());
+			for (Object evicted : eldest.getValue().keySet())
+			{
+				removed(evicted);
+				evictions++;
+			}
+		}
+	}
+	
+	synchronized void invalidate(Object rowKey)
+	{
+		writeStamp++;
+		
+		Map<Object, Entry> columns = rows.remove(rowKey);
+		if (columns == null)
+			return;
+		
+		bytes -= sizeOfRow(rowKey);
+		for (Object columnKey : columns.keySet())
+			removed(columnKey);
+	}
+	
+	private void removed(Object columnKey)
+	{
+		size--;
+		bytes -= sizeOf(columnKey);
+	}
+	
+	private static long sizeOfRow(Object rowKey)
+	{
+		return RowCache.ENTRY_OVERHEAD + RowCache.sizeOf(rowKey);
+	}
+	
+	private static long sizeOf(Object columnKey)
+	{
+		// The entry has the value and the time it was loaded
+		return RowCache.COLUMN_OVERHEAD + RowCache.sizeOf(columnKey) + 32;
+	}
+	
+	synchronized CassandraCacheStats getStats()
+	{
+		return new CassandraCacheStats(hits, misses, evictions, size, bytes);
+	}
+	
+	private static class Entry
+	{
+		final Object value;
+		final long loadedAt;
+		
+		Entry(Object value, long loadedAt)
+		{
+			this.value = value;
+			this.loadedAt = loadedAt;
+		}
+	}
+}
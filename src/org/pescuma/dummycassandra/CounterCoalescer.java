@@ -0,0 +1,361 @@
+package org.pescuma.dummycassandra;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sums the increments of the same counter in memory and sends them to
+ * cassandra as one increment, periodically or when too many increments were
+ * made.
+ * <p>
+ * The sums are kept in a ConcurrentHashMap of AtomicLongs, so adding to a
+ * counter never locks. flush() removes the sums that were not used since the
+ * last flush: an increment that is added to a sum while it is removed moves it
+ * to the new sum of the counter.
+ * <p>
+ * The sums being sent are kept in flushing until they are applied in cassandra
+ * and the caches are invalidated. Moving the sums to flushing, and applying a
+ * batch and removing its sums from flushing, hold the write lock. The reads of
+ * a counter hold the read lock (see lockReads), so they see each increment only
+ * once: in the sums, in flushing or in cassandra.
+ */
+class CounterCoalescer
+{
+	static final long DEFAULT_FLUSH_INTERVAL_MS = 1000;
+	static final int DEFAULT_MAX_DELTAS = 10000;
+	
+	private static final Logger logger = LoggerFactory.getLogger(CounterCoalescer.class);
+	
+	private final HectorColumnFamilyFacade hector;
+	private final int maxDeltas;
+	private final CassandraWriteFailureListener listener;
+	private final ConcurrentMap<CounterKey, AtomicLong> sums = new ConcurrentHashMap<CounterKey, AtomicLong>();
+	// Guarded by lock
+	private final Map<CounterKey, Long> flushing = new HashMap<CounterKey, Long>();
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final AtomicInteger deltas = new AtomicInteger();
+	private final AtomicBoolean flushScheduled = new AtomicBoolean();
+	private final ScheduledExecutorService scheduler;
+	private final Runnable flushTask = new Runnable() {
+		@Override
+		public void run()
+		{
+			flushScheduled.set(false);
+			flush();
+		}
+	};
+	
+	CounterCoalescer(HectorColumnFamilyFacade hector, long flushIntervalMs, int maxDeltas,
+			CassandraWriteFailureListener listener)
+	{
+		if (flushIntervalMs < 1)
+			throw new IllegalArgumentException("flushIntervalMs must be >= 1");
+		if (maxDeltas < 1)
+			throw new IllegalArgumentException("maxDeltas must be >= 1");
+		
+		this.hector = hector;
+		this.maxDeltas = maxDeltas;
+		this.listener = listener;
+		
+		scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("counter-coalescer-"
+				+ hector.getName()));
+		scheduler.scheduleWithFixedDelay(flushTask, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+	}
+	
+	void add(Object rowKey, Object superColumn, Object column, long toAdd)
+	{
+		add(new CounterKey(rowKey, superColumn, column), toAdd);
+		
+		if (deltas.incrementAndGet() >= maxDeltas && flushScheduled.compareAndSet(false, true))
+		{
+			try
+			{
+				scheduler.execute(flushTask);
+			}
+			catch (RejectedExecutionException e)
+			{
+				// Closing: close() does the last flush
+			}
+		}
+	}
+	
+	private void add(CounterKey key, long toAdd)
+	{
+		while (true)
+		{
+			AtomicLong sum = sums.get(key);
+			if (sum == null)
+			{
+				AtomicLong newSum = new AtomicLong();
+				sum = sums.putIfAbsent(key, newSum);
+				if (sum == null)
+					sum = newSum;
+			}
+			
+			sum.addAndGet(toAdd);
+			
+			// If it is still in the map the flusher will see it
+			if (sums.get(key) == sum)
+				return;
+			
+			// The flusher removed it: move what was added to it to a new one
+			toAdd = sum.getAndSet(0);
+			if (toAdd == 0)
+				return;
+		}
+	}
+	
+	// Hold it while reading a counter and adding its pending increments, so no
+	// sum is applied in between
+	void lockReads()
+	{
+		lock.readLock().lock();
+	}
+	
+	void unlockReads()
+	{
+		lock.readLock().unlock();
+	}
+	
+	long getPending(Object rowKey, Object superColumn, Object column)
+	{
+		CounterKey key = new CounterKey(rowKey, superColumn, column);
+		long result = 0;
+		
+		AtomicLong sum = sums.get(key);
+		if (sum != null)
+			result += sum.get();
+		
+		Long sending = flushing.get(key);
+		if (sending != null)
+			result += sending;
+		
+		return result;
+	}
+	
+	Map<Object, Long> getPending(Object rowKey)
+	{
+		Map<Object, Long> result = new HashMap<Object, Long>();
+		
+		for (Map.Entry<CounterKey, AtomicLong> entry : sums.entrySet())
+			if (entry.getKey().rowKey.equals(rowKey))
+				addTo(result, entry.getKey().column, entry.getValue().get());
+		
+		for (Map.Entry<CounterKey, Long> entry : flushing.entrySet())
+			if (entry.getKey().rowKey.equals(rowKey))
+				addTo(result, entry.getKey().column, entry.getValue());
+		
+		return result;
+	}
+	
+	private static void addTo(Map<Object, Long> result, Object column, long toAdd)
+	{
+		Long current = result.get(column);
+		result.put(column, (current != null ? current + toAdd : toAdd));
+	}
+	
+	synchronized void flush()
+	{
+		deltas.set(0);
+		
+		List<CounterKey> keys = takeSums();
+		if (keys.isEmpty())
+			return;
+		
+		CassandraBatch batch = hector.getKeyspace().createBatch();
+		// The ones not applied yet
+		List<CassandraMutation> mutations = new ArrayList<CassandraMutation>();
+		List<CounterKey> sending = new ArrayList<CounterKey>();
+		
+		try
+		{
+			for (CounterKey key : keys)
+			{
+				CassandraMutation mutation = new CassandraMutation(hector, CassandraMutation.Type.Increment,
+						key.rowKey, key.superColumn, key.column, flushing.get(key));
+				mutations.add(mutation);
+				sending.add(key);
+				
+				lock.writeLock().lock();
+				try
+				{
+					mutation.addTo(batch);
+					
+					// The batch auto-executed
+					if (batch.isEmpty())
+						applied(mutations, sending);
+				}
+				finally
+				{
+					lock.writeLock().unlock();
+				}
+			}
+			
+			lock.writeLock().lock();
+			try
+			{
+				batch.execute();
+				applied(mutations, sending);
+			}
+			finally
+			{
+				lock.writeLock().unlock();
+			}
+		}
+		catch (RuntimeException e)
+		{
+			batch.discard();
+			failed(mutations, e);
+		}
+		finally
+		{
+			lock.writeLock().lock();
+			try
+			{
+				flushing.clear();
+			}
+			finally
+			{
+				lock.writeLock().unlock();
+			}
+		}
+	}
+	
+	private List<CounterKey> takeSums()
+	{
+		List<CounterKey> result = new ArrayList<CounterKey>();
+		
+		lock.writeLock().lock();
+		try
+		{
+			for (Map.Entry<CounterKey, AtomicLong> entry : sums.entrySet())
+			{
+				AtomicLong sum = entry.getValue();
+				long toAdd = sum.getAndSet(0);
+				
+				CounterKey key = entry.getKey();
+				
+				if (toAdd == 0)
+				{
+					// Not used since last flush. The increments added to it
+					// before it was removed go to a new sum
+					if (sums.remove(key, sum))
+					{
+						long late = sum.getAndSet(0);
+						if (late != 0)
+							add(key, late);
+					}
+					continue;
+				}
+				
+				flushing.put(key, toAdd);
+				result.add(key);
+			}
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+		
+		return result;
+	}
+	
+	// Called holding the write lock, after the batch was executed
+	private void applied(List<CassandraMutation> mutations, List<CounterKey> sent)
+	{
+		for (CounterKey key : sent)
+			flushing.remove(key);
+		
+		mutations.clear();
+		sent.clear();
+	}
+	
+	void close()
+	{
+		scheduler.shutdown();
+		
+		try
+		{
+			scheduler.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		
+		flush();
+	}
+	
+	private void failed(List<CassandraMutation> mutations, RuntimeException error)
+	{
+		if (listener == null)
+		{
+			logger.error("Error applying " + mutations.size() + " counter increments to " + hector.getName(), error);
+			return;
+		}
+		
+		try
+		{
+			listener.onWriteFailure(mutations, error);
+		}
+		catch (RuntimeException e)
+		{
+			logger.error("Error in write failure listener of " + hector.getName(), e);
+		}
+	}
+	
+	private static class CounterKey
+	{
+		final Object rowKey;
+		final Object superColumn;
+		final Object column;
+		private final int hashCode;
+		
+		CounterKey(Object rowKey, Object superColumn, Object column)
+		{
+			this.rowKey = rowKey;
+			this.superColumn = superColumn;
+			this.column = column;
+			
+			int hash = rowKey.hashCode();
+			hash = 31 * hash + (superColumn == null ? 0 : superColumn.hashCode());
+			hash = 31 * hash + column.hashCode();
+			this.hashCode = hash;
+		}
+		
+		@Override
+		public int hashCode()
+		{
+			return hashCode;
+		}
+		
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (this == obj)
+				return true;
+			if (!(obj instanceof CounterKey))
+				return false;
+			
+			CounterKey other = (CounterKey) obj;
+			return hashCode == other.hashCode && rowKey.equals(other.rowKey) && column.equals(other.column)
+					&& (superColumn == null ? other.superColumn == null : superColumn.equals(other.superColumn));
+		}
+	}
+}
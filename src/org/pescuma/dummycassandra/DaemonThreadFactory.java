@@ -0,0 +1,23 @@
+package org.pescuma.dummycassandra;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class DaemonThreadFactory implements ThreadFactory
+{
+	private final String name;
+	private final AtomicInteger count = new AtomicInteger();
+	
+	DaemonThreadFactory(String name)
+	{
+		this.name = name;
+	}
+	
+	@Override
+	public Thread newThread(Runnable r)
+	{
+		Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	}
+}
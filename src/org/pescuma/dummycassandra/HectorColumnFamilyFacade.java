@@ -1,18 +1,35 @@
 package org.pescuma.dummycassandra;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
 
+import me.prettyprint.cassandra.model.thrift.ThriftConverter;
 import me.prettyprint.cassandra.serializers.AbstractSerializer;
+import me.prettyprint.cassandra.serializers.BooleanSerializer;
+import me.prettyprint.cassandra.serializers.ByteBufferSerializer;
+import me.prettyprint.cassandra.serializers.DateSerializer;
+import me.prettyprint.cassandra.serializers.DoubleSerializer;
 import me.prettyprint.cassandra.serializers.IntegerSerializer;
 import me.prettyprint.cassandra.serializers.LongSerializer;
 import me.prettyprint.cassandra.serializers.StringSerializer;
 import me.prettyprint.cassandra.serializers.TimeUUIDSerializer;
 import me.prettyprint.cassandra.serializers.UUIDSerializer;
+import me.prettyprint.cassandra.service.Operation;
+import me.prettyprint.cassandra.service.OperationType;
 import me.prettyprint.cassandra.service.SliceIterator;
 import me.prettyprint.cassandra.service.KeyIterator;
 import me.prettyprint.cassandra.service.KeyIteratorForCounterColumn;
@@ -23,30 +40,43 @@ import me.prettyprint.cassandra.service.SliceCounterIterator;
 import me.prettyprint.cassandra.service.SubSliceCounterIterator;
 import me.prettyprint.cassandra.service.SubSliceIterator;
 import me.prettyprint.cassandra.service.SuperSliceIterator;
+import me.prettyprint.hector.api.Keyspace;
+import me.prettyprint.hector.api.Serializer;
 import me.prettyprint.hector.api.beans.ColumnSlice;
+import me.prettyprint.hector.api.beans.CounterRow;
+import me.prettyprint.hector.api.beans.CounterRows;
 import me.prettyprint.hector.api.beans.CounterSlice;
 import me.prettyprint.hector.api.beans.HColumn;
 import me.prettyprint.hector.api.beans.HCounterColumn;
 import me.prettyprint.hector.api.beans.HCounterSuperColumn;
 import me.prettyprint.hector.api.beans.HSuperColumn;
+import me.prettyprint.hector.api.beans.Row;
+import me.prettyprint.hector.api.beans.Rows;
 import me.prettyprint.hector.api.ddl.ColumnFamilyDefinition;
 import me.prettyprint.hector.api.ddl.ColumnType;
 import me.prettyprint.hector.api.ddl.ComparatorType;
 import me.prettyprint.hector.api.factory.HFactory;
 import me.prettyprint.hector.api.mutation.Mutator;
-import me.prettyprint.hector.api.query.ColumnQuery;
-import me.prettyprint.hector.api.query.CountQuery;
-import me.prettyprint.hector.api.query.CounterQuery;
+import me.prettyprint.hector.api.query.MultigetSliceCounterQuery;
+import me.prettyprint.hector.api.query.MultigetSliceQuery;
 import me.prettyprint.hector.api.query.MultigetSuperSliceCounterQuery;
 import me.prettyprint.hector.api.query.QueryResult;
 import me.prettyprint.hector.api.query.SliceCounterQuery;
 import me.prettyprint.hector.api.query.SliceQuery;
-import me.prettyprint.hector.api.query.SubCountQuery;
 import me.prettyprint.hector.api.query.SubSliceCounterQuery;
 import me.prettyprint.hector.api.query.SubSliceQuery;
-import me.prettyprint.hector.api.query.SuperCountQuery;
 import me.prettyprint.hector.api.query.SuperSliceQuery;
 
+import org.apache.cassandra.thrift.Cassandra;
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.ColumnOrSuperColumn;
+import org.apache.cassandra.thrift.ColumnParent;
+import org.apache.cassandra.thrift.ColumnPath;
+import org.apache.cassandra.thrift.CounterColumn;
+import org.apache.cassandra.thrift.CounterSuperColumn;
+import org.apache.cassandra.thrift.KeySlice;
+import org.apache.cassandra.thrift.NotFoundException;
+import org.apache.cassandra.thrift.SuperColumn;
 import org.joda.time.DateTime;
 
 import com.eaio.uuid.UUID;
@@ -54,27 +84,119 @@ import com.eaio.uuid.UUID;
 @SuppressWarnings({ "unchecked", "rawtypes" })
 class HectorColumnFamilyFacade
 {
+	private static final int KEYS_PER_PAGE = 500;
+	private static final int ROWS_PER_PAGE = 100;
+	private static final int MAX_INITIAL_CAPACITY = 128;
+	private static final int MAX_COUNT_PAGE_SIZE = 1000;
+	
+	private static final String DOUBLE_TYPE = "org.apache.cassandra.db.marshal.DoubleType";
+	private static final String BOOLEAN_TYPE = "org.apache.cassandra.db.marshal.BooleanType";
+	private static final String DATE_TYPE = "org.apache.cassandra.db.marshal.DateType";
+	
+	private static final TransformIterable.Transformation<HColumn, Map.Entry> COLUMN_TO_ENTRY = //
+	new TransformIterable.Transformation<HColumn, Map.Entry>() {
+		@Override
+		public Map.Entry transfor(HColumn col)
+		{
+			return new AbstractMap.SimpleImmutableEntry(col.getName(), col.getValue());
+		}
+	};
+	private static final TransformIterable.Transformation<HCounterColumn, Map.Entry> COUNTER_TO_ENTRY = //
+	new TransformIterable.Transformation<HCounterColumn, Map.Entry>() {
+		@Override
+		public Map.Entry transfor(HCounterColumn col)
+		{
+			return new AbstractMap.SimpleImmutableEntry(col.getName(), col.getValue());
+		}
+	};
+	
 	private final CassandraKeyspace keyspace;
 	private final String name;
 	private final CassandraType rowKeyType;
 	private final CassandraType columnKeyType;
+	private final CassandraType[] columnKeyComponents;
 	private final CassandraType subColumnKeyType;
 	private final CassandraType valueType;
+	
+	// Resolved once, they are used by every operation
+	private final AbstractSerializer keySerializer;
+	private final AbstractSerializer columnSerializer;
+	private final AbstractSerializer subColumnSerializer;
+	private final AbstractSerializer valueSerializer;
+	private final ComparatorType columnComparatorType;
+	private final ComparatorType subComparatorType;
+	private final Comparator<Object> columnNameComparator;
+	private final Comparator<Object> subColumnNameComparator;
+	private final Comparator<ByteBuffer> rawColumnNameComparator;
+	// Only TimeUUIDs and Dates have to be converted before being serialized
+	private final boolean convertColumnKeys;
+	private final boolean convertSubColumnKeys;
+	private final boolean convertValues;
+	private final ColumnParent columnParent;
+	
 	private Boolean replicateOnWrite;
 	private int pageSize = 1000;
+	private int prefetchPages = 0;
+	private int multigetBatchSize = 100;
+	private volatile WriteBehindBuffer writeBehind;
+	private volatile CounterCoalescer counterCoalescer;
+	private volatile MappedSnapshot snapshot;
+	private volatile RowCache rowCache;
+	private volatile NegativeCache negativeCache;
+	private volatile CounterCache counterCache;
+	private volatile ValueCodecSerializer valueCodec;
 	
 	HectorColumnFamilyFacade(CassandraKeyspace keyspace, String name, CassandraType rowKeyType,
 			CassandraType columnKeyType, CassandraType subColumnKeyType, CassandraType valueType)
+	{
+		this(keyspace, name, rowKeyType, columnKeyType, null, subColumnKeyType, valueType);
+	}
+	
+	HectorColumnFamilyFacade(CassandraKeyspace keyspace, String name, CassandraType rowKeyType,
+			CassandraType columnKeyType, CassandraType[] columnKeyComponents, CassandraType subColumnKeyType,
+			CassandraType valueType)
 	{
 		if (rowKeyType == CassandraType.Counter || columnKeyType == CassandraType.Counter)
 			throw new IllegalArgumentException("Only value can be of type Counter");
+		if (rowKeyType == CassandraType.Composite || subColumnKeyType == CassandraType.Composite
+				|| valueType == CassandraType.Composite
+				|| (subColumnKeyType != null && columnKeyType == CassandraType.Composite))
+			throw new IllegalArgumentException("Only column keys of standard CFs can be of type Composite");
+		if ((columnKeyType == CassandraType.Composite) != (columnKeyComponents != null))
+			throw new IllegalArgumentException("The types of the components are needed for Composite column keys");
 		
 		this.keyspace = keyspace;
 		this.name = name;
 		this.rowKeyType = rowKeyType;
 		this.columnKeyType = columnKeyType;
+		this.columnKeyComponents = (columnKeyComponents != null ? columnKeyComponents.clone() : null);
 		this.subColumnKeyType = subColumnKeyType;
 		this.valueType = valueType;
+		
+		keySerializer = getSerializer(rowKeyType, null);
+		columnSerializer = getSerializer(columnKeyType, this.columnKeyComponents);
+		subColumnSerializer = (subColumnKeyType != null ? getSerializer(subColumnKeyType, null) : null);
+		valueSerializer = getSerializer(valueType, null);
+		columnComparatorType = getComparatorType(columnKeyType, this.columnKeyComponents);
+		subComparatorType = getComparatorType(subColumnKeyType, null);
+		columnNameComparator = new NameComparator(columnKeyType, columnSerializer, columnComparatorType);
+		rawColumnNameComparator = LocalComparators.forType(columnComparatorType.getClassName());
+		subColumnNameComparator = (subColumnKeyType != null ? new NameComparator(subColumnKeyType,
+				subColumnSerializer, subComparatorType) : null);
+		convertColumnKeys = needsConversion(columnKeyType);
+		convertSubColumnKeys = needsConversion(subColumnKeyType);
+		convertValues = needsConversion(valueType);
+		columnParent = new ColumnParent(name);
+	}
+	
+	private static boolean needsConversion(CassandraType type)
+	{
+		return type == CassandraType.TimeUUID || type == CassandraType.Date;
+	}
+	
+	CassandraKeyspace getKeyspace()
+	{
+		return keyspace;
 	}
 	
 	String getName()
@@ -92,6 +214,11 @@ class HectorColumnFamilyFacade
 		return columnKeyType;
 	}
 	
+	CassandraType[] getColumnKeyComponents()
+	{
+		return (columnKeyComponents != null ? columnKeyComponents.clone() : null);
+	}
+	
 	CassandraType getSubColumnKeyType()
 	{
 		return subColumnKeyType;
@@ -138,6 +265,314 @@ class HectorColumnFamilyFacade
 		this.pageSize = pageSize;
 	}
 	
+	int getPrefetchPages()
+	{
+		return prefetchPages;
+	}
+	
+	void setPrefetchPages(int prefetchPages)
+	{
+		if (prefetchPages < 0)
+			throw new IllegalArgumentException("prefetchPages must be >= 0");
+		
+		this.prefetchPages = prefetchPages;
+	}
+	
+	private Executor getPrefetchExecutor()
+	{
+		if (prefetchPages < 1)
+			return null;
+		
+		return keyspace.getExecutor();
+	}
+	
+	int getMultigetBatchSize()
+	{
+		return multigetBatchSize;
+	}
+	
+	void setMultigetBatchSize(int multigetBatchSize)
+	{
+		if (multigetBatchSize < 1)
+			throw new IllegalArgumentException("multigetBatchSize must be >= 1");
+		
+		this.multigetBatchSize = multigetBatchSize;
+	}
+	
+	boolean isWriteBehindEnabled()
+	{
+		return writeBehind != null;
+	}
+	
+	void enableWriteBehind(int queueSize, int flusherThreads, CassandraWriteFailureListener listener)
+	{
+		if (writeBehind != null)
+			throw new IllegalStateException("Write-behind already enabled for " + name);
+		
+		writeBehind = new WriteBehindBuffer(keyspace, name, queueSize, flusherThreads, listener);
+	}
+	
+	void disableWriteBehind()
+	{
+		WriteBehindBuffer wb = writeBehind;
+		if (wb == null)
+			return;
+		
+		// The writes made while the pending ones are flushed wait for it and
+		// then go directly to cassandra
+		wb.close();
+		writeBehind = null;
+	}
+	
+	boolean isCounterCoalescingEnabled()
+	{
+		return counterCoalescer != null;
+	}
+	
+	void enableCounterCoalescing(long flushIntervalMs, int maxDeltas, CassandraWriteFailureListener listener)
+	{
+		if (valueType != CassandraType.Counter)
+			throw new IllegalStateException("Counter coalescing can only be used in Counter column families");
+		if (counterCoalescer != null)
+			throw new IllegalStateException("Counter coalescing already enabled for " + name);
+		
+		counterCoalescer = new CounterCoalescer(this, flushIntervalMs, maxDeltas, listener);
+	}
+	
+	void disableCounterCoalescing()
+	{
+		CounterCoalescer cc = counterCoalescer;
+		if (cc == null)
+			return;
+		
+		counterCoalescer = null;
+		cc.close();
+	}
+	
+	boolean isRowCacheEnabled()
+	{
+		return rowCache != null;
+	}
+	
+	void enableRowCache(CassandraCacheEviction eviction, int maxRows, long maxBytes, long ttlMs)
+	{
+		if (subColumnKeyType != null)
+			throw new IllegalStateException("The row cache can only be used in standard column families");
+		if (rowCache != null)
+			throw new IllegalStateException("Row cache already enabled for " + name);
+		
+		rowCache = new RowCache(eviction, maxRows, maxBytes, ttlMs);
+	}
+	
+	void disableRowCache()
+	{
+		rowCache = null;
+	}
+	
+	CassandraCacheStats getRowCacheStats()
+	{
+		RowCache cache = rowCache;
+		return (cache != null ? cache.getStats() : null);
+	}
+	
+	boolean isNegativeCacheEnabled()
+	{
+		return negativeCache != null;
+	}
+	
+	void enableNegativeCache(int maxEntries, long ttlMs)
+	{
+		if (subColumnKeyType != null)
+			throw new IllegalStateException("The negative cache can only be used in standard column families");
+		if (negativeCache != null)
+			throw new IllegalStateException("Negative cache already enabled for " + name);
+		
+		negativeCache = new NegativeCache(maxEntries, ttlMs);
+	}
+	
+	void disableNegativeCache()
+	{
+		negativeCache = null;
+	}
+	
+	CassandraCacheStats getNegativeCacheStats()
+	{
+		NegativeCache cache = negativeCache;
+		return (cache != null ? cache.getStats() : null);
+	}
+	
+	boolean isCounterCacheEnabled()
+	{
+		return counterCache != null;
+	}
+	
+	void enableCounterCache(long maxStalenessMs, int maxEntries)
+	{
+		if (valueType != CassandraType.Counter || subColumnKeyType != null)
+			throw new IllegalStateException("The counter cache can only be used in standard Counter column families");
+		if (counterCache != null)
+			throw new IllegalStateException("Counter cache already enabled for " + name);
+		
+		counterCache = new CounterCache(maxStalenessMs, maxEntries);
+	}
+	
+	void disableCounterCache()
+	{
+		counterCache = null;
+	}
+	
+	CassandraCacheStats getCounterCacheStats()
+	{
+		CounterCache cache = counterCache;
+		return (cache != null ? cache.getStats() : null);
+	}
+	
+	boolean hasReadCache()
+	{
+		return rowCache != null || negativeCache != null || counterCache != null;
+	}
+	
+	void rowWritten(Object rowKey)
+	{
+		RowCache cache = rowCache;
+		if (cache != null)
+			cache.invalidate(rowKey);
+		
+		NegativeCache negative = negativeCache;
+		if (negative != null)
+			negative.invalidate(rowKey);
+		
+		CounterCache counters = counterCache;
+		if (counters != null)
+			counters.invalidate(rowKey);
+	}
+	
+	boolean isValueCompressionEnabled()
+	{
+		ValueCodecSerializer codec = valueCodec;
+		return codec != null && codec.isEncoding();
+	}
+	
+	void enableValueCompression(CassandraValueCodec codec, int minSize)
+	{
+		if (valueType != CassandraType.UTF8)
+			throw new IllegalStateException("Value compression can only be used in UTF8 column families");
+		
+		ValueCodecSerializer current = valueCodec;
+		if (current != null && current.isEncoding())
+			throw new IllegalStateException("Value compression already enabled for " + name);
+		if (current != null && current.getCodec().getId() != codec.getId())
+			throw new IllegalStateException("Value compression was used in " + name + " with other codec");
+		
+		valueCodec = new ValueCodecSerializer(valueSerializer, codec, minSize);
+	}
+	
+	void disableValueCompression()
+	{
+		ValueCodecSerializer current = valueCodec;
+		if (current != null)
+			valueCodec = new ValueCodecSerializer(valueSerializer, current.getCodec(), Integer.MAX_VALUE);
+	}
+	
+	boolean isSnapshotEnabled()
+	{
+		return snapshot != null;
+	}
+	
+	void exportSnapshot(File file)
+	{
+		checkSnapshotSupported();
+		
+		// The pending writes must be in the snapshot
+		flush();
+		
+		List<ByteBuffer> rowKeys = new ArrayList<ByteBuffer>();
+		Iterable<ByteBuffer> keys;
+		if (valueType == CassandraType.Counter)
+			keys = new KeyIteratorForCounterColumn(keyspace.keyspace, name, ByteBufferSerializer.get());
+		else
+			keys = new KeyIterator(keyspace.keyspace, name, ByteBufferSerializer.get());
+		for (ByteBuffer rowKey : keys)
+			rowKeys.add(rowKey);
+		Collections.sort(rowKeys, LocalComparators.BYTES);
+		
+		try
+		{
+			MappedSnapshot.Writer writer = new MappedSnapshot.Writer(file, name);
+			try
+			{
+				List<ByteBuffer> names = new ArrayList<ByteBuffer>();
+				List<ByteBuffer> values = new ArrayList<ByteBuffer>();
+				for (ByteBuffer rowKey : rowKeys)
+				{
+					names.clear();
+					values.clear();
+					queryRawColumns(rowKey, names, values);
+					writer.addRow(rowKey, names, values);
+				}
+				
+				writer.finish();
+			}
+			finally
+			{
+				writer.close();
+			}
+		}
+		catch (IOException e)
+		{
+			throw new CassandraException("Error writing snapshot " + file, e);
+		}
+	}
+	
+	void enableSnapshot(File file)
+	{
+		checkSnapshotSupported();
+		
+		MappedSnapshot newSnapshot;
+		try
+		{
+			newSnapshot = MappedSnapshot.open(file, LocalComparators.forType(columnComparatorType.getClassName()));
+		}
+		catch (IOException e)
+		{
+			throw new CassandraException("Error opening snapshot " + file, e);
+		}
+		
+		if (!name.equals(newSnapshot.columnFamily))
+			throw new IllegalArgumentException("Snapshot is from another column family: " + newSnapshot.columnFamily);
+		
+		snapshot = newSnapshot;
+	}
+	
+	void disableSnapshot()
+	{
+		// The mapped memory is released when the snapshot is collected
+		snapshot = null;
+	}
+	
+	private void checkSnapshotSupported()
+	{
+		if (subColumnKeyType != null)
+			throw new IllegalStateException("Snapshots can only be used in standard column families");
+	}
+	
+	void checkWritable()
+	{
+		if (snapshot != null)
+			throw new IllegalStateException("The column family " + name + " is in read-only snapshot mode");
+	}
+	
+	void flush()
+	{
+		CounterCoalescer cc = counterCoalescer;
+		if (cc != null)
+			cc.flush();
+		
+		WriteBehindBuffer wb = writeBehind;
+		if (wb != null)
+			wb.flush();
+	}
+	
 	ColumnFamilyDefinition createColumnFamilyDefinition()
 	{
 		ColumnFamilyDefinition def = HFactory.createColumnFamilyDefinition(keyspace.getName(), name);
@@ -177,12 +612,12 @@ class HectorColumnFamilyFacade
 	
 	ComparatorType getColumnComparatorType()
 	{
-		return getComparatorType(columnKeyType);
+		return columnComparatorType;
 	}
 	
 	ComparatorType getSubComparatorType()
 	{
-		return getComparatorType(subColumnKeyType);
+		return subComparatorType;
 	}
 	
 	String getValueClass()
@@ -192,110 +627,318 @@ class HectorColumnFamilyFacade
 	
 	AbstractSerializer getKeySerializer()
 	{
-		return getSerializer(rowKeyType);
+		return keySerializer;
 	}
 	
 	AbstractSerializer getColumnSerializer()
 	{
-		return getSerializer(columnKeyType);
+		return columnSerializer;
 	}
 	
 	AbstractSerializer getSubColumnSerializer()
 	{
-		return getSerializer(subColumnKeyType);
+		return subColumnSerializer;
 	}
 	
 	AbstractSerializer getValueSerializer()
 	{
-		return getSerializer(valueType);
+		ValueCodecSerializer codec = valueCodec;
+		return (codec != null ? codec : valueSerializer);
 	}
 	
 	// Mutators ///////////////////////////////////////////////////////////////
 	
+	long createClock()
+	{
+		Keyspace ks = keyspace.keyspace;
+		return (ks != null ? ks.createClock() : HFactory.createClock());
+	}
+	
 	Mutator mutator()
 	{
 		return HFactory.createMutator(keyspace.keyspace, getKeySerializer());
 	}
 	
-	HColumn createColumn(Object column, Object value)
+	private boolean addToWriteBehind(CassandraMutation.Type type, Object rowKey, Object superColumn, Object column,
+			Object value)
+	{
+		WriteBehindBuffer wb = writeBehind;
+		return wb != null && wb.add(new CassandraMutation(this, type, rowKey, superColumn, column, value));
+	}
+	
+	void insertColumn(Object rowKey, Object column, Object value)
+	{
+		checkWritable();
+		
+		if (addToWriteBehind(CassandraMutation.Type.Insert, rowKey, null, column, value))
+			return;
+		
+		final ByteBuffer key = getKeySerializer().toByteBuffer(rowKey);
+		final Column col = new Column(getColumnSerializer().toByteBuffer(toColumnKey(column)));
+		col.setValue(getValueSerializer().toByteBuffer(toValue(value)));
+		col.setTimestamp(createClock());
+		
+		keyspace.execute(new Operation<Void>(OperationType.WRITE) {
+			@Override
+			public Void execute(Cassandra.Client cassandra) throws Exception
+			{
+				cassandra.insert(key, columnParent, col,
+						ThriftConverter.consistencyLevel(consistencyLevelPolicy.get(OperationType.WRITE)));
+				return null;
+			}
+		});
+		rowWritten(rowKey);
+	}
+	
+	void insertRawColumn(Object rowKey, ByteBuffer column, ByteBuffer value)
 	{
-		column = toCassandra(column, columnKeyType);
-		value = toCassandra(value, valueType);
+		if (valueType == CassandraType.Counter)
+			throw new IllegalStateException("You can't insert raw values in a Counter column family");
+		
+		checkWritable();
+		
+		if (addToWriteBehind(CassandraMutation.Type.InsertRaw, rowKey, null, column, value))
+			return;
 		
-		return HFactory.createColumn(column, value, getColumnSerializer(), getValueSerializer());
+		mutator().insert(rowKey, name, createRawColumn(column, value, createClock()));
+		rowWritten(rowKey);
 	}
 	
-	HCounterColumn createCounterColumn(Object column, long value)
+	void insertColumn(Object rowKey, Object superColumn, Object column, Object value)
+	{
+		if (addToWriteBehind(CassandraMutation.Type.Insert, rowKey, superColumn, column, value))
+			return;
+		
+		mutator().insert(rowKey, name, createSuperColumn(superColumn, column, value));
+	}
+	
+	void incrementCounter(Object rowKey, Object column, long toAdd)
+	{
+		checkWritable();
+		
+		CounterCoalescer cc = counterCoalescer;
+		if (cc != null)
+		{
+			cc.add(rowKey, null, column, toAdd);
+			return;
+		}
+		
+		if (addToWriteBehind(CassandraMutation.Type.Increment, rowKey, null, column, toAdd))
+			return;
+		
+		mutator().insertCounter(rowKey, name, createCounterColumn(column, toAdd));
+		rowWritten(rowKey);
+	}
+	
+	void incrementRawCounter(Object rowKey, ByteBuffer column, long toAdd)
+	{
+		if (counterCoalescer != null || writeBehind != null)
+		{
+			incrementCounter(rowKey, getColumnSerializer().fromByteBuffer(column.duplicate()), toAdd);
+			return;
+		}
+		
+		checkWritable();
+		
+		mutator().insertCounter(rowKey, name, createRawCounterColumn(column, toAdd));
+		rowWritten(rowKey);
+	}
+	
+	void incrementCounter(Object rowKey, Object superColumn, Object column, long toAdd)
 	{
-		column = toCassandra(column, columnKeyType);
+		CounterCoalescer cc = counterCoalescer;
+		if (cc != null)
+		{
+			cc.add(rowKey, superColumn, column, toAdd);
+			return;
+		}
+		
+		if (addToWriteBehind(CassandraMutation.Type.Increment, rowKey, superColumn, column, toAdd))
+			return;
+		
+		mutator().insertCounter(rowKey, name, createSuperCounterColumn(superColumn, column, toAdd));
+	}
+	
+	void deleteColumn(Object rowKey, Object column)
+	{
+		checkWritable();
+		
+		if (addToWriteBehind(CassandraMutation.Type.Delete, rowKey, null, column, null))
+			return;
 		
-		return HFactory.createCounterColumn(column, value, getColumnSerializer());
+		mutator().delete(rowKey, name, toColumnKey(column), getColumnSerializer());
+		rowWritten(rowKey);
+	}
+	
+	void deleteColumn(Object rowKey, Object superColumn, Object column)
+	{
+		if (addToWriteBehind(CassandraMutation.Type.Delete, rowKey, superColumn, column, null))
+			return;
+		
+		mutator().subDelete(rowKey, name, toColumnKey(superColumn), toSubColumnKey(column), getColumnSerializer(),
+				getSubColumnSerializer());
+	}
+	
+	HColumn createColumn(Object column, Object value)
+	{
+		return createColumn(column, value, createClock());
+	}
+	
+	HColumn createColumn(Object column, Object value, long clock)
+	{
+		return HFactory.createColumn(toColumnKey(column), toValue(value), clock, getColumnSerializer(),
+				getValueSerializer());
+	}
+	
+	HColumn createRawColumn(ByteBuffer column, ByteBuffer value, long clock)
+	{
+		return HFactory.createColumn(column, value, clock, ByteBufferSerializer.get(), ByteBufferSerializer.get());
+	}
+	
+	HCounterColumn createCounterColumn(Object column, long value)
+	{
+		return HFactory.createCounterColumn(toColumnKey(column), value, getColumnSerializer());
+	}
+	
+	HCounterColumn createRawCounterColumn(ByteBuffer column, long value)
+	{
+		return HFactory.createCounterColumn(column, value, ByteBufferSerializer.get());
 	}
 	
 	HSuperColumn createSuperColumn(Object superColumn, Object column, Object value)
 	{
-		superColumn = toCassandra(superColumn, columnKeyType);
-		column = toCassandra(column, subColumnKeyType);
-		value = toCassandra(value, valueType);
+		return createSuperColumn(superColumn, column, value, createClock());
+	}
+	
+	HSuperColumn createSuperColumn(Object superColumn, Object column, Object value, long clock)
+	{
+		superColumn = toColumnKey(superColumn);
+		column = toSubColumnKey(column);
+		value = toValue(value);
 		
 		List cols = new ArrayList();
-		cols.add(HFactory.createColumn(column, value, getSubColumnSerializer(), getValueSerializer()));
-		return HFactory.createSuperColumn(superColumn, cols, getColumnSerializer(), getSubColumnSerializer(),
+		cols.add(HFactory.createColumn(column, value, clock, getSubColumnSerializer(), getValueSerializer()));
+		return HFactory.createSuperColumn(superColumn, cols, clock, getColumnSerializer(), getSubColumnSerializer(),
 				getValueSerializer());
 	}
 	
 	HCounterSuperColumn createSuperCounterColumn(Object superColumn, Object column, long value)
 	{
-		superColumn = toCassandra(superColumn, columnKeyType);
-		column = toCassandra(column, subColumnKeyType);
+		superColumn = toColumnKey(superColumn);
+		column = toSubColumnKey(column);
 		
 		List cols = new ArrayList();
 		cols.add(HFactory.createCounterColumn(column, value, getSubColumnSerializer()));
 		return HFactory.createCounterSuperColumn(superColumn, cols, getColumnSerializer(), getSubColumnSerializer());
 	}
 	
-	private static Object toCassandra(Object obj, CassandraType type)
+	Object toColumnKey(Object column)
 	{
-		if (obj == null || type == null)
-			return obj;
-		
-		switch (type)
-		{
-			case TimeUUID:
-				// TODO This is not good
-				if (obj instanceof Date)
-					return uuidForDate((Date) obj);
-				if (obj instanceof DateTime)
-					return uuidForDate(((DateTime) obj).toDate());
-				throw new IllegalArgumentException("Invalid object type for TimeUUID column: " + obj.getClass());
-				
-			default:
-				return obj;
-		}
+		return (convertColumnKeys ? toCassandra(column, columnKeyType) : column);
 	}
 	
-	// From http://wiki.apache.org/cassandra/FAQ#working_with_timeuuid_in_java
-	private static UUID uuidForDate(Date d)
+	Object toSubColumnKey(Object column)
 	{
-		/*
-		 * Magic number obtained from #cassandra's thobbs, who claims to have
-		 * stolen it from a Python library.
-		 */
-		final long NUM_100NS_INTERVALS_SINCE_UUID_EPOCH = 0x01b21dd213814000L;
-		
-		long origTime = d.getTime();
-		long time = origTime * 10000 + NUM_100NS_INTERVALS_SINCE_UUID_EPOCH;
-		long timeLow = time & 0xffffffffL;
-		long timeMid = time & 0xffff00000000L;
-		long timeHi = time & 0xfff000000000000L;
-		long upperLong = (timeLow << 32) | (timeMid >> 16) | (1 << 12) | (timeHi >> 48);
-		return new UUID(upperLong, 0xC000000000000000L);
+		return (convertSubColumnKeys ? toCassandra(column, subColumnKeyType) : column);
+	}
+	
+	private Object toValue(Object value)
+	{
+		return (convertValues ? toCassandra(value, valueType) : value);
+	}
+	
+	private static Object toSliceStart(Object obj, CassandraType type)
+	{
+		if (type == CassandraType.TimeUUID)
+		{
+			Date date = toDate(obj);
+			if (date != null)
+				return CassandraTimeUUID.min(date);
+		}
+		
+		return toCassandra(obj, type);
+	}
+	
+	// Dates become the last TimeUUID of their millisecond, so the slice includes
+	// all the columns inserted with that date
+	private static Object toSliceEnd(Object obj, CassandraType type)
+	{
+		if (type == CassandraType.TimeUUID)
+		{
+			Date date = toDate(obj);
+			if (date != null)
+				return CassandraTimeUUID.max(date);
+		}
+		
+		return toCassandra(obj, type);
+	}
+	
+	private static Object toCassandra(Object obj, CassandraType type)
+	{
+		if (obj == null || type == null)
+			return obj;
+		
+		switch (type)
+		{
+			case TimeUUID:
+			{
+				if (obj instanceof UUID)
+					return obj;
+				if (obj instanceof java.util.UUID)
+					return new UUID(((java.util.UUID) obj).getMostSignificantBits(),
+							((java.util.UUID) obj).getLeastSignificantBits());
+				
+				// Always the same UUID for the same date, so inserts overwrite
+				// the column and reads and deletes find it. Unique columns are
+				// inserted with CassandraTimeUUID.next
+				Date date = toDate(obj);
+				if (date != null)
+					return uuidForDate(date);
+				
+				throw new IllegalArgumentException("Invalid object type for TimeUUID column: " + obj.getClass());
+			}
+			case Date:
+				if (obj instanceof DateTime)
+					return ((DateTime) obj).toDate();
+				return obj;
+				
+			default:
+				return obj;
+		}
+	}
+	
+	private static Date toDate(Object obj)
+	{
+		if (obj instanceof Date)
+			return (Date) obj;
+		if (obj instanceof DateTime)
+			return ((DateTime) obj).toDate();
+		return null;
+	}
+	
+	// Same clock sequence and node as the older versions
+	private static UUID uuidForDate(Date d)
+	{
+		return new UUID(CassandraTimeUUID.toTime(d.getTime(), 0), 0xC000000000000000L);
 	}
 	
 	// Queries ////////////////////////////////////////////////////////////////
 	
 	Iterable getRowKeys()
 	{
+		MappedSnapshot s = snapshot;
+		if (s != null)
+		{
+			return new TransformIterable<ByteBuffer, Object>(s.rowKeys(),
+					new TransformIterable.Transformation<ByteBuffer, Object>() {
+						@Override
+						public Object transfor(ByteBuffer rowKey)
+						{
+							return getKeySerializer().fromByteBuffer(rowKey);
+						}
+					});
+		}
+		
 		if (subColumnKeyType != null)
 		{
 			if (valueType == CassandraType.Counter)
@@ -303,150 +946,1082 @@ class HectorColumnFamilyFacade
 			else
 				return new KeyIteratorForSuperColumn(keyspace.keyspace, name, getKeySerializer());
 		}
-		else
+		else
+		{
+			if (valueType == CassandraType.Counter)
+				return new KeyIteratorForCounterColumn(keyspace.keyspace, name, getKeySerializer());
+			else
+				return new KeyIterator(keyspace.keyspace, name, getKeySerializer());
+		}
+	}
+	
+	List<CassandraTokenRange> getTokenRanges(int keysPerSplit)
+	{
+		List<CassandraTokenRange> ranges = keyspace.describeRing();
+		if (keysPerSplit <= 0)
+			return ranges;
+		
+		List<CassandraTokenRange> result = new ArrayList<CassandraTokenRange>();
+		for (CassandraTokenRange range : ranges)
+			result.addAll(splitTokenRange(range, keysPerSplit));
+		return result;
+	}
+	
+	private List<CassandraTokenRange> splitTokenRange(final CassandraTokenRange range, final int keysPerSplit)
+	{
+		// The splits are estimated from the data of the node that answers
+		List<String> tokens = keyspace.execute(new Operation<List<String>>(OperationType.META_READ) {
+			@Override
+			public List<String> execute(Cassandra.Client cassandra) throws Exception
+			{
+				return cassandra.describe_splits(name, range.getStartToken(), range.getEndToken(), keysPerSplit);
+			}
+		});
+		
+		if (tokens.size() < 2)
+			return Collections.singletonList(range);
+		
+		List<CassandraTokenRange> result = new ArrayList<CassandraTokenRange>();
+		for (int i = 1; i < tokens.size(); i++)
+			result.add(new CassandraTokenRange(tokens.get(i - 1), tokens.get(i)));
+		return result;
+	}
+	
+	CassandraScan scanRowKeys(List<CassandraTokenRange> ranges, int parallelism)
+	{
+		return scan(CassandraScanCursor.startOf(ranges), false, parallelism);
+	}
+	
+	void scanRowKeys(List<CassandraTokenRange> ranges, int parallelism, final CassandraRowKeyListener listener)
+	{
+		ParallelRangeScan scan = new ParallelRangeScan(this, CassandraScanCursor.startOf(ranges), parallelism,
+				KEYS_PER_PAGE, 1);
+		scan.scan(new ParallelRangeScan.PageHandler() {
+			@Override
+			public void onPage(CassandraTokenRange range, List<KeySlice> rows)
+			{
+				for (KeySlice row : rows)
+					listener.onRowKey(range, toRowKey(row));
+			}
+		});
+	}
+	
+	private Object toRowKey(KeySlice row)
+	{
+		return getKeySerializer().fromByteBuffer(row.bufferForKey());
+	}
+	
+	CassandraScan scanRows(List<CassandraTokenRange> ranges, int parallelism)
+	{
+		return scan(CassandraScanCursor.startOf(ranges), true, parallelism);
+	}
+	
+	CassandraScan resumeScan(CassandraScanCursor cursor, int parallelism)
+	{
+		if (!name.equals(cursor.getColumnFamilyName()))
+			throw new IllegalArgumentException("Cursor is from another column family: "
+					+ cursor.getColumnFamilyName());
+		
+		return scan(cursor.getPositions(), cursor.isWithColumns(), parallelism);
+	}
+	
+	private CassandraScan scan(List<CassandraScanCursor.Position> positions, boolean withColumns, int parallelism)
+	{
+		if (withColumns)
+		{
+			return new CassandraScan(name, true, //
+					new ParallelRangeScan(this, positions, parallelism, ROWS_PER_PAGE, pageSize), //
+					new TransformIterable.Transformation<KeySlice, Object>() {
+						@Override
+						public Object transfor(KeySlice row)
+						{
+							return toRow(row);
+						}
+					});
+		}
+		else
+		{
+			return new CassandraScan(name, false, //
+					new ParallelRangeScan(this, positions, parallelism, KEYS_PER_PAGE, 1), //
+					new TransformIterable.Transformation<KeySlice, Object>() {
+						@Override
+						public Object transfor(KeySlice row)
+						{
+							return toRowKey(row);
+						}
+					});
+		}
+	}
+	
+	private Map.Entry toRow(KeySlice row)
+	{
+		Object rowKey = toRowKey(row);
+		
+		Map columns = new HashMap();
+		Object last = null;
+		for (ColumnOrSuperColumn column : row.getColumns())
+			last = putColumn(columns, column);
+		
+		// Wide row: fetch the rest a page at a time, also from cassandra even if
+		// the snapshot is enabled
+		if (row.getColumns().size() >= pageSize)
+		{
+			if (subColumnKeyType != null)
+				columns.putAll(getSuperColumnsSlice(rowKey, last, null));
+			else
+				columns.putAll(queryColumnsSlice(rowKey, last, null));
+		}
+		
+		return new AbstractMap.SimpleImmutableEntry(rowKey, columns);
+	}
+	
+	private Object putColumn(Map columns, ColumnOrSuperColumn column)
+	{
+		if (column.isSetColumn())
+		{
+			Column col = column.getColumn();
+			Object key = getColumnSerializer().fromByteBuffer(col.bufferForName());
+			columns.put(key, getValueSerializer().fromByteBuffer(col.bufferForValue()));
+			return key;
+		}
+		else if (column.isSetCounter_column())
+		{
+			CounterColumn col = column.getCounter_column();
+			Object key = getColumnSerializer().fromByteBuffer(col.bufferForName());
+			columns.put(key, col.getValue());
+			return key;
+		}
+		else if (column.isSetSuper_column())
+		{
+			SuperColumn superCol = column.getSuper_column();
+			Map subColumns = new HashMap();
+			for (Column col : superCol.getColumns())
+				subColumns.put(getSubColumnSerializer().fromByteBuffer(col.bufferForName()),
+						getValueSerializer().fromByteBuffer(col.bufferForValue()));
+			
+			Object key = getColumnSerializer().fromByteBuffer(superCol.bufferForName());
+			columns.put(key, subColumns);
+			return key;
+		}
+		else if (column.isSetCounter_super_column())
+		{
+			CounterSuperColumn superCol = column.getCounter_super_column();
+			Map subColumns = new HashMap();
+			for (CounterColumn col : superCol.getColumns())
+				subColumns.put(getSubColumnSerializer().fromByteBuffer(col.bufferForName()), col.getValue());
+			
+			Object key = getColumnSerializer().fromByteBuffer(superCol.bufferForName());
+			columns.put(key, subColumns);
+			return key;
+		}
+		else
+		{
+			throw new CassandraException("Something was not implemented (empty column returned)");
+		}
+	}
+	
+	Iterable getColumnKeys(Object rowKey)
+	{
+		return getColumnKeysSlice(rowKey, null, null);
+	}
+	
+	Iterable getColumnKeysSlice(Object rowKey, Object startColumnKey, Object endColumnKey)
+	{
+		MappedSnapshot s = snapshot;
+		if (s != null)
+		{
+			return new TransformIterable<Map.Entry<ByteBuffer, ByteBuffer>, Object>(
+					querySnapshotColumns(s, rowKey, startColumnKey, endColumnKey),
+					new TransformIterable.Transformation<Map.Entry<ByteBuffer, ByteBuffer>, Object>() {
+						@Override
+						public Object transfor(Map.Entry<ByteBuffer, ByteBuffer> column)
+						{
+							return getColumnSerializer().fromByteBuffer(column.getKey());
+						}
+					});
+		}
+		
+		if (valueType == CassandraType.Counter)
+		{
+			return new TransformIterable<HCounterColumn, Object>(
+			//
+					queryCounterColumns(rowKey, startColumnKey, endColumnKey), //
+					new TransformIterable.Transformation<HCounterColumn, Object>() {
+						@Override
+						public Object transfor(HCounterColumn obj)
+						{
+							return obj.getName();
+						}
+					});
+		}
+		else
+		{
+			return new TransformIterable<HColumn, Object>( //
+					queryColumns(rowKey, startColumnKey, endColumnKey), //
+					new TransformIterable.Transformation<HColumn, Object>() {
+						@Override
+						public Object transfor(HColumn obj)
+						{
+							return obj.getName();
+						}
+					});
+		}
+	}
+	
+	int countColumns(Object rowKey)
+	{
+		return countColumns(rowKey, null, null, 0);
+	}
+	
+	int countColumns(Object rowKey, Object startColumnKey, Object endColumnKey, int max)
+	{
+		max = toCountLimit(max);
+		
+		MappedSnapshot s = snapshot;
+		if (s != null)
+		{
+			if (startColumnKey == null && endColumnKey == null)
+				return Math.min(s.countColumns(getKeySerializer().toByteBuffer(rowKey)), max);
+			else
+				return countUpTo(querySnapshotColumns(s, rowKey, startColumnKey, endColumnKey), max);
+		}
+		
+		Object start = toSliceStart(startColumnKey, columnKeyType);
+		Object end = toSliceEnd(endColumnKey, columnKeyType);
+		int page = getCountPageSize(max);
+		
+		if (valueType == CassandraType.Counter)
+		{
+			SliceCounterQuery query = HFactory.createCounterSliceQuery(keyspace.keyspace, getKeySerializer(),
+					getColumnSerializer());
+			query.setColumnFamily(name);
+			query.setKey(rowKey);
+			
+			return countUpTo(new SliceCounterIterator(query, start, end, false, page), max);
+		}
+		else
+		{
+			SliceQuery query = HFactory.createSliceQuery(keyspace.keyspace, getKeySerializer(), getColumnSerializer(),
+					ByteBufferSerializer.get());
+			query.setColumnFamily(name);
+			query.setKey(rowKey);
+			
+			return countUpTo(new SliceIterator(query, start, end, false, page), max);
+		}
+	}
+	
+	private static int toCountLimit(int max)
+	{
+		return (max <= 0 ? Integer.MAX_VALUE : max);
+	}
+	
+	private int getCountPageSize(int max)
+	{
+		// The iterators need at least 2: each page starts with the last column
+		// of the previous one
+		return Math.max(2, Math.min(Math.min(pageSize, MAX_COUNT_PAGE_SIZE), max));
+	}
+	
+	private static int countUpTo(Iterable iterable, int max)
+	{
+		return countUpTo(iterable.iterator(), max);
+	}
+	
+	private static int countUpTo(Iterator it, int max)
+	{
+		try
+		{
+			int result = 0;
+			for (; result < max && it.hasNext(); it.next())
+				result++;
+			return result;
+		}
+		finally
+		{
+			TransformIterable.close(it);
+		}
+	}
+	
+	Map getColumns(Object rowKey)
+	{
+		CounterCoalescer cc = pendingCounters();
+		if (cc == null)
+			return readColumns(rowKey);
+		
+		cc.lockReads();
+		try
+		{
+			return addPending(cc, rowKey, readColumns(rowKey), null, null);
+		}
+		finally
+		{
+			cc.unlockReads();
+		}
+	}
+	
+	Map getColumns(Object rowKey, Object startColumnKey, Object endColumnKey)
+	{
+		CounterCoalescer cc = pendingCounters();
+		if (cc == null)
+			return getColumnsSlice(rowKey, startColumnKey, endColumnKey);
+		
+		cc.lockReads();
+		try
+		{
+			return addPending(cc, rowKey, getColumnsSlice(rowKey, startColumnKey, endColumnKey), startColumnKey,
+					endColumnKey);
+		}
+		finally
+		{
+			cc.unlockReads();
+		}
+	}
+	
+	private Map readColumns(Object rowKey)
+	{
+		if (snapshot != null)
+			return getColumnsSlice(rowKey, null, null);
+		
+		NegativeCache negative = negativeCache;
+		if (negative == null)
+			return queryColumns(rowKey);
+		
+		if (negative.isAbsent(rowKey, null))
+			return new HashMap();
+		
+		long stamp = negative.getWriteStamp();
+		Map result = queryColumns(rowKey);
+		if (result.isEmpty())
+			negative.addAbsent(rowKey, null, stamp);
+		return result;
+	}
+	
+	private Map queryColumns(Object rowKey)
+	{
+		RowCache cache = rowCache;
+		if (cache != null)
+			return new HashMap(getCachedRow(cache, rowKey));
+		
+		return getColumnsSlice(rowKey, null, null);
+	}
+	
+	private Map getCachedRow(RowCache cache, Object rowKey)
+	{
+		Map columns = cache.get(rowKey);
+		if (columns != null)
+			return columns;
+		
+		long stamp = cache.getWriteStamp();
+		columns = getColumnsSlice(rowKey, null, null);
+		cache.put(rowKey, columns, stamp);
+		return columns;
+	}
+	
+	Map getColumnsSlice(Object rowKey, Object startColumnKey, Object endColumnKey)
+	{
+		MappedSnapshot s = snapshot;
+		if (s == null)
+			return queryColumnsSlice(rowKey, startColumnKey, endColumnKey);
+		
+		Map result = new HashMap();
+		for (Map.Entry<ByteBuffer, ByteBuffer> col : querySnapshotColumns(s, rowKey, startColumnKey, endColumnKey))
+			result.put(getColumnSerializer().fromByteBuffer(col.getKey()),
+					getValueSerializer().fromByteBuffer(col.getValue()));
+		return result;
+	}
+	
+	private Map queryColumnsSlice(Object rowKey, Object startColumnKey, Object endColumnKey)
+	{
+		Map result = new HashMap();
+		if (valueType == CassandraType.Counter)
+		{
+			for (HCounterColumn col : queryCounterColumns(rowKey, startColumnKey, endColumnKey))
+				result.put(col.getName(), col.getValue());
+		}
+		else
+		{
+			for (HColumn col : queryColumns(rowKey, startColumnKey, endColumnKey))
+				result.put(col.getName(), col.getValue());
+		}
+		return result;
+	}
+	
+	void forEachColumn(Object rowKey, Object startColumnKey, Object endColumnKey, CassandraColumnListener listener)
+	{
+		MappedSnapshot s = snapshot;
+		if (s != null)
+		{
+			for (Map.Entry<ByteBuffer, ByteBuffer> col : querySnapshotColumns(s, rowKey, startColumnKey, endColumnKey))
+				if (!listener.onColumn(getColumnSerializer().fromByteBuffer(col.getKey()), getValueSerializer()
+						.fromByteBuffer(col.getValue())))
+					break;
+		}
+		else if (valueType == CassandraType.Counter)
+		{
+			sendCounterColumns(queryCounterColumns(rowKey, startColumnKey, endColumnKey).iterator(), listener);
+		}
+		else
+		{
+			sendColumns(queryColumns(rowKey, startColumnKey, endColumnKey).iterator(), listener);
+		}
+	}
+	
+	private static void sendColumns(Iterator<HColumn> it, CassandraColumnListener listener)
+	{
+		try
+		{
+			while (it.hasNext())
+			{
+				HColumn col = it.next();
+				if (!listener.onColumn(col.getName(), col.getValue()))
+					break;
+			}
+		}
+		finally
+		{
+			TransformIterable.close(it);
+		}
+	}
+	
+	private static void sendCounterColumns(Iterator<HCounterColumn> it, CassandraColumnListener listener)
+	{
+		try
+		{
+			while (it.hasNext())
+			{
+				HCounterColumn col = it.next();
+				if (!listener.onColumn(col.getName(), col.getValue()))
+					break;
+			}
+		}
+		finally
+		{
+			TransformIterable.close(it);
+		}
+	}
+	
+	Iterable<Map.Entry> iterateColumns(Object rowKey, Object startColumnKey, Object endColumnKey)
+	{
+		MappedSnapshot s = snapshot;
+		if (s != null)
+		{
+			return new TransformIterable<Map.Entry<ByteBuffer, ByteBuffer>, Map.Entry>(querySnapshotColumns(s,
+					rowKey, startColumnKey, endColumnKey),
+					new TransformIterable.Transformation<Map.Entry<ByteBuffer, ByteBuffer>, Map.Entry>() {
+						@Override
+						public Map.Entry transfor(Map.Entry<ByteBuffer, ByteBuffer> col)
+						{
+							return new AbstractMap.SimpleImmutableEntry(getColumnSerializer().fromByteBuffer(
+									col.getKey()), getValueSerializer().fromByteBuffer(col.getValue()));
+						}
+					});
+		}
+		else if (valueType == CassandraType.Counter)
+		{
+			return new TransformIterable<HCounterColumn, Map.Entry>(queryCounterColumns(rowKey, startColumnKey,
+					endColumnKey), COUNTER_TO_ENTRY);
+		}
+		else
+		{
+			return new TransformIterable<HColumn, Map.Entry>(queryColumns(rowKey, startColumnKey, endColumnKey),
+					COLUMN_TO_ENTRY);
+		}
+	}
+	
+	CassandraColumns getOrderedColumns(Object rowKey, Object startColumnKey, Object endColumnKey)
+	{
+		CassandraColumns.Builder result = new CassandraColumns.Builder(getInitialCapacity(), columnNameComparator);
+		MappedSnapshot s = snapshot;
+		if (s != null)
+		{
+			for (Map.Entry<ByteBuffer, ByteBuffer> col : querySnapshotColumns(s, rowKey, startColumnKey, endColumnKey))
+				result.add(getColumnSerializer().fromByteBuffer(col.getKey()),
+						getValueSerializer().fromByteBuffer(col.getValue()));
+		}
+		else if (valueType == CassandraType.Counter)
+		{
+			for (HCounterColumn col : queryCounterColumns(rowKey, startColumnKey, endColumnKey))
+				result.add(col.getName(), col.getValue());
+		}
+		else
+		{
+			for (HColumn col : queryColumns(rowKey, startColumnKey, endColumnKey))
+				result.add(col.getName(), col.getValue());
+		}
+		return result.build();
+	}
+	
+	CassandraLongColumns getLongColumns(Object rowKey, Object startColumnKey, Object endColumnKey)
+	{
+		checkLongValues();
+		
+		CassandraLongColumns.Builder result = new CassandraLongColumns.Builder(getInitialCapacity(), columnKeyType);
+		MappedSnapshot s = snapshot;
+		if (s != null)
+		{
+			for (Map.Entry<ByteBuffer, ByteBuffer> col : querySnapshotColumns(s, rowKey, startColumnKey, endColumnKey))
+				result.add(getColumnSerializer().fromByteBuffer(col.getKey()),
+						(Number) getValueSerializer().fromByteBuffer(col.getValue()));
+		}
+		else if (valueType == CassandraType.Counter)
+		{
+			for (HCounterColumn col : queryCounterColumns(rowKey, startColumnKey, endColumnKey))
+				result.add(col.getName(), (Number) col.getValue());
+		}
+		else
+		{
+			for (HColumn col : queryColumns(rowKey, startColumnKey, endColumnKey))
+				result.add(col.getName(), (Number) col.getValue());
+		}
+		return result.build();
+	}
+	
+	CassandraColumns getRawColumns(Object rowKey, ByteBuffer startColumnKey, ByteBuffer endColumnKey)
+	{
+		CassandraColumns.Builder result = new CassandraColumns.Builder(getInitialCapacity(),
+				rawColumnNameComparator);
+		
+		MappedSnapshot s = snapshot;
+		if (s != null)
+		{
+			for (Map.Entry<ByteBuffer, ByteBuffer> col : s.columns(getKeySerializer().toByteBuffer(rowKey),
+					startColumnKey, endColumnKey))
+				result.add(col.getKey().asReadOnlyBuffer(), col.getValue().asReadOnlyBuffer());
+		}
+		else if (valueType == CassandraType.Counter)
+		{
+			SliceCounterQuery query = HFactory.createCounterSliceQuery(keyspace.keyspace, getKeySerializer(),
+					ByteBufferSerializer.get());
+			query.setColumnFamily(name);
+			query.setKey(rowKey);
+			
+			Iterator<HCounterColumn> it = new SliceCounterIterator(query, startColumnKey, endColumnKey, false,
+					pageSize, getPrefetchExecutor(), prefetchPages);
+			while (it.hasNext())
+			{
+				HCounterColumn col = it.next();
+				result.add(((ByteBuffer) col.getName()).asReadOnlyBuffer(),
+						LongSerializer.get().toByteBuffer(col.getValue()));
+			}
+		}
+		else
+		{
+			SliceQuery query = HFactory.createSliceQuery(keyspace.keyspace, getKeySerializer(),
+					ByteBufferSerializer.get(), ByteBufferSerializer.get());
+			query.setColumnFamily(name);
+			query.setKey(rowKey);
+			
+			Iterator<HColumn> it = new SliceIterator(query, startColumnKey, endColumnKey, false, pageSize,
+					getPrefetchExecutor(), prefetchPages);
+			while (it.hasNext())
+			{
+				HColumn col = it.next();
+				result.add(((ByteBuffer) col.getName()).asReadOnlyBuffer(),
+						((ByteBuffer) col.getValue()).asReadOnlyBuffer());
+			}
+		}
+		return result.build();
+	}
+	
+	private void checkLongValues()
+	{
+		if (valueType != CassandraType.Long && valueType != CassandraType.Integer && valueType != CassandraType.Counter)
+			throw new IllegalStateException("Only Long, Integer or Counter columns can be read as longs");
+	}
+	
+	private int getInitialCapacity()
+	{
+		return Math.min(pageSize, MAX_INITIAL_CAPACITY);
+	}
+	
+	private Iterable<HColumn> queryColumns(final Object rowKey, final Object startColumnKey, final Object endColumnKey)
+	{
+		final Object start = toSliceStart(startColumnKey, columnKeyType);
+		final Object end = toSliceEnd(endColumnKey, columnKeyType);
+		
+		return new Iterable<HColumn>() {
+			@Override
+			public Iterator<HColumn> iterator()
+			{
+				SliceQuery query = HFactory.createSliceQuery(keyspace.keyspace, getKeySerializer(),
+						getColumnSerializer(), getValueSerializer());
+				query.setColumnFamily(name);
+				query.setKey(rowKey);
+				
+				return new SliceIterator(query, start, end, false, pageSize,
+						getPrefetchExecutor(), prefetchPages);
+			}
+		};
+	}
+	
+	private Iterable<HCounterColumn> queryCounterColumns(final Object rowKey, final Object startColumnKey,
+			final Object endColumnKey)
+	{
+		final Object start = toSliceStart(startColumnKey, columnKeyType);
+		final Object end = toSliceEnd(endColumnKey, columnKeyType);
+		
+		return new Iterable<HCounterColumn>() {
+			@Override
+			public Iterator<HCounterColumn> iterator()
+			{
+				SliceCounterQuery query = HFactory.createCounterSliceQuery(keyspace.keyspace, getKeySerializer(),
+						getColumnSerializer());
+				query.setColumnFamily(name);
+				query.setKey(rowKey);
+				
+				return new SliceCounterIterator(query, start, end, false, pageSize,
+						getPrefetchExecutor(), prefetchPages);
+			}
+		};
+	}
+	
+	private Iterable<Map.Entry<ByteBuffer, ByteBuffer>> querySnapshotColumns(MappedSnapshot s, Object rowKey,
+			Object startColumnKey, Object endColumnKey)
+	{
+		return s.columns(getKeySerializer().toByteBuffer(rowKey),
+				toColumnBytes(toSliceStart(startColumnKey, columnKeyType)),
+				toColumnBytes(toSliceEnd(endColumnKey, columnKeyType)));
+	}
+	
+	private ByteBuffer toColumnBytes(Object columnKey)
+	{
+		if (columnKey == null)
+			return null;
+		
+		return getColumnSerializer().toByteBuffer(toColumnKey(columnKey));
+	}
+	
+	private void queryRawColumns(ByteBuffer rowKey, List<ByteBuffer> names, List<ByteBuffer> values)
+	{
+		Object start = null;
+		Object finish = null;
+		
+		if (valueType == CassandraType.Counter)
+		{
+			SliceCounterQuery query = HFactory.createCounterSliceQuery(keyspace.keyspace, ByteBufferSerializer.get(),
+					ByteBufferSerializer.get());
+			query.setColumnFamily(name);
+			query.setKey(rowKey);
+			
+			Iterator<HCounterColumn> it = new SliceCounterIterator(query, start, finish, false, pageSize);
+			while (it.hasNext())
+			{
+				HCounterColumn col = it.next();
+				names.add((ByteBuffer) col.getName());
+				values.add(LongSerializer.get().toByteBuffer(col.getValue()));
+			}
+		}
+		else
+		{
+			SliceQuery query = HFactory.createSliceQuery(keyspace.keyspace, ByteBufferSerializer.get(),
+					ByteBufferSerializer.get(), ByteBufferSerializer.get());
+			query.setColumnFamily(name);
+			query.setKey(rowKey);
+			
+			Iterator<HColumn> it = new SliceIterator(query, start, finish, false, pageSize);
+			while (it.hasNext())
+			{
+				HColumn col = it.next();
+				names.add((ByteBuffer) col.getName());
+				values.add((ByteBuffer) col.getValue());
+			}
+		}
+	}
+	
+	Map getRows(Collection rowKeys)
+	{
+		Map found = multiget(rowKeys, null);
+		
+		Map result = new LinkedHashMap();
+		for (Object rowKey : rowKeys)
+		{
+			Map columns = (Map) found.get(rowKey);
+			result.put(rowKey, columns != null ? columns : new HashMap());
+		}
+		return result;
+	}
+	
+	Map getValues(Collection rowKeys, Object columnKey)
+	{
+		CounterCoalescer cc = pendingCounters();
+		if (cc == null)
+			return readValues(rowKeys, columnKey, null);
+		
+		cc.lockReads();
+		try
+		{
+			return readValues(rowKeys, columnKey, cc);
+		}
+		finally
+		{
+			cc.unlockReads();
+		}
+	}
+	
+	private Map readValues(Collection rowKeys, Object columnKey, CounterCoalescer cc)
+	{
+		Map found = multiget(rowKeys, columnKey);
+		
+		Map result = new LinkedHashMap();
+		for (Object rowKey : rowKeys)
+		{
+			Map columns = (Map) found.get(rowKey);
+			Object value = (columns != null && !columns.isEmpty() ? columns.values().iterator().next() : null);
+			if (cc != null)
+				value = addPending(value, cc.getPending(rowKey, null, columnKey));
+			
+			if (value != null)
+				result.put(rowKey, value);
+		}
+		return result;
+	}
+	
+	private Map multiget(Collection rowKeys, final Object columnKey)
+	{
+		MappedSnapshot s = snapshot;
+		if (s != null)
+			return multigetSnapshot(s, rowKeys, columnKey);
+		
+		List<Callable<Map>> tasks = new ArrayList<Callable<Map>>();
+		
+		List keys = new ArrayList(rowKeys);
+		for (int i = 0; i < keys.size(); i += multigetBatchSize)
+		{
+			final List batch = keys.subList(i, Math.min(i + multigetBatchSize, keys.size()));
+			tasks.add(new Callable<Map>() {
+				@Override
+				public Map call()
+				{
+					return multigetBatch(batch, columnKey);
+				}
+			});
+		}
+		
+		Map result = new HashMap();
+		for (Map rows : keyspace.invokeAll(tasks))
+			result.putAll(rows);
+		return result;
+	}
+	
+	private Map multigetSnapshot(MappedSnapshot s, Collection rowKeys, Object columnKey)
+	{
+		Map result = new HashMap();
+		for (Object rowKey : rowKeys)
+		{
+			if (columnKey != null)
+			{
+				Object value = getValue(s, rowKey, columnKey);
+				if (value != null)
+					result.put(rowKey, Collections.singletonMap(columnKey, value));
+			}
+			else
+			{
+				Map columns = getColumnsSlice(rowKey, null, null);
+				if (!columns.isEmpty())
+					result.put(rowKey, columns);
+			}
+		}
+		return result;
+	}
+	
+	private Map multigetBatch(List rowKeys, Object columnKey)
+	{
+		Map result = new HashMap();
+		
+		if (valueType == CassandraType.Counter)
+		{
+			MultigetSliceCounterQuery query = HFactory.createMultigetSliceCounterQuery(keyspace.keyspace,
+					getKeySerializer(), getColumnSerializer());
+			query.setColumnFamily(name);
+			query.setKeys(rowKeys);
+			if (columnKey != null)
+				query.setColumnNames(new Object[] { toColumnKey(columnKey) });
+			else
+				query.setRange(null, null, false, pageSize);
+			
+			for (CounterRow row : (CounterRows<?, ?>) query.execute().get())
+			{
+				Map columns = new HashMap();
+				Object last = null;
+				for (HCounterColumn col : (List<HCounterColumn>) row.getColumnSlice().getColumns())
+				{
+					columns.put(col.getName(), col.getValue());
+					last = col.getName();
+				}
+				
+				// Wide row: fetch the rest a page at a time
+				if (columnKey == null && columns.size() >= pageSize)
+					columns.putAll(getColumnsSlice(row.getKey(), last, null));
+				
+				result.put(row.getKey(), columns);
+			}
+		}
+		else
+		{
+			MultigetSliceQuery query = HFactory.createMultigetSliceQuery(keyspace.keyspace, getKeySerializer(),
+					getColumnSerializer(), getValueSerializer());
+			query.setColumnFamily(name);
+			query.setKeys(rowKeys);
+			if (columnKey != null)
+				query.setColumnNames(new Object[] { toColumnKey(columnKey) });
+			else
+				query.setRange(null, null, false, pageSize);
+			
+			for (Row row : (Rows<?, ?, ?>) query.execute().get())
+			{
+				Map columns = new HashMap();
+				Object last = null;
+				for (HColumn col : (List<HColumn>) row.getColumnSlice().getColumns())
+				{
+					columns.put(col.getName(), col.getValue());
+					last = col.getName();
+				}
+				
+				// Wide row: fetch the rest a page at a time
+				if (columnKey == null && columns.size() >= pageSize)
+					columns.putAll(getColumnsSlice(row.getKey(), last, null));
+				
+				result.put(row.getKey(), columns);
+			}
+		}
+		
+		return result;
+	}
+	
+	Map getColumnsByName(Object rowKey, Collection columnKeys)
+	{
+		CounterCoalescer cc = pendingCounters();
+		if (cc == null)
+			return readColumnsByName(rowKey, columnKeys);
+		
+		cc.lockReads();
+		try
+		{
+			Map result = readColumnsByName(rowKey, columnKeys);
+			for (Object columnKey : columnKeys)
+				putPending(result, toColumnKey(columnKey), cc.getPending(rowKey, null, columnKey));
+			return result;
+		}
+		finally
+		{
+			cc.unlockReads();
+		}
+	}
+	
+	private Map readColumnsByName(Object rowKey, Collection columnKeys)
+	{
+		Map result = new HashMap();
+		if (columnKeys.isEmpty())
+			return result;
+		
+		MappedSnapshot s = snapshot;
+		RowCache cache = rowCache;
+		if (s != null)
+		{
+			for (Object columnKey : columnKeys)
+			{
+				Object value = getValue(s, rowKey, columnKey);
+				if (value != null)
+					result.put(toColumnKey(columnKey), value);
+			}
+		}
+		else if (cache != null)
+		{
+			Map columns = getCachedRow(cache, rowKey);
+			for (Object columnKey : columnKeys)
+			{
+				Object value = columns.get(toColumnKey(columnKey));
+				if (value != null)
+					result.put(toColumnKey(columnKey), value);
+			}
+		}
+		else if (valueType == CassandraType.Counter)
+		{
+			SliceCounterQuery query = HFactory.createCounterSliceQuery(keyspace.keyspace, getKeySerializer(),
+					getColumnSerializer());
+			query.setColumnFamily(name);
+			query.setKey(rowKey);
+			query.setColumnNames(toColumnKeys(columnKeys, columnKeyType));
+			
+			for (HCounterColumn col : ((CounterSlice<?>) query.execute().get()).getColumns())
+				result.put(col.getName(), col.getValue());
+		}
+		else
+		{
+			SliceQuery query = HFactory.createSliceQuery(keyspace.keyspace, getKeySerializer(), getColumnSerializer(),
+					getValueSerializer());
+			query.setColumnFamily(name);
+			query.setKey(rowKey);
+			query.setColumnNames(toColumnKeys(columnKeys, columnKeyType));
+			
+			for (HColumn col : ((ColumnSlice<?, ?>) query.execute().get()).getColumns())
+				result.put(col.getName(), col.getValue());
+		}
+		return result;
+	}
+	
+	private static Object[] toColumnKeys(Collection columnKeys, CassandraType type)
+	{
+		Object[] result = new Object[columnKeys.size()];
+		int i = 0;
+		for (Object columnKey : columnKeys)
+			result[i++] = toCassandra(columnKey, type);
+		return result;
+	}
+	
+	Object getValue(Object rowKey, Object columnKey)
+	{
+		MappedSnapshot s = snapshot;
+		if (s != null)
+			return getValue(s, rowKey, columnKey);
+		
+		CounterCoalescer cc = counterCoalescer;
+		if (cc == null)
+			return readValue(rowKey, columnKey);
+		
+		// So no increment is applied between reading the value and the
+		// pending increments
+		cc.lockReads();
+		try
+		{
+			return addPending(readValue(rowKey, columnKey), cc.getPending(rowKey, null, columnKey));
+		}
+		finally
 		{
-			if (valueType == CassandraType.Counter)
-				return new KeyIteratorForCounterColumn(keyspace.keyspace, name, getKeySerializer());
-			else
-				return new KeyIterator(keyspace.keyspace, name, getKeySerializer());
+			cc.unlockReads();
 		}
 	}
 	
-	Iterable getColumnKeys(Object rowKey)
+	private Object readValue(Object rowKey, Object columnKey)
 	{
-		return getColumnKeysSlice(rowKey, null, null);
+		CounterCache counters = counterCache;
+		if (counters != null)
+			return getCounter(counters, rowKey, columnKey);
+		
+		NegativeCache negative = negativeCache;
+		if (negative == null)
+			return queryValue(rowKey, columnKey);
+		
+		if (negative.isAbsent(rowKey, columnKey))
+			return null;
+		
+		long stamp = negative.getWriteStamp();
+		Object result = queryValue(rowKey, columnKey);
+		if (result == null)
+			negative.addAbsent(rowKey, columnKey, stamp);
+		return result;
 	}
 	
-	Iterable getColumnKeysSlice(Object rowKey, Object startColumnKey, Object endColumnKey)
+	long getRawCounter(Object rowKey, ByteBuffer column)
 	{
-		if (valueType == CassandraType.Counter)
-		{
-			return new TransformIterable<HCounterColumn, Object>(
-			//
-					queryCounterColumns(rowKey, startColumnKey, endColumnKey), //
-					new TransformIterable.Transformation<HCounterColumn, Object>() {
-						@Override
-						public Object transfor(HCounterColumn obj)
-						{
-							return obj.getName();
-						}
-					});
-		}
-		else
+		if (snapshot != null || counterCoalescer != null || counterCache != null || negativeCache != null
+				|| rowCache != null)
 		{
-			return new TransformIterable<HColumn, Object>( //
-					queryColumns(rowKey, startColumnKey, endColumnKey), //
-					new TransformIterable.Transformation<HColumn, Object>() {
-						@Override
-						public Object transfor(HColumn obj)
-						{
-							return obj.getName();
-						}
-					});
+			Long result = (Long) getValue(rowKey, getColumnSerializer().fromByteBuffer(column.duplicate()));
+			return (result != null ? result.longValue() : 0);
 		}
+		
+		ColumnOrSuperColumn result = queryColumn(rowKey, column);
+		return (result != null ? result.getCounter_column().getValue() : 0);
 	}
 	
-	int countColumns(Object rowKey)
+	private Object getCounter(CounterCache cache, Object rowKey, Object columnKey)
 	{
-		CountQuery query = HFactory.createCountQuery(keyspace.keyspace, getKeySerializer(), getColumnSerializer());
-		query.setColumnFamily(name);
-		query.setKey(rowKey);
-		query.setRange(null, null, Integer.MAX_VALUE);
-		return (Integer) query.execute().get();
+		Object cached = cache.get(rowKey, columnKey);
+		if (cached != null)
+			return (cached != CounterCache.ABSENT ? cached : null);
+		
+		long stamp = cache.getWriteStamp();
+		Long value = (Long) queryValue(rowKey, columnKey);
+		cache.put(rowKey, columnKey, value, stamp);
+		return value;
 	}
 	
-	Map getColumns(Object rowKey)
+	private CounterCoalescer pendingCounters()
 	{
-		return getColumnsSlice(rowKey, null, null);
+		return (snapshot == null ? counterCoalescer : null);
 	}
 	
-	Map getColumnsSlice(Object rowKey, Object startColumnKey, Object endColumnKey)
+	// Must hold the read lock of the coalescer
+	private Map addPending(CounterCoalescer cc, Object rowKey, Map columns, Object startColumnKey,
+			Object endColumnKey)
 	{
-		Map result = new HashMap();
-		if (valueType == CassandraType.Counter)
-		{
-			for (HCounterColumn col : queryCounterColumns(rowKey, startColumnKey, endColumnKey))
-				result.put(col.getName(), col.getValue());
-		}
-		else
+		Object start = toSliceStart(startColumnKey, columnKeyType);
+		Object end = toSliceEnd(endColumnKey, columnKeyType);
+		
+		for (Map.Entry<Object, Long> pending : cc.getPending(rowKey).entrySet())
 		{
-			for (HColumn col : queryColumns(rowKey, startColumnKey, endColumnKey))
-				result.put(col.getName(), col.getValue());
+			Object column = toColumnKey(pending.getKey());
+			if (start != null && columnNameComparator.compare(column, start) < 0)
+				continue;
+			if (end != null && columnNameComparator.compare(column, end) > 0)
+				continue;
+			
+			putPending(columns, column, pending.getValue());
 		}
-		return result;
+		return columns;
 	}
 	
-	private Iterable<HColumn> queryColumns(final Object rowKey, final Object startColumnKey, final Object endColumnKey)
+	private static void putPending(Map columns, Object column, long pending)
 	{
-		return new Iterable<HColumn>() {
-			@Override
-			public Iterator<HColumn> iterator()
-			{
-				SliceQuery query = HFactory.createSliceQuery(keyspace.keyspace, getKeySerializer(),
-						getColumnSerializer(), getValueSerializer());
-				query.setColumnFamily(name);
-				query.setKey(rowKey);
-				
-				return new SliceIterator(query, startColumnKey, endColumnKey, false, pageSize);
-			}
-		};
+		if (pending != 0)
+			columns.put(column, addPending(columns.get(column), pending));
 	}
 	
-	private Iterable<HCounterColumn> queryCounterColumns(final Object rowKey, final Object startColumnKey,
-			final Object endColumnKey)
+	private static Object addPending(Object value, long pending)
 	{
-		return new Iterable<HCounterColumn>() {
+		if (pending == 0)
+			return value;
+		
+		return (value != null ? (Long) value + pending : Long.valueOf(pending));
+	}
+	
+	private Object queryValue(Object rowKey, Object columnKey)
+	{
+		RowCache cache = rowCache;
+		if (cache != null)
+			return getCachedRow(cache, rowKey).get(toColumnKey(columnKey));
+		
+		ColumnOrSuperColumn result = queryColumn(rowKey, toColumnBytes(columnKey));
+		if (result == null)
+			return null;
+		
+		if (valueType == CassandraType.Counter)
+			return result.getCounter_column().getValue();
+		else
+			return getValueSerializer().fromByteBuffer(result.getColumn().bufferForValue());
+	}
+	
+	private ColumnOrSuperColumn queryColumn(Object rowKey, ByteBuffer column)
+	{
+		final ByteBuffer key = getKeySerializer().toByteBuffer(rowKey);
+		final ColumnPath path = new ColumnPath(name);
+		path.setColumn(column);
+		
+		return keyspace.execute(new Operation<ColumnOrSuperColumn>(OperationType.READ) {
 			@Override
-			public Iterator<HCounterColumn> iterator()
+			public ColumnOrSuperColumn execute(Cassandra.Client cassandra) throws Exception
 			{
-				SliceCounterQuery query = HFactory.createCounterSliceQuery(keyspace.keyspace, getKeySerializer(),
-						getColumnSerializer());
-				query.setColumnFamily(name);
-				query.setKey(rowKey);
-				
-				return new SliceCounterIterator(query, startColumnKey, endColumnKey, false, pageSize);
+				try
+				{
+					return cassandra.get(key, path,
+							ThriftConverter.consistencyLevel(consistencyLevelPolicy.get(OperationType.READ)));
+				}
+				catch (NotFoundException e)
+				{
+					return null;
+				}
 			}
-		};
+		});
 	}
 	
-	Object getValue(Object rowKey, Object columnKey)
+	private Object getValue(MappedSnapshot s, Object rowKey, Object columnKey)
 	{
-		if (valueType == CassandraType.Counter)
-		{
-			CounterQuery query = HFactory.createCounterColumnQuery(keyspace.keyspace, getKeySerializer(),
-					getColumnSerializer());
-			query.setColumnFamily(name);
-			query.setKey(rowKey);
-			query.setName(columnKey);
-			
-			QueryResult<HCounterColumn> result = query.execute();
-			if (result == null)
-				return null;
-			
-			HCounterColumn hColumn = result.get();
-			if (hColumn == null)
-				return null;
-			
-			return hColumn.getValue();
-		}
-		else
-		{
-			ColumnQuery query = HFactory.createColumnQuery(keyspace.keyspace, getKeySerializer(),
-					getColumnSerializer(), getValueSerializer());
-			query.setColumnFamily(name);
-			query.setKey(rowKey);
-			query.setName(columnKey);
-			
-			QueryResult<HColumn> result = query.execute();
-			if (result == null)
-				return null;
-			
-			HColumn hColumn = result.get();
-			if (hColumn == null)
-				return null;
-			
-			return hColumn.getValue();
-		}
+		ByteBuffer value = s.getValue(getKeySerializer().toByteBuffer(rowKey), toColumnBytes(columnKey));
+		if (value == null)
+			return null;
+		
+		return getValueSerializer().fromByteBuffer(value);
 	}
 	
 	Iterable getSuperColumnKeys(Object rowKey)
@@ -539,28 +2114,210 @@ class HectorColumnFamilyFacade
 		return result;
 	}
 	
+	void forEachSubColumn(Object rowKey, Object superColumnKey, Object startColumnKey, Object endColumnKey,
+			CassandraColumnListener listener)
+	{
+		if (valueType == CassandraType.Counter)
+			sendCounterColumns(querySubCounterColumns(rowKey, superColumnKey, startColumnKey, endColumnKey)
+					.iterator(), listener);
+		else
+			sendColumns(querySubColumns(rowKey, superColumnKey, startColumnKey, endColumnKey).iterator(), listener);
+	}
+	
+	Iterable<Map.Entry> iterateSubColumns(Object rowKey, Object superColumnKey, Object startColumnKey,
+			Object endColumnKey)
+	{
+		if (valueType == CassandraType.Counter)
+			return new TransformIterable<HCounterColumn, Map.Entry>(querySubCounterColumns(rowKey, superColumnKey,
+					startColumnKey, endColumnKey), COUNTER_TO_ENTRY);
+		else
+			return new TransformIterable<HColumn, Map.Entry>(querySubColumns(rowKey, superColumnKey,
+					startColumnKey, endColumnKey), COLUMN_TO_ENTRY);
+	}
+	
+	CassandraColumns getOrderedSubColumns(Object rowKey, Object superColumnKey, Object startColumnKey,
+			Object endColumnKey)
+	{
+		CassandraColumns.Builder result = new CassandraColumns.Builder(getInitialCapacity(), subColumnNameComparator);
+		if (valueType == CassandraType.Counter)
+		{
+			for (HCounterColumn col : querySubCounterColumns(rowKey, superColumnKey, startColumnKey, endColumnKey))
+				result.add(col.getName(), col.getValue());
+		}
+		else
+		{
+			for (HColumn col : querySubColumns(rowKey, superColumnKey, startColumnKey, endColumnKey))
+				result.add(col.getName(), col.getValue());
+		}
+		return result.build();
+	}
+	
+	CassandraLongColumns getLongSubColumns(Object rowKey, Object superColumnKey, Object startColumnKey,
+			Object endColumnKey)
+	{
+		checkLongValues();
+		
+		CassandraLongColumns.Builder result = new CassandraLongColumns.Builder(getInitialCapacity(),
+				subColumnKeyType);
+		if (valueType == CassandraType.Counter)
+		{
+			for (HCounterColumn col : querySubCounterColumns(rowKey, superColumnKey, startColumnKey, endColumnKey))
+				result.add(col.getName(), (Number) col.getValue());
+		}
+		else
+		{
+			for (HColumn col : querySubColumns(rowKey, superColumnKey, startColumnKey, endColumnKey))
+				result.add(col.getName(), (Number) col.getValue());
+		}
+		return result.build();
+	}
+	
+	private Map getSuperColumnsSlice(Object rowKey, Object startColumnKey, Object endColumnKey)
+	{
+		Map result = new HashMap();
+		if (valueType == CassandraType.Counter)
+		{
+			for (HCounterSuperColumn superCol : querySuperCounterColumns(rowKey, startColumnKey, endColumnKey))
+			{
+				Map subColumns = new HashMap();
+				for (HCounterColumn col : (List<HCounterColumn>) superCol.getColumns())
+					subColumns.put(col.getName(), col.getValue());
+				result.put(superCol.getName(), subColumns);
+			}
+		}
+		else
+		{
+			for (HSuperColumn superCol : querySuperColumns(rowKey, startColumnKey, endColumnKey))
+			{
+				Map subColumns = new HashMap();
+				for (HColumn col : (List<HColumn>) superCol.getColumns())
+					subColumns.put(col.getName(), col.getValue());
+				result.put(superCol.getName(), subColumns);
+			}
+		}
+		return result;
+	}
+	
 	int countSuperColumns(Object rowKey)
 	{
-		SuperCountQuery query = HFactory.createSuperCountQuery(keyspace.keyspace, getKeySerializer(),
-				getColumnSerializer());
-		query.setColumnFamily(name);
-		query.setKey(rowKey);
-		query.setRange(null, null, Integer.MAX_VALUE);
-		return (Integer) query.execute().get();
+		return countSuperColumns(rowKey, null, null, 0);
+	}
+	
+	int countSuperColumns(Object rowKey, Object startColumnKey, Object endColumnKey, int max)
+	{
+		max = toCountLimit(max);
+		
+		Object start = toSliceStart(startColumnKey, columnKeyType);
+		Object end = toSliceEnd(endColumnKey, columnKeyType);
+		int page = getCountPageSize(max);
+		
+		if (valueType == CassandraType.Counter)
+		{
+			MultigetSuperSliceCounterQuery query = HFactory.createMultigetSuperSliceCounterQuery(keyspace.keyspace,
+					getKeySerializer(), getColumnSerializer(), getSubColumnSerializer());
+			query.setColumnFamily(name);
+			query.setKeys(rowKey);
+			
+			return countUpTo(new MultigetSuperSliceCounterIterator(query, start, end, false, page), max);
+		}
+		else
+		{
+			SuperSliceQuery query = HFactory.createSuperSliceQuery(keyspace.keyspace, getKeySerializer(),
+					getColumnSerializer(), getSubColumnSerializer(), ByteBufferSerializer.get());
+			query.setColumnFamily(name);
+			query.setKey(rowKey);
+			
+			return countUpTo(new SuperSliceIterator(query, start, end, false, page), max);
+		}
 	}
 	
 	int countSubColumns(Object rowKey, Object superColumnKey)
 	{
-		SubCountQuery query = HFactory.createSubCountQuery(keyspace.keyspace, getKeySerializer(),
-				getColumnSerializer(), getSubColumnSerializer());
-		query.setColumnFamily(name);
-		query.setKey(rowKey);
-		query.setSuperColumn(superColumnKey);
-		query.setRange(null, null, Integer.MAX_VALUE);
-		return (Integer) query.execute().get();
+		return countSubColumns(rowKey, superColumnKey, null, null, 0);
+	}
+	
+	int countSubColumns(Object rowKey, Object superColumnKey, Object startColumnKey, Object endColumnKey, int max)
+	{
+		max = toCountLimit(max);
+		
+		Object start = toSliceStart(startColumnKey, subColumnKeyType);
+		Object end = toSliceEnd(endColumnKey, subColumnKeyType);
+		int page = getCountPageSize(max);
+		
+		if (valueType == CassandraType.Counter)
+		{
+			SubSliceCounterQuery query = HFactory.createSubSliceCounterQuery(keyspace.keyspace, getKeySerializer(),
+					getColumnSerializer(), getSubColumnSerializer());
+			query.setColumnFamily(name);
+			query.setKey(rowKey);
+			query.setSuperColumn(toColumnKey(superColumnKey));
+			
+			return countUpTo(new SubSliceCounterIterator(query, start, end, false, page), max);
+		}
+		else
+		{
+			SubSliceQuery query = HFactory.createSubSliceQuery(keyspace.keyspace, getKeySerializer(),
+					getColumnSerializer(), getSubColumnSerializer(), ByteBufferSerializer.get());
+			query.setColumnFamily(name);
+			query.setKey(rowKey);
+			query.setSuperColumn(toColumnKey(superColumnKey));
+			
+			return countUpTo(new SubSliceIterator(query, start, end, false, page), max);
+		}
+	}
+	
+	Map getSubColumnsByName(Object rowKey, Object superColumnKey, Collection columnKeys)
+	{
+		Map result = new HashMap();
+		if (columnKeys.isEmpty())
+			return result;
+		
+		if (valueType == CassandraType.Counter)
+		{
+			SubSliceCounterQuery query = HFactory.createSubSliceCounterQuery(keyspace.keyspace, getKeySerializer(),
+					getColumnSerializer(), getSubColumnSerializer());
+			query.setColumnFamily(name);
+			query.setKey(rowKey);
+			query.setSuperColumn(toColumnKey(superColumnKey));
+			query.setColumnNames(toColumnKeys(columnKeys, subColumnKeyType));
+			
+			for (HCounterColumn col : ((CounterSlice<?>) query.execute().get()).getColumns())
+				result.put(col.getName(), col.getValue());
+		}
+		else
+		{
+			SubSliceQuery query = HFactory.createSubSliceQuery(keyspace.keyspace, getKeySerializer(),
+					getColumnSerializer(), getSubColumnSerializer(), getValueSerializer());
+			query.setColumnFamily(name);
+			query.setKey(rowKey);
+			query.setSuperColumn(toColumnKey(superColumnKey));
+			query.setColumnNames(toColumnKeys(columnKeys, subColumnKeyType));
+			
+			for (HColumn col : ((ColumnSlice<?, ?>) query.execute().get()).getColumns())
+				result.put(col.getName(), col.getValue());
+		}
+		return result;
 	}
 	
 	Object getValue(Object rowKey, Object superColumnKey, Object columnKey)
+	{
+		CounterCoalescer cc = counterCoalescer;
+		if (cc == null)
+			return readValue(rowKey, superColumnKey, columnKey);
+		
+		cc.lockReads();
+		try
+		{
+			return addPending(readValue(rowKey, superColumnKey, columnKey),
+					cc.getPending(rowKey, superColumnKey, columnKey));
+		}
+		finally
+		{
+			cc.unlockReads();
+		}
+	}
+	
+	private Object readValue(Object rowKey, Object superColumnKey, Object columnKey)
 	{
 		if (valueType == CassandraType.Counter)
 		{
@@ -568,8 +2325,8 @@ class HectorColumnFamilyFacade
 					getColumnSerializer(), getSubColumnSerializer());
 			query.setColumnFamily(name);
 			query.setKey(rowKey);
-			query.setSuperColumn(superColumnKey);
-			query.setColumnNames(columnKey);
+			query.setSuperColumn(toColumnKey(superColumnKey));
+			query.setColumnNames(toSubColumnKey(columnKey));
 			
 			QueryResult<CounterSlice> result = query.execute();
 			if (result == null)
@@ -591,8 +2348,8 @@ class HectorColumnFamilyFacade
 					getColumnSerializer(), getSubColumnSerializer(), getValueSerializer());
 			query.setColumnFamily(name);
 			query.setKey(rowKey);
-			query.setSuperColumn(superColumnKey);
-			query.setColumnNames(columnKey);
+			query.setSuperColumn(toColumnKey(superColumnKey));
+			query.setColumnNames(toSubColumnKey(columnKey));
 			
 			QueryResult<ColumnSlice> result = query.execute();
 			if (result == null)
@@ -628,6 +2385,9 @@ class HectorColumnFamilyFacade
 	private Iterable<HColumn> querySubColumns(final Object rowKey, final Object superColumnKey,
 			final Object startColumnKey, final Object endColumnKey)
 	{
+		final Object start = toSliceStart(startColumnKey, subColumnKeyType);
+		final Object end = toSliceEnd(endColumnKey, subColumnKeyType);
+		
 		return new Iterable<HColumn>() {
 			@Override
 			public Iterator<HColumn> iterator()
@@ -636,9 +2396,10 @@ class HectorColumnFamilyFacade
 						getColumnSerializer(), getSubColumnSerializer(), getValueSerializer());
 				query.setColumnFamily(name);
 				query.setKey(rowKey);
-				query.setSuperColumn(superColumnKey);
+				query.setSuperColumn(toColumnKey(superColumnKey));
 				
-				return new SubSliceIterator(query, startColumnKey, endColumnKey, false, pageSize);
+				return new SubSliceIterator(query, start, end, false, pageSize,
+						getPrefetchExecutor(), prefetchPages);
 			}
 		};
 	}
@@ -646,6 +2407,9 @@ class HectorColumnFamilyFacade
 	private Iterable<HCounterColumn> querySubCounterColumns(final Object rowKey, final Object superColumnKey,
 			final Object startColumnKey, final Object endColumnKey)
 	{
+		final Object start = toSliceStart(startColumnKey, subColumnKeyType);
+		final Object end = toSliceEnd(endColumnKey, subColumnKeyType);
+		
 		return new Iterable<HCounterColumn>() {
 			@Override
 			public Iterator<HCounterColumn> iterator()
@@ -654,9 +2418,10 @@ class HectorColumnFamilyFacade
 						getColumnSerializer(), getSubColumnSerializer());
 				query.setColumnFamily(name);
 				query.setKey(rowKey);
-				query.setSuperColumn(superColumnKey);
+				query.setSuperColumn(toColumnKey(superColumnKey));
 				
-				return new SubSliceCounterIterator(query, startColumnKey, endColumnKey, false, pageSize);
+				return new SubSliceCounterIterator(query, start, end, false, pageSize,
+						getPrefetchExecutor(), prefetchPages);
 			}
 		};
 	}
@@ -664,6 +2429,9 @@ class HectorColumnFamilyFacade
 	private Iterable<HSuperColumn> querySuperColumns(final Object rowKey, final Object startColumnKey,
 			final Object endColumnKey)
 	{
+		final Object start = toSliceStart(startColumnKey, columnKeyType);
+		final Object end = toSliceEnd(endColumnKey, columnKeyType);
+		
 		return new Iterable<HSuperColumn>() {
 			@Override
 			public Iterator<HSuperColumn> iterator()
@@ -673,7 +2441,8 @@ class HectorColumnFamilyFacade
 				query.setColumnFamily(name);
 				query.setKey(rowKey);
 				
-				return new SuperSliceIterator(query, startColumnKey, endColumnKey, false, pageSize);
+				return new SuperSliceIterator(query, start, end, false, pageSize,
+						getPrefetchExecutor(), prefetchPages);
 			}
 		};
 	}
@@ -681,6 +2450,9 @@ class HectorColumnFamilyFacade
 	private Iterable<HCounterSuperColumn> querySuperCounterColumns(final Object rowKey, final Object startColumnKey,
 			final Object endColumnKey)
 	{
+		final Object start = toSliceStart(startColumnKey, columnKeyType);
+		final Object end = toSliceEnd(endColumnKey, columnKeyType);
+		
 		return new Iterable<HCounterSuperColumn>() {
 			@Override
 			public Iterator<HCounterSuperColumn> iterator()
@@ -690,14 +2462,15 @@ class HectorColumnFamilyFacade
 				query.setColumnFamily(name);
 				query.setKeys(rowKey);
 				
-				return new MultigetSuperSliceCounterIterator(query, startColumnKey, endColumnKey, false, pageSize);
+				return new MultigetSuperSliceCounterIterator(query, start, end, false, pageSize,
+						getPrefetchExecutor(), prefetchPages);
 			}
 		};
 	}
 	
 	// ////////////////////////////////////////////////////////////////////////
 	
-	private static AbstractSerializer getSerializer(CassandraType type)
+	private static AbstractSerializer getSerializer(CassandraType type, CassandraType[] components)
 	{
 		switch (type)
 		{
@@ -713,11 +2486,33 @@ class HectorColumnFamilyFacade
 				return UUIDSerializer.get();
 			case Counter:
 				return LongSerializer.get();
+			case Bytes:
+				return ByteBufferSerializer.get();
+			case Double:
+				return DoubleSerializer.get();
+			case Boolean:
+				return BooleanSerializer.get();
+			case Date:
+				return DateSerializer.get();
+			case Composite:
+			{
+				Serializer[] serializers = new Serializer[components.length];
+				for (int i = 0; i < components.length; i++)
+					serializers[i] = getSerializer(checkComponent(components[i]), null);
+				return new CompositeNameSerializer(serializers);
+			}
 			default:
 				throw new CassandraException("Something was not implemented (invalid type: " + type + ")");
 		}
 	}
 	
+	private static CassandraType checkComponent(CassandraType type)
+	{
+		if (type == null || type == CassandraType.Counter || type == CassandraType.Composite)
+			throw new IllegalArgumentException("Invalid type for a component of a Composite: " + type);
+		return type;
+	}
+	
 	private static String getValidationClass(CassandraType type)
 	{
 		if (type == null)
@@ -737,12 +2532,20 @@ class HectorColumnFamilyFacade
 				return ComparatorType.UUIDTYPE.getClassName();
 			case Counter:
 				return ComparatorType.COUNTERTYPE.getClassName();
+			case Bytes:
+				return ComparatorType.BYTESTYPE.getClassName();
+			case Double:
+				return DOUBLE_TYPE;
+			case Boolean:
+				return BOOLEAN_TYPE;
+			case Date:
+				return DATE_TYPE;
 			default:
 				throw new CassandraException("Something was not implemented (invalid type: " + type + ")");
 		}
 	}
 	
-	private static ComparatorType getComparatorType(CassandraType type)
+	private static ComparatorType getComparatorType(CassandraType type, CassandraType[] components)
 	{
 		if (type == null)
 			return null;
@@ -759,8 +2562,54 @@ class HectorColumnFamilyFacade
 				return ComparatorType.TIMEUUIDTYPE;
 			case UUID:
 				return ComparatorType.UUIDTYPE;
+			case Bytes:
+				return ComparatorType.BYTESTYPE;
+			case Double:
+			case Boolean:
+			case Date:
+				// Hector has no constants for them
+				return ComparatorType.getByClassName(getValidationClass(type));
+			case Composite:
+			{
+				// As cassandra names it: CompositeType(LongType,UTF8Type)
+				StringBuilder result = new StringBuilder(ComparatorType.COMPOSITETYPE.getClassName());
+				result.append('(');
+				for (int i = 0; i < components.length; i++)
+				{
+					if (i > 0)
+						result.append(',');
+					result.append(getComparatorType(checkComponent(components[i]), null).getClassName());
+				}
+				result.append(')');
+				return ComparatorType.getByClassName(result.toString());
+			}
 			default:
 				throw new CassandraException("Something was not implemented (invalid type: " + type + ")");
 		}
 	}
+	
+	private static class NameComparator implements Comparator<Object>
+	{
+		private final CassandraType type;
+		private final AbstractSerializer serializer;
+		private final Comparator<ByteBuffer> comparator;
+		
+		NameComparator(CassandraType type, AbstractSerializer serializer, ComparatorType comparatorType)
+		{
+			this.type = type;
+			this.serializer = serializer;
+			this.comparator = LocalComparators.forType(comparatorType.getClassName());
+		}
+		
+		@Override
+		public int compare(Object o1, Object o2)
+		{
+			return comparator.compare(toBytes(o1), toBytes(o2));
+		}
+		
+		private ByteBuffer toBytes(Object name)
+		{
+			return serializer.toByteBuffer(toCassandra(name, type));
+		}
+	}
 }
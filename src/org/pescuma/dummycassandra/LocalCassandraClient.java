@@ -0,0 +1,721 @@
+package org.pescuma.dummycassandra;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
+
+import org.apache.cassandra.thrift.AuthenticationRequest;
+import org.apache.cassandra.thrift.Cassandra;
+import org.apache.cassandra.thrift.CfDef;
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.ColumnOrSuperColumn;
+import org.apache.cassandra.thrift.ColumnParent;
+import org.apache.cassandra.thrift.ColumnPath;
+import org.apache.cassandra.thrift.Compression;
+import org.apache.cassandra.thrift.ConsistencyLevel;
+import org.apache.cassandra.thrift.CounterColumn;
+import org.apache.cassandra.thrift.CounterSuperColumn;
+import org.apache.cassandra.thrift.CqlResult;
+import org.apache.cassandra.thrift.Deletion;
+import org.apache.cassandra.thrift.IndexClause;
+import org.apache.cassandra.thrift.InvalidRequestException;
+import org.apache.cassandra.thrift.KeyRange;
+import org.apache.cassandra.thrift.KeySlice;
+import org.apache.cassandra.thrift.KsDef;
+import org.apache.cassandra.thrift.Mutation;
+import org.apache.cassandra.thrift.NotFoundException;
+import org.apache.cassandra.thrift.SlicePredicate;
+import org.apache.cassandra.thrift.SliceRange;
+import org.apache.cassandra.thrift.SuperColumn;
+import org.apache.cassandra.thrift.TokenRange;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.transport.TMemoryBuffer;
+
+class LocalCassandraClient extends Cassandra.Client
+{
+	static final String PARTITIONER = "org.apache.cassandra.dht.ByteOrderedPartitioner";
+	static final String ENDPOINT = "127.0.0.1";
+	
+	private static final ByteBuffer EMPTY = ByteBuffer.wrap(new byte[0]);
+	
+	private final LocalStorage storage;
+	private final String keyspace;
+	private final TokenFactory tokenFactory = TokenFactory.forPartitioner(PARTITIONER);
+	
+	LocalCassandraClient(LocalStorage storage, String keyspace)
+	{
+		// Nothing is ever sent through this protocol
+		super(new TBinaryProtocol(new TMemoryBuffer(0)));
+		
+		this.storage = storage;
+		this.keyspace = keyspace;
+	}
+	
+	@Override
+	public void login(AuthenticationRequest auth_request)
+	{
+	}
+	
+	@Override
+	public void set_keyspace(String keyspace) throws InvalidRequestException
+	{
+		if (!keyspace.equals(this.keyspace))
+			throw new InvalidRequestException("This local client can only be used with keyspace " + this.keyspace);
+	}
+	
+	@Override
+	public ColumnOrSuperColumn get(ByteBuffer key, ColumnPath column_path, ConsistencyLevel consistency_level)
+			throws InvalidRequestException, NotFoundException
+	{
+		ColumnFamilyStore store = getStore(column_path.getColumn_family());
+		long now = System.currentTimeMillis();
+		
+		if (column_path.getColumn() == null)
+		{
+			if (!store.superColumnFamily || column_path.getSuper_column() == null)
+				throw new InvalidRequestException("column parameter is not optional for standard CF "
+						+ store.name);
+			
+			ColumnOrSuperColumn result = getSuperColumn(store, key, column_path.bufferForSuper_column(), now);
+			if (result == null)
+				throw new NotFoundException();
+			return result;
+		}
+		
+		checkSuperColumn(store, column_path.bufferForSuper_column());
+		
+		LocalColumn column = store.getColumn(key, column_path.bufferForSuper_column(), column_path.bufferForColumn());
+		if (column == null || !column.isLive(now))
+			throw new NotFoundException();
+		
+		return toThrift(store, column);
+	}
+	
+	@Override
+	public List<ColumnOrSuperColumn> get_slice(ByteBuffer key, ColumnParent column_parent, SlicePredicate predicate,
+			ConsistencyLevel consistency_level) throws InvalidRequestException
+	{
+		ColumnFamilyStore store = getStore(column_parent.getColumn_family());
+		checkSuperColumnParent(store, column_parent.bufferForSuper_column());
+		
+		return getSlice(store, key, column_parent.bufferForSuper_column(), predicate, System.currentTimeMillis());
+	}
+	
+	@Override
+	public int get_count(ByteBuffer key, ColumnParent column_parent, SlicePredicate predicate,
+			ConsistencyLevel consistency_level) throws InvalidRequestException
+	{
+		return get_slice(key, column_parent, predicate, consistency_level).size();
+	}
+	
+	@Override
+	public Map<ByteBuffer, List<ColumnOrSuperColumn>> multiget_slice(List<ByteBuffer> keys,
+			ColumnParent column_parent, SlicePredicate predicate, ConsistencyLevel consistency_level)
+			throws InvalidRequestException
+	{
+		ColumnFamilyStore store = getStore(column_parent.getColumn_family());
+		checkSuperColumnParent(store, column_parent.bufferForSuper_column());
+		long now = System.currentTimeMillis();
+		
+		Map<ByteBuffer, List<ColumnOrSuperColumn>> result = new HashMap<ByteBuffer, List<ColumnOrSuperColumn>>();
+		for (ByteBuffer key : keys)
+			result.put(key, getSlice(store, key, column_parent.bufferForSuper_column(), predicate, now));
+		return result;
+	}
+	
+	@Override
+	public Map<ByteBuffer, Integer> multiget_count(List<ByteBuffer> keys, ColumnParent column_parent,
+			SlicePredicate predicate, ConsistencyLevel consistency_level) throws InvalidRequestException
+	{
+		Map<ByteBuffer, Integer> result = new HashMap<ByteBuffer, Integer>();
+		for (Map.Entry<ByteBuffer, List<ColumnOrSuperColumn>> entry : multiget_slice(keys, column_parent,
+				predicate, consistency_level).entrySet())
+			result.put(entry.getKey(), entry.getValue().size());
+		return result;
+	}
+	
+	@Override
+	public List<KeySlice> get_range_slices(ColumnParent column_parent, SlicePredicate predicate, KeyRange range,
+			ConsistencyLevel consistency_level) throws InvalidRequestException
+	{
+		ColumnFamilyStore store = getStore(column_parent.getColumn_family());
+		checkSuperColumnParent(store, column_parent.bufferForSuper_column());
+		long now = System.currentTimeMillis();
+		
+		Iterator<ByteBuffer> keys;
+		if (range.isSetStart_key())
+		{
+			if (range.isSetStart_token() || range.isSetEnd_token())
+				throw new InvalidRequestException("exactly one of {start key, end key} or {start token, end token} "
+						+ "must be specified");
+			
+			ByteBuffer end = range.bufferForEnd_key();
+			keys = new RangeKeys(store, range.bufferForStart_key(), true, end == null || !end.hasRemaining() ? null
+					: end);
+		}
+		else
+		{
+			keys = keysOfTokenRange(store, range.getStart_token(), range.getEnd_token());
+		}
+		
+		List<KeySlice> result = new ArrayList<KeySlice>();
+		while (result.size() < range.getCount() && keys.hasNext())
+		{
+			ByteBuffer key = keys.next();
+			result.add(new KeySlice(key.duplicate(), getSlice(store, key, column_parent.bufferForSuper_column(),
+					predicate, now)));
+		}
+		return result;
+	}
+	
+	@Override
+	public List<KeySlice> get_indexed_slices(ColumnParent column_parent, IndexClause index_clause,
+			SlicePredicate column_predicate, ConsistencyLevel consistency_level) throws InvalidRequestException
+	{
+		throw new InvalidRequestException("Indexes are not supported by the local backends");
+	}
+	
+	@Override
+	public void insert(ByteBuffer key, ColumnParent column_parent, Column column, ConsistencyLevel consistency_level)
+			throws InvalidRequestException
+	{
+		ColumnFamilyStore store = getStore(column_parent.getColumn_family());
+		
+		insert(store, key, column_parent.bufferForSuper_column(), column);
+	}
+	
+	private void insert(ColumnFamilyStore store, ByteBuffer key, ByteBuffer superColumn, Column column)
+			throws InvalidRequestException
+	{
+		checkSuperColumn(store, superColumn);
+		if (store.counters)
+			throw new InvalidRequestException("invalid operation for commutative columnfamily " + store.name);
+		
+		store.insert(LocalColumn.copy(key), LocalColumn.copy(superColumn), LocalColumn.fromThrift(column));
+	}
+	
+	@Override
+	public void add(ByteBuffer key, ColumnParent column_parent, CounterColumn column,
+			ConsistencyLevel consistency_level) throws InvalidRequestException
+	{
+		ColumnFamilyStore store = getStore(column_parent.getColumn_family());
+		
+		add(store, key, column_parent.bufferForSuper_column(), column);
+	}
+	
+	private void add(ColumnFamilyStore store, ByteBuffer key, ByteBuffer superColumn, CounterColumn column)
+			throws InvalidRequestException
+	{
+		checkSuperColumn(store, superColumn);
+		if (!store.counters)
+			throw new InvalidRequestException("invalid operation for non commutative columnfamily " + store.name);
+		
+		store.add(LocalColumn.copy(key), LocalColumn.copy(superColumn), LocalColumn.copy(column.bufferForName()),
+				column.getValue());
+	}
+	
+	@Override
+	public void remove(ByteBuffer key, ColumnPath column_path, long timestamp, ConsistencyLevel consistency_level)
+			throws InvalidRequestException
+	{
+		ColumnFamilyStore store = getStore(column_path.getColumn_family());
+		
+		remove(store, key, column_path.bufferForSuper_column(), column_path.bufferForColumn(), timestamp);
+	}
+	
+	@Override
+	public void remove_counter(ByteBuffer key, ColumnPath path, ConsistencyLevel consistency_level)
+			throws InvalidRequestException
+	{
+		ColumnFamilyStore store = getStore(path.getColumn_family());
+		
+		remove(store, key, path.bufferForSuper_column(), path.bufferForColumn(), Long.MAX_VALUE);
+	}
+	
+	private void remove(ColumnFamilyStore store, ByteBuffer key, ByteBuffer superColumn, ByteBuffer column,
+			long timestamp) throws InvalidRequestException
+	{
+		if (!store.superColumnFamily && superColumn != null)
+			throw new InvalidRequestException("supercolumn parameter is invalid for standard CF " + store.name);
+		if (store.superColumnFamily && superColumn == null && column != null)
+			throw new InvalidRequestException("A column cannot be specified without specifying a super column for "
+					+ "removal on super CF " + store.name);
+		
+		// Counters can't be deleted by timestamp
+		store.remove(key, superColumn, column, store.counters ? Long.MAX_VALUE : timestamp);
+	}
+	
+	@Override
+	public void batch_mutate(Map<ByteBuffer, Map<String, List<Mutation>>> mutation_map,
+			ConsistencyLevel consistency_level) throws InvalidRequestException
+	{
+		for (Map.Entry<ByteBuffer, Map<String, List<Mutation>>> row : mutation_map.entrySet())
+		{
+			ByteBuffer key = row.getKey();
+			
+			for (Map.Entry<String, List<Mutation>> cf : row.getValue().entrySet())
+			{
+				ColumnFamilyStore store = getStore(cf.getKey());
+				
+				for (Mutation mutation : cf.getValue())
+				{
+					if (mutation.isSetColumn_or_supercolumn())
+						apply(store, key, mutation.getColumn_or_supercolumn());
+					else if (mutation.isSetDeletion())
+						apply(store, key, mutation.getDeletion());
+					else
+						throw new InvalidRequestException("Mutation must have one and only one of "
+								+ "column_or_supercolumn or deletion");
+				}
+			}
+		}
+	}
+	
+	private void apply(ColumnFamilyStore store, ByteBuffer key, ColumnOrSuperColumn cosc)
+			throws InvalidRequestException
+	{
+		if (cosc.isSetColumn())
+		{
+			insert(store, key, null, cosc.getColumn());
+		}
+		else if (cosc.isSetSuper_column())
+		{
+			for (Column column : cosc.getSuper_column().getColumns())
+				insert(store, key, cosc.getSuper_column().bufferForName(), column);
+		}
+		else if (cosc.isSetCounter_column())
+		{
+			add(store, key, null, cosc.getCounter_column());
+		}
+		else if (cosc.isSetCounter_super_column())
+		{
+			for (CounterColumn column : cosc.getCounter_super_column().getColumns())
+				add(store, key, cosc.getCounter_super_column().bufferForName(), column);
+		}
+	}
+	
+	private void apply(ColumnFamilyStore store, ByteBuffer key, Deletion deletion) throws InvalidRequestException
+	{
+		long timestamp = (deletion.isSetTimestamp() ? deletion.getTimestamp() : Long.MAX_VALUE);
+		ByteBuffer superColumn = deletion.bufferForSuper_column();
+		SlicePredicate predicate = deletion.getPredicate();
+		
+		if (predicate == null)
+		{
+			remove(store, key, superColumn, null, timestamp);
+		}
+		else if (predicate.isSetColumn_names())
+		{
+			for (ByteBuffer name : predicate.getColumn_names())
+			{
+				if (store.superColumnFamily && superColumn == null)
+					remove(store, key, name, null, timestamp);
+				else
+					remove(store, key, superColumn, name, timestamp);
+			}
+		}
+		else
+		{
+			throw new InvalidRequestException("Deletion does not yet support SliceRange predicates.");
+		}
+	}
+	
+	@Override
+	public void truncate(String cfname) throws InvalidRequestException
+	{
+		getStore(cfname).truncate();
+	}
+	
+	@Override
+	public Map<String, List<String>> describe_schema_versions()
+	{
+		Map<String, List<String>> result = new HashMap<String, List<String>>();
+		result.put(storage.getSchemaVersion(), Collections.singletonList(ENDPOINT));
+		return result;
+	}
+	
+	@Override
+	public List<KsDef> describe_keyspaces()
+	{
+		return storage.describeKeyspaces();
+	}
+	
+	@Override
+	public String describe_cluster_name()
+	{
+		return storage.getUrl();
+	}
+	
+	@Override
+	public String describe_version()
+	{
+		return "19.20.0";
+	}
+	
+	@Override
+	public List<TokenRange> describe_ring(String keyspace) throws InvalidRequestException
+	{
+		try
+		{
+			storage.describeKeyspace(keyspace);
+		}
+		catch (NotFoundException e)
+		{
+			throw new InvalidRequestException("Keyspace " + keyspace + " does not exist");
+		}
+		
+		// A single node owns the whole ring
+		return Collections.singletonList(new TokenRange("", "", Collections.singletonList(ENDPOINT)));
+	}
+	
+	@Override
+	public String describe_partitioner()
+	{
+		return PARTITIONER;
+	}
+	
+	@Override
+	public String describe_snitch()
+	{
+		return "org.apache.cassandra.locator.SimpleSnitch";
+	}
+	
+	@Override
+	public KsDef describe_keyspace(String keyspace) throws NotFoundException
+	{
+		return storage.describeKeyspace(keyspace);
+	}
+	
+	@Override
+	public List<String> describe_splits(String cfName, String start_token, String end_token, int keys_per_split)
+			throws InvalidRequestException
+	{
+		if (keys_per_split < 1)
+			throw new InvalidRequestException("keys_per_split must be >= 1");
+		
+		Iterator<ByteBuffer> keys = keysOfTokenRange(getStore(cfName), start_token, end_token);
+		
+		List<String> result = new ArrayList<String>();
+		result.add(start_token);
+		
+		int count = 0;
+		while (keys.hasNext())
+		{
+			ByteBuffer key = keys.next();
+			if (++count % keys_per_split == 0 && keys.hasNext())
+				result.add(tokenFactory.getToken(key));
+		}
+		
+		result.add(end_token);
+		return result;
+	}
+	
+	@Override
+	public String system_add_column_family(CfDef cf_def) throws InvalidRequestException
+	{
+		if (!cf_def.isSetKeyspace())
+			cf_def.setKeyspace(keyspace);
+		
+		return storage.addColumnFamily(cf_def);
+	}
+	
+	@Override
+	public String system_drop_column_family(String column_family) throws InvalidRequestException
+	{
+		return storage.dropColumnFamily(keyspace, column_family);
+	}
+	
+	@Override
+	public String system_add_keyspace(KsDef ks_def) throws InvalidRequestException
+	{
+		return storage.addKeyspace(ks_def);
+	}
+	
+	@Override
+	public String system_drop_keyspace(String keyspace) throws InvalidRequestException
+	{
+		return storage.dropKeyspace(keyspace);
+	}
+	
+	@Override
+	public String system_update_keyspace(KsDef ks_def) throws InvalidRequestException
+	{
+		return storage.updateKeyspace(ks_def);
+	}
+	
+	@Override
+	public String system_update_column_family(CfDef cf_def) throws InvalidRequestException
+	{
+		return storage.updateColumnFamily(cf_def);
+	}
+	
+	@Override
+	public CqlResult execute_cql_query(ByteBuffer query, Compression compression) throws InvalidRequestException
+	{
+		throw new InvalidRequestException("CQL is not supported by the local backends");
+	}
+	
+	private ColumnFamilyStore getStore(String columnFamily) throws InvalidRequestException
+	{
+		return storage.getStore(keyspace, columnFamily);
+	}
+	
+	private static void checkSuperColumn(ColumnFamilyStore store, ByteBuffer superColumn)
+			throws InvalidRequestException
+	{
+		checkSuperColumnParent(store, superColumn);
+		
+		if (store.superColumnFamily && superColumn == null)
+			throw new InvalidRequestException("supercolumn parameter is not optional for super CF " + store.name);
+	}
+	
+	private static void checkSuperColumnParent(ColumnFamilyStore store, ByteBuffer superColumn)
+			throws InvalidRequestException
+	{
+		if (!store.superColumnFamily && superColumn != null)
+			throw new InvalidRequestException("supercolumn parameter is invalid for standard CF " + store.name);
+	}
+	
+	private List<ColumnOrSuperColumn> getSlice(ColumnFamilyStore store, ByteBuffer key, ByteBuffer superColumn,
+			SlicePredicate predicate, long now) throws InvalidRequestException
+	{
+		boolean superColumns = (store.superColumnFamily && superColumn == null);
+		Comparator<ByteBuffer> comparator = (superColumn != null ? store.subComparator : store.comparator);
+		
+		List<ColumnOrSuperColumn> result = new ArrayList<ColumnOrSuperColumn>();
+		
+		if (predicate.isSetColumn_names())
+		{
+			// Returned in the order of the column family, without duplicates
+			TreeSet<ByteBuffer> names = new TreeSet<ByteBuffer>(comparator);
+			names.addAll(predicate.getColumn_names());
+			
+			for (ByteBuffer name : names)
+			{
+				if (superColumns)
+				{
+					ColumnOrSuperColumn sc = getSuperColumn(store, key, name, now);
+					if (sc != null)
+						result.add(sc);
+				}
+				else
+				{
+					LocalColumn column = store.getColumn(key, superColumn, name);
+					if (column != null && column.isLive(now))
+						result.add(toThrift(store, column));
+				}
+			}
+		}
+		else if (predicate.isSetSlice_range())
+		{
+			SliceRange range = predicate.getSlice_range();
+			ByteBuffer start = (range.bufferForStart() != null ? range.bufferForStart() : EMPTY);
+			ByteBuffer finish = (range.bufferForFinish() != null ? range.bufferForFinish() : EMPTY);
+			
+			if (superColumns)
+			{
+				Iterator<ByteBuffer> names = store.superColumnNames(key, start, range.isReversed());
+				while (result.size() < range.getCount() && names.hasNext())
+				{
+					ByteBuffer name = names.next();
+					if (isAfter(comparator, name, finish, range.isReversed()))
+						break;
+					
+					ColumnOrSuperColumn sc = getSuperColumn(store, key, name, now);
+					if (sc != null)
+						result.add(sc);
+				}
+			}
+			else
+			{
+				Iterator<LocalColumn> columns = store.columns(key, superColumn, start, range.isReversed());
+				while (result.size() < range.getCount() && columns.hasNext())
+				{
+					LocalColumn column = columns.next();
+					if (isAfter(comparator, column.name, finish, range.isReversed()))
+						break;
+					
+					if (column.isLive(now))
+						result.add(toThrift(store, column));
+				}
+			}
+		}
+		else
+		{
+			throw new InvalidRequestException("A SlicePredicate must be given a list of Columns, a SliceRange, "
+					+ "or both");
+		}
+		
+		return result;
+	}
+	
+	private static boolean isAfter(Comparator<ByteBuffer> comparator, ByteBuffer name, ByteBuffer finish,
+			boolean reversed)
+	{
+		if (!finish.hasRemaining())
+			return false;
+		
+		int cmp = comparator.compare(name, finish);
+		return (reversed ? cmp < 0 : cmp > 0);
+	}
+	
+	private ColumnOrSuperColumn getSuperColumn(ColumnFamilyStore store, ByteBuffer key, ByteBuffer name, long now)
+	{
+		List<LocalColumn> columns = new ArrayList<LocalColumn>();
+		for (Iterator<LocalColumn> it = store.columns(key, name, EMPTY, false); it.hasNext();)
+		{
+			LocalColumn column = it.next();
+			if (column.isLive(now))
+				columns.add(column);
+		}
+		
+		if (columns.isEmpty())
+			return null;
+		
+		ColumnOrSuperColumn result = new ColumnOrSuperColumn();
+		if (store.counters)
+		{
+			List<CounterColumn> counters = new ArrayList<CounterColumn>(columns.size());
+			for (LocalColumn column : columns)
+				counters.add(column.toThriftCounter());
+			result.setCounter_super_column(new CounterSuperColumn(name.duplicate(), counters));
+		}
+		else
+		{
+			List<Column> thrift = new ArrayList<Column>(columns.size());
+			for (LocalColumn column : columns)
+				thrift.add(column.toThrift());
+			result.setSuper_column(new SuperColumn(name.duplicate(), thrift));
+		}
+		return result;
+	}
+	
+	private static ColumnOrSuperColumn toThrift(ColumnFamilyStore store, LocalColumn column)
+	{
+		ColumnOrSuperColumn result = new ColumnOrSuperColumn();
+		if (store.counters)
+			result.setCounter_column(column.toThriftCounter());
+		else
+			result.setColumn(column.toThrift());
+		return result;
+	}
+	
+	// Range (start, end], wrapping around the ring if start >= end
+	private Iterator<ByteBuffer> keysOfTokenRange(ColumnFamilyStore store, String startToken, String endToken)
+			throws InvalidRequestException
+	{
+		ByteBuffer start = fromToken(startToken);
+		ByteBuffer end = fromToken(endToken);
+		
+		if (!end.hasRemaining())
+			return new RangeKeys(store, start, false, null);
+		
+		if (LocalComparators.BYTES.compare(start, end) < 0)
+			return new RangeKeys(store, start, false, end);
+		
+		RangeKeys result = new RangeKeys(store, start, false, null);
+		result.wrapUntil(end);
+		return result;
+	}
+	
+	private static ByteBuffer fromToken(String token) throws InvalidRequestException
+	{
+		if (token == null)
+			return EMPTY;
+		
+		if (token.length() % 2 != 0)
+			throw new InvalidRequestException("Invalid token for ByteOrderedPartitioner: " + token);
+		
+		byte[] bytes = new byte[token.length() / 2];
+		for (int i = 0; i < bytes.length; i++)
+		{
+			int high = Character.digit(token.charAt(i * 2), 16);
+			int low = Character.digit(token.charAt(i * 2 + 1), 16);
+			if (high < 0 || low < 0)
+				throw new InvalidRequestException("Invalid token for ByteOrderedPartitioner: " + token);
+			
+			bytes[i] = (byte) ((high << 4) | low);
+		}
+		return ByteBuffer.wrap(bytes);
+	}
+	
+	private static class RangeKeys implements Iterator<ByteBuffer>
+	{
+		private final ColumnFamilyStore store;
+		private final ByteBuffer start;
+		private boolean startInclusive;
+		private ByteBuffer end;
+		private ByteBuffer wrapEnd;
+		private Iterator<ByteBuffer> keys;
+		private ByteBuffer next;
+		
+		RangeKeys(ColumnFamilyStore store, ByteBuffer start, boolean startInclusive, ByteBuffer end)
+		{
+			this.store = store;
+			this.start = start;
+			this.startInclusive = startInclusive;
+			this.end = end;
+			keys = store.rowKeys(start);
+		}
+		
+		void wrapUntil(ByteBuffer end)
+		{
+			wrapEnd = end;
+		}
+		
+		@Override
+		public boolean hasNext()
+		{
+			while (next == null)
+			{
+				if (keys.hasNext())
+				{
+					ByteBuffer key = keys.next();
+					
+					if (end != null && LocalComparators.BYTES.compare(key, end) > 0)
+						keys = Collections.<ByteBuffer> emptyList().iterator();
+					else if (startInclusive || LocalComparators.BYTES.compare(key, start) != 0)
+						next = key;
+				}
+				else if (wrapEnd != null)
+				{
+					keys = store.rowKeys(EMPTY);
+					end = wrapEnd;
+					wrapEnd = null;
+					// start == end is the whole ring, so start is in the second part
+					startInclusive = true;
+				}
+				else
+				{
+					return false;
+				}
+			}
+			
+			return true;
+		}
+		
+		@Override
+		public ByteBuffer next()
+		{
+			if (!hasNext())
+				throw new NoSuchElementException();
+			
+			ByteBuffer result = next;
+			next = null;
+			return result;
+		}
+		
+		@Override
+		public void remove()
+		{
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,292 @@
+package org.pescuma.dummycassandra;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import me.prettyprint.cassandra.connection.HConnectionManager;
+import me.prettyprint.cassandra.service.CassandraHost;
+import me.prettyprint.cassandra.service.ExceptionsTranslator;
+import me.prettyprint.cassandra.service.ExceptionsTranslatorImpl;
+import me.prettyprint.cassandra.service.ThriftCfDef;
+import me.prettyprint.cassandra.service.ThriftKsDef;
+import me.prettyprint.hector.api.Cluster;
+import me.prettyprint.hector.api.ddl.ColumnFamilyDefinition;
+import me.prettyprint.hector.api.ddl.KeyspaceDefinition;
+import me.prettyprint.hector.api.exceptions.HectorException;
+
+import org.apache.cassandra.thrift.CfDef;
+import org.apache.cassandra.thrift.KsDef;
+import org.apache.cassandra.thrift.NotFoundException;
+import org.apache.cassandra.thrift.TokenRange;
+
+class LocalCluster implements Cluster
+{
+	private final String name;
+	private final LocalStorage storage;
+	private final LocalConnectionManager connectionManager;
+	private final ExceptionsTranslator exceptionsTranslator = new ExceptionsTranslatorImpl();
+	
+	LocalCluster(String name, String url)
+	{
+		this.name = name;
+		storage = LocalStorage.get(url);
+		connectionManager = new LocalConnectionManager(name, storage);
+	}
+	
+	private LocalCassandraClient getClient()
+	{
+		return connectionManager.getClient(null);
+	}
+	
+	private static KsDef toThrift(KeyspaceDefinition ksdef)
+	{
+		if (ksdef instanceof ThriftKsDef)
+			return ((ThriftKsDef) ksdef).toThrift();
+		else
+			return new ThriftKsDef(ksdef).toThrift();
+	}
+	
+	private static CfDef toThrift(ColumnFamilyDefinition cfdef)
+	{
+		if (cfdef instanceof ThriftCfDef)
+			return ((ThriftCfDef) cfdef).toThrift();
+		else
+			return new ThriftCfDef(cfdef).toThrift();
+	}
+	
+	@Override
+	public Set<CassandraHost> getKnownPoolHosts(boolean refreshCache)
+	{
+		return Collections.emptySet();
+	}
+	
+	@Override
+	public HConnectionManager getConnectionManager()
+	{
+		return connectionManager;
+	}
+	
+	@Override
+	public void addHost(CassandraHost cassandraHost, boolean skipApplyConfig)
+	{
+		throw new UnsupportedOperationException("Local clusters have no hosts");
+	}
+	
+	@Override
+	public String getName()
+	{
+		return name;
+	}
+	
+	@Override
+	@Deprecated
+	public String getClusterName() throws HectorException
+	{
+		return describeClusterName();
+	}
+	
+	@Override
+	public String describeClusterName() throws HectorException
+	{
+		return getClient().describe_cluster_name();
+	}
+	
+	@Override
+	public String describeThriftVersion() throws HectorException
+	{
+		return getClient().describe_version();
+	}
+	
+	@Override
+	public Map<String, List<String>> describeSchemaVersions() throws HectorException
+	{
+		return getClient().describe_schema_versions();
+	}
+	
+	@Override
+	public KeyspaceDefinition describeKeyspace(String keyspace) throws HectorException
+	{
+		try
+		{
+			return new ThriftKsDef(getClient().describe_keyspace(keyspace));
+		}
+		catch (NotFoundException e)
+		{
+			return null;
+		}
+	}
+	
+	@Override
+	public List<KeyspaceDefinition> describeKeyspaces() throws HectorException
+	{
+		return ThriftKsDef.fromThriftList(getClient().describe_keyspaces());
+	}
+	
+	@Override
+	public List<TokenRange> describeRing(String keyspace) throws HectorException
+	{
+		try
+		{
+			return getClient().describe_ring(keyspace);
+		}
+		catch (Exception e)
+		{
+			throw exceptionsTranslator.translate(e);
+		}
+	}
+	
+	@Override
+	public String describePartitioner() throws HectorException
+	{
+		return getClient().describe_partitioner();
+	}
+	
+	@Override
+	public String dropKeyspace(String keyspace) throws HectorException
+	{
+		try
+		{
+			return getClient().system_drop_keyspace(keyspace);
+		}
+		catch (Exception e)
+		{
+			throw exceptionsTranslator.translate(e);
+		}
+	}
+	
+	@Override
+	public String dropKeyspace(String keyspace, boolean waitForSchemaAgreement) throws HectorException
+	{
+		return dropKeyspace(keyspace);
+	}
+	
+	@Override
+	public String updateKeyspace(KeyspaceDefinition ksdef) throws HectorException
+	{
+		try
+		{
+			return getClient().system_update_keyspace(toThrift(ksdef));
+		}
+		catch (Exception e)
+		{
+			throw exceptionsTranslator.translate(e);
+		}
+	}
+	
+	@Override
+	public String updateKeyspace(KeyspaceDefinition ksdef, boolean waitForSchemaAgreement) throws HectorException
+	{
+		return updateKeyspace(ksdef);
+	}
+	
+	@Override
+	public String addKeyspace(KeyspaceDefinition ksdef) throws HectorException
+	{
+		try
+		{
+			return getClient().system_add_keyspace(toThrift(ksdef));
+		}
+		catch (Exception e)
+		{
+			throw exceptionsTranslator.translate(e);
+		}
+	}
+	
+	@Override
+	public String addKeyspace(KeyspaceDefinition ksdef, boolean waitForSchemaAgreement) throws HectorException
+	{
+		return addKeyspace(ksdef);
+	}
+	
+	@Override
+	public String addColumnFamily(ColumnFamilyDefinition cfdef) throws HectorException
+	{
+		try
+		{
+			return getClient().system_add_column_family(toThrift(cfdef));
+		}
+		catch (Exception e)
+		{
+			throw exceptionsTranslator.translate(e);
+		}
+	}
+	
+	@Override
+	public String addColumnFamily(ColumnFamilyDefinition cfdef, boolean waitForSchemaAgreement)
+			throws HectorException
+	{
+		return addColumnFamily(cfdef);
+	}
+	
+	@Override
+	public String updateColumnFamily(ColumnFamilyDefinition cfdef) throws HectorException
+	{
+		try
+		{
+			return getClient().system_update_column_family(toThrift(cfdef));
+		}
+		catch (Exception e)
+		{
+			throw exceptionsTranslator.translate(e);
+		}
+	}
+	
+	@Override
+	public String updateColumnFamily(ColumnFamilyDefinition cfdef, boolean waitForSchemaAgreement)
+			throws HectorException
+	{
+		return updateColumnFamily(cfdef);
+	}
+	
+	@Override
+	public String dropColumnFamily(String keyspaceName, String columnFamily) throws HectorException
+	{
+		try
+		{
+			return connectionManager.getClient(keyspaceName).system_drop_column_family(columnFamily);
+		}
+		catch (Exception e)
+		{
+			throw exceptionsTranslator.translate(e);
+		}
+	}
+	
+	@Override
+	public String dropColumnFamily(String keyspaceName, String columnFamily, boolean waitForSchemaAgreement)
+			throws HectorException
+	{
+		return dropColumnFamily(keyspaceName, columnFamily);
+	}
+	
+	@Override
+	public void truncate(String keyspaceName, String columnFamily) throws HectorException
+	{
+		try
+		{
+			connectionManager.getClient(keyspaceName).truncate(columnFamily);
+		}
+		catch (Exception e)
+		{
+			throw exceptionsTranslator.translate(e);
+		}
+	}
+	
+	@Override
+	public Map<String, String> getCredentials()
+	{
+		return Collections.emptyMap();
+	}
+	
+	@Override
+	public void onStartup()
+	{
+	}
+	
+	@Override
+	public String toString()
+	{
+		return "LocalCluster(" + name + ", " + storage.getUrl() + ")";
+	}
+}
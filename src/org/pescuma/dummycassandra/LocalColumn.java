@@ -0,0 +1,85 @@
+package org.pescuma.dummycassandra;
+
+import java.nio.ByteBuffer;
+
+import org.apache.cassandra.thrift.Column;
+import org.apache.cassandra.thrift.CounterColumn;
+
+class LocalColumn
+{
+	final ByteBuffer name;
+	final ByteBuffer value;
+	final long timestamp;
+	final int ttl;
+	final long expiresAt;
+	
+	LocalColumn(ByteBuffer name, ByteBuffer value, long timestamp, int ttl, long expiresAt)
+	{
+		this.name = name;
+		this.value = value;
+		this.timestamp = timestamp;
+		this.ttl = ttl;
+		this.expiresAt = expiresAt;
+	}
+	
+	static LocalColumn fromThrift(Column column)
+	{
+		int ttl = (column.isSetTtl() ? column.getTtl() : 0);
+		long expiresAt = (ttl > 0 ? System.currentTimeMillis() + ttl * 1000L : 0);
+		
+		return new LocalColumn(copy(column.bufferForName()), copy(column.bufferForValue()), column.getTimestamp(), ttl,
+				expiresAt);
+	}
+	
+	static LocalColumn counter(ByteBuffer name, long value)
+	{
+		ByteBuffer bytes = ByteBuffer.allocate(8);
+		bytes.putLong(0, value);
+		return new LocalColumn(name, bytes, 0, 0, 0);
+	}
+	
+	boolean isLive(long now)
+	{
+		return expiresAt == 0 || expiresAt > now;
+	}
+	
+	long getCounterValue()
+	{
+		return value.getLong(value.position());
+	}
+	
+	boolean supersedes(LocalColumn other)
+	{
+		if (timestamp != other.timestamp)
+			return timestamp > other.timestamp;
+		
+		// Same rule as cassandra: on a tie the bigger value wins
+		return LocalComparators.BYTES.compare(value, other.value) >= 0;
+	}
+	
+	Column toThrift()
+	{
+		Column result = new Column(name.duplicate());
+		result.setValue(value.duplicate());
+		result.setTimestamp(timestamp);
+		if (ttl > 0)
+			result.setTtl(ttl);
+		return result;
+	}
+	
+	CounterColumn toThriftCounter()
+	{
+		return new CounterColumn(name.duplicate(), getCounterValue());
+	}
+	
+	static ByteBuffer copy(ByteBuffer buffer)
+	{
+		if (buffer == null)
+			return null;
+		
+		ByteBuffer result = ByteBuffer.allocate(buffer.remaining());
+		result.put(buffer.duplicate());
+		result.flip();
+		return result;
+	}
+}
@@ -0,0 +1,275 @@
+package org.pescuma.dummycassandra;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+class LocalComparators
+{
+	static final Comparator<ByteBuffer> BYTES = new Comparator<ByteBuffer>() {
+		@Override
+		public int compare(ByteBuffer o1, ByteBuffer o2)
+		{
+			int p1 = o1.position();
+			int p2 = o2.position();
+			int length = Math.min(o1.remaining(), o2.remaining());
+			
+			for (int i = 0; i < length; i++)
+			{
+				int b1 = o1.get(p1 + i) & 0xFF;
+				int b2 = o2.get(p2 + i) & 0xFF;
+				if (b1 != b2)
+					return b1 - b2;
+			}
+			
+			return o1.remaining() - o2.remaining();
+		}
+	};
+	
+	static final Comparator<ByteBuffer> LONG = new EmptyFirstComparator() {
+		@Override
+		int compareNotEmpty(ByteBuffer o1, ByteBuffer o2)
+		{
+			return compareLongs(o1.getLong(o1.position()), o2.getLong(o2.position()));
+		}
+	};
+	
+	static final Comparator<ByteBuffer> INT32 = new EmptyFirstComparator() {
+		@Override
+		int compareNotEmpty(ByteBuffer o1, ByteBuffer o2)
+		{
+			return compareLongs(o1.getInt(o1.position()), o2.getInt(o2.position()));
+		}
+	};
+	
+	static final Comparator<ByteBuffer> INTEGER = new EmptyFirstComparator() {
+		@Override
+		int compareNotEmpty(ByteBuffer o1, ByteBuffer o2)
+		{
+			return new BigInteger(toBytes(o1)).compareTo(new BigInteger(toBytes(o2)));
+		}
+	};
+	
+	static final Comparator<ByteBuffer> TIME_UUID = new EmptyFirstComparator() {
+		@Override
+		int compareNotEmpty(ByteBuffer o1, ByteBuffer o2)
+		{
+			int result = compareLongs(timestampOf(o1), timestampOf(o2));
+			if (result != 0)
+				return result;
+			
+			return o1.compareTo(o2);
+		}
+	};
+	
+	static final Comparator<ByteBuffer> UUID = new EmptyFirstComparator() {
+		@Override
+		int compareNotEmpty(ByteBuffer o1, ByteBuffer o2)
+		{
+			int v1 = versionOf(o1);
+			int v2 = versionOf(o2);
+			if (v1 != v2)
+				return v1 - v2;
+			
+			if (v1 == 1)
+			{
+				int result = compareLongs(timestampOf(o1), timestampOf(o2));
+				if (result != 0)
+					return result;
+			}
+			
+			return BYTES.compare(o1, o2);
+		}
+	};
+	
+	static final Comparator<ByteBuffer> LEXICAL_UUID = new EmptyFirstComparator() {
+		@Override
+		int compareNotEmpty(ByteBuffer o1, ByteBuffer o2)
+		{
+			int result = compareLongs(o1.getLong(o1.position()), o2.getLong(o2.position()));
+			if (result != 0)
+				return result;
+			
+			return compareLongs(o1.getLong(o1.position() + 8), o2.getLong(o2.position() + 8));
+		}
+	};
+	
+	static final Comparator<ByteBuffer> DOUBLE = new EmptyFirstComparator() {
+		@Override
+		int compareNotEmpty(ByteBuffer o1, ByteBuffer o2)
+		{
+			return Double.compare(o1.getDouble(o1.position()), o2.getDouble(o2.position()));
+		}
+	};
+	
+	private LocalComparators()
+	{
+	}
+	
+	static Comparator<ByteBuffer> forType(String type)
+	{
+		if (type == null)
+			return BYTES;
+		
+		type = type.trim();
+		
+		int params = type.indexOf('(');
+		if (params >= 0 && type.endsWith(")"))
+		{
+			String name = type.substring(type.lastIndexOf('.', params) + 1, params);
+			if ("CompositeType".equals(name))
+				return new CompositeComparator(forTypes(type.substring(params + 1, type.length() - 1)));
+			
+			throw new IllegalArgumentException("Type not supported by the local backends: " + type);
+		}
+		
+		String name = type.substring(type.lastIndexOf('.') + 1);
+		
+		// DateType and BooleanType compare the bytes in cassandra 1.0
+		if ("BytesType".equals(name) || "AsciiType".equals(name) || "UTF8Type".equals(name)
+				|| "DateType".equals(name) || "BooleanType".equals(name))
+			return BYTES;
+		if ("LongType".equals(name) || "CounterColumnType".equals(name))
+			return LONG;
+		if ("Int32Type".equals(name))
+			return INT32;
+		if ("IntegerType".equals(name))
+			return INTEGER;
+		if ("TimeUUIDType".equals(name))
+			return TIME_UUID;
+		if ("UUIDType".equals(name))
+			return UUID;
+		if ("LexicalUUIDType".equals(name))
+			return LEXICAL_UUID;
+		if ("DoubleType".equals(name))
+			return DOUBLE;
+		
+		throw new IllegalArgumentException("Type not supported by the local backends: " + type);
+	}
+	
+	private static List<Comparator<ByteBuffer>> forTypes(String types)
+	{
+		List<Comparator<ByteBuffer>> result = new ArrayList<Comparator<ByteBuffer>>();
+		
+		int depth = 0;
+		int start = 0;
+		for (int i = 0; i < types.length(); i++)
+		{
+			char c = types.charAt(i);
+			if (c == '(')
+				depth++;
+			else if (c == ')')
+				depth--;
+			else if (c == ',' && depth == 0)
+			{
+				result.add(forType(types.substring(start, i)));
+				start = i + 1;
+			}
+		}
+		result.add(forType(types.substring(start)));
+		
+		return result;
+	}
+	
+	private static int compareLongs(long a, long b)
+	{
+		return (a < b ? -1 : (a == b ? 0 : 1));
+	}
+	
+	private static int versionOf(ByteBuffer uuid)
+	{
+		return (uuid.get(uuid.position() + 6) >> 4) & 0x0F;
+	}
+	
+	private static long timestampOf(ByteBuffer uuid)
+	{
+		long msb = uuid.getLong(uuid.position());
+		return ((msb & 0x0FFFL) << 48) | (((msb >>> 16) & 0xFFFFL) << 32) | (msb >>> 32);
+	}
+	
+	private static byte[] toBytes(ByteBuffer buffer)
+	{
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.duplicate().get(bytes);
+		return bytes;
+	}
+	
+	// Each component is a 2 bytes length, its bytes and an end-of-component
+	// byte, compared as AbstractCompositeType does
+	private static class CompositeComparator implements Comparator<ByteBuffer>
+	{
+		private final List<Comparator<ByteBuffer>> components;
+		
+		CompositeComparator(List<Comparator<ByteBuffer>> components)
+		{
+			this.components = components;
+		}
+		
+		@Override
+		public int compare(ByteBuffer o1, ByteBuffer o2)
+		{
+			ByteBuffer b1 = o1.duplicate();
+			ByteBuffer b2 = o2.duplicate();
+			
+			int i = 0;
+			while (b1.hasRemaining() && b2.hasRemaining())
+			{
+				if (i >= components.size())
+					throw new IllegalArgumentException("Composite has more than " + components.size()
+							+ " components");
+				
+				int result = components.get(i).compare(readComponent(b1), readComponent(b2));
+				if (result != 0)
+					return result;
+				
+				byte eoc1 = b1.get();
+				byte eoc2 = b2.get();
+				if (eoc1 < 0)
+				{
+					if (eoc2 >= 0)
+						return -1;
+				}
+				else if (eoc1 > 0)
+				{
+					if (eoc2 <= 0)
+						return 1;
+				}
+				else if (eoc2 != 0)
+				{
+					return -eoc2;
+				}
+				
+				i++;
+			}
+			
+			if (!b1.hasRemaining())
+				return (b2.hasRemaining() ? -1 : 0);
+			return 1;
+		}
+		
+		private static ByteBuffer readComponent(ByteBuffer buffer)
+		{
+			int length = buffer.getShort() & 0xFFFF;
+			ByteBuffer result = buffer.slice();
+			result.limit(length);
+			buffer.position(buffer.position() + length);
+			return result;
+		}
+	}
+	
+	private abstract static class EmptyFirstComparator implements Comparator<ByteBuffer>
+	{
+		@Override
+		public int compare(ByteBuffer o1, ByteBuffer o2)
+		{
+			if (!o1.hasRemaining() || !o2.hasRemaining())
+				return (o1.hasRemaining() ? 1 : 0) - (o2.hasRemaining() ? 1 : 0);
+			
+			return compareNotEmpty(o1, o2);
+		}
+		
+		abstract int compareNotEmpty(ByteBuffer o1, ByteBuffer o2);
+	}
+}
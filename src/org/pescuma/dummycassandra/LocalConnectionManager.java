@@ -0,0 +1,69 @@
+package org.pescuma.dummycassandra;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import me.prettyprint.cassandra.connection.HConnectionManager;
+import me.prettyprint.cassandra.service.CassandraHost;
+import me.prettyprint.cassandra.service.CassandraHostConfigurator;
+import me.prettyprint.cassandra.service.ExceptionsTranslator;
+import me.prettyprint.cassandra.service.ExceptionsTranslatorImpl;
+import me.prettyprint.cassandra.service.Operation;
+import me.prettyprint.hector.api.exceptions.HectorException;
+
+class LocalConnectionManager extends HConnectionManager
+{
+	private static final String NO_KEYSPACE = "";
+	
+	private final LocalStorage storage;
+	private final CassandraHost host;
+	private final ExceptionsTranslator exceptionsTranslator = new ExceptionsTranslatorImpl();
+	private final ConcurrentMap<String, LocalCassandraClient> clients = new ConcurrentHashMap<String, LocalCassandraClient>();
+	
+	LocalConnectionManager(String clusterName, LocalStorage storage)
+	{
+		super(clusterName, createConfigurator());
+		
+		this.storage = storage;
+		host = new CassandraHost(LocalCassandraClient.ENDPOINT);
+	}
+	
+	private static CassandraHostConfigurator createConfigurator()
+	{
+		// "," splits into no hosts, so no pool is created: there is nothing to
+		// connect to
+		CassandraHostConfigurator result = new CassandraHostConfigurator(",");
+		result.setRetryDownedHosts(false);
+		result.setAutoDiscoverHosts(false);
+		return result;
+	}
+	
+	@Override
+	public void operateWithFailover(Operation<?> op) throws HectorException
+	{
+		try
+		{
+			op.executeAndSetResult(getClient(op.keyspaceName), host);
+		}
+		catch (Exception e)
+		{
+			throw exceptionsTranslator.translate(e);
+		}
+	}
+	
+	LocalCassandraClient getClient(String keyspace)
+	{
+		String key = (keyspace == null ? NO_KEYSPACE : keyspace);
+		
+		LocalCassandraClient client = clients.get(key);
+		if (client == null)
+		{
+			client = new LocalCassandraClient(storage, keyspace);
+			
+			LocalCassandraClient old = clients.putIfAbsent(key, client);
+			if (old != null)
+				client = old;
+		}
+		return client;
+	}
+}
@@ -0,0 +1,248 @@
+package org.pescuma.dummycassandra;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.cassandra.thrift.CfDef;
+import org.apache.cassandra.thrift.InvalidRequestException;
+import org.apache.cassandra.thrift.KsDef;
+import org.apache.cassandra.thrift.NotFoundException;
+
+class LocalStorage
+{
+	static final String MEMORY_URL_PREFIX = "mem://";
+	static final String OFF_HEAP_URL_PREFIX = "offheap://";
+	static final String FILE_URL_PREFIX = "file://";
+	
+	private static final Map<String, LocalStorage> storages = new HashMap<String, LocalStorage>();
+	
+	private final String url;
+	private final ConcurrentMap<String, LocalKeyspace> keyspaces = new ConcurrentHashMap<String, LocalKeyspace>();
+	private volatile String schemaVersion = UUID.randomUUID().toString();
+	
+	private LocalStorage(String url)
+	{
+		this.url = url;
+	}
+	
+	static boolean isLocal(String host)
+	{
+		return host.startsWith(MEMORY_URL_PREFIX) || host.startsWith(OFF_HEAP_URL_PREFIX)
+				|| host.startsWith(FILE_URL_PREFIX);
+	}
+	
+	static LocalStorage get(String url)
+	{
+		if (!isLocal(url))
+			throw new IllegalArgumentException("Not a local backend: " + url);
+		
+		synchronized (storages)
+		{
+			LocalStorage result = storages.get(url);
+			if (result == null)
+			{
+				result = new LocalStorage(url);
+				storages.put(url, result);
+			}
+			return result;
+		}
+	}
+	
+	String getUrl()
+	{
+		return url;
+	}
+	
+	String getSchemaVersion()
+	{
+		return schemaVersion;
+	}
+	
+	private ColumnFamilyStore createStore(CfDef def)
+	{
+		if (url.startsWith(OFF_HEAP_URL_PREFIX))
+			return new OffHeapColumnFamilyStore(def);
+		else if (url.startsWith(FILE_URL_PREFIX))
+			return new LsmColumnFamilyStore(def, getDirectory(def));
+		else
+			return new MemoryColumnFamilyStore(def);
+	}
+	
+	private File getDirectory(CfDef def)
+	{
+		File root = new File(url.substring(FILE_URL_PREFIX.length()));
+		return new File(new File(root, def.getKeyspace()), def.getName());
+	}
+	
+	ColumnFamilyStore getStore(String keyspace, String columnFamily) throws InvalidRequestException
+	{
+		ColumnFamilyStore result = getKeyspace(keyspace).stores.get(columnFamily);
+		if (result == null)
+			throw new InvalidRequestException("unconfigured columnfamily " + columnFamily);
+		return result;
+	}
+	
+	private LocalKeyspace getKeyspace(String keyspace) throws InvalidRequestException
+	{
+		if (keyspace == null)
+			throw new InvalidRequestException("You have not set a keyspace for this session");
+		
+		LocalKeyspace result = keyspaces.get(keyspace);
+		if (result == null)
+			throw new InvalidRequestException("Keyspace " + keyspace + " does not exist");
+		return result;
+	}
+	
+	KsDef describeKeyspace(String keyspace) throws NotFoundException
+	{
+		LocalKeyspace ks = keyspaces.get(keyspace);
+		if (ks == null)
+			throw new NotFoundException();
+		
+		return ks.toThrift();
+	}
+	
+	List<KsDef> describeKeyspaces()
+	{
+		List<KsDef> result = new ArrayList<KsDef>();
+		for (LocalKeyspace ks : keyspaces.values())
+			result.add(ks.toThrift());
+		return result;
+	}
+	
+	synchronized String addKeyspace(KsDef def) throws InvalidRequestException
+	{
+		if (keyspaces.containsKey(def.getName()))
+			throw new InvalidRequestException("Keyspace already exists.");
+		
+		LocalKeyspace ks = new LocalKeyspace(def);
+		for (CfDef cf : def.getCf_defs())
+			ks.add(cf);
+		
+		keyspaces.put(def.getName(), ks);
+		
+		return schemaChanged();
+	}
+	
+	synchronized String updateKeyspace(KsDef def) throws InvalidRequestException
+	{
+		getKeyspace(def.getName()).def = copyWithoutColumnFamilies(def);
+		
+		return schemaChanged();
+	}
+	
+	synchronized String dropKeyspace(String keyspace) throws InvalidRequestException
+	{
+		LocalKeyspace ks = getKeyspace(keyspace);
+		keyspaces.remove(keyspace);
+		for (ColumnFamilyStore store : ks.stores.values())
+			store.drop();
+		
+		return schemaChanged();
+	}
+	
+	synchronized String addColumnFamily(CfDef def) throws InvalidRequestException
+	{
+		getKeyspace(def.getKeyspace()).add(def);
+		
+		return schemaChanged();
+	}
+	
+	synchronized String updateColumnFamily(CfDef def) throws InvalidRequestException
+	{
+		LocalKeyspace ks = getKeyspace(def.getKeyspace());
+		
+		CfDef old = ks.cfDefs.get(def.getName());
+		if (old == null)
+			throw new InvalidRequestException("Could not find column family definition to modify.");
+		if (!equals(old.getComparator_type(), def.getComparator_type())
+				|| !equals(old.getSubcomparator_type(), def.getSubcomparator_type()))
+			throw new InvalidRequestException("Cannot modify the comparator of column family " + def.getName());
+		
+		ks.cfDefs.put(def.getName(), new CfDef(def));
+		
+		return schemaChanged();
+	}
+	
+	synchronized String dropColumnFamily(String keyspace, String columnFamily) throws InvalidRequestException
+	{
+		LocalKeyspace ks = getKeyspace(keyspace);
+		if (ks.cfDefs.remove(columnFamily) == null)
+			throw new InvalidRequestException("CF is not defined in that keyspace.");
+		ColumnFamilyStore store = ks.stores.remove(columnFamily);
+		if (store != null)
+			store.drop();
+		
+		return schemaChanged();
+	}
+	
+	private String schemaChanged()
+	{
+		schemaVersion = UUID.randomUUID().toString();
+		return schemaVersion;
+	}
+	
+	private static boolean equals(String a, String b)
+	{
+		return (a == null ? b == null : a.equals(b));
+	}
+	
+	private static KsDef copyWithoutColumnFamilies(KsDef def)
+	{
+		KsDef result = new KsDef(def);
+		result.setCf_defs(new ArrayList<CfDef>());
+		return result;
+	}
+	
+	private class LocalKeyspace
+	{
+		KsDef def;
+		final ConcurrentMap<String, CfDef> cfDefs = new ConcurrentHashMap<String, CfDef>();
+		final ConcurrentMap<String, ColumnFamilyStore> stores = new ConcurrentHashMap<String, ColumnFamilyStore>();
+		
+		LocalKeyspace(KsDef def)
+		{
+			this.def = copyWithoutColumnFamilies(def);
+		}
+		
+		void add(CfDef def) throws InvalidRequestException
+		{
+			if (cfDefs.containsKey(def.getName()))
+				throw new InvalidRequestException(def.getName() + " already exists in keyspace " + this.def.getName());
+			
+			CfDef copy = new CfDef(def);
+			copy.setKeyspace(this.def.getName());
+			
+			ColumnFamilyStore store;
+			try
+			{
+				store = createStore(copy);
+			}
+			catch (IllegalArgumentException e)
+			{
+				throw new InvalidRequestException(e.getMessage());
+			}
+			
+			cfDefs.put(def.getName(), copy);
+			stores.put(def.getName(), store);
+		}
+		
+		KsDef toThrift()
+		{
+			KsDef result = new KsDef(def);
+			
+			List<CfDef> cfs = new ArrayList<CfDef>();
+			for (CfDef cf : cfDefs.values())
+				cfs.add(new CfDef(cf));
+			result.setCf_defs(cfs);
+			
+			return result;
+		}
+	}
+}
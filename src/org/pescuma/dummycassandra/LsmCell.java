@@ -0,0 +1,152 @@
+package org.pescuma.dummycassandra;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+
+/**
+ * One version of a column in a LsmColumnFamilyStore: the column written (if
+ * any) and the deletions of older versions (if any).
+ * <p>
+ * Versions are merged in the order they were written, with the same rules as
+ * MemoryColumnFamilyStore: the tombstone removes the older columns that are
+ * not newer than it, and then the column replaces the one left if it
+ * supersedes it (or is added to it, for counters).
+ */
+class LsmCell
+{
+	static final long NO_TOMBSTONE = Long.MIN_VALUE;
+	
+	private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+	
+	final ByteBuffer row;
+	final ByteBuffer superColumn;
+	final ByteBuffer name;
+	final long tombstone;
+	final LocalColumn column;
+	
+	LsmCell(ByteBuffer row, ByteBuffer superColumn, ByteBuffer name, long tombstone, LocalColumn column)
+	{
+		this.row = row;
+		this.superColumn = (superColumn == null ? EMPTY : superColumn);
+		this.name = name;
+		this.tombstone = tombstone;
+		this.column = column;
+	}
+	
+	static LsmCell key(ByteBuffer row, ByteBuffer superColumn, ByteBuffer name)
+	{
+		return new LsmCell(row, superColumn, (name == null ? EMPTY : name), NO_TOMBSTONE, null);
+	}
+	
+	static LsmCell merge(LsmCell older, LsmCell newer, boolean counters)
+	{
+		LocalColumn survivor = older.column;
+		if (survivor != null && survivor.timestamp <= newer.tombstone)
+			survivor = null;
+		
+		LocalColumn column;
+		if (survivor == null)
+			column = newer.column;
+		else if (newer.column == null)
+			column = survivor;
+		else if (counters)
+			column = LocalColumn.counter(newer.name, survivor.getCounterValue() + newer.column.getCounterValue());
+		else
+			column = (newer.column.supersedes(survivor) ? newer.column : survivor);
+		
+		return new LsmCell(newer.row, newer.superColumn, newer.name, Math.max(older.tombstone, newer.tombstone),
+				column);
+	}
+	
+	LsmCell withoutTombstone()
+	{
+		return new LsmCell(row, superColumn, name, NO_TOMBSTONE, column);
+	}
+	
+	int getSerializedSize()
+	{
+		int size = 4 + row.remaining() + 4 + superColumn.remaining() + 4 + name.remaining() + 8 + 1;
+		if (column != null)
+			size += 8 + 8 + 4 + 4 + column.value.remaining();
+		return size;
+	}
+	
+	void write(DataOutput out) throws IOException
+	{
+		writeBuffer(out, row);
+		writeBuffer(out, superColumn);
+		writeBuffer(out, name);
+		out.writeLong(tombstone);
+		out.writeBoolean(column != null);
+		if (column != null)
+		{
+			out.writeLong(column.timestamp);
+			out.writeLong(column.expiresAt);
+			out.writeInt(column.ttl);
+			writeBuffer(out, column.value);
+		}
+	}
+	
+	static void writeBuffer(DataOutput out, ByteBuffer buffer) throws IOException
+	{
+		out.writeInt(buffer.remaining());
+		if (buffer.hasArray())
+			out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+		else
+			for (int i = buffer.position(); i < buffer.limit(); i++)
+				out.write(buffer.get(i));
+	}
+	
+	static LsmCell read(ByteBuffer in)
+	{
+		ByteBuffer row = readBuffer(in);
+		ByteBuffer superColumn = readBuffer(in);
+		ByteBuffer name = readBuffer(in);
+		long tombstone = in.getLong();
+		
+		LocalColumn column = null;
+		if (in.get() != 0)
+		{
+			long timestamp = in.getLong();
+			long expiresAt = in.getLong();
+			int ttl = in.getInt();
+			column = new LocalColumn(name, readBuffer(in), timestamp, ttl, expiresAt);
+		}
+		
+		return new LsmCell(row, superColumn, name, tombstone, column);
+	}
+	
+	static ByteBuffer readBuffer(ByteBuffer in)
+	{
+		int length = in.getInt();
+		ByteBuffer result = in.slice();
+		result.limit(length);
+		in.position(in.position() + length);
+		return result;
+	}
+	
+	static Comparator<LsmCell> keyComparator(ColumnFamilyStore store)
+	{
+		final Comparator<ByteBuffer> superColumns = (store.superColumnFamily ? store.comparator
+				: LocalComparators.BYTES);
+		final Comparator<ByteBuffer> names = (store.superColumnFamily ? store.subComparator : store.comparator);
+		
+		return new Comparator<LsmCell>() {
+			@Override
+			public int compare(LsmCell o1, LsmCell o2)
+			{
+				int result = LocalComparators.BYTES.compare(o1.row, o2.row);
+				if (result != 0)
+					return result;
+				
+				result = superColumns.compare(o1.superColumn, o2.superColumn);
+				if (result != 0)
+					return result;
+				
+				return names.compare(o1.name, o2.name);
+			}
+		};
+	}
+}
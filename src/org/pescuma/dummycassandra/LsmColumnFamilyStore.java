@@ -0,0 +1,1135 @@
+package org.pescuma.dummycassandra;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.cassandra.thrift.CfDef;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a column family in a directory, as a log-structured merge tree (as
+ * cassandra does):
+ * <ul>
+ * <li>Writes are appended to a commit log and applied to a memtable in memory</li>
+ * <li>When the memtable is big enough it is written, in the background, to an
+ * immutable sorted segment file (with a bloom filter of its rows)</li>
+ * <li>Reads merge the memtables and the segments</li>
+ * <li>In the background, the newest segments are compacted into one when
+ * there are enough of them with similar sizes (size tiered compaction)</li>
+ * </ul>
+ * Writes and deletes never read the segments, except deletes of whole rows or
+ * super columns, that write a tombstone for each column they remove.
+ * <p>
+ * Writes and state changes hold the write lock. Reads hold the read lock while
+ * reading a batch of results, so segments can be replaced between batches.
+ */
+class LsmColumnFamilyStore extends ColumnFamilyStore
+{
+	static final long DEFAULT_MEMTABLE_SIZE = 8 << 20;
+	
+	private static final Logger logger = LoggerFactory.getLogger(LsmColumnFamilyStore.class);
+	
+	private static final int BATCH_SIZE = 128;
+	private static final int MIN_COMPACTION_SEGMENTS = 4;
+	private static final int MAX_FLUSHING_MEMTABLES = 2;
+	private static final long SYNC_INTERVAL_MS = 1000;
+	private static final long FLUSH_RETRY_MS = 1000;
+	
+	private final File dir;
+	private final long memtableSize;
+	private final Comparator<LsmCell> keyComparator;
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final Condition flushed = lock.writeLock().newCondition();
+	private final ScheduledExecutorService background;
+	
+	// Guarded by the lock
+	private State state;
+	private long nextId;
+	private boolean closed;
+	
+	LsmColumnFamilyStore(CfDef def, File dir)
+	{
+		this(def, dir, DEFAULT_MEMTABLE_SIZE);
+	}
+	
+	LsmColumnFamilyStore(CfDef def, File dir, long memtableSize)
+	{
+		super(def);
+		
+		this.dir = dir;
+		this.memtableSize = memtableSize;
+		keyComparator = LsmCell.keyComparator(this);
+		
+		try
+		{
+			state = open();
+		}
+		catch (IOException e)
+		{
+			throw new CassandraException("Error opening column family " + name + " in " + dir, e);
+		}
+		
+		background = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("lsm-" + name));
+		background.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run()
+			{
+				sync();
+			}
+		}, SYNC_INTERVAL_MS, SYNC_INTERVAL_MS, TimeUnit.MILLISECONDS);
+		background.execute(new Runnable() {
+			@Override
+			public void run()
+			{
+				compact();
+			}
+		});
+	}
+	
+	private State open() throws IOException
+	{
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Could not create " + dir);
+		
+		List<LsmSegment> segments = new ArrayList<LsmSegment>();
+		List<File> logFiles = new ArrayList<File>();
+		for (File file : listFiles())
+		{
+			String fileName = file.getName();
+			if (fileName.endsWith(".tmp"))
+				file.delete();
+			else if (fileName.startsWith(LsmSegment.PREFIX) && fileName.endsWith(LsmSegment.SUFFIX))
+				segments.add(LsmSegment.open(file, keyComparator));
+			else if (fileName.startsWith(LsmCommitLog.PREFIX) && fileName.endsWith(LsmCommitLog.SUFFIX))
+				logFiles.add(file);
+		}
+		
+		// A crash after a compaction can leave the segments it replaced behind
+		Set<Long> replaced = new HashSet<Long>();
+		for (LsmSegment segment : segments)
+			for (long id : segment.replaces)
+				replaced.add(id);
+		
+		long lastOrder = -1;
+		for (Iterator<LsmSegment> it = segments.iterator(); it.hasNext();)
+		{
+			LsmSegment segment = it.next();
+			nextId = Math.max(nextId, segment.id + 1);
+			if (replaced.contains(segment.id))
+			{
+				segment.close();
+				segment.file.delete();
+				it.remove();
+			}
+			else
+			{
+				lastOrder = Math.max(lastOrder, segment.order);
+			}
+		}
+		Collections.sort(segments, new Comparator<LsmSegment>() {
+			@Override
+			public int compare(LsmSegment o1, LsmSegment o2)
+			{
+				return (o1.order < o2.order ? -1 : (o1.order == o2.order ? 0 : 1));
+			}
+		});
+		
+		Collections.sort(logFiles);
+		List<LsmCell> replay = new ArrayList<LsmCell>();
+		List<File> replayed = new ArrayList<File>();
+		for (File file : logFiles)
+		{
+			String fileName = file.getName();
+			long id = Long.parseLong(fileName.substring(LsmCommitLog.PREFIX.length(), fileName.length()
+					- LsmCommitLog.SUFFIX.length()));
+			nextId = Math.max(nextId, id + 1);
+			
+			// The memtable of the log was flushed, but the log was not deleted
+			if (id <= lastOrder)
+			{
+				file.delete();
+				continue;
+			}
+			
+			List<LsmCell> cells = LsmCommitLog.read(file);
+			if (cells.isEmpty())
+			{
+				file.delete();
+				continue;
+			}
+			
+			replay.addAll(cells);
+			replayed.add(file);
+		}
+		
+		Memtable memtable = newMemtable();
+		for (LsmCell cell : replay)
+			memtable.apply(cell);
+		for (File file : replayed)
+			memtable.replayedLogs.add(file);
+		
+		if (!replay.isEmpty())
+			logger.info("Replayed " + replay.size() + " writes of column family " + name + " from " + replayed.size()
+					+ " commit logs");
+		
+		return new State(memtable, Collections.<Memtable> emptyList(), segments);
+	}
+	
+	private File[] listFiles() throws IOException
+	{
+		File[] files = dir.listFiles();
+		if (files == null)
+			throw new IOException("Could not list " + dir);
+		return files;
+	}
+	
+	private Memtable newMemtable() throws IOException
+	{
+		long id = nextId++;
+		return new Memtable(id, new LsmCommitLog(dir, id));
+	}
+	
+	@Override
+	Iterator<ByteBuffer> rowKeys(ByteBuffer startKey)
+	{
+		if (startKey == null)
+			startKey = ByteBuffer.allocate(0);
+		
+		final LsmCell start = LsmCell.key(startKey, null, null);
+		
+		return new BatchIterator<ByteBuffer>() {
+			private LsmCell from = start;
+			
+			@Override
+			boolean readBatch(State state, List<ByteBuffer> batch)
+			{
+				Iterator<LsmCell> cells = merge(state, from, null);
+				while (cells.hasNext())
+				{
+					LsmCell cell = cells.next();
+					if (cell.column == null)
+						continue;
+					
+					batch.add(cell.row);
+					
+					// Skips the rest of the row, as the row + a 0 byte is the
+					// first key after it
+					ByteBuffer next = ByteBuffer.allocate(cell.row.remaining() + 1);
+					next.put(cell.row.duplicate());
+					next.rewind();
+					from = LsmCell.key(next, null, null);
+					
+					if (batch.size() >= BATCH_SIZE)
+						return true;
+					
+					cells = merge(state, from, null);
+				}
+				return false;
+			}
+		};
+	}
+	
+	@Override
+	Iterator<LocalColumn> columns(final ByteBuffer key, final ByteBuffer superColumn, final ByteBuffer start,
+			final boolean reversed)
+	{
+		checkSuperColumn(superColumn);
+		
+		Iterator<LocalColumn> forward = new BatchIterator<LocalColumn>() {
+			private LsmCell from = LsmCell.key(key, superColumn, (reversed ? null : start));
+			private boolean afterFrom;
+			
+			@Override
+			boolean readBatch(State state, List<LocalColumn> batch)
+			{
+				Iterator<LsmCell> cells = merge(state, from, key);
+				while (cells.hasNext())
+				{
+					LsmCell cell = cells.next();
+					if (!isSameContainer(cell, key, superColumn))
+						return false;
+					
+					if (cell.column == null || (afterFrom && keyComparator.compare(cell, from) == 0))
+						continue;
+					
+					batch.add(cell.column);
+					
+					if (batch.size() >= BATCH_SIZE)
+					{
+						from = cell;
+						afterFrom = true;
+						return true;
+					}
+				}
+				return false;
+			}
+		};
+		
+		if (!reversed)
+			return forward;
+		
+		// Segments can only be read forward, so reversed slices read the
+		// columns up to start and then reverse them
+		Comparator<ByteBuffer> names = (superColumnFamily ? subComparator : comparator);
+		List<LocalColumn> result = new ArrayList<LocalColumn>();
+		while (forward.hasNext())
+		{
+			LocalColumn column = forward.next();
+			if (start.hasRemaining() && names.compare(column.name, start) > 0)
+				break;
+			result.add(column);
+		}
+		Collections.reverse(result);
+		return result.iterator();
+	}
+	
+	@Override
+	Iterator<ByteBuffer> superColumnNames(final ByteBuffer key, final ByteBuffer start, final boolean reversed)
+	{
+		Iterator<ByteBuffer> forward = new BatchIterator<ByteBuffer>() {
+			private LsmCell from = LsmCell.key(key, (reversed ? null : start), null);
+			private ByteBuffer last;
+			
+			@Override
+			boolean readBatch(State state, List<ByteBuffer> batch)
+			{
+				Iterator<LsmCell> cells = merge(state, from, key);
+				while (cells.hasNext())
+				{
+					LsmCell cell = cells.next();
+					if (!cell.row.equals(key))
+						return false;
+					
+					if (cell.column == null || cell.superColumn.equals(last))
+						continue;
+					
+					batch.add(cell.superColumn);
+					last = cell.superColumn;
+					
+					if (batch.size() >= BATCH_SIZE)
+					{
+						from = cell;
+						return true;
+					}
+				}
+				return false;
+			}
+		};
+		
+		if (!reversed)
+			return forward;
+		
+		List<ByteBuffer> result = new ArrayList<ByteBuffer>();
+		while (forward.hasNext())
+		{
+			ByteBuffer superColumn = forward.next();
+			if (start.hasRemaining() && comparator.compare(superColumn, start) > 0)
+				break;
+			result.add(superColumn);
+		}
+		Collections.reverse(result);
+		return result.iterator();
+	}
+	
+	private boolean isSameContainer(LsmCell cell, ByteBuffer key, ByteBuffer superColumn)
+	{
+		if (!cell.row.equals(key))
+			return false;
+		return !superColumnFamily || cell.superColumn.equals(superColumn);
+	}
+	
+	@Override
+	LocalColumn getColumn(ByteBuffer key, ByteBuffer superColumn, ByteBuffer name)
+	{
+		checkSuperColumn(superColumn);
+		
+		LsmCell search = LsmCell.key(key, superColumn, name);
+		
+		lock.readLock().lock();
+		try
+		{
+			checkOpen();
+			
+			LsmCell result = null;
+			for (LsmSegment segment : state.segments)
+				result = merge(result, segment.get(search));
+			for (Memtable memtable : state.flushing)
+				result = merge(result, memtable.cells.get(search));
+			result = merge(result, state.memtable.cells.get(search));
+			
+			return (result == null ? null : result.column);
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+	
+	private LsmCell merge(LsmCell older, LsmCell newer)
+	{
+		if (older == null)
+			return newer;
+		if (newer == null)
+			return older;
+		return LsmCell.merge(older, newer, counters);
+	}
+	
+	@Override
+	void insert(ByteBuffer key, ByteBuffer superColumn, LocalColumn column)
+	{
+		checkSuperColumn(superColumn);
+		
+		write(new LsmCell(key, superColumn, column.name, LsmCell.NO_TOMBSTONE, column));
+	}
+	
+	@Override
+	void add(ByteBuffer key, ByteBuffer superColumn, ByteBuffer name, long delta)
+	{
+		checkSuperColumn(superColumn);
+		
+		write(new LsmCell(key, superColumn, name, LsmCell.NO_TOMBSTONE, LocalColumn.counter(name, delta)));
+	}
+	
+	@Override
+	void remove(ByteBuffer key, ByteBuffer superColumn, ByteBuffer name, long timestamp)
+	{
+		key = LocalColumn.copy(key);
+		superColumn = LocalColumn.copy(superColumn);
+		name = LocalColumn.copy(name);
+		
+		if (name != null && (superColumn != null || !superColumnFamily))
+		{
+			write(new LsmCell(key, superColumn, name, timestamp, null));
+			return;
+		}
+		
+		// Tombstones are only kept for columns, so removing a super column or
+		// a row writes a tombstone for each of its columns
+		List<LsmCell> tombstones = new ArrayList<LsmCell>();
+		if (superColumnFamily && superColumn == null)
+		{
+			for (Iterator<ByteBuffer> scs = superColumnNames(key, ByteBuffer.allocate(0), false); scs.hasNext();)
+				addTombstones(tombstones, key, scs.next(), name, timestamp);
+		}
+		else
+		{
+			addTombstones(tombstones, key, superColumn, name, timestamp);
+		}
+		
+		for (LsmCell tombstone : tombstones)
+			write(tombstone);
+	}
+	
+	private void addTombstones(List<LsmCell> tombstones, ByteBuffer key, ByteBuffer superColumn, ByteBuffer name,
+			long timestamp)
+	{
+		if (name != null)
+		{
+			tombstones.add(new LsmCell(key, superColumn, name, timestamp, null));
+			return;
+		}
+		
+		for (Iterator<LocalColumn> it = columns(key, superColumn, ByteBuffer.allocate(0), false); it.hasNext();)
+		{
+			LocalColumn column = it.next();
+			if (column.timestamp <= timestamp)
+				tombstones.add(new LsmCell(key, superColumn, column.name, timestamp, null));
+		}
+	}
+	
+	private void write(LsmCell cell)
+	{
+		lock.writeLock().lock();
+		try
+		{
+			checkOpen();
+			
+			Memtable memtable = state.memtable;
+			memtable.log.append(cell);
+			memtable.apply(cell);
+			
+			if (memtable.size >= memtableSize)
+				switchMemtable();
+		}
+		catch (IOException e)
+		{
+			throw new CassandraException("Error writing to the commit log of column family " + name, e);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new CassandraException("Interrupted waiting for a flush of column family " + name, e);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+	
+	// Must hold the write lock
+	private Memtable switchMemtable() throws IOException, InterruptedException
+	{
+		// Do not let the memtables being flushed take all the memory
+		while (state.flushing.size() >= MAX_FLUSHING_MEMTABLES && !closed)
+			flushed.await();
+		checkOpen();
+		
+		final Memtable old = state.memtable;
+		
+		List<Memtable> flushing = new ArrayList<Memtable>(state.flushing);
+		flushing.add(old);
+		state = new State(newMemtable(), flushing, state.segments);
+		
+		background.execute(new Runnable() {
+			@Override
+			public void run()
+			{
+				flush(old);
+			}
+		});
+		
+		return old;
+	}
+	
+	void flushMemtable()
+	{
+		Memtable memtable;
+		
+		lock.writeLock().lock();
+		try
+		{
+			checkOpen();
+			memtable = switchMemtable();
+		}
+		catch (IOException e)
+		{
+			throw new CassandraException("Error creating commit log of column family " + name, e);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new CassandraException("Interrupted waiting for a flush of column family " + name, e);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+		
+		lock.writeLock().lock();
+		try
+		{
+			while (state.flushing.contains(memtable) && !closed)
+				flushed.await();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new CassandraException("Interrupted waiting for a flush of column family " + name, e);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+	
+	// Runs in the background thread
+	private void flush(Memtable memtable)
+	{
+		LsmSegment segment;
+		while (true)
+		{
+			try
+			{
+				segment = LsmSegment.write(dir, memtable.id, memtable.id, new long[0], memtable.cells.values()
+						.iterator(), keyComparator);
+				break;
+			}
+			catch (IOException e)
+			{
+				// Retries in this thread, so the newer memtables are not
+				// flushed before this one
+				logger.error("Error flushing memtable of column family " + name + ". Retrying in "
+						+ FLUSH_RETRY_MS + "ms", e);
+				try
+				{
+					Thread.sleep(FLUSH_RETRY_MS);
+				}
+				catch (InterruptedException e1)
+				{
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+		
+		lock.writeLock().lock();
+		try
+		{
+			if (!state.flushing.contains(memtable))
+			{
+				// Truncated or closed while flushing
+				segment.close();
+				segment.file.delete();
+				return;
+			}
+			
+			List<Memtable> flushing = new ArrayList<Memtable>(state.flushing);
+			flushing.remove(memtable);
+			List<LsmSegment> segments = new ArrayList<LsmSegment>(state.segments);
+			segments.add(segment);
+			state = new State(state.memtable, flushing, segments);
+			
+			flushed.signalAll();
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+		
+		memtable.deleteLogs();
+		
+		compact();
+	}
+	
+	// Merges the newest segments while the one before them is not much bigger
+	// than all of them together
+	private void compact()
+	{
+		while (true)
+		{
+			List<LsmSegment> segments;
+			long id;
+			lock.writeLock().lock();
+			try
+			{
+				if (closed)
+					return;
+				
+				segments = state.segments;
+				id = nextId++;
+			}
+			finally
+			{
+				lock.writeLock().unlock();
+			}
+			
+			if (segments.size() < MIN_COMPACTION_SEGMENTS)
+				return;
+			
+			int start = segments.size() - 1;
+			long size = segments.get(start).getSizeInBytes();
+			while (start > 0 && segments.get(start - 1).getSizeInBytes() <= 2 * size)
+			{
+				start--;
+				size += segments.get(start).getSizeInBytes();
+			}
+			if (segments.size() - start < MIN_COMPACTION_SEGMENTS)
+				return;
+			
+			if (!compact(segments.subList(start, segments.size()), start == 0, id))
+				return;
+		}
+	}
+	
+	private boolean compact(List<LsmSegment> inputs, final boolean all, long id)
+	{
+		long[] replaces = new long[inputs.size()];
+		List<Iterator<LsmCell>> sources = new ArrayList<Iterator<LsmCell>>();
+		for (int i = 0; i < inputs.size(); i++)
+		{
+			replaces[i] = inputs.get(i).id;
+			sources.add(inputs.get(i).iterator(null));
+		}
+		
+		final Iterator<LsmCell> merged = new MergeIterator(sources);
+		Iterator<LsmCell> cells = new Iterator<LsmCell>() {
+			private LsmCell next = advance();
+			
+			private LsmCell advance()
+			{
+				while (merged.hasNext())
+				{
+					LsmCell cell = merged.next();
+					if (!all)
+						return cell;
+					if (cell.column != null)
+						return cell.withoutTombstone();
+				}
+				return null;
+			}
+			
+			@Override
+			public boolean hasNext()
+			{
+				return next != null;
+			}
+			
+			@Override
+			public LsmCell next()
+			{
+				if (next == null)
+					throw new NoSuchElementException();
+				LsmCell result = next;
+				next = advance();
+				return result;
+			}
+			
+			@Override
+			public void remove()
+			{
+				throw new UnsupportedOperationException();
+			}
+		};
+		
+		LsmSegment output;
+		try
+		{
+			output = LsmSegment.write(dir, id, inputs.get(inputs.size() - 1).order, replaces, cells, keyComparator);
+		}
+		catch (IOException e)
+		{
+			logger.error("Error compacting " + inputs + " of column family " + name, e);
+			return false;
+		}
+		catch (CassandraException e)
+		{
+			// Closed or truncated while compacting
+			if (!isClosed())
+				logger.error("Error compacting " + inputs + " of column family " + name, e);
+			return false;
+		}
+		
+		lock.writeLock().lock();
+		try
+		{
+			int first = state.segments.indexOf(inputs.get(0));
+			if (first < 0 || !state.segments.containsAll(inputs))
+			{
+				output.close();
+				output.file.delete();
+				return false;
+			}
+			
+			List<LsmSegment> segments = new ArrayList<LsmSegment>(state.segments);
+			segments.removeAll(inputs);
+			segments.add(first, output);
+			state = new State(state.memtable, state.flushing, segments);
+			
+			// No reader is using them, as readers hold the read lock
+			for (LsmSegment input : inputs)
+				input.close();
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+		
+		for (LsmSegment input : inputs)
+			input.file.delete();
+		
+		logger.debug("Compacted " + inputs + " into " + output + " in column family " + name);
+		
+		return true;
+	}
+	
+	private void sync()
+	{
+		LsmCommitLog log;
+		lock.readLock().lock();
+		try
+		{
+			if (closed)
+				return;
+			log = state.memtable.log;
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+		
+		try
+		{
+			log.sync();
+		}
+		catch (IOException e)
+		{
+			// Closed by a switch of memtable: the flush will write its data
+		}
+	}
+	
+	@Override
+	void truncate()
+	{
+		final State old;
+		lock.writeLock().lock();
+		try
+		{
+			checkOpen();
+			
+			old = state;
+			state = new State(newMemtable(), Collections.<Memtable> emptyList(), Collections.<LsmSegment> emptyList());
+			flushed.signalAll();
+		}
+		catch (IOException e)
+		{
+			throw new CassandraException("Error creating commit log of column family " + name, e);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+		
+		// After the flush or compaction running, that may be using the files
+		waitFor(background.submit(new Runnable() {
+			@Override
+			public void run()
+			{
+				delete(old);
+			}
+		}));
+	}
+	
+	private void waitFor(Future<?> future)
+	{
+		try
+		{
+			future.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new CassandraException("Interrupted waiting for column family " + name, e);
+		}
+		catch (ExecutionException e)
+		{
+			throw new CassandraException("Error in column family " + name, e.getCause());
+		}
+	}
+	
+	private void delete(State old)
+	{
+		for (LsmSegment segment : old.segments)
+		{
+			segment.close();
+			segment.file.delete();
+		}
+		for (Memtable memtable : old.flushing)
+			memtable.deleteLogs();
+		old.memtable.deleteLogs();
+	}
+	
+	void close()
+	{
+		lock.writeLock().lock();
+		try
+		{
+			if (closed)
+				return;
+			
+			closed = true;
+			flushed.signalAll();
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+		
+		// Lets the flushes end, so the data does not need to be replayed
+		background.shutdown();
+		try
+		{
+			while (!background.awaitTermination(1, TimeUnit.SECONDS))
+				logger.info("Waiting for the background work of column family " + name + " to stop");
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		
+		State old;
+		lock.readLock().lock();
+		try
+		{
+			old = state;
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+		
+		try
+		{
+			old.memtable.log.sync();
+		}
+		catch (IOException e)
+		{
+			logger.error("Error syncing commit log of column family " + name, e);
+		}
+		
+		for (LsmSegment segment : old.segments)
+			segment.close();
+		for (Memtable memtable : old.flushing)
+			memtable.log.close();
+		old.memtable.log.close();
+	}
+	
+	@Override
+	void drop()
+	{
+		close();
+		
+		try
+		{
+			for (File file : listFiles())
+				file.delete();
+		}
+		catch (IOException e)
+		{
+			logger.error("Error deleting the files of column family " + name, e);
+		}
+		dir.delete();
+	}
+	
+	int getSegmentCount()
+	{
+		lock.readLock().lock();
+		try
+		{
+			return state.segments.size();
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+	
+	private boolean isClosed()
+	{
+		lock.readLock().lock();
+		try
+		{
+			return closed;
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+	
+	private void checkOpen()
+	{
+		if (closed)
+			throw new IllegalStateException("Column family " + name + " is closed");
+	}
+	
+	private void checkSuperColumn(ByteBuffer superColumn)
+	{
+		if (superColumnFamily && superColumn == null)
+			throw new IllegalArgumentException("A super column is needed in super column family " + name);
+	}
+	
+	// Must hold the read lock
+	private Iterator<LsmCell> merge(State state, LsmCell from, ByteBuffer row)
+	{
+		List<Iterator<LsmCell>> sources = new ArrayList<Iterator<LsmCell>>();
+		for (LsmSegment segment : state.segments)
+			if (row == null || segment.mightContain(row))
+				sources.add(segment.iterator(from));
+		for (Memtable memtable : state.flushing)
+			sources.add(memtable.cells.tailMap(from, true).values().iterator());
+		sources.add(state.memtable.cells.tailMap(from, true).values().iterator());
+		
+		return new MergeIterator(sources);
+	}
+	
+	private class MergeIterator implements Iterator<LsmCell>
+	{
+		private final List<Iterator<LsmCell>> sources;
+		private final PriorityQueue<Head> heads;
+		
+		MergeIterator(List<Iterator<LsmCell>> sources)
+		{
+			this.sources = sources;
+			heads = new PriorityQueue<Head>(Math.max(1, sources.size()));
+			for (int i = 0; i < sources.size(); i++)
+				addHead(i);
+		}
+		
+		private void addHead(int source)
+		{
+			Iterator<LsmCell> it = sources.get(source);
+			if (it.hasNext())
+				heads.add(new Head(it.next(), source));
+		}
+		
+		@Override
+		public boolean hasNext()
+		{
+			return !heads.isEmpty();
+		}
+		
+		@Override
+		public LsmCell next()
+		{
+			Head head = heads.poll();
+			if (head == null)
+				throw new NoSuchElementException();
+			
+			LsmCell result = head.cell;
+			addHead(head.source);
+			
+			// Same key in newer sources
+			while (!heads.isEmpty() && keyComparator.compare(heads.peek().cell, result) == 0)
+			{
+				head = heads.poll();
+				result = LsmCell.merge(result, head.cell, counters);
+				addHead(head.source);
+			}
+			
+			return result;
+		}
+		
+		@Override
+		public void remove()
+		{
+			throw new UnsupportedOperationException();
+		}
+		
+		private class Head implements Comparable<Head>
+		{
+			final LsmCell cell;
+			final int source;
+			
+			Head(LsmCell cell, int source)
+			{
+				this.cell = cell;
+				this.source = source;
+			}
+			
+			@Override
+			public int compareTo(Head o)
+			{
+				int result = keyComparator.compare(cell, o.cell);
+				if (result != 0)
+					return result;
+				return source - o.source;
+			}
+		}
+	}
+	
+	private abstract class BatchIterator<T> implements Iterator<T>
+	{
+		private final List<T> batch = new ArrayList<T>();
+		private int index;
+		private boolean finished;
+		
+		abstract boolean readBatch(State state, List<T> batch);
+		
+		@Override
+		public boolean hasNext()
+		{
+			if (index < batch.size())
+				return true;
+			
+			if (finished)
+				return false;
+			
+			batch.clear();
+			index = 0;
+			
+			lock.readLock().lock();
+			try
+			{
+				checkOpen();
+				finished = !readBatch(state, batch);
+			}
+			finally
+			{
+				lock.readLock().unlock();
+			}
+			
+			return index < batch.size();
+		}
+		
+		@Override
+		public T next()
+		{
+			if (!hasNext())
+				throw new NoSuchElementException();
+			
+			return batch.get(index++);
+		}
+		
+		@Override
+		public void remove()
+		{
+			throw new UnsupportedOperationException();
+		}
+	}
+	
+	// Immutable: changes create a new state
+	private static class State
+	{
+		final Memtable memtable;
+		final List<Memtable> flushing;
+		final List<LsmSegment> segments;
+		
+		State(Memtable memtable, List<Memtable> flushing, List<LsmSegment> segments)
+		{
+			this.memtable = memtable;
+			this.flushing = Collections.unmodifiableList(flushing);
+			this.segments = Collections.unmodifiableList(segments);
+		}
+	}
+	
+	private class Memtable
+	{
+		final long id;
+		final LsmCommitLog log;
+		final List<File> replayedLogs = new ArrayList<File>();
+		final ConcurrentSkipListMap<LsmCell, LsmCell> cells = new ConcurrentSkipListMap<LsmCell, LsmCell>(
+				keyComparator);
+		long size;
+		
+		Memtable(long id, LsmCommitLog log)
+		{
+			this.id = id;
+			this.log = log;
+		}
+		
+		// Must hold the write lock (or be the only one using it)
+		void apply(LsmCell cell)
+		{
+			LsmCell old = cells.get(cell);
+			cells.put(cell, (old == null ? cell : LsmCell.merge(old, cell, counters)));
+			size += cell.getSerializedSize();
+		}
+		
+		void deleteLogs()
+		{
+			log.delete();
+			for (File file : replayedLogs)
+				file.delete();
+		}
+	}
+}
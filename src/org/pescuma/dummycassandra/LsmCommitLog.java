@@ -0,0 +1,150 @@
+package org.pescuma.dummycassandra;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The write-ahead log of a memtable. Each record is:
+ *
+ * <pre>
+ * int  length
+ * int  crc32 of the cell
+ * byte cell[length]
+ * </pre>
+ *
+ * The records are written to the file at each write, but are only synced to
+ * the disk when sync is called, so a crash of the process loses nothing and a
+ * crash of the machine loses the writes since the last sync.
+ */
+class LsmCommitLog
+{
+	static final String PREFIX = "commitlog-";
+	static final String SUFFIX = ".log";
+	
+	private static final Logger logger = LoggerFactory.getLogger(LsmCommitLog.class);
+	
+	final File file;
+	final long id;
+	private final FileOutputStream out;
+	private final FileChannel channel;
+	private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+	private final DataOutputStream data = new DataOutputStream(buffer);
+	private final CRC32 crc = new CRC32();
+	
+	LsmCommitLog(File dir, long id) throws IOException
+	{
+		this.id = id;
+		file = getFile(dir, id);
+		out = new FileOutputStream(file, true);
+		channel = out.getChannel();
+	}
+	
+	static File getFile(File dir, long id)
+	{
+		return new File(dir, String.format("%s%015d%s", PREFIX, id, SUFFIX));
+	}
+	
+	// Must not be called concurrently
+	void append(LsmCell cell) throws IOException
+	{
+		buffer.reset();
+		data.writeInt(0);
+		data.writeInt(0);
+		cell.write(data);
+		
+		byte[] bytes = buffer.toByteArray();
+		int length = bytes.length - 8;
+		crc.reset();
+		crc.update(bytes, 8, length);
+		
+		ByteBuffer record = ByteBuffer.wrap(bytes);
+		record.putInt(0, length);
+		record.putInt(4, (int) crc.getValue());
+		
+		while (record.hasRemaining())
+			channel.write(record);
+	}
+	
+	void sync() throws IOException
+	{
+		channel.force(false);
+	}
+	
+	void close()
+	{
+		try
+		{
+			out.close();
+		}
+		catch (IOException e)
+		{
+			// Nothing to do
+		}
+	}
+	
+	void delete()
+	{
+		close();
+		file.delete();
+	}
+	
+	static List<LsmCell> read(File file) throws IOException
+	{
+		ByteBuffer in;
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			in = ByteBuffer.allocate((int) raf.length());
+			raf.readFully(in.array());
+		}
+		finally
+		{
+			raf.close();
+		}
+		
+		List<LsmCell> result = new ArrayList<LsmCell>();
+		CRC32 crc = new CRC32();
+		while (in.remaining() >= 8)
+		{
+			int start = in.position();
+			int length = in.getInt();
+			int expected = in.getInt();
+			if (length < 0 || length > in.remaining())
+			{
+				in.position(start);
+				break;
+			}
+			
+			crc.reset();
+			crc.update(in.array(), in.position(), length);
+			if ((int) crc.getValue() != expected)
+			{
+				in.position(start);
+				break;
+			}
+			
+			ByteBuffer record = in.slice();
+			record.limit(length);
+			result.add(LsmCell.read(record));
+			in.position(in.position() + length);
+		}
+		
+		if (in.hasRemaining())
+			logger.warn("Ignoring " + in.remaining() + " bytes at the end of " + file
+					+ ": the last write was not complete");
+		
+		return result;
+	}
+}
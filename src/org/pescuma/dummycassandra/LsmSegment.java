@@ -0,0 +1,378 @@
+package org.pescuma.dummycassandra;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable file with cells sorted by key, written by a memtable flush or
+ * by a compaction. Layout:
+ *
+ * <pre>
+ * blocks of cells (about BLOCK_SIZE bytes each)
+ * index: the first key, offset and length of each block
+ * bloom filter of the row keys
+ * metadata: id, order, cell count and the ids of the segments it replaces
+ * trailer: the offsets of index, bloom filter and metadata, magic number
+ * </pre>
+ *
+ * The index and the bloom filter are kept in memory. The blocks are read from
+ * the file when needed.
+ */
+class LsmSegment
+{
+	static final String PREFIX = "segment-";
+	static final String SUFFIX = ".db";
+	
+	private static final int MAGIC = 0x4c534d31;
+	private static final int BLOCK_SIZE = 16 * 1024;
+	private static final int TRAILER_SIZE = 8 + 8 + 8 + 4;
+	
+	final File file;
+	final long id;
+	final long order;
+	final long[] replaces;
+	final long cellCount;
+	
+	private final Comparator<LsmCell> comparator;
+	private final RandomAccessFile raf;
+	private final FileChannel channel;
+	private final List<LsmCell> blockKeys;
+	private final long[] blockOffsets;
+	private final int[] blockLengths;
+	private final BloomFilter bloom;
+	
+	private LsmSegment(File file, Comparator<LsmCell> comparator) throws IOException
+	{
+		this.file = file;
+		this.comparator = comparator;
+		
+		raf = new RandomAccessFile(file, "r");
+		try
+		{
+			channel = raf.getChannel();
+			
+			long length = channel.size();
+			if (length < TRAILER_SIZE)
+				throw new IOException("Corrupted segment: " + file);
+			
+			ByteBuffer trailer = read(length - TRAILER_SIZE, TRAILER_SIZE);
+			long indexOffset = trailer.getLong();
+			long bloomOffset = trailer.getLong();
+			long metadataOffset = trailer.getLong();
+			if (trailer.getInt() != MAGIC)
+				throw new IOException("Corrupted segment: " + file);
+			
+			ByteBuffer in = read(indexOffset, (int) (length - TRAILER_SIZE - indexOffset));
+			
+			int blocks = in.getInt();
+			blockKeys = new ArrayList<LsmCell>(blocks);
+			blockOffsets = new long[blocks];
+			blockLengths = new int[blocks];
+			for (int i = 0; i < blocks; i++)
+			{
+				ByteBuffer row = LsmCell.readBuffer(in);
+				ByteBuffer superColumn = LsmCell.readBuffer(in);
+				ByteBuffer name = LsmCell.readBuffer(in);
+				blockKeys.add(LsmCell.key(row, superColumn, name));
+				blockOffsets[i] = in.getLong();
+				blockLengths[i] = in.getInt();
+			}
+			
+			in.position((int) (bloomOffset - indexOffset));
+			bloom = BloomFilter.read(in);
+			
+			in.position((int) (metadataOffset - indexOffset));
+			id = in.getLong();
+			order = in.getLong();
+			cellCount = in.getLong();
+			replaces = new long[in.getInt()];
+			for (int i = 0; i < replaces.length; i++)
+				replaces[i] = in.getLong();
+		}
+		catch (IOException e)
+		{
+			raf.close();
+			throw e;
+		}
+		catch (RuntimeException e)
+		{
+			raf.close();
+			throw new IOException("Corrupted segment: " + file, e);
+		}
+	}
+	
+	static LsmSegment open(File file, Comparator<LsmCell> comparator) throws IOException
+	{
+		return new LsmSegment(file, comparator);
+	}
+	
+	static File getFile(File dir, long id)
+	{
+		return new File(dir, String.format("%s%015d%s", PREFIX, id, SUFFIX));
+	}
+	
+	// The file is only renamed after it is synced, so a crash never leaves a
+	// half written segment
+	static LsmSegment write(File dir, long id, long order, long[] replaces, Iterator<LsmCell> cells,
+			Comparator<LsmCell> comparator) throws IOException
+	{
+		File file = getFile(dir, id);
+		File tmp = new File(dir, file.getName() + ".tmp");
+		
+		FileOutputStream fos = new FileOutputStream(tmp);
+		try
+		{
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 64 * 1024));
+			
+			List<LsmCell> blockKeys = new ArrayList<LsmCell>();
+			List<Long> blockOffsets = new ArrayList<Long>();
+			List<Integer> blockLengths = new ArrayList<Integer>();
+			long[] rowHashes = new long[1024];
+			int rows = 0;
+			ByteBuffer lastRow = null;
+			long cellCount = 0;
+			
+			long offset = 0;
+			int blockLength = 0;
+			while (cells.hasNext())
+			{
+				LsmCell cell = cells.next();
+				
+				if (blockLength == 0)
+				{
+					// Copied, so it does not keep the block of the cell in memory
+					blockKeys.add(LsmCell.key(LocalColumn.copy(cell.row), LocalColumn.copy(cell.superColumn),
+							LocalColumn.copy(cell.name)));
+					blockOffsets.add(offset);
+				}
+				
+				if (lastRow == null || !lastRow.equals(cell.row))
+				{
+					if (rows == rowHashes.length)
+					{
+						long[] tmpHashes = new long[rows * 2];
+						System.arraycopy(rowHashes, 0, tmpHashes, 0, rows);
+						rowHashes = tmpHashes;
+					}
+					rowHashes[rows++] = BloomFilter.hash(cell.row);
+					lastRow = cell.row;
+				}
+				
+				cell.write(out);
+				cellCount++;
+				
+				int size = cell.getSerializedSize();
+				offset += size;
+				blockLength += size;
+				if (blockLength >= BLOCK_SIZE)
+				{
+					blockLengths.add(blockLength);
+					blockLength = 0;
+				}
+			}
+			if (blockLength > 0)
+				blockLengths.add(blockLength);
+			
+			long indexOffset = offset;
+			out.writeInt(blockKeys.size());
+			for (int i = 0; i < blockKeys.size(); i++)
+			{
+				LsmCell key = blockKeys.get(i);
+				LsmCell.writeBuffer(out, key.row);
+				LsmCell.writeBuffer(out, key.superColumn);
+				LsmCell.writeBuffer(out, key.name);
+				out.writeLong(blockOffsets.get(i));
+				out.writeInt(blockLengths.get(i));
+				offset += 4 + key.row.remaining() + 4 + key.superColumn.remaining() + 4 + key.name.remaining() + 8 + 4;
+			}
+			offset += 4;
+			
+			long bloomOffset = offset;
+			BloomFilter bloom = new BloomFilter(rows);
+			for (int i = 0; i < rows; i++)
+				bloom.addHash(rowHashes[i]);
+			bloom.write(out);
+			offset += bloom.getSerializedSize();
+			
+			long metadataOffset = offset;
+			out.writeLong(id);
+			out.writeLong(order);
+			out.writeLong(cellCount);
+			out.writeInt(replaces.length);
+			for (long replaced : replaces)
+				out.writeLong(replaced);
+			
+			out.writeLong(indexOffset);
+			out.writeLong(bloomOffset);
+			out.writeLong(metadataOffset);
+			out.writeInt(MAGIC);
+			
+			out.flush();
+			fos.getFD().sync();
+		}
+		finally
+		{
+			fos.close();
+		}
+		
+		if (!tmp.renameTo(file))
+		{
+			tmp.delete();
+			throw new IOException("Could not rename " + tmp + " to " + file);
+		}
+		
+		return open(file, comparator);
+	}
+	
+	boolean mightContain(ByteBuffer row)
+	{
+		return bloom.mightContain(row);
+	}
+	
+	long getSizeInBytes()
+	{
+		return file.length();
+	}
+	
+	Iterator<LsmCell> iterator(LsmCell from)
+	{
+		int block = 0;
+		if (from != null)
+		{
+			int pos = Collections.binarySearch(blockKeys, from, comparator);
+			if (pos < 0)
+				pos = -pos - 2;
+			block = Math.max(pos, 0);
+		}
+		
+		return new SegmentIterator(block, from);
+	}
+	
+	LsmCell get(LsmCell key)
+	{
+		if (!mightContain(key.row))
+			return null;
+		
+		Iterator<LsmCell> it = iterator(key);
+		if (!it.hasNext())
+			return null;
+		
+		LsmCell result = it.next();
+		return (comparator.compare(result, key) == 0 ? result : null);
+	}
+	
+	void close()
+	{
+		try
+		{
+			raf.close();
+		}
+		catch (IOException e)
+		{
+			// Nothing to do
+		}
+	}
+	
+	private ByteBuffer read(long position, int length) throws IOException
+	{
+		ByteBuffer result = ByteBuffer.allocate(length);
+		while (result.hasRemaining())
+		{
+			if (channel.read(result, position + result.position()) < 0)
+				throw new IOException("Unexpected end of file in segment " + file);
+		}
+		result.flip();
+		return result;
+	}
+	
+	@Override
+	public String toString()
+	{
+		return file.getName();
+	}
+	
+	private class SegmentIterator implements Iterator<LsmCell>
+	{
+		private int block;
+		private LsmCell from;
+		private ByteBuffer buffer;
+		private LsmCell next;
+		
+		SegmentIterator(int block, LsmCell from)
+		{
+			this.block = block;
+			this.from = from;
+			advance();
+		}
+		
+		private void advance()
+		{
+			next = null;
+			
+			while (true)
+			{
+				if (buffer == null || !buffer.hasRemaining())
+				{
+					if (block >= blockOffsets.length)
+						return;
+					
+					try
+					{
+						buffer = read(blockOffsets[block], blockLengths[block]);
+						block++;
+					}
+					catch (IOException e)
+					{
+						throw new CassandraException("Error reading " + file, e);
+					}
+				}
+				
+				LsmCell cell = LsmCell.read(buffer);
+				if (from != null)
+				{
+					if (comparator.compare(cell, from) < 0)
+						continue;
+					from = null;
+				}
+				
+				next = cell;
+				return;
+			}
+		}
+		
+		@Override
+		public boolean hasNext()
+		{
+			return next != null;
+		}
+		
+		@Override
+		public LsmCell next()
+		{
+			if (next == null)
+				throw new NoSuchElementException();
+			
+			LsmCell result = next;
+			advance();
+			return result;
+		}
+		
+		@Override
+		public void remove()
+		{
+			throw new UnsupportedOperationException();
+		}
+	}
+}
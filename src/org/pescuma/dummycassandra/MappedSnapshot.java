@@ -0,0 +1,513 @@
+package org.pescuma.dummycassandra;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * A read-only copy of a standard column family in a local file, read through
+ * memory maps. Layout:
+ *
+ * <pre>
+ * header: magic number, column family name
+ * rows, sorted by the bytes of the key:
+ *   int  size of the row in bytes
+ *   int  key length, key
+ *   int  column count
+ *   int  block count, the offsets (from the row start) of every INDEX_INTERVAL-th column
+ *   columns, sorted by the comparator: int name length, name, int value length, value
+ * index: row count, the offsets of every INDEX_INTERVAL-th row
+ * trailer: the offset of the index, magic number
+ * </pre>
+ *
+ * The rows are mapped in regions of REGION_SIZE bytes, and a row never
+ * crosses the end of a region: the writer fills the rest of the region with
+ * PADDING and starts the row in the next one. The keys of the index are
+ * copied to the heap, so finding a row only reads the INDEX_INTERVAL rows
+ * after the closest key. Names and values are returned as views of the mapped
+ * memory.
+ */
+class MappedSnapshot
+{
+	private static final int MAGIC = 0x534e4150;
+	private static final int INDEX_INTERVAL = 64;
+	private static final long REGION_SIZE = 1L << 30;
+	private static final int PADDING = -1;
+	private static final int TRAILER_SIZE = 8 + 4;
+	
+	final File file;
+	final String columnFamily;
+	
+	private final Comparator<ByteBuffer> comparator;
+	private final long dataEnd;
+	private final MappedByteBuffer[] regions;
+	private final int rowCount;
+	private final ByteBuffer[] indexKeys;
+	private final long[] indexOffsets;
+	
+	private MappedSnapshot(File file, Comparator<ByteBuffer> comparator) throws IOException
+	{
+		this.file = file;
+		this.comparator = comparator;
+		
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			FileChannel channel = raf.getChannel();
+			
+			long length = channel.size();
+			if (length < 4 + 2 + TRAILER_SIZE)
+				throw new IOException("Corrupted snapshot: " + file);
+			
+			raf.seek(length - TRAILER_SIZE);
+			dataEnd = raf.readLong();
+			if (raf.readInt() != MAGIC || dataEnd < 0 || dataEnd > length - TRAILER_SIZE)
+				throw new IOException("Corrupted snapshot: " + file);
+			
+			raf.seek(0);
+			if (raf.readInt() != MAGIC)
+				throw new IOException("Corrupted snapshot: " + file);
+			columnFamily = raf.readUTF();
+			
+			// The mappings stay valid after the channel is closed
+			regions = new MappedByteBuffer[(int) ((dataEnd + REGION_SIZE - 1) / REGION_SIZE)];
+			for (int i = 0; i < regions.length; i++)
+			{
+				long start = i * REGION_SIZE;
+				regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(REGION_SIZE, dataEnd - start));
+			}
+			
+			raf.seek(dataEnd);
+			rowCount = raf.readInt();
+			indexOffsets = new long[raf.readInt()];
+			indexKeys = new ByteBuffer[indexOffsets.length];
+			for (int i = 0; i < indexOffsets.length; i++)
+			{
+				indexOffsets[i] = raf.readLong();
+				indexKeys[i] = LocalColumn.copy(keyAt(indexOffsets[i]));
+			}
+		}
+		catch (RuntimeException e)
+		{
+			throw new IOException("Corrupted snapshot: " + file, e);
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+	
+	static MappedSnapshot open(File file, Comparator<ByteBuffer> comparator) throws IOException
+	{
+		return new MappedSnapshot(file, comparator);
+	}
+	
+	int getRowCount()
+	{
+		return rowCount;
+	}
+	
+	Iterable<ByteBuffer> rowKeys()
+	{
+		return new Iterable<ByteBuffer>() {
+			@Override
+			public Iterator<ByteBuffer> iterator()
+			{
+				return new RowKeyIterator();
+			}
+		};
+	}
+	
+	int countColumns(ByteBuffer key)
+	{
+		Row row = findRow(key);
+		return (row == null ? 0 : row.columnCount);
+	}
+	
+	ByteBuffer getValue(ByteBuffer key, ByteBuffer name)
+	{
+		Row row = findRow(key);
+		if (row == null)
+			return null;
+		
+		int pos = row.seek(name);
+		if (pos < 0 || comparator.compare(row.nameAt(pos), name) != 0)
+			return null;
+		
+		return row.valueAt(pos);
+	}
+	
+	Iterable<Map.Entry<ByteBuffer, ByteBuffer>> columns(final ByteBuffer key, final ByteBuffer start,
+			final ByteBuffer finish)
+	{
+		return new Iterable<Map.Entry<ByteBuffer, ByteBuffer>>() {
+			@Override
+			public Iterator<Map.Entry<ByteBuffer, ByteBuffer>> iterator()
+			{
+				Row row = findRow(key);
+				if (row == null)
+					return new ColumnIterator(null, -1, null);
+				
+				return new ColumnIterator(row, row.seek(start), finish);
+			}
+		};
+	}
+	
+	private Row findRow(ByteBuffer key)
+	{
+		if (indexKeys.length == 0)
+			return null;
+		
+		int low = 0;
+		int high = indexKeys.length - 1;
+		while (low <= high)
+		{
+			int mid = (low + high) >>> 1;
+			int cmp = LocalComparators.BYTES.compare(indexKeys[mid], key);
+			if (cmp < 0)
+				low = mid + 1;
+			else if (cmp > 0)
+				high = mid - 1;
+			else
+				return rowAt(indexOffsets[mid]);
+		}
+		if (high < 0)
+			return null;
+		
+		long offset = indexOffsets[high];
+		int last = Math.min(INDEX_INTERVAL, rowCount - high * INDEX_INTERVAL);
+		for (int i = 0; i < last; i++)
+		{
+			Row row = rowAt(skipPadding(offset));
+			int cmp = LocalComparators.BYTES.compare(row.key, key);
+			if (cmp == 0)
+				return row;
+			if (cmp > 0)
+				return null;
+			offset = row.end;
+		}
+		return null;
+	}
+	
+	private long skipPadding(long offset)
+	{
+		long remaining = REGION_SIZE - offset % REGION_SIZE;
+		if (remaining < 4 || regions[(int) (offset / REGION_SIZE)].getInt((int) (offset % REGION_SIZE)) == PADDING)
+			return offset + remaining;
+		return offset;
+	}
+	
+	private ByteBuffer keyAt(long offset)
+	{
+		ByteBuffer region = regions[(int) (offset / REGION_SIZE)];
+		int pos = (int) (offset % REGION_SIZE);
+		return slice(region, pos + 8, region.getInt(pos + 4));
+	}
+	
+	private Row rowAt(long offset)
+	{
+		return new Row(regions[(int) (offset / REGION_SIZE)], offset);
+	}
+	
+	private static ByteBuffer slice(ByteBuffer buffer, int position, int length)
+	{
+		ByteBuffer result = buffer.duplicate();
+		result.position(position);
+		result.limit(position + length);
+		return result.slice();
+	}
+	
+	@Override
+	public String toString()
+	{
+		return file.getPath();
+	}
+	
+	// Only uses absolute reads, so many threads can read the same region
+	private class Row
+	{
+		final ByteBuffer key;
+		final int columnCount;
+		final long end;
+		private final ByteBuffer region;
+		private final int start;
+		private final int limit;
+		private final int blocks;
+		
+		Row(ByteBuffer region, long offset)
+		{
+			this.region = region;
+			start = (int) (offset % REGION_SIZE);
+			
+			int size = region.getInt(start);
+			limit = start + size;
+			end = offset + size;
+			
+			int keyLength = region.getInt(start + 4);
+			key = slice(region, start + 8, keyLength);
+			columnCount = region.getInt(start + 8 + keyLength);
+			blocks = start + 12 + keyLength;
+		}
+		
+		private int blockCount()
+		{
+			return region.getInt(blocks);
+		}
+		
+		private int blockOffset(int block)
+		{
+			return region.getInt(blocks + 4 + block * 4);
+		}
+		
+		int seek(ByteBuffer name)
+		{
+			if (name == null)
+				return start + blockOffset(0);
+			
+			int low = 1;
+			int high = blockCount() - 1;
+			while (low <= high)
+			{
+				int mid = (low + high) >>> 1;
+				if (comparator.compare(nameAt(start + blockOffset(mid)), name) <= 0)
+					low = mid + 1;
+				else
+					high = mid - 1;
+			}
+			
+			int pos = start + blockOffset(high);
+			while (pos >= 0 && comparator.compare(nameAt(pos), name) < 0)
+				pos = next(pos);
+			
+			return pos;
+		}
+		
+		int next(int pos)
+		{
+			pos += 4 + region.getInt(pos);
+			pos += 4 + region.getInt(pos);
+			return (pos < limit ? pos : -1);
+		}
+		
+		ByteBuffer nameAt(int pos)
+		{
+			return slice(region, pos + 4, region.getInt(pos));
+		}
+		
+		ByteBuffer valueAt(int pos)
+		{
+			pos += 4 + region.getInt(pos);
+			return slice(region, pos + 4, region.getInt(pos));
+		}
+	}
+	
+	private class RowKeyIterator implements Iterator<ByteBuffer>
+	{
+		private long offset = (indexOffsets.length > 0 ? indexOffsets[0] : dataEnd);
+		private int index = 0;
+		
+		@Override
+		public boolean hasNext()
+		{
+			return index < rowCount;
+		}
+		
+		@Override
+		public ByteBuffer next()
+		{
+			if (!hasNext())
+				throw new NoSuchElementException();
+			
+			Row row = rowAt(skipPadding(offset));
+			offset = row.end;
+			index++;
+			return row.key;
+		}
+		
+		@Override
+		public void remove()
+		{
+			throw new UnsupportedOperationException();
+		}
+	}
+	
+	private class ColumnIterator implements Iterator<Map.Entry<ByteBuffer, ByteBuffer>>
+	{
+		private final Row row;
+		private final ByteBuffer finish;
+		private int pos;
+		private Map.Entry<ByteBuffer, ByteBuffer> next;
+		
+		ColumnIterator(Row row, int pos, ByteBuffer finish)
+		{
+			this.row = row;
+			this.pos = pos;
+			this.finish = finish;
+			advance();
+		}
+		
+		private void advance()
+		{
+			next = null;
+			if (pos < 0)
+				return;
+			
+			ByteBuffer name = row.nameAt(pos);
+			if (finish != null && comparator.compare(name, finish) > 0)
+			{
+				pos = -1;
+				return;
+			}
+			
+			next = new AbstractMap.SimpleImmutableEntry<ByteBuffer, ByteBuffer>(name, row.valueAt(pos));
+			pos = row.next(pos);
+		}
+		
+		@Override
+		public boolean hasNext()
+		{
+			return next != null;
+		}
+		
+		@Override
+		public Map.Entry<ByteBuffer, ByteBuffer> next()
+		{
+			if (next == null)
+				throw new NoSuchElementException();
+			
+			Map.Entry<ByteBuffer, ByteBuffer> result = next;
+			advance();
+			return result;
+		}
+		
+		@Override
+		public void remove()
+		{
+			throw new UnsupportedOperationException();
+		}
+	}
+	
+	static class Writer
+	{
+		private final File file;
+		private final File tmp;
+		private final FileOutputStream fos;
+		private final DataOutputStream out;
+		private final List<Long> rowOffsets = new ArrayList<Long>();
+		private long offset;
+		private int rows;
+		private boolean finished;
+		
+		Writer(File file, String columnFamily) throws IOException
+		{
+			this.file = file;
+			tmp = new File(file.getPath() + ".tmp");
+			fos = new FileOutputStream(tmp);
+			out = new DataOutputStream(new BufferedOutputStream(fos, 64 * 1024));
+			
+			out.writeInt(MAGIC);
+			out.writeUTF(columnFamily);
+			offset = out.size();
+		}
+		
+		void addRow(ByteBuffer key, List<ByteBuffer> names, List<ByteBuffer> values) throws IOException
+		{
+			if (names.isEmpty())
+				return;
+			
+			int blockCount = (names.size() + INDEX_INTERVAL - 1) / INDEX_INTERVAL;
+			int[] blockOffsets = new int[blockCount];
+			
+			long size = 4 + 4 + key.remaining() + 4 + 4 + 4 * blockCount;
+			for (int i = 0; i < names.size(); i++)
+			{
+				if (i % INDEX_INTERVAL == 0)
+					blockOffsets[i / INDEX_INTERVAL] = (int) size;
+				size += 4 + names.get(i).remaining() + 4 + values.get(i).remaining();
+			}
+			
+			if (size > REGION_SIZE)
+				throw new IOException("Row too big for a snapshot: " + size + " bytes");
+			
+			long remaining = REGION_SIZE - offset % REGION_SIZE;
+			if (remaining < size)
+			{
+				if (remaining >= 4)
+					out.writeInt(PADDING);
+				for (long i = (remaining >= 4 ? 4 : 0); i < remaining; i++)
+					out.write(0);
+				offset += remaining;
+			}
+			
+			if (rows % INDEX_INTERVAL == 0)
+				rowOffsets.add(offset);
+			
+			out.writeInt((int) size);
+			LsmCell.writeBuffer(out, key);
+			out.writeInt(names.size());
+			out.writeInt(blockCount);
+			for (int blockOffset : blockOffsets)
+				out.writeInt(blockOffset);
+			for (int i = 0; i < names.size(); i++)
+			{
+				LsmCell.writeBuffer(out, names.get(i));
+				LsmCell.writeBuffer(out, values.get(i));
+			}
+			
+			offset += size;
+			rows++;
+		}
+		
+		void finish() throws IOException
+		{
+			long indexOffset = offset;
+			out.writeInt(rows);
+			out.writeInt(rowOffsets.size());
+			for (long rowOffset : rowOffsets)
+				out.writeLong(rowOffset);
+			
+			out.writeLong(indexOffset);
+			out.writeInt(MAGIC);
+			
+			out.flush();
+			fos.getFD().sync();
+			fos.close();
+			
+			// Replaces the old snapshot (renameTo does not overwrite in all
+			// platforms)
+			if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file)))
+				throw new IOException("Could not rename " + tmp + " to " + file);
+			
+			finished = true;
+		}
+		
+		void close()
+		{
+			if (finished)
+				return;
+			
+			try
+			{
+				fos.close();
+			}
+			catch (IOException e)
+			{
+				// Nothing to do
+			}
+			tmp.delete();
+		}
+	}
+}
@@ -0,0 +1,271 @@
+package org.pescuma.dummycassandra;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.apache.cassandra.thrift.CfDef;
+
+/**
+ * Keeps a column family in ConcurrentSkipListMaps: one for the rows and one for
+ * the columns of each row (or super column).
+ * <p>
+ * Reads never lock. Writes lock the row, so a row that becomes empty can be
+ * removed without losing a concurrent insert.
+ */
+class MemoryColumnFamilyStore extends ColumnFamilyStore
+{
+	private final ConcurrentSkipListMap<ByteBuffer, Row> rows = new ConcurrentSkipListMap<ByteBuffer, Row>(
+			LocalComparators.BYTES);
+	
+	MemoryColumnFamilyStore(CfDef def)
+	{
+		super(def);
+	}
+	
+	@Override
+	Iterator<ByteBuffer> rowKeys(ByteBuffer startKey)
+	{
+		if (startKey == null || !startKey.hasRemaining())
+			return rows.keySet().iterator();
+		else
+			return rows.tailMap(startKey, true).keySet().iterator();
+	}
+	
+	@Override
+	Iterator<LocalColumn> columns(ByteBuffer key, ByteBuffer superColumn, ByteBuffer start, boolean reversed)
+	{
+		Row row = rows.get(key);
+		if (row == null)
+			return Collections.<LocalColumn> emptyList().iterator();
+		
+		NavigableMap<ByteBuffer, LocalColumn> columns = row.getColumns(superColumn, false);
+		if (columns == null)
+			return Collections.<LocalColumn> emptyList().iterator();
+		
+		return slice(columns, start, reversed).values().iterator();
+	}
+	
+	@Override
+	Iterator<ByteBuffer> superColumnNames(ByteBuffer key, ByteBuffer start, boolean reversed)
+	{
+		Row row = rows.get(key);
+		if (row == null)
+			return Collections.<ByteBuffer> emptyList().iterator();
+		
+		return slice(row.superColumns, start, reversed).keySet().iterator();
+	}
+	
+	private static <V> NavigableMap<ByteBuffer, V> slice(NavigableMap<ByteBuffer, V> map, ByteBuffer start,
+			boolean reversed)
+	{
+		if (reversed)
+		{
+			if (start.hasRemaining())
+				map = map.headMap(start, true);
+			return map.descendingMap();
+		}
+		else
+		{
+			if (start.hasRemaining())
+				map = map.tailMap(start, true);
+			return map;
+		}
+	}
+	
+	@Override
+	LocalColumn getColumn(ByteBuffer key, ByteBuffer superColumn, ByteBuffer name)
+	{
+		Row row = rows.get(key);
+		if (row == null)
+			return null;
+		
+		NavigableMap<ByteBuffer, LocalColumn> columns = row.getColumns(superColumn, false);
+		if (columns == null)
+			return null;
+		
+		return columns.get(name);
+	}
+	
+	@Override
+	void insert(ByteBuffer key, ByteBuffer superColumn, LocalColumn column)
+	{
+		while (true)
+		{
+			Row row = getOrCreateRow(key);
+			synchronized (row)
+			{
+				if (row.removed)
+					continue;
+				
+				NavigableMap<ByteBuffer, LocalColumn> columns = row.getColumns(superColumn, true);
+				
+				LocalColumn old = columns.get(column.name);
+				if (old == null || column.supersedes(old))
+					columns.put(column.name, column);
+				
+				return;
+			}
+		}
+	}
+	
+	@Override
+	void add(ByteBuffer key, ByteBuffer superColumn, ByteBuffer name, long delta)
+	{
+		while (true)
+		{
+			Row row = getOrCreateRow(key);
+			synchronized (row)
+			{
+				if (row.removed)
+					continue;
+				
+				NavigableMap<ByteBuffer, LocalColumn> columns = row.getColumns(superColumn, true);
+				
+				LocalColumn old = columns.get(name);
+				long value = (old == null ? delta : old.getCounterValue() + delta);
+				columns.put(name, LocalColumn.counter(name, value));
+				
+				return;
+			}
+		}
+	}
+	
+	@Override
+	void remove(ByteBuffer key, ByteBuffer superColumn, ByteBuffer name, long timestamp)
+	{
+		Row row = rows.get(key);
+		if (row == null)
+			return;
+		
+		synchronized (row)
+		{
+			if (row.removed)
+				return;
+			
+			if (superColumnFamily)
+			{
+				if (superColumn == null)
+				{
+					for (Map.Entry<ByteBuffer, ConcurrentNavigableMap<ByteBuffer, LocalColumn>> entry : row.superColumns
+							.entrySet())
+					{
+						removeOlder(entry.getValue(), name, timestamp);
+						if (entry.getValue().isEmpty())
+							row.superColumns.remove(entry.getKey());
+					}
+				}
+				else
+				{
+					ConcurrentNavigableMap<ByteBuffer, LocalColumn> columns = row.superColumns.get(superColumn);
+					if (columns != null)
+					{
+						removeOlder(columns, name, timestamp);
+						if (columns.isEmpty())
+							row.superColumns.remove(superColumn);
+					}
+				}
+			}
+			else
+			{
+				removeOlder(row.columns, name, timestamp);
+			}
+			
+			if (row.isEmpty())
+			{
+				row.removed = true;
+				rows.remove(key, row);
+			}
+		}
+	}
+	
+	private static void removeOlder(NavigableMap<ByteBuffer, LocalColumn> columns, ByteBuffer name, long timestamp)
+	{
+		if (name != null)
+		{
+			LocalColumn column = columns.get(name);
+			if (column != null && column.timestamp <= timestamp)
+				columns.remove(name);
+		}
+		else
+		{
+			for (Iterator<LocalColumn> it = columns.values().iterator(); it.hasNext();)
+				if (it.next().timestamp <= timestamp)
+					it.remove();
+		}
+	}
+	
+	@Override
+	void truncate()
+	{
+		for (Map.Entry<ByteBuffer, Row> entry : rows.entrySet())
+		{
+			Row row = entry.getValue();
+			synchronized (row)
+			{
+				row.removed = true;
+				rows.remove(entry.getKey(), row);
+			}
+		}
+	}
+	
+	private Row getOrCreateRow(ByteBuffer key)
+	{
+		Row row = rows.get(key);
+		if (row != null)
+			return row;
+		
+		Row created = new Row();
+		row = rows.putIfAbsent(key, created);
+		return (row != null ? row : created);
+	}
+	
+	private class Row
+	{
+		final ConcurrentNavigableMap<ByteBuffer, LocalColumn> columns;
+		final ConcurrentNavigableMap<ByteBuffer, ConcurrentNavigableMap<ByteBuffer, LocalColumn>> superColumns;
+		// Set holding the lock
+		boolean removed;
+		
+		Row()
+		{
+			if (superColumnFamily)
+			{
+				columns = null;
+				superColumns = new ConcurrentSkipListMap<ByteBuffer, ConcurrentNavigableMap<ByteBuffer, LocalColumn>>(
+						comparator);
+			}
+			else
+			{
+				columns = new ConcurrentSkipListMap<ByteBuffer, LocalColumn>(comparator);
+				superColumns = null;
+			}
+		}
+		
+		NavigableMap<ByteBuffer, LocalColumn> getColumns(ByteBuffer superColumn, boolean create)
+		{
+			if (!superColumnFamily)
+				return columns;
+			
+			if (superColumn == null)
+				throw new IllegalArgumentException("A super column is needed in super column family " + name);
+			
+			ConcurrentNavigableMap<ByteBuffer, LocalColumn> result = superColumns.get(superColumn);
+			if (result == null && create)
+			{
+				result = new ConcurrentSkipListMap<ByteBuffer, LocalColumn>(subComparator);
+				superColumns.put(superColumn, result);
+			}
+			return result;
+		}
+		
+		boolean isEmpty()
+		{
+			return (superColumnFamily ? superColumns.isEmpty() : columns.isEmpty());
+		}
+	}
+}
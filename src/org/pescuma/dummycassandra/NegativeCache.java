@@ -0,0 +1,154 @@
+package org.pescuma.dummycassandra;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A client-side cache of the columns that were read recently and did not
+ * exist, so reading them again doesn't query cassandra. A row read with no
+ * columns is cached as a whole, so any column of it is known to be absent.
+ * <p>
+ * The entries are grouped by row, in LRU order: when the cache has more than
+ * maxEntries columns, the least recently used rows are dropped. Writing a row
+ * drops all its entries, and an absence seen while the row was being written
+ * is not added (see {@link #getWriteStamp()}).
+ */
+class NegativeCache
+{
+	private static final Object WHOLE_ROW = new Object();
+	
+	private final int maxEntries;
+	private final long ttlMs;
+	
+	private final LinkedHashMap<Object, Map<Object, Long>> rows = new LinkedHashMap<Object, Map<Object, Long>>(16,
+			0.75f, true);
+	private int size;
+	private long bytes;
+	private long writeStamp;
+	
+	private long hits;
+	private long misses;
+	private long evictions;
+	
+	NegativeCache(int maxEntries, long ttlMs)
+	{
+		if (maxEntries < 1)
+			throw new IllegalArgumentException("maxEntries must be >= 1");
+		
+		this.maxEntries = maxEntries;
+		this.ttlMs = Math.max(ttlMs, 0);
+	}
+	
+	synchronized boolean isAbsent(Object rowKey, Object columnKey)
+	{
+		Map<Object, Long> columns = rows.get(rowKey);
+		if (columns != null)
+		{
+			long now = System.currentTimeMillis();
+			if (isAbsent(rowKey, columns, WHOLE_ROW, now)
+					|| (columnKey != null && isAbsent(rowKey, columns, columnKey, now)))
+			{
+				hits++;
+				return true;
+			}
+		}
+		
+		misses++;
+		return false;
+	}
+	
+	private boolean isAbsent(Object rowKey, Map<Object, Long> columns, Object columnKey, long now)
+	{
+		Long expiresAt = columns.get(columnKey);
+		if (expiresAt == null)
+			return false;
+		
+		if (expiresAt != 0 && expiresAt <= now)
+		{
+			columns.remove(columnKey);
+			size--;
+			bytes -= sizeOf(columnKey);
+			evictions++;
+			
+			if (columns.isEmpty())
+			{
+				rows.remove(rowKey);
+				bytes -= sizeOfRow(rowKey);
+			}
+			return false;
+		}
+		
+		return true;
+	}
+	
+	synchronized long getWriteStamp()
+	{
+		return writeStamp;
+	}
+	
+	synchronized void addAbsent(Object rowKey, Object columnKey, long stamp)
+	{
+		if (stamp != writeStamp)
+			return;
+		
+		Map<Object, Long> columns = rows.get(rowKey);
+		if (columns == null)
+		{
+			columns = new HashMap<Object, Long>();
+			rows.put(rowKey, columns);
+			bytes += sizeOfRow(rowKey);
+		}
+		
+		if (columnKey == null)
+			columnKey = WHOLE_ROW;
+		
+		if (columns.put(columnKey, ttlMs > 0 ? System.currentTimeMillis() + ttlMs : 0) == null)
+		{
+			size++;
+			bytes += sizeOf(columnKey);
+		}
+		
+		Iterator<Map.Entry<Object, Map<Object, Long>>> it = rows.entrySet().iterator();
+		while (size > maxEntries && it.hasNext())
+		{
+			Map.Entry<Object, Map<Object, Long>> eldest = it.next();
+			it.remove();
+			removed(eldest.getKey(), eldest.getValue());
+			evictions += eldest.getValue().size();
+		}
+	}
+	
+	synchronized void invalidate(Object rowKey)
+	{
+		writeStamp++;
+		
+		Map<Object, Long> columns = rows.remove(rowKey);
+		if (columns != null)
+			removed(rowKey, columns);
+	}
+	
+	private void removed(Object rowKey, Map<Object, Long> columns)
+	{
+		size -= columns.size();
+		bytes -= sizeOfRow(rowKey);
+		for (Object columnKey : columns.keySet())
+			bytes -= sizeOf(columnKey);
+	}
+	
+	private static long sizeOfRow(Object rowKey)
+	{
+		return RowCache.ENTRY_OVERHEAD + RowCache.sizeOf(rowKey);
+	}
+	
+	private static long sizeOf(Object columnKey)
+	{
+		return RowCache.COLUMN_OVERHEAD + (columnKey == WHOLE_ROW ? 0 : RowCache.sizeOf(columnKey));
+	}
+	
+	synchronized CassandraCacheStats getStats()
+	{
+		return new CassandraCacheStats(hits, misses, evictions, size, bytes);
+	}
+}
@@ -0,0 +1,150 @@
+package org.pescuma.dummycassandra;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Memory outside the java heap, allocated from big direct ByteBuffers (chunks).
+ * <p>
+ * An address is the chunk (starting at 1, so 0 can be used as null) in the
+ * high 32 bits and the offset inside the chunk in the low 32 bits.
+ * <p>
+ * Freed blocks are kept in a free list for their (aligned) size, linked by their
+ * first 8 bytes, and are reused by the next allocation of the same size. Blocks
+ * bigger than MAX_REUSED_SIZE are never reused: they are only counted as free,
+ * so the owner can copy what is used to a new arena when too much is free.
+ * <p>
+ * Not thread safe: the callers must lock it.
+ */
+class OffHeapArena
+{
+	static final long NULL = 0;
+	static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+	static final int MAX_REUSED_SIZE = 8 * 1024;
+	
+	private final int chunkSize;
+	private final List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+	private ByteBuffer current;
+	private int used;
+	private long allocated;
+	private final long[] freeLists = new long[MAX_REUSED_SIZE / 8 + 1];
+	private long free;
+	
+	OffHeapArena()
+	{
+		this(DEFAULT_CHUNK_SIZE);
+	}
+	
+	OffHeapArena(int chunkSize)
+	{
+		if (chunkSize < 64)
+			throw new IllegalArgumentException("chunkSize must be >= 64");
+		
+		this.chunkSize = chunkSize;
+	}
+	
+	long allocate(int size)
+	{
+		int aligned = align(size);
+		
+		if (isReused(aligned) && freeLists[aligned / 8] != NULL)
+		{
+			long address = freeLists[aligned / 8];
+			freeLists[aligned / 8] = getLong(address, 0);
+			free -= aligned;
+			return address;
+		}
+		
+		if (current == null || used + aligned > current.capacity())
+		{
+			// Big allocations get a chunk of their own
+			current = ByteBuffer.allocateDirect(Math.max(aligned, chunkSize));
+			chunks.add(current);
+			used = 0;
+		}
+		
+		long address = ((long) chunks.size() << 32) | used;
+		used += aligned;
+		allocated += aligned;
+		return address;
+	}
+	
+	void free(long address, int size)
+	{
+		int aligned = align(size);
+		
+		if (isReused(aligned))
+		{
+			putLong(address, 0, freeLists[aligned / 8]);
+			freeLists[aligned / 8] = address;
+		}
+		
+		free += aligned;
+	}
+	
+	private static int align(int size)
+	{
+		return (size + 7) & ~7;
+	}
+	
+	private static boolean isReused(int aligned)
+	{
+		return aligned >= 8 && aligned <= MAX_REUSED_SIZE;
+	}
+	
+	long getAllocatedBytes()
+	{
+		return allocated;
+	}
+	
+	long getFreeBytes()
+	{
+		return free;
+	}
+	
+	private ByteBuffer chunk(long address)
+	{
+		return chunks.get((int) (address >>> 32) - 1);
+	}
+	
+	private static int offset(long address, int delta)
+	{
+		return (int) address + delta;
+	}
+	
+	int getInt(long address, int delta)
+	{
+		return chunk(address).getInt(offset(address, delta));
+	}
+	
+	void putInt(long address, int delta, int value)
+	{
+		chunk(address).putInt(offset(address, delta), value);
+	}
+	
+	long getLong(long address, int delta)
+	{
+		return chunk(address).getLong(offset(address, delta));
+	}
+	
+	void putLong(long address, int delta, long value)
+	{
+		chunk(address).putLong(offset(address, delta), value);
+	}
+	
+	void putBytes(long address, int delta, ByteBuffer bytes)
+	{
+		ByteBuffer target = chunk(address).duplicate();
+		target.position(offset(address, delta));
+		target.put(bytes.duplicate());
+	}
+	
+	ByteBuffer slice(long address, int delta, int length)
+	{
+		ByteBuffer result = chunk(address).duplicate();
+		result.position(offset(address, delta));
+		result.limit(offset(address, delta) + length);
+		return result.slice();
+	}
+}
@@ -0,0 +1,609 @@
+package org.pescuma.dummycassandra;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.cassandra.thrift.CfDef;
+
+/**
+ * Keeps a column family outside the java heap, in an OffHeapArena, so big
+ * datasets do not make the GC pauses grow.
+ * <p>
+ * Rows, super columns and columns are OffHeapSkipLists: the value of a row
+ * node is the head of its list of columns (or super columns), the value of a
+ * super column node is the head of its list of sub columns and the value of a
+ * column node is the address of a record with the column data:
+ *
+ * <pre>
+ * long timestamp
+ * long expiresAt
+ * int  ttl
+ * int  value length
+ * byte value[value length]
+ * </pre>
+ *
+ * Writes hold the write lock. Reads hold the read lock while copying a batch
+ * of results to the heap, so only the results being used are in the heap.
+ * <p>
+ * Removed columns and overwritten values (unless the new value has the same
+ * size, so it is written in place) are freed in the arena, that reuses them for
+ * the next allocations of the same size. When more than half of the arena is
+ * free the data that is used is copied to a new one, so the memory outside the
+ * heap stays under twice the size of the data.
+ */
+class OffHeapColumnFamilyStore extends ColumnFamilyStore
+{
+	private static final int BATCH_SIZE = 128;
+	private static final long MIN_FREE_TO_COMPACT = OffHeapArena.DEFAULT_CHUNK_SIZE;
+	
+	private static final int TIMESTAMP = 0;
+	private static final int EXPIRES_AT = 8;
+	private static final int TTL = 16;
+	private static final int VALUE_LENGTH = 20;
+	private static final int VALUE = 24;
+	
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	
+	// All of them are replaced by truncate and compact
+	private OffHeapArena arena;
+	private OffHeapSkipList rowList;
+	private OffHeapSkipList columnList;
+	private OffHeapSkipList subColumnList;
+	private long rowsHead;
+	
+	OffHeapColumnFamilyStore(CfDef def)
+	{
+		super(def);
+		
+		reset();
+	}
+	
+	private void reset()
+	{
+		arena = new OffHeapArena();
+		rowList = new OffHeapSkipList(arena, LocalComparators.BYTES);
+		columnList = new OffHeapSkipList(arena, comparator);
+		subColumnList = (superColumnFamily ? new OffHeapSkipList(arena, subComparator) : null);
+		rowsHead = rowList.create();
+	}
+	
+	long getAllocatedBytes()
+	{
+		lock.readLock().lock();
+		try
+		{
+			return arena.getAllocatedBytes();
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+	
+	@Override
+	Iterator<ByteBuffer> rowKeys(ByteBuffer startKey)
+	{
+		if (startKey == null)
+			startKey = ByteBuffer.allocate(0);
+		
+		return new BatchIterator<ByteBuffer>(startKey, false)
+		{
+			@Override
+			OffHeapSkipList list()
+			{
+				return rowList;
+			}
+			
+			@Override
+			long findHead()
+			{
+				return rowsHead;
+			}
+			
+			@Override
+			ByteBuffer read(long node)
+			{
+				return LocalColumn.copy(rowList.getKey(node));
+			}
+		};
+	}
+	
+	@Override
+	Iterator<LocalColumn> columns(final ByteBuffer key, final ByteBuffer superColumn, ByteBuffer start,
+			boolean reversed)
+	{
+		checkSuperColumn(superColumn);
+		
+		return new BatchIterator<LocalColumn>(start, reversed)
+		{
+			@Override
+			OffHeapSkipList list()
+			{
+				return getColumnList();
+			}
+			
+			@Override
+			long findHead()
+			{
+				return findColumns(key, superColumn, false);
+			}
+			
+			@Override
+			LocalColumn read(long node)
+			{
+				return readColumn(getColumnList(), node, true);
+			}
+		};
+	}
+	
+	@Override
+	Iterator<ByteBuffer> superColumnNames(final ByteBuffer key, ByteBuffer start, boolean reversed)
+	{
+		return new BatchIterator<ByteBuffer>(start, reversed)
+		{
+			@Override
+			OffHeapSkipList list()
+			{
+				return columnList;
+			}
+			
+			@Override
+			long findHead()
+			{
+				long row = rowList.find(rowsHead, key);
+				return (row == OffHeapArena.NULL ? OffHeapArena.NULL : rowList.getValue(row));
+			}
+			
+			@Override
+			ByteBuffer read(long node)
+			{
+				return LocalColumn.copy(columnList.getKey(node));
+			}
+		};
+	}
+	
+	@Override
+	LocalColumn getColumn(ByteBuffer key, ByteBuffer superColumn, ByteBuffer name)
+	{
+		checkSuperColumn(superColumn);
+		
+		lock.readLock().lock();
+		try
+		{
+			long head = findColumns(key, superColumn, false);
+			if (head == OffHeapArena.NULL)
+				return null;
+			
+			OffHeapSkipList list = getColumnList();
+			long node = list.find(head, name);
+			if (node == OffHeapArena.NULL)
+				return null;
+			
+			return readColumn(list, node, true);
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+	
+	@Override
+	void insert(ByteBuffer key, ByteBuffer superColumn, LocalColumn column)
+	{
+		checkSuperColumn(superColumn);
+		
+		lock.writeLock().lock();
+		try
+		{
+			long head = findColumns(key, superColumn, true);
+			OffHeapSkipList list = getColumnList();
+			
+			long node = list.find(head, column.name);
+			if (node == OffHeapArena.NULL)
+			{
+				list.put(head, column.name, writeRecord(OffHeapArena.NULL, column));
+				return;
+			}
+			
+			if (!column.supersedes(readColumn(list, node, false)))
+				return;
+			
+			long record = list.getValue(node);
+			if (arena.getInt(record, VALUE_LENGTH) == column.value.remaining())
+			{
+				writeRecord(record, column);
+				return;
+			}
+			
+			list.setValue(node, writeRecord(OffHeapArena.NULL, column));
+			freeRecord(record);
+			compactIfNeeded();
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+	
+	@Override
+	void add(ByteBuffer key, ByteBuffer superColumn, ByteBuffer name, long delta)
+	{
+		checkSuperColumn(superColumn);
+		
+		lock.writeLock().lock();
+		try
+		{
+			long head = findColumns(key, superColumn, true);
+			OffHeapSkipList list = getColumnList();
+			
+			long node = list.find(head, name);
+			if (node == OffHeapArena.NULL)
+			{
+				list.put(head, name, writeRecord(OffHeapArena.NULL, LocalColumn.counter(name, delta)));
+				return;
+			}
+			
+			// Counters always have 8 bytes, so they can be changed in place
+			long record = list.getValue(node);
+			arena.putLong(record, VALUE, arena.getLong(record, VALUE) + delta);
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+	
+	@Override
+	void remove(ByteBuffer key, ByteBuffer superColumn, ByteBuffer name, long timestamp)
+	{
+		lock.writeLock().lock();
+		try
+		{
+			long row = rowList.find(rowsHead, key);
+			if (row == OffHeapArena.NULL)
+				return;
+			
+			long rowHead = rowList.getValue(row);
+			
+			if (superColumnFamily)
+			{
+				if (superColumn == null)
+				{
+					long node = columnList.first(rowHead);
+					while (node != OffHeapArena.NULL)
+					{
+						long next = columnList.next(node);
+						removeOlderSubColumns(rowHead, node, name, timestamp);
+						node = next;
+					}
+				}
+				else
+				{
+					long node = columnList.find(rowHead, superColumn);
+					if (node != OffHeapArena.NULL)
+						removeOlderSubColumns(rowHead, node, name, timestamp);
+				}
+			}
+			else
+			{
+				removeOlder(columnList, rowHead, name, timestamp);
+			}
+			
+			if (columnList.isEmpty(rowHead))
+			{
+				columnList.free(rowHead);
+				rowList.remove(rowsHead, key);
+			}
+			
+			compactIfNeeded();
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+	
+	private void removeOlderSubColumns(long rowHead, long superColumnNode, ByteBuffer name, long timestamp)
+	{
+		long head = columnList.getValue(superColumnNode);
+		
+		removeOlder(subColumnList, head, name, timestamp);
+		
+		if (subColumnList.isEmpty(head))
+		{
+			subColumnList.free(head);
+			columnList.remove(rowHead, columnList.getKey(superColumnNode));
+		}
+	}
+	
+	private void removeOlder(OffHeapSkipList list, long head, ByteBuffer name, long timestamp)
+	{
+		if (name != null)
+		{
+			long node = list.find(head, name);
+			if (node != OffHeapArena.NULL && getTimestamp(list, node) <= timestamp)
+				removeColumn(list, head, node);
+		}
+		else
+		{
+			long node = list.first(head);
+			while (node != OffHeapArena.NULL)
+			{
+				long next = list.next(node);
+				if (getTimestamp(list, node) <= timestamp)
+					removeColumn(list, head, node);
+				node = next;
+			}
+		}
+	}
+	
+	private void removeColumn(OffHeapSkipList list, long head, long node)
+	{
+		freeRecord(list.getValue(node));
+		list.remove(head, list.getKey(node));
+	}
+	
+	// Must hold the write lock
+	private void compactIfNeeded()
+	{
+		long free = arena.getFreeBytes();
+		if (free >= MIN_FREE_TO_COMPACT && free * 2 > arena.getAllocatedBytes())
+			compact();
+	}
+	
+	// Must hold the write lock
+	private void compact()
+	{
+		OffHeapArena oldArena = arena;
+		OffHeapSkipList oldRowList = rowList;
+		OffHeapSkipList oldColumnList = columnList;
+		OffHeapSkipList oldSubColumnList = subColumnList;
+		long oldRowsHead = rowsHead;
+		
+		reset();
+		
+		long row = oldRowList.first(oldRowsHead);
+		while (row != OffHeapArena.NULL)
+		{
+			long oldRowHead = oldRowList.getValue(row);
+			long rowHead = columnList.create();
+			
+			if (superColumnFamily)
+			{
+				long node = oldColumnList.first(oldRowHead);
+				while (node != OffHeapArena.NULL)
+				{
+					long head = subColumnList.create();
+					copyColumns(oldArena, oldSubColumnList, oldColumnList.getValue(node), subColumnList, head);
+					columnList.put(rowHead, oldColumnList.getKey(node), head);
+					node = oldColumnList.next(node);
+				}
+			}
+			else
+			{
+				copyColumns(oldArena, oldColumnList, oldRowHead, columnList, rowHead);
+			}
+			
+			rowList.put(rowsHead, oldRowList.getKey(row), rowHead);
+			row = oldRowList.next(row);
+		}
+		
+		// The old arena is freed by the GC
+	}
+	
+	private void copyColumns(OffHeapArena oldArena, OffHeapSkipList oldList, long oldHead, OffHeapSkipList list,
+			long head)
+	{
+		long node = oldList.first(oldHead);
+		while (node != OffHeapArena.NULL)
+		{
+			long oldRecord = oldList.getValue(node);
+			int size = VALUE + oldArena.getInt(oldRecord, VALUE_LENGTH);
+			
+			long record = arena.allocate(size);
+			arena.putBytes(record, 0, oldArena.slice(oldRecord, 0, size));
+			list.put(head, oldList.getKey(node), record);
+			node = oldList.next(node);
+		}
+	}
+	
+	@Override
+	void truncate()
+	{
+		lock.writeLock().lock();
+		try
+		{
+			// The old arena is freed by the GC
+			reset();
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+	
+	private void checkSuperColumn(ByteBuffer superColumn)
+	{
+		if (superColumnFamily && superColumn == null)
+			throw new IllegalArgumentException("A super column is needed in super column family " + name);
+	}
+	
+	private OffHeapSkipList getColumnList()
+	{
+		return (superColumnFamily ? subColumnList : columnList);
+	}
+	
+	// Must hold the read lock, or the write lock to create it
+	private long findColumns(ByteBuffer key, ByteBuffer superColumn, boolean create)
+	{
+		long row = rowList.find(rowsHead, key);
+		if (row == OffHeapArena.NULL)
+		{
+			if (!create)
+				return OffHeapArena.NULL;
+			row = rowList.put(rowsHead, key, columnList.create());
+		}
+		
+		long rowHead = rowList.getValue(row);
+		if (!superColumnFamily)
+			return rowHead;
+		
+		long node = columnList.find(rowHead, superColumn);
+		if (node == OffHeapArena.NULL)
+		{
+			if (!create)
+				return OffHeapArena.NULL;
+			node = columnList.put(rowHead, superColumn, subColumnList.create());
+		}
+		
+		return columnList.getValue(node);
+	}
+	
+	private long getTimestamp(OffHeapSkipList list, long node)
+	{
+		return arena.getLong(list.getValue(node), TIMESTAMP);
+	}
+	
+	private LocalColumn readColumn(OffHeapSkipList list, long node, boolean copy)
+	{
+		long record = list.getValue(node);
+		
+		ByteBuffer name = list.getKey(node);
+		ByteBuffer value = arena.slice(record, VALUE, arena.getInt(record, VALUE_LENGTH));
+		if (copy)
+		{
+			name = LocalColumn.copy(name);
+			value = LocalColumn.copy(value);
+		}
+		
+		return new LocalColumn(name, value, arena.getLong(record, TIMESTAMP), arena.getInt(record, TTL),
+				arena.getLong(record, EXPIRES_AT));
+	}
+	
+	private void freeRecord(long record)
+	{
+		arena.free(record, VALUE + arena.getInt(record, VALUE_LENGTH));
+	}
+	
+	private long writeRecord(long record, LocalColumn column)
+	{
+		int length = column.value.remaining();
+		
+		if (record == OffHeapArena.NULL)
+			record = arena.allocate(VALUE + length);
+		
+		arena.putLong(record, TIMESTAMP, column.timestamp);
+		arena.putLong(record, EXPIRES_AT, column.expiresAt);
+		arena.putInt(record, TTL, column.ttl);
+		arena.putInt(record, VALUE_LENGTH, length);
+		arena.putBytes(record, VALUE, column.value);
+		
+		return record;
+	}
+	
+	// Each batch starts after the last key of the previous one, so it works
+	// even if the list is changed between batches
+	private abstract class BatchIterator<T> implements Iterator<T>
+	{
+		private final ByteBuffer start;
+		private final boolean reversed;
+		private final List<T> batch = new ArrayList<T>();
+		private int index;
+		private ByteBuffer last;
+		private boolean finished;
+		
+		BatchIterator(ByteBuffer start, boolean reversed)
+		{
+			this.start = start;
+			this.reversed = reversed;
+		}
+		
+		abstract OffHeapSkipList list();
+		
+		abstract long findHead();
+		
+		// Must copy what it returns to the heap
+		abstract T read(long node);
+		
+		@Override
+		public boolean hasNext()
+		{
+			if (index < batch.size())
+				return true;
+			
+			if (!finished)
+				readBatch();
+			
+			return index < batch.size();
+		}
+		
+		@Override
+		public T next()
+		{
+			if (!hasNext())
+				throw new NoSuchElementException();
+			
+			return batch.get(index++);
+		}
+		
+		@Override
+		public void remove()
+		{
+			throw new UnsupportedOperationException();
+		}
+		
+		private void readBatch()
+		{
+			batch.clear();
+			index = 0;
+			
+			lock.readLock().lock();
+			try
+			{
+				long head = findHead();
+				if (head == OffHeapArena.NULL)
+				{
+					finished = true;
+					return;
+				}
+				
+				OffHeapSkipList list = list();
+				
+				long node;
+				if (last != null)
+					node = after(list, head, last);
+				else if (!start.hasRemaining())
+					node = (reversed ? list.floor(head, null, true) : list.first(head));
+				else
+					node = (reversed ? list.floor(head, start, true) : list.ceiling(head, start, true));
+				
+				while (node != OffHeapArena.NULL && batch.size() < BATCH_SIZE)
+				{
+					batch.add(read(node));
+					last = list.getKey(node);
+					node = (reversed ? after(list, head, last) : list.next(node));
+				}
+				
+				if (last != null)
+					last = LocalColumn.copy(last);
+				
+				if (node == OffHeapArena.NULL)
+					finished = true;
+			}
+			finally
+			{
+				lock.readLock().unlock();
+			}
+		}
+		
+		private long after(OffHeapSkipList list, long head, ByteBuffer key)
+		{
+			return (reversed ? list.floor(head, key, false) : list.ceiling(head, key, false));
+		}
+	}
+}
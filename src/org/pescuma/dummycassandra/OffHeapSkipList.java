@@ -0,0 +1,224 @@
+package org.pescuma.dummycassandra;
+
+import java.nio.ByteBuffer;
+import java.util.Comparator;
+
+/**
+ * Skip lists kept in an OffHeapArena. Each node has a key and a long value
+ * (usually the address of something else in the arena).
+ * <p>
+ * A list is identified by the address of its head node, so a list of lists
+ * does not need any object in the heap. Node layout:
+ *
+ * <pre>
+ * int  key length
+ * int  height
+ * long value
+ * long next[height]
+ * byte key[key length]
+ * </pre>
+ *
+ * Reads can run concurrently, but writes must be exclusive: the callers must
+ * lock it.
+ */
+class OffHeapSkipList
+{
+	static final int MAX_HEIGHT = 16;
+	
+	private static final int KEY_LENGTH = 0;
+	private static final int HEIGHT = 4;
+	private static final int VALUE = 8;
+	private static final int NEXT = 16;
+	
+	private final OffHeapArena arena;
+	private final Comparator<ByteBuffer> comparator;
+	// Used by the writes only
+	private final long[] preds = new long[MAX_HEIGHT];
+	private long seed = System.nanoTime() | 1;
+	
+	OffHeapSkipList(OffHeapArena arena, Comparator<ByteBuffer> comparator)
+	{
+		this.arena = arena;
+		this.comparator = comparator;
+	}
+	
+	long create()
+	{
+		return allocateNode(MAX_HEIGHT, null, 0);
+	}
+	
+	void free(long head)
+	{
+		arena.free(head, NEXT + MAX_HEIGHT * 8);
+	}
+	
+	private long allocateNode(int height, ByteBuffer key, long value)
+	{
+		int keyLength = (key == null ? 0 : key.remaining());
+		
+		long node = arena.allocate(NEXT + height * 8 + keyLength);
+		arena.putInt(node, KEY_LENGTH, keyLength);
+		arena.putInt(node, HEIGHT, height);
+		arena.putLong(node, VALUE, value);
+		for (int i = 0; i < height; i++)
+			arena.putLong(node, NEXT + i * 8, OffHeapArena.NULL);
+		if (key != null)
+			arena.putBytes(node, NEXT + height * 8, key);
+		
+		return node;
+	}
+	
+	ByteBuffer getKey(long node)
+	{
+		int height = arena.getInt(node, HEIGHT);
+		return arena.slice(node, NEXT + height * 8, arena.getInt(node, KEY_LENGTH));
+	}
+	
+	long getValue(long node)
+	{
+		return arena.getLong(node, VALUE);
+	}
+	
+	void setValue(long node, long value)
+	{
+		arena.putLong(node, VALUE, value);
+	}
+	
+	private long next(long node, int level)
+	{
+		return arena.getLong(node, NEXT + level * 8);
+	}
+	
+	private void setNext(long node, int level, long next)
+	{
+		arena.putLong(node, NEXT + level * 8, next);
+	}
+	
+	long next(long node)
+	{
+		return next(node, 0);
+	}
+	
+	long first(long head)
+	{
+		return next(head, 0);
+	}
+	
+	boolean isEmpty(long head)
+	{
+		return first(head) == OffHeapArena.NULL;
+	}
+	
+	private void findPredecessors(long head, ByteBuffer key)
+	{
+		long node = head;
+		for (int level = MAX_HEIGHT - 1; level >= 0; level--)
+		{
+			long next = next(node, level);
+			while (next != OffHeapArena.NULL && comparator.compare(getKey(next), key) < 0)
+			{
+				node = next;
+				next = next(node, level);
+			}
+			preds[level] = node;
+		}
+	}
+	
+	long find(long head, ByteBuffer key)
+	{
+		long node = ceiling(head, key, true);
+		if (node != OffHeapArena.NULL && comparator.compare(getKey(node), key) == 0)
+			return node;
+		return OffHeapArena.NULL;
+	}
+	
+	long ceiling(long head, ByteBuffer key, boolean inclusive)
+	{
+		long node = head;
+		for (int level = MAX_HEIGHT - 1; level >= 0; level--)
+		{
+			long next = next(node, level);
+			while (next != OffHeapArena.NULL && isBefore(getKey(next), key, !inclusive))
+			{
+				node = next;
+				next = next(node, level);
+			}
+		}
+		return next(node, 0);
+	}
+	
+	long floor(long head, ByteBuffer key, boolean inclusive)
+	{
+		long node = head;
+		for (int level = MAX_HEIGHT - 1; level >= 0; level--)
+		{
+			long next = next(node, level);
+			while (next != OffHeapArena.NULL && (key == null || isBefore(getKey(next), key, inclusive)))
+			{
+				node = next;
+				next = next(node, level);
+			}
+		}
+		return (node == head ? OffHeapArena.NULL : node);
+	}
+	
+	private boolean isBefore(ByteBuffer a, ByteBuffer b, boolean inclusive)
+	{
+		int cmp = comparator.compare(a, b);
+		return (inclusive ? cmp <= 0 : cmp < 0);
+	}
+	
+	long put(long head, ByteBuffer key, long value)
+	{
+		findPredecessors(head, key);
+		
+		long node = next(preds[0], 0);
+		if (node != OffHeapArena.NULL && comparator.compare(getKey(node), key) == 0)
+		{
+			setValue(node, value);
+			return node;
+		}
+		
+		int height = randomHeight();
+		node = allocateNode(height, key, value);
+		for (int level = 0; level < height; level++)
+		{
+			setNext(node, level, next(preds[level], level));
+			setNext(preds[level], level, node);
+		}
+		return node;
+	}
+	
+	boolean remove(long head, ByteBuffer key)
+	{
+		findPredecessors(head, key);
+		
+		long node = next(preds[0], 0);
+		if (node == OffHeapArena.NULL || comparator.compare(getKey(node), key) != 0)
+			return false;
+		
+		int height = arena.getInt(node, HEIGHT);
+		for (int level = 0; level < height; level++)
+			setNext(preds[level], level, next(node, level));
+		
+		arena.free(node, NEXT + height * 8 + arena.getInt(node, KEY_LENGTH));
+		return true;
+	}
+	
+	private int randomHeight()
+	{
+		// xorshift
+		seed ^= seed << 13;
+		seed ^= seed >>> 7;
+		seed ^= seed << 17;
+		
+		int height = 1;
+		long bits = seed;
+		while (height < MAX_HEIGHT && (bits & 3) == 0)
+		{
+			height++;
+			bits >>>= 2;
+		}
+		return height;
+	}
+}
@@ -0,0 +1,249 @@
+package org.pescuma.dummycassandra;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.cassandra.thrift.KeySlice;
+
+/**
+ * Scans many token ranges at the same time, using the executor of the
+ * keyspace. At most <code>parallelism</code> ranges are queried at once.
+ * <p>
+ * The rows can be consumed as one iterator, in the order the pages arrive, or
+ * by a handler called from the scanning threads. Only the iterator keeps track
+ * of where the scan is, so it can be resumed.
+ */
+class ParallelRangeScan
+{
+	private final HectorColumnFamilyFacade hector;
+	private final List<CassandraScanCursor.Position> positions;
+	private final int parallelism;
+	private final int rowsPerPage;
+	private final int columnsPerRow;
+	
+	ParallelRangeScan(HectorColumnFamilyFacade hector, List<CassandraScanCursor.Position> positions,
+			int parallelism, int rowsPerPage, int columnsPerRow)
+	{
+		if (parallelism < 1)
+			throw new IllegalArgumentException("parallelism must be >= 1");
+		
+		this.hector = hector;
+		this.positions = new ArrayList<CassandraScanCursor.Position>(positions);
+		this.parallelism = parallelism;
+		this.rowsPerPage = rowsPerPage;
+		this.columnsPerRow = columnsPerRow;
+	}
+	
+	private TokenRangeScan createScan(CassandraScanCursor.Position position)
+	{
+		return new TokenRangeScan(hector, position.range, position.lastToken, rowsPerPage, columnsPerRow);
+	}
+	
+	private LinkedList<CassandraScanCursor.Position> getPending()
+	{
+		LinkedList<CassandraScanCursor.Position> result = new LinkedList<CassandraScanCursor.Position>();
+		for (CassandraScanCursor.Position position : positions)
+			if (!position.done)
+				result.add(position);
+		return result;
+	}
+	
+	MergedIterator iterator()
+	{
+		return new MergedIterator();
+	}
+	
+	void scan(final PageHandler handler)
+	{
+		final Queue<CassandraScanCursor.Position> pending = new ConcurrentLinkedQueue<CassandraScanCursor.Position>(
+				getPending());
+		final AtomicBoolean failed = new AtomicBoolean();
+		
+		List<Callable<Void>> workers = new ArrayList<Callable<Void>>();
+		for (int i = 0; i < Math.min(parallelism, pending.size()); i++)
+		{
+			workers.add(new Callable<Void>() {
+				@Override
+				public Void call()
+				{
+					try
+					{
+						CassandraScanCursor.Position position;
+						while (!failed.get() && (position = pending.poll()) != null)
+						{
+							TokenRangeScan scan = createScan(position);
+							while (!failed.get() && !scan.isDone())
+								handler.onPage(position.range, scan.nextPage());
+						}
+						return null;
+					}
+					catch (RuntimeException e)
+					{
+						// Stop the other workers
+						failed.set(true);
+						throw e;
+					}
+				}
+			});
+		}
+		
+		hector.getKeyspace().invokeAll(workers);
+	}
+	
+	static interface PageHandler
+	{
+		void onPage(CassandraTokenRange range, List<KeySlice> rows);
+	}
+	
+	private static class Page
+	{
+		final TokenRangeScan scan;
+		final List<KeySlice> rows;
+		final boolean last;
+		
+		Page(TokenRangeScan scan, List<KeySlice> rows)
+		{
+			this.scan = scan;
+			this.rows = rows;
+			this.last = scan.isDone();
+		}
+	}
+	
+	class MergedIterator implements Iterator<KeySlice>
+	{
+		private final LinkedList<CassandraScanCursor.Position> pending = getPending();
+		private final CompletionService<Page> completed = new ExecutorCompletionService<Page>(hector
+				.getKeyspace().getExecutor());
+		private final Set<Future<Page>> running = new HashSet<Future<Page>>();
+		private Page current;
+		private Iterator<KeySlice> page = Collections.<KeySlice> emptyList().iterator();
+		private final Map<CassandraTokenRange, ByteBuffer> lastKeys = new HashMap<CassandraTokenRange, ByteBuffer>();
+		private final Set<CassandraTokenRange> finished = new HashSet<CassandraTokenRange>();
+		
+		@Override
+		public boolean hasNext()
+		{
+			while (!page.hasNext())
+			{
+				if (current != null && current.last)
+					finished.add(current.scan.getRange());
+				current = null;
+				
+				while (running.size() < parallelism && !pending.isEmpty())
+					submit(createScan(pending.removeFirst()));
+				
+				if (running.isEmpty())
+					return false;
+				
+				Page next = take();
+				
+				if (!next.last)
+					submit(next.scan);
+				
+				current = next;
+				page = next.rows.iterator();
+			}
+			
+			return true;
+		}
+		
+		@Override
+		public KeySlice next()
+		{
+			if (!hasNext())
+				throw new NoSuchElementException();
+			
+			KeySlice row = page.next();
+			// The key buffer is consumed when deserialized
+			lastKeys.put(current.scan.getRange(), row.bufferForKey().duplicate());
+			return row;
+		}
+		
+		List<CassandraScanCursor.Position> getPositions()
+		{
+			TokenFactory tokens = hector.getKeyspace().getTokenFactory();
+			
+			List<CassandraScanCursor.Position> result = new ArrayList<CassandraScanCursor.Position>();
+			for (CassandraScanCursor.Position start : positions)
+			{
+				CassandraTokenRange range = start.range;
+				ByteBuffer lastKey = lastKeys.get(range);
+				
+				if (start.done || finished.contains(range))
+					result.add(new CassandraScanCursor.Position(range, null, true));
+				else if (lastKey != null)
+					result.add(new CassandraScanCursor.Position(range, tokens.getToken(lastKey), false));
+				else
+					result.add(start);
+			}
+			return result;
+		}
+		
+		@Override
+		public void remove()
+		{
+			throw new UnsupportedOperationException();
+		}
+		
+		void close()
+		{
+			for (Future<Page> future : running)
+				future.cancel(false);
+			running.clear();
+			pending.clear();
+			// Not finished: the rest of its page was not returned
+			current = null;
+			page = Collections.<KeySlice> emptyList().iterator();
+		}
+		
+		private void submit(final TokenRangeScan scan)
+		{
+			running.add(completed.submit(new Callable<Page>() {
+				@Override
+				public Page call()
+				{
+					return new Page(scan, scan.nextPage());
+				}
+			}));
+		}
+		
+		private Page take()
+		{
+			try
+			{
+				Future<Page> future = completed.take();
+				running.remove(future);
+				return future.get();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new CassandraException("Interrupted while waiting for the scan", e);
+			}
+			catch (ExecutionException e)
+			{
+				if (e.getCause() instanceof RuntimeException)
+					throw (RuntimeException) e.getCause();
+				
+				throw new CassandraException(e.getCause());
+			}
+		}
+	}
+}
@@ -0,0 +1,402 @@
+package org.pescuma.dummycassandra;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A client-side cache of whole rows (maps from column key to value) of a
+ * column family, bounded by number of rows and / or size in bytes, with an
+ * optional time to live.
+ * <p>
+ * A read that misses loads the row and adds it with the write stamp taken
+ * before loading it. If a row was written in between, the loaded row can be
+ * stale and is not added.
+ * <p>
+ * With TinyLFU the rows are kept in three LRU queues: a small window (1% of
+ * the capacity) where new rows enter and the main area, split in probation
+ * and protected (80% of it). A row read while in probation is moved to
+ * protected. A row leaving the window only stays in the cache if it was read
+ * more often than the row it would replace, according to a FrequencySketch
+ * of the recent reads.
+ * <p>
+ * All operations lock the cache, but they are short and never query
+ * cassandra.
+ */
+@SuppressWarnings("rawtypes")
+class RowCache
+{
+	private static final int WINDOW_PERCENT = 1;
+	private static final int PROTECTED_PERCENT = 80;
+	static final int ENTRY_OVERHEAD = 64;
+	static final int COLUMN_OVERHEAD = 48;
+	
+	private final int maxRows;
+	private final long maxBytes;
+	private final long ttlMs;
+	
+	private final Map<Object, Entry> entries = new HashMap<Object, Entry>();
+	private final Queue window;
+	private final Queue probation;
+	private final Queue protectedQueue;
+	private final FrequencySketch sketch;
+	private long bytes;
+	private long writeStamp;
+	
+	private long hits;
+	private long misses;
+	private long evictions;
+	
+	RowCache(CassandraCacheEviction eviction, int maxRows, long maxBytes, long ttlMs)
+	{
+		if (eviction == null)
+			throw new IllegalArgumentException("eviction can't be null");
+		if (maxRows <= 0 && maxBytes <= 0)
+			throw new IllegalArgumentException("maxRows or maxBytes must be > 0");
+		
+		this.maxRows = Math.max(maxRows, 0);
+		this.maxBytes = Math.max(maxBytes, 0);
+		this.ttlMs = Math.max(ttlMs, 0);
+		
+		if (eviction == CassandraCacheEviction.TinyLFU)
+		{
+			int windowRows = percentOf(this.maxRows, WINDOW_PERCENT);
+			long windowBytes = percentOf(this.maxBytes, WINDOW_PERCENT);
+			window = new Queue(windowRows, windowBytes);
+			probation = new Queue(0, 0);
+			protectedQueue = new Queue(percentOf(this.maxRows - windowRows, PROTECTED_PERCENT), percentOf(
+					this.maxBytes - windowBytes, PROTECTED_PERCENT));
+			sketch = new FrequencySketch(this.maxRows > 0 ? this.maxRows : (int) Math.min(this.maxBytes / 1024,
+					1 << 20));
+		}
+		else
+		{
+			window = null;
+			probation = new Queue(0, 0);
+			protectedQueue = null;
+			sketch = null;
+		}
+	}
+	
+	private static int percentOf(int value, int percent)
+	{
+		return (value <= 0 ? 0 : Math.max(1, (int) ((long) value * percent / 100)));
+	}
+	
+	private static long percentOf(long value, int percent)
+	{
+		return (value <= 0 ? 0 : Math.max(1, value / 100 * percent));
+	}
+	
+	synchronized Map get(Object rowKey)
+	{
+		if (sketch != null)
+			sketch.increment(rowKey);
+		
+		Entry entry = entries.get(rowKey);
+		if (entry != null && entry.expiresAt != 0 && entry.expiresAt <= System.currentTimeMillis())
+		{
+			evict(entry);
+			entry = null;
+		}
+		
+		if (entry == null)
+		{
+			misses++;
+			return null;
+		}
+		
+		hits++;
+		if (entry.queue == probation && protectedQueue != null)
+		{
+			probation.remove(entry);
+			protectedQueue.add(entry);
+			
+			while (protectedQueue.isOver())
+			{
+				Entry demoted = protectedQueue.first();
+				protectedQueue.remove(demoted);
+				probation.add(demoted);
+			}
+		}
+		else
+		{
+			entry.queue.moveToEnd(entry);
+		}
+		
+		return entry.columns;
+	}
+	
+	synchronized long getWriteStamp()
+	{
+		return writeStamp;
+	}
+	
+	synchronized void put(Object rowKey, Map columns, long stamp)
+	{
+		if (stamp != writeStamp)
+			return;
+		
+		long size = sizeOf(rowKey, columns);
+		if (maxBytes > 0 && size > maxBytes)
+			return;
+		
+		Entry old = entries.remove(rowKey);
+		if (old != null)
+			remove(old);
+		
+		Entry entry = new Entry(rowKey, columns, size, ttlMs > 0 ? System.currentTimeMillis() + ttlMs : 0);
+		entries.put(rowKey, entry);
+		bytes += size;
+		
+		Entry candidate = null;
+		if (window != null)
+		{
+			window.add(entry);
+			while (window.isOver() && window.size() > 0)
+			{
+				candidate = window.first();
+				window.remove(candidate);
+				probation.add(candidate);
+				makeRoom(candidate);
+			}
+		}
+		else
+		{
+			probation.add(entry);
+		}
+		
+		makeRoom(null);
+	}
+	
+	private void makeRoom(Entry candidate)
+	{
+		while (isOver())
+		{
+			Entry victim = firstOf(probation, protectedQueue, window);
+			if (victim == candidate && protectedQueue != null && protectedQueue.size() > 0)
+				victim = protectedQueue.first();
+			
+			if (candidate != null && victim != candidate && candidate.queue == probation
+					&& sketch.frequency(candidate.rowKey) <= sketch.frequency(victim.rowKey))
+				victim = candidate;
+			
+			evict(victim);
+			
+			if (victim == candidate)
+				candidate = null;
+		}
+	}
+	
+	private boolean isOver()
+	{
+		return (maxRows > 0 && entries.size() > maxRows) || (maxBytes > 0 && bytes > maxBytes);
+	}
+	
+	private static Entry firstOf(Queue... queues)
+	{
+		for (Queue queue : queues)
+			if (queue != null && queue.size() > 0)
+				return queue.first();
+		return null;
+	}
+	
+	synchronized void invalidate(Object rowKey)
+	{
+		writeStamp++;
+		
+		Entry entry = entries.remove(rowKey);
+		if (entry != null)
+			remove(entry);
+	}
+	
+	synchronized void invalidateAll()
+	{
+		writeStamp++;
+		
+		for (Entry entry : entries.values())
+			entry.queue.remove(entry);
+		entries.clear();
+		bytes = 0;
+	}
+	
+	private void evict(Entry entry)
+	{
+		entries.remove(entry.rowKey);
+		remove(entry);
+		evictions++;
+	}
+	
+	private void remove(Entry entry)
+	{
+		entry.queue.remove(entry);
+		bytes -= entry.bytes;
+	}
+	
+	synchronized CassandraCacheStats getStats()
+	{
+		return new CassandraCacheStats(hits, misses, evictions, entries.size(), bytes);
+	}
+	
+	private static long sizeOf(Object rowKey, Map columns)
+	{
+		long result = ENTRY_OVERHEAD + sizeOf(rowKey);
+		for (Object obj : columns.entrySet())
+		{
+			Map.Entry column = (Map.Entry) obj;
+			result += COLUMN_OVERHEAD + sizeOf(column.getKey()) + sizeOf(column.getValue());
+		}
+		return result;
+	}
+	
+	static long sizeOf(Object obj)
+	{
+		if (obj == null)
+			return 0;
+		if (obj instanceof String)
+			return 40 + 2 * ((String) obj).length();
+		if (obj instanceof byte[])
+			return 16 + ((byte[]) obj).length;
+		if (obj instanceof ByteBuffer)
+			return 48 + ((ByteBuffer) obj).remaining();
+		if (obj instanceof Map)
+			return sizeOf(null, (Map) obj);
+		return 24;
+	}
+	
+	private static class Entry
+	{
+		final Object rowKey;
+		final Map columns;
+		final long bytes;
+		final long expiresAt;
+		Queue queue;
+		
+		Entry(Object rowKey, Map columns, long bytes, long expiresAt)
+		{
+			this.rowKey = rowKey;
+			this.columns = columns;
+			this.bytes = bytes;
+			this.expiresAt = expiresAt;
+		}
+	}
+	
+	private static class Queue
+	{
+		private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<Object, Entry>();
+		private final int maxRows;
+		private final long maxBytes;
+		private long bytes;
+		
+		Queue(int maxRows, long maxBytes)
+		{
+			this.maxRows = maxRows;
+			this.maxBytes = maxBytes;
+		}
+		
+		int size()
+		{
+			return entries.size();
+		}
+		
+		boolean isOver()
+		{
+			return (maxRows > 0 && entries.size() > maxRows) || (maxBytes > 0 && bytes > maxBytes);
+		}
+		
+		Entry first()
+		{
+			Iterator<Entry> it = entries.values().iterator();
+			return (it.hasNext() ? it.next() : null);
+		}
+		
+		void add(Entry entry)
+		{
+			entries.put(entry.rowKey, entry);
+			bytes += entry.bytes;
+			entry.queue = this;
+		}
+		
+		void remove(Entry entry)
+		{
+			entries.remove(entry.rowKey);
+			bytes -= entry.bytes;
+			entry.queue = null;
+		}
+		
+		void moveToEnd(Entry entry)
+		{
+			entries.remove(entry.rowKey);
+			entries.put(entry.rowKey, entry);
+		}
+	}
+	
+	// Count-min sketch of the recent reads, halved after 10 reads per entry
+	private static class FrequencySketch
+	{
+		private static final int[] SEEDS = { 0x97cb3127, 0xb7a8e53d, 0x8f1bbcdb, 0xc2b2ae35 };
+		private static final int MAX_COUNT = 15;
+		
+		private final byte[] table;
+		private final int mask;
+		private final int sampleSize;
+		private int samples;
+		
+		FrequencySketch(int expectedEntries)
+		{
+			int size = Integer.highestOneBit(Math.min(Math.max(expectedEntries, 64), 1 << 22) * 4 - 1) << 1;
+			table = new byte[size];
+			mask = size - 1;
+			sampleSize = 10 * Math.max(expectedEntries, 64);
+		}
+		
+		void increment(Object key)
+		{
+			int hash = spread(key.hashCode());
+			
+			boolean changed = false;
+			for (int seed : SEEDS)
+			{
+				int index = indexOf(hash, seed);
+				if (table[index] < MAX_COUNT)
+				{
+					table[index]++;
+					changed = true;
+				}
+			}
+			
+			if (changed && ++samples >= sampleSize)
+			{
+				for (int i = 0; i < table.length; i++)
+					table[i] >>= 1;
+				samples /= 2;
+			}
+		}
+		
+		int frequency(Object key)
+		{
+			int hash = spread(key.hashCode());
+			
+			int result = MAX_COUNT;
+			for (int seed : SEEDS)
+				result = Math.min(result, table[indexOf(hash, seed)]);
+			return result;
+		}
+		
+		private int indexOf(int hash, int seed)
+		{
+			int h = hash * seed;
+			h ^= h >>> 16;
+			return h & mask;
+		}
+		
+		private static int spread(int h)
+		{
+			h ^= h >>> 16;
+			h *= 0x45d9f3b;
+			return h ^ (h >>> 16);
+		}
+	}
+}
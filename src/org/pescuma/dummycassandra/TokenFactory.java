@@ -0,0 +1,79 @@
+package org.pescuma.dummycassandra;
+
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+abstract class TokenFactory
+{
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	
+	abstract String getToken(ByteBuffer key);
+	
+	static TokenFactory forPartitioner(String partitioner)
+	{
+		String name = partitioner.substring(partitioner.lastIndexOf('.') + 1);
+		
+		if ("RandomPartitioner".equals(name))
+			return new RandomTokenFactory();
+		if ("ByteOrderedPartitioner".equals(name))
+			return new BytesTokenFactory();
+		if ("OrderPreservingPartitioner".equals(name) || "CollatingOrderPreservingPartitioner".equals(name))
+			return new StringTokenFactory();
+		
+		throw new CassandraException("Partitioner not supported: " + partitioner);
+	}
+	
+	private static byte[] toBytes(ByteBuffer key)
+	{
+		byte[] bytes = new byte[key.remaining()];
+		key.duplicate().get(bytes);
+		return bytes;
+	}
+	
+	private static class RandomTokenFactory extends TokenFactory
+	{
+		@Override
+		String getToken(ByteBuffer key)
+		{
+			try
+			{
+				MessageDigest md5 = MessageDigest.getInstance("MD5");
+				return new BigInteger(md5.digest(toBytes(key))).abs().toString();
+			}
+			catch (NoSuchAlgorithmException e)
+			{
+				throw new CassandraException(e);
+			}
+		}
+	}
+	
+	private static class BytesTokenFactory extends TokenFactory
+	{
+		@Override
+		String getToken(ByteBuffer key)
+		{
+			byte[] bytes = toBytes(key);
+			
+			char[] result = new char[bytes.length * 2];
+			for (int i = 0; i < bytes.length; i++)
+			{
+				result[i * 2] = HEX[(bytes[i] >> 4) & 0xF];
+				result[i * 2 + 1] = HEX[bytes[i] & 0xF];
+			}
+			return new String(result);
+		}
+	}
+	
+	private static class StringTokenFactory extends TokenFactory
+	{
+		@Override
+		String getToken(ByteBuffer key)
+		{
+			return new String(toBytes(key), UTF8);
+		}
+	}
+}
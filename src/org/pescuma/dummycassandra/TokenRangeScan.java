@@ -0,0 +1,106 @@
+package org.pescuma.dummycassandra;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import me.prettyprint.cassandra.model.thrift.ThriftConverter;
+import me.prettyprint.cassandra.service.Operation;
+import me.prettyprint.cassandra.service.OperationType;
+
+import org.apache.cassandra.thrift.Cassandra;
+import org.apache.cassandra.thrift.ColumnParent;
+import org.apache.cassandra.thrift.KeyRange;
+import org.apache.cassandra.thrift.KeySlice;
+import org.apache.cassandra.thrift.SlicePredicate;
+import org.apache.cassandra.thrift.SliceRange;
+
+class TokenRangeScan
+{
+	private static final ByteBuffer EMPTY = ByteBuffer.wrap(new byte[0]);
+	
+	private final HectorColumnFamilyFacade hector;
+	private final CassandraTokenRange range;
+	private final int rowsPerPage;
+	private final int columnsPerRow;
+	private String lastToken;
+	private boolean done;
+	
+	TokenRangeScan(HectorColumnFamilyFacade hector, CassandraTokenRange range, String lastToken, int rowsPerPage,
+			int columnsPerRow)
+	{
+		if (rowsPerPage < 1)
+			throw new IllegalArgumentException("rowsPerPage must be >= 1");
+		if (columnsPerRow < 1)
+			throw new IllegalArgumentException("columnsPerRow must be >= 1");
+		
+		this.hector = hector;
+		this.range = range;
+		this.lastToken = lastToken;
+		this.rowsPerPage = rowsPerPage;
+		this.columnsPerRow = columnsPerRow;
+		
+		// The range is (start, end], so start == end would be the whole ring
+		done = range.getEndToken().equals(lastToken);
+	}
+	
+	CassandraTokenRange getRange()
+	{
+		return range;
+	}
+	
+	String getLastToken()
+	{
+		return lastToken;
+	}
+	
+	boolean isDone()
+	{
+		return done;
+	}
+	
+	List<KeySlice> nextPage()
+	{
+		if (done)
+			throw new IllegalStateException("Range already finished: " + range);
+		
+		final ColumnParent parent = new ColumnParent(hector.getName());
+		
+		final SlicePredicate predicate = new SlicePredicate();
+		predicate.setSlice_range(new SliceRange(EMPTY, EMPTY, false, columnsPerRow));
+		
+		final KeyRange keyRange = new KeyRange(rowsPerPage);
+		keyRange.setStart_token(lastToken == null ? range.getStartToken() : lastToken);
+		keyRange.setEnd_token(range.getEndToken());
+		
+		List<KeySlice> rows = hector.getKeyspace().execute(new Operation<List<KeySlice>>(OperationType.READ) {
+			@Override
+			public List<KeySlice> execute(Cassandra.Client cassandra) throws Exception
+			{
+				return cassandra.get_range_slices(parent, predicate, keyRange,
+						ThriftConverter.consistencyLevel(consistencyLevelPolicy.get(OperationType.READ)));
+			}
+		});
+		
+		if (rows.size() < rowsPerPage)
+			done = true;
+		
+		if (!rows.isEmpty())
+		{
+			TokenFactory tokens = hector.getKeyspace().getTokenFactory();
+			lastToken = tokens.getToken(rows.get(rows.size() - 1).bufferForKey());
+			
+			if (lastToken.equals(range.getEndToken()))
+				done = true;
+		}
+		
+		List<KeySlice> result = new ArrayList<KeySlice>(rows.size());
+		for (KeySlice row : rows)
+		{
+			// Range ghosts: deleted rows are returned without columns
+			if (!row.getColumns().isEmpty())
+				result.add(row);
+		}
+		return result;
+	}
+}
@@ -1,5 +1,7 @@
 package org.pescuma.dummycassandra;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.Iterator;
 
 class TransformIterable<ORIG, DEST> implements Iterable<DEST>
@@ -16,26 +18,56 @@ class TransformIterable<ORIG, DEST> implements Iterable<DEST>
 	@Override
 	public Iterator<DEST> iterator()
 	{
-		final Iterator<ORIG> it = iterable.iterator();
-		return new Iterator<DEST>() {
-			@Override
-			public boolean hasNext()
-			{
-				return it.hasNext();
-			}
-			
-			@Override
-			public DEST next()
-			{
-				return transform.transfor(it.next());
-			}
-			
-			@Override
-			public void remove()
-			{
-				it.remove();
-			}
-		};
+		return new TransformIterator(iterable.iterator());
+	}
+	
+	static void close(Iterator<?> it)
+	{
+		if (!(it instanceof Closeable))
+			return;
+		
+		try
+		{
+			((Closeable) it).close();
+		}
+		catch (IOException e)
+		{
+			throw new CassandraException(e);
+		}
+	}
+	
+	private class TransformIterator implements Iterator<DEST>, Closeable
+	{
+		private final Iterator<ORIG> it;
+		
+		TransformIterator(Iterator<ORIG> it)
+		{
+			this.it = it;
+		}
+		
+		@Override
+		public boolean hasNext()
+		{
+			return it.hasNext();
+		}
+		
+		@Override
+		public DEST next()
+		{
+			return transform.transfor(it.next());
+		}
+		
+		@Override
+		public void remove()
+		{
+			it.remove();
+		}
+		
+		@Override
+		public void close()
+		{
+			TransformIterable.close(it);
+		}
 	}
 	
 	public static interface Transformation<ORIG, DEST>
@@ -0,0 +1,83 @@
+package org.pescuma.dummycassandra;
+
+import java.nio.ByteBuffer;
+
+import me.prettyprint.cassandra.serializers.AbstractSerializer;
+import me.prettyprint.hector.api.ddl.ComparatorType;
+
+/**
+ * Serializes the values with another serializer and encodes the ones with at
+ * least minSize bytes with a CassandraValueCodec. Encoded values start with
+ * the byte 0xFF followed by the id of the codec. 0xFF is never used in UTF-8,
+ * so the values that were not encoded are still read as they are.
+ */
+@SuppressWarnings({ "unchecked", "rawtypes" })
+class ValueCodecSerializer extends AbstractSerializer<Object>
+{
+	private static final byte MARKER = (byte) 0xFF;
+	private static final int HEADER_SIZE = 2;
+	
+	private final AbstractSerializer serializer;
+	private final CassandraValueCodec codec;
+	private final int minSize;
+	
+	ValueCodecSerializer(AbstractSerializer serializer, CassandraValueCodec codec, int minSize)
+	{
+		if (codec == null)
+			throw new IllegalArgumentException("codec can't be null");
+		
+		this.serializer = serializer;
+		this.codec = codec;
+		this.minSize = Math.max(minSize, 0);
+	}
+	
+	CassandraValueCodec getCodec()
+	{
+		return codec;
+	}
+	
+	boolean isEncoding()
+	{
+		return minSize < Integer.MAX_VALUE;
+	}
+	
+	@Override
+	public ByteBuffer toByteBuffer(Object obj)
+	{
+		ByteBuffer value = serializer.toByteBuffer(obj);
+		if (value == null || value.remaining() < minSize)
+			return value;
+		
+		ByteBuffer encoded = codec.encode(value.duplicate());
+		if (encoded == null)
+			return value;
+		
+		ByteBuffer result = ByteBuffer.allocate(HEADER_SIZE + encoded.remaining());
+		result.put(MARKER);
+		result.put(codec.getId());
+		result.put(encoded);
+		result.flip();
+		return result;
+	}
+	
+	@Override
+	public Object fromByteBuffer(ByteBuffer bytes)
+	{
+		if (bytes == null || bytes.remaining() < HEADER_SIZE || bytes.get(bytes.position()) != MARKER)
+			return serializer.fromByteBuffer(bytes);
+		
+		byte id = bytes.get(bytes.position() + 1);
+		if (id != codec.getId())
+			throw new CassandraException("Value encoded with an unknown codec: " + id);
+		
+		ByteBuffer encoded = bytes.duplicate();
+		encoded.position(encoded.position() + HEADER_SIZE);
+		return serializer.fromByteBuffer(codec.decode(encoded));
+	}
+	
+	@Override
+	public ComparatorType getComparatorType()
+	{
+		return serializer.getComparatorType();
+	}
+}
@@ -0,0 +1,352 @@
+package org.pescuma.dummycassandra;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the writes of a column family in a bounded queue and applies them in
+ * background threads, grouping them in batches.
+ * <p>
+ * A dispatcher thread drains the queue into groups and hands them to the
+ * flusher threads. When all flushers are busy the dispatcher applies the group
+ * itself, so the queue fills up and the writers block until there is space in
+ * it.
+ * <p>
+ * The groups are applied in parallel, so the timestamps of the writes are taken
+ * when they are added (see CassandraMutation), and the last write of a column
+ * still wins.
+ */
+class WriteBehindBuffer
+{
+	static final int DEFAULT_QUEUE_SIZE = 10000;
+	static final int DEFAULT_FLUSHER_THREADS = 2;
+	
+	private static final Logger logger = LoggerFactory.getLogger(WriteBehindBuffer.class);
+	
+	private final CassandraKeyspace keyspace;
+	private final String name;
+	private final CassandraWriteFailureListener listener;
+	private final BlockingQueue<Object> queue;
+	private final ThreadPoolExecutor flushers;
+	private final Thread dispatcher;
+	private volatile boolean closed;
+	// add() holds the read lock, so close() knows no write is being queued
+	private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+	private final CountDownLatch closedLatch = new CountDownLatch(1);
+	
+	WriteBehindBuffer(CassandraKeyspace keyspace, String name, int queueSize, int flusherThreads,
+			CassandraWriteFailureListener listener)
+	{
+		if (queueSize < 1)
+			throw new IllegalArgumentException("queueSize must be >= 1");
+		if (flusherThreads < 1)
+			throw new IllegalArgumentException("flusherThreads must be >= 1");
+		
+		this.keyspace = keyspace;
+		this.name = name;
+		this.listener = listener;
+		
+		queue = new ArrayBlockingQueue<Object>(queueSize);
+		
+		flushers = new ThreadPoolExecutor(flusherThreads, flusherThreads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(flusherThreads), new DaemonThreadFactory("write-behind-" + name
+						+ "-flusher"), new ThreadPoolExecutor.CallerRunsPolicy());
+		
+		dispatcher = new Thread(new Runnable() {
+			@Override
+			public void run()
+			{
+				dispatch();
+			}
+		}, "write-behind-" + name);
+		dispatcher.setDaemon(true);
+		dispatcher.start();
+	}
+	
+	boolean add(CassandraMutation mutation)
+	{
+		closeLock.readLock().lock();
+		try
+		{
+			if (!closed)
+			{
+				put(mutation);
+				return true;
+			}
+		}
+		finally
+		{
+			closeLock.readLock().unlock();
+		}
+		
+		awaitClosed();
+		return false;
+	}
+	
+	void flush()
+	{
+		if (closed)
+			return;
+		
+		Barrier barrier = new Barrier(false);
+		put(barrier);
+		barrier.await();
+	}
+	
+	void close()
+	{
+		closeLock.writeLock().lock();
+		try
+		{
+			if (closed)
+			{
+				awaitClosed();
+				return;
+			}
+			
+			closed = true;
+		}
+		finally
+		{
+			closeLock.writeLock().unlock();
+		}
+		
+		try
+		{
+			Barrier barrier = new Barrier(true);
+			put(barrier);
+			barrier.await();
+			
+			flushers.shutdown();
+		}
+		finally
+		{
+			closedLatch.countDown();
+		}
+	}
+	
+	private void awaitClosed()
+	{
+		try
+		{
+			closedLatch.await();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new CassandraException("Interrupted while waiting for the write-behind of " + name + " to close", e);
+		}
+	}
+	
+	private void put(Object item)
+	{
+		try
+		{
+			queue.put(item);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new CassandraException("Interrupted while waiting for space in the write-behind queue of " + name, e);
+		}
+	}
+	
+	private void dispatch()
+	{
+		List<Future<?>> running = new ArrayList<Future<?>>();
+		List<Object> items = new ArrayList<Object>();
+		
+		while (true)
+		{
+			items.clear();
+			
+			try
+			{
+				items.add(queue.take());
+			}
+			catch (InterruptedException e)
+			{
+				// Only close() stops the dispatcher
+				continue;
+			}
+			
+			queue.drainTo(items, CassandraBatch.DEFAULT_MAX_MUTATIONS - 1);
+			
+			List<CassandraMutation> group = new ArrayList<CassandraMutation>();
+			for (int i = 0; i < items.size(); i++)
+			{
+				Object item = items.get(i);
+				
+				if (item instanceof CassandraMutation)
+				{
+					group.add((CassandraMutation) item);
+					continue;
+				}
+				
+				Barrier barrier = (Barrier) item;
+				
+				submit(group, running);
+				group = new ArrayList<CassandraMutation>();
+				waitFor(running);
+				
+				if (barrier.stop)
+				{
+					failRemaining(items.subList(i + 1, items.size()));
+					barrier.release();
+					return;
+				}
+				
+				barrier.release();
+			}
+			
+			submit(group, running);
+			
+			for (Iterator<Future<?>> it = running.iterator(); it.hasNext();)
+				if (it.next().isDone())
+					it.remove();
+		}
+	}
+	
+	private void submit(final List<CassandraMutation> group, List<Future<?>> running)
+	{
+		if (group.isEmpty())
+			return;
+		
+		running.add(flushers.submit(new Runnable() {
+			@Override
+			public void run()
+			{
+				apply(group);
+			}
+		}));
+	}
+	
+	private void waitFor(List<Future<?>> running)
+	{
+		for (Future<?> future : running)
+		{
+			try
+			{
+				future.get();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			catch (ExecutionException e)
+			{
+				// apply already handles its errors
+				logger.error("Unexpected error in write-behind of " + name, e);
+			}
+		}
+		running.clear();
+	}
+	
+	private void apply(List<CassandraMutation> mutations)
+	{
+		CassandraBatch batch = keyspace.createBatch(Integer.MAX_VALUE, CassandraBatch.DEFAULT_MAX_BYTES);
+		int applied = 0;
+		
+		try
+		{
+			for (int i = 0; i < mutations.size(); i++)
+			{
+				mutations.get(i).addTo(batch);
+				
+				// The batch is executed when it gets too big
+				if (batch.isEmpty())
+					applied = i + 1;
+			}
+			
+			batch.execute();
+		}
+		catch (RuntimeException e)
+		{
+			batch.discard();
+			failed(mutations.subList(applied, mutations.size()), e);
+		}
+	}
+	
+	private void failRemaining(List<Object> items)
+	{
+		List<CassandraMutation> mutations = new ArrayList<CassandraMutation>();
+		
+		for (Object item : items)
+			if (item instanceof CassandraMutation)
+				mutations.add((CassandraMutation) item);
+		
+		// Writes that raced with close()
+		List<Object> rest = new ArrayList<Object>();
+		queue.drainTo(rest);
+		for (Object item : rest)
+		{
+			if (item instanceof CassandraMutation)
+				mutations.add((CassandraMutation) item);
+			else
+				((Barrier) item).release();
+		}
+		
+		if (!mutations.isEmpty())
+			failed(mutations, new IllegalStateException("Write-behind of " + name + " was already closed"));
+	}
+	
+	private void failed(List<CassandraMutation> mutations, RuntimeException error)
+	{
+		if (listener == null)
+		{
+			logger.error("Error applying " + mutations.size() + " writes to " + name, error);
+			return;
+		}
+		
+		try
+		{
+			listener.onWriteFailure(new ArrayList<CassandraMutation>(mutations), error);
+		}
+		catch (RuntimeException e)
+		{
+			logger.error("Error in write failure listener of " + name, e);
+		}
+	}
+	
+	private static class Barrier
+	{
+		final boolean stop;
+		private final CountDownLatch latch = new CountDownLatch(1);
+		
+		Barrier(boolean stop)
+		{
+			this.stop = stop;
+		}
+		
+		void release()
+		{
+			latch.countDown();
+		}
+		
+		void await()
+		{
+			try
+			{
+				latch.await();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new CassandraException("Interrupted while waiting for the write-behind flush", e);
+			}
+		}
+	}
+}
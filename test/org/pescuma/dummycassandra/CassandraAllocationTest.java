@@ -0,0 +1,127 @@
+package org.pescuma.dummycassandra;
+
+import static junit.framework.Assert.*;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+// Measures the bytes allocated by each operation, using the per thread
+// counters of the JVM. The limits are ~25% above what is allocated in memory
+// with Java 8 (1242 bytes per insertColumn and 896 per getColumn, including
+// the local backend), so they fail when an operation allocates more than it
+// used to. Only runs in memory
+public class CassandraAllocationTest
+{
+	private static final String HOST = System.getProperty("cassandra.host", "mem://");
+	private static final int WARMUP = 20000;
+	private static final int OPERATIONS = 20000;
+	private static final long MAX_BYTES_PER_INSERT = 1536;
+	private static final long MAX_BYTES_PER_GET = 1152;
+	private static final String[] NAMES = new String[OPERATIONS];
+	static
+	{
+		for (int i = 0; i < NAMES.length; i++)
+			NAMES[i] = String.format("a%05d", i);
+	}
+	
+	private CassandraCluster cluster;
+	private CassandraKeyspace keyspace;
+	private CassandraColumnFamily cf;
+	
+	@Before
+	public void setUp()
+	{
+		cluster = new CassandraCluster("test", HOST);
+		keyspace = cluster.addKeyspace("Test");
+		cf = keyspace.addColumnFamily("cf", CassandraType.UTF8, CassandraType.UTF8, CassandraType.UTF8);
+		cluster.connect();
+	}
+	
+	@After
+	public void tearDown()
+	{
+		if (cluster.isConnected())
+		{
+			if (cluster.getKeyspace("Test") != null)
+				cluster.removeKeyspace("Test");
+			
+			cluster.disconnect();
+		}
+	}
+	
+	@Test
+	public void testInsertColumnAllocations()
+	{
+		Assume.assumeTrue(isSupported());
+		
+		long bytes = bytesPerInsertColumn();
+		assertTrue(bytes > 0);
+		assertTrue("Allocated " + bytes + " bytes per insertColumn", bytes <= MAX_BYTES_PER_INSERT);
+	}
+	
+	@Test
+	public void testGetColumnAllocations()
+	{
+		Assume.assumeTrue(isSupported());
+		
+		long bytes = bytesPerGetColumn();
+		assertTrue(bytes > 0);
+		assertTrue("Allocated " + bytes + " bytes per getColumn", bytes <= MAX_BYTES_PER_GET);
+	}
+	
+	private long bytesPerInsertColumn()
+	{
+		CassandraRow row = cf.getRow("A");
+		
+		for (int i = 0; i < WARMUP; i++)
+			row.insertColumn(columnName(i), "value");
+		
+		long start = getAllocatedBytes();
+		for (int i = 0; i < OPERATIONS; i++)
+			row.insertColumn(columnName(i), "value");
+		return (getAllocatedBytes() - start) / OPERATIONS;
+	}
+	
+	private long bytesPerGetColumn()
+	{
+		CassandraRow row = cf.getRow("A");
+		
+		for (int i = 0; i < 100; i++)
+			row.insertColumn(columnName(i), "value");
+		
+		for (int i = 0; i < WARMUP; i++)
+			row.getColumn(columnName(i % 100));
+		
+		long start = getAllocatedBytes();
+		for (int i = 0; i < OPERATIONS; i++)
+			row.getColumn(columnName(i % 100));
+		return (getAllocatedBytes() - start) / OPERATIONS;
+	}
+	
+	// The names are created before measuring, so they are not counted
+	private static String columnName(int i)
+	{
+		return NAMES[i];
+	}
+	
+	private static boolean isSupported()
+	{
+		if (!HOST.startsWith("mem://"))
+			return false;
+		if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean))
+			return false;
+		
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		return bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled();
+	}
+	
+	private static long getAllocatedBytes()
+	{
+		com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
@@ -0,0 +1,132 @@
+package org.pescuma.dummycassandra;
+
+import static junit.framework.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+// Runs in memory. Use -Dcassandra.host=localhost to run against a cassandra node
+public class CassandraBatchTest
+{
+	private CassandraCluster cluster;
+	private CassandraKeyspace keyspace;
+	private CassandraColumnFamily cf;
+	private CassandraColumnFamily counterCf;
+	private CassandraSuperColumnFamily superCf;
+	
+	@Before
+	public void setUp()
+	{
+		cluster = new CassandraCluster("test", System.getProperty("cassandra.host", "mem://"));
+		keyspace = cluster.addKeyspace("Test");
+		cf = keyspace.addColumnFamily("cf", CassandraType.UTF8, CassandraType.UTF8, CassandraType.UTF8);
+		counterCf = keyspace.addColumnFamily("counters", CassandraType.Long, CassandraType.UTF8,
+				CassandraType.Counter);
+		superCf = keyspace.addSuperColumnFamily("scf", CassandraType.UTF8, CassandraType.UTF8, CassandraType.UTF8,
+				CassandraType.UTF8);
+		cluster.connect();
+	}
+	
+	@After
+	public void tearDown()
+	{
+		if (cluster.isConnected())
+		{
+			if (cluster.getKeyspace("Test") != null)
+				cluster.removeKeyspace("Test");
+			
+			cluster.disconnect();
+		}
+	}
+	
+	@Test
+	public void testNothingIsWrittenBeforeExecute()
+	{
+		CassandraBatch batch = keyspace.createBatch();
+		
+		cf.getRow("A").insertColumn(batch, "a", "1");
+		
+		assertEquals(1, batch.size());
+		assertTrue(batch.getByteSize() > 0);
+		assertNull(cf.getRow("A").getColumn("a"));
+		
+		batch.execute();
+		
+		assertTrue(batch.isEmpty());
+		assertEquals(0, batch.getByteSize());
+		assertEquals("1", cf.getRow("A").getColumn("a"));
+	}
+	
+	@Test
+	public void testMultipleColumnFamilies()
+	{
+		CassandraBatch batch = keyspace.createBatch();
+		
+		for (int i = 0; i < 10; i++)
+		{
+			cf.getRow("A").insertColumn(batch, String.format("a%03d", i), "" + i);
+			counterCf.getRow(1L).incrementCounter(batch, "c", i);
+			superCf.getRow("S").getSuperColumn("s").insertColumn(batch, String.format("a%03d", i), "" + i);
+		}
+		
+		batch.execute();
+		
+		assertEquals(10, cf.getRow("A").getColumnCount());
+		assertEquals(45L, counterCf.getRow(1L).getColumn("c"));
+		assertEquals(10, superCf.getRow("S").getSuperColumn("s").getColumnCount());
+	}
+	
+	@Test
+	public void testDelete()
+	{
+		CassandraRow row = cf.getRow("A");
+		row.insertColumn("a", "1");
+		row.insertColumn("b", "2");
+		
+		CassandraBatch batch = keyspace.createBatch();
+		row.deleteColumn(batch, "a");
+		superCf.getRow("S").getSuperColumn("s").insertColumn("a", "1");
+		superCf.getRow("S").getSuperColumn("s").deleteColumn(batch, "a");
+		batch.execute();
+		
+		assertNull(row.getColumn("a"));
+		assertEquals("2", row.getColumn("b"));
+		assertNull(superCf.getRow("S").getSuperColumn("s").getColumn("a"));
+	}
+	
+	@Test
+	public void testAutoExecuteOnMaxMutations()
+	{
+		CassandraBatch batch = keyspace.createBatch(5, Long.MAX_VALUE);
+		
+		for (int i = 0; i < 7; i++)
+			cf.getRow("A").insertColumn(batch, String.format("a%03d", i), "");
+		
+		assertEquals(2, batch.size());
+		assertEquals(5, cf.getRow("A").getColumnCount());
+	}
+	
+	@Test
+	public void testAutoExecuteOnMaxBytes()
+	{
+		CassandraBatch batch = keyspace.createBatch(Integer.MAX_VALUE, 10);
+		
+		cf.getRow("A").insertColumn(batch, "a", "0123456789");
+		
+		assertTrue(batch.isEmpty());
+		assertEquals("0123456789", cf.getRow("A").getColumn("a"));
+	}
+	
+	@Test
+	public void testDiscard()
+	{
+		CassandraBatch batch = keyspace.createBatch();
+		
+		cf.getRow("A").insertColumn(batch, "a", "1");
+		batch.discard();
+		batch.execute();
+		
+		assertNull(cf.getRow("A").getColumn("a"));
+	}
+}
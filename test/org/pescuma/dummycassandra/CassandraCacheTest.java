@@ -0,0 +1,325 @@
+package org.pescuma.dummycassandra;
+
+import static junit.framework.Assert.*;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+// Runs in memory. Use -Dcassandra.host=localhost to run against a cassandra node
+public class CassandraCacheTest
+{
+	private CassandraCluster cluster;
+	private CassandraKeyspace keyspace;
+	private CassandraColumnFamily cf;
+	private CassandraColumnFamily counters;
+	
+	@Before
+	public void setUp()
+	{
+		cluster = new CassandraCluster("test", System.getProperty("cassandra.host", "mem://"));
+		keyspace = cluster.addKeyspace("Test");
+		cf = keyspace.addColumnFamily("cf", CassandraType.UTF8, CassandraType.UTF8, CassandraType.UTF8);
+		counters = keyspace.addColumnFamily("counters", CassandraType.UTF8, CassandraType.UTF8,
+				CassandraType.Counter);
+		cluster.connect();
+	}
+	
+	@After
+	public void tearDown()
+	{
+		if (cluster.isConnected())
+		{
+			if (cluster.getKeyspace("Test") != null)
+				cluster.removeKeyspace("Test");
+			
+			cluster.disconnect();
+		}
+	}
+	
+	@SuppressWarnings("rawtypes")
+	@Test
+	public void testRowCacheHitsAndMisses()
+	{
+		cf.getRow("A").insertColumn("a", "1");
+		cf.getRow("A").insertColumn("b", "2");
+		cf.enableRowCache(10, 0);
+		
+		assertEquals("1", cf.getRow("A").getColumn("a"));
+		assertEquals("2", cf.getRow("A").getColumn("b"));
+		assertNull(cf.getRow("A").getColumn("c"));
+		
+		Map columns = cf.getRow("A").getColumns();
+		assertEquals(2, columns.size());
+		columns.clear();
+		assertEquals(2, cf.getRow("A").getColumns(Arrays.asList("a", "b", "c")).size());
+		
+		CassandraCacheStats stats = cf.getRowCacheStats();
+		assertEquals(1, stats.getMisses());
+		assertEquals(4, stats.getHits());
+		assertEquals(1, stats.getSize());
+		assertTrue(stats.getByteSize() > 0);
+	}
+	
+	@Test
+	public void testWritesInvalidateRowCache()
+	{
+		cf.getRow("A").insertColumn("a", "1");
+		cf.enableRowCache(10, 0);
+		assertEquals("1", cf.getRow("A").getColumn("a"));
+		
+		cf.getRow("A").insertColumn("a", "2");
+		assertEquals("2", cf.getRow("A").getColumn("a"));
+		
+		cf.getRow("A").deleteColumn("a");
+		assertNull(cf.getRow("A").getColumn("a"));
+		
+		CassandraBatch batch = keyspace.createBatch();
+		cf.getRow("A").insertColumn(batch, "a", "3");
+		assertNull(cf.getRow("A").getColumn("a"));
+		batch.execute();
+		assertEquals("3", cf.getRow("A").getColumn("a"));
+		
+		cf.enableWriteBehind(null);
+		cf.getRow("A").insertColumn("a", "4");
+		cf.flush();
+		assertEquals("4", cf.getRow("A").getColumn("a"));
+		cf.disableWriteBehind();
+		
+		assertEquals(5, cf.getRowCacheStats().getMisses());
+	}
+	
+	@Test
+	public void testLruEviction()
+	{
+		cf.enableRowCache(2, 0);
+		
+		cf.getRow("A").getColumn("a");
+		cf.getRow("B").getColumn("a");
+		cf.getRow("A").getColumn("a");
+		cf.getRow("C").getColumn("a");
+		
+		// B was the least recently used
+		cf.getRow("A").getColumn("a");
+		cf.getRow("C").getColumn("a");
+		
+		CassandraCacheStats stats = cf.getRowCacheStats();
+		assertEquals(1, stats.getEvictions());
+		assertEquals(3, stats.getMisses());
+		assertEquals(3, stats.getHits());
+		assertEquals(2, stats.getSize());
+	}
+	
+	@Test
+	public void testTinyLfuKeepsHotRowsDuringScans()
+	{
+		cf.enableRowCache(CassandraCacheEviction.TinyLFU, 100, 0, 0);
+		
+		for (int round = 0; round < 5; round++)
+			for (int i = 0; i < 50; i++)
+				cf.getRow("hot" + i).getColumn("a");
+		
+		for (int i = 0; i < 1000; i++)
+			cf.getRow("cold" + i).getColumn("a");
+		
+		long hits = cf.getRowCacheStats().getHits();
+		for (int i = 0; i < 50; i++)
+			cf.getRow("hot" + i).getColumn("a");
+		
+		assertTrue(cf.getRowCacheStats().getHits() - hits >= 45);
+		assertTrue(cf.getRowCacheStats().getSize() <= 100);
+	}
+	
+	@Test
+	public void testRowCacheLimitedByBytes()
+	{
+		StringBuilder value = new StringBuilder();
+		for (int i = 0; i < 1000; i++)
+			value.append('x');
+		for (int i = 0; i < 20; i++)
+			cf.getRow("R" + i).insertColumn("a", value.toString());
+		
+		cf.enableRowCache(CassandraCacheEviction.LRU, 0, 10 * 1024, 0);
+		for (int i = 0; i < 20; i++)
+			cf.getRow("R" + i).getColumn("a");
+		
+		CassandraCacheStats stats = cf.getRowCacheStats();
+		assertTrue(stats.getByteSize() <= 10 * 1024);
+		assertTrue(stats.getSize() < 10);
+		assertTrue(stats.getEvictions() > 10);
+	}
+	
+	@Test
+	public void testRowCacheExpires() throws InterruptedException
+	{
+		cf.getRow("A").insertColumn("a", "1");
+		cf.enableRowCache(10, 50);
+		
+		cf.getRow("A").getColumn("a");
+		Thread.sleep(100);
+		cf.getRow("A").getColumn("a");
+		
+		assertEquals(2, cf.getRowCacheStats().getMisses());
+		assertEquals(1, cf.getRowCacheStats().getEvictions());
+	}
+	
+	@Test
+	public void testNegativeCache()
+	{
+		cf.getRow("A").insertColumn("a", "1");
+		cf.enableNegativeCache(100, 0);
+		
+		assertNull(cf.getRow("A").getColumn("b"));
+		assertNull(cf.getRow("A").getColumn("b"));
+		assertEquals("1", cf.getRow("A").getColumn("a"));
+		assertTrue(cf.getRow("B").getColumns().isEmpty());
+		assertNull(cf.getRow("B").getColumn("x"));
+		assertTrue(cf.getRow("B").getColumns().isEmpty());
+		
+		CassandraCacheStats stats = cf.getNegativeCacheStats();
+		assertEquals(3, stats.getHits());
+		assertEquals(3, stats.getMisses());
+		assertEquals(2, stats.getSize());
+		
+		cf.getRow("A").insertColumn("b", "2");
+		assertEquals("2", cf.getRow("A").getColumn("b"));
+		
+		CassandraBatch batch = keyspace.createBatch();
+		cf.getRow("B").insertColumn(batch, "x", "3");
+		batch.execute();
+		assertEquals("3", cf.getRow("B").getColumn("x"));
+	}
+	
+	@Test
+	public void testNegativeCacheLimits() throws InterruptedException
+	{
+		cf.enableNegativeCache(10, 50);
+		
+		for (int i = 0; i < 20; i++)
+			cf.getRow("A" + i).getColumn("a");
+		
+		CassandraCacheStats stats = cf.getNegativeCacheStats();
+		assertEquals(10, stats.getSize());
+		assertEquals(10, stats.getEvictions());
+		
+		assertNull(cf.getRow("A19").getColumn("a"));
+		assertEquals(1, cf.getNegativeCacheStats().getHits());
+		
+		Thread.sleep(100);
+		assertNull(cf.getRow("A19").getColumn("a"));
+		assertEquals(1, cf.getNegativeCacheStats().getHits());
+	}
+	
+	@Test
+	public void testCounterCache()
+	{
+		counters.getRow("A").incrementCounter("a", 3);
+		counters.enableCounterCache(60000, 100);
+		
+		assertEquals(3L, counters.getRow("A").getColumn("a"));
+		assertEquals(3L, counters.getRow("A").getColumn("a"));
+		assertNull(counters.getRow("A").getColumn("b"));
+		assertNull(counters.getRow("A").getColumn("b"));
+		
+		CassandraCacheStats stats = counters.getCounterCacheStats();
+		assertEquals(2, stats.getHits());
+		assertEquals(2, stats.getMisses());
+		assertEquals(2, stats.getSize());
+		
+		counters.getRow("A").incrementCounter("a", 2);
+		assertEquals(5L, counters.getRow("A").getColumn("a"));
+		
+		CassandraBatch batch = keyspace.createBatch();
+		counters.getRow("A").incrementCounter(batch, "b", 1);
+		batch.execute();
+		assertEquals(1L, counters.getRow("A").getColumn("b"));
+	}
+	
+	@Test
+	public void testCounterCacheAddsCoalescedIncrements()
+	{
+		counters.getRow("A").incrementCounter("a", 3);
+		counters.enableCounterCache(60000, 100);
+		counters.enableCounterCoalescing(60000, 1000, null);
+		
+		counters.getRow("A").incrementCounter("a", 2);
+		counters.getRow("A").incrementCounter("b", -1);
+		assertEquals(5L, counters.getRow("A").getColumn("a"));
+		assertEquals(-1L, counters.getRow("A").getColumn("b"));
+		
+		counters.disableCounterCoalescing();
+		assertEquals(5L, counters.getRow("A").getColumn("a"));
+		assertEquals(-1L, counters.getRow("A").getColumn("b"));
+		
+		counters.disableCounterCache();
+		assertEquals(5L, counters.getRow("A").getColumn("a"));
+	}
+	
+	@Test
+	public void testCounterReadsWhileCoalescedIncrementsAreFlushed() throws InterruptedException
+	{
+		counters.enableCounterCache(60000, 100);
+		counters.enableCounterCoalescing(60000, 10, null);
+		
+		final AtomicLong started = new AtomicLong();
+		final AtomicLong finished = new AtomicLong();
+		final AtomicReference<String> error = new AtomicReference<String>();
+		
+		Thread reader = new Thread() {
+			@Override
+			public void run()
+			{
+				while (finished.get() < 20000 && error.get() == null)
+				{
+					long min = finished.get();
+					Long value = (Long) counters.getRow("A").getColumn("a");
+					long max = started.get();
+					
+					long current = (value == null ? 0 : value);
+					if (current < min || current > max)
+						error.set(current + " not in [" + min + ", " + max + "]");
+				}
+			}
+		};
+		reader.start();
+		
+		for (int i = 0; i < 20000 && error.get() == null; i++)
+		{
+			started.incrementAndGet();
+			counters.getRow("A").incrementCounter("a", 1);
+			finished.incrementAndGet();
+		}
+		reader.join();
+		
+		assertNull(error.get());
+		counters.disableCounterCoalescing();
+		assertEquals(20000L, counters.getRow("A").getColumn("a"));
+	}
+	
+	@Test
+	public void testCounterCacheStaleness() throws InterruptedException
+	{
+		counters.getRow("A").incrementCounter("a", 1);
+		counters.enableCounterCache(50, 100);
+		
+		counters.getRow("A").getColumn("a");
+		counters.getRow("A").getColumn("a");
+		Thread.sleep(100);
+		counters.getRow("A").getColumn("a");
+		
+		CassandraCacheStats stats = counters.getCounterCacheStats();
+		assertEquals(1, stats.getHits());
+		assertEquals(2, stats.getMisses());
+	}
+	
+	@Test(expected = IllegalStateException.class)
+	public void testCounterCacheNeedsCounters()
+	{
+		cf.enableCounterCache(1000, 100);
+	}
+}
@@ -6,8 +6,7 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
-// TODO Start cassandra
-// For now you need to start it manually before the tests
+// Runs in memory. Use -Dcassandra.host=localhost to run against a cassandra node
 public class CassandraClusterConnectionTest
 {
 	private CassandraCluster cluster;
@@ -15,7 +14,7 @@ public class CassandraClusterConnectionTest
 	@Before
 	public void setUp()
 	{
-		cluster = new CassandraCluster("test", "localhost");
+		cluster = new CassandraCluster("test", System.getProperty("cassandra.host", "mem://"));
 	}
 	
 	@After
@@ -2,15 +2,33 @@ package org.pescuma.dummycassandra;
 
 import static junit.framework.Assert.*;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
-// TODO Start cassandra
-// For now you need to start it manually before the tests
+// Runs in memory. Use -Dcassandra.host=localhost to run against a cassandra node
 public class CassandraColumnFamilyQueriesTest
 {
 	private CassandraCluster cluster;
@@ -20,7 +38,7 @@ public class CassandraColumnFamilyQueriesTest
 	@Before
 	public void setUp()
 	{
-		cluster = new CassandraCluster("test", "localhost");
+		cluster = new CassandraCluster("test", System.getProperty("cassandra.host", "mem://"));
 		keyspace = cluster.addKeyspace("Test");
 		cf = keyspace.addColumnFamily("cf", CassandraType.UTF8, CassandraType.UTF8, CassandraType.UTF8);
 		cluster.connect();
@@ -111,6 +129,529 @@ public class CassandraColumnFamilyQueriesTest
 		assertEquals(0, toList(row.getColumnNames()).size());
 	}
 	
+	@Test
+	public void testGetColumnNamesWithPrefetch()
+	{
+		cf.setPageSize(10);
+		cf.setPrefetchPages(2);
+		
+		CassandraRow row = cf.getRow("A");
+		
+		for (int i = 0; i < 95; i++)
+			row.insertColumn(String.format("a%03d", i), "");
+		
+		List<String> names = toList(row.getColumnNames());
+		assertEquals(95, names.size());
+		for (int i = 0; i < 95; i++)
+			assertEquals(String.format("a%03d", i), names.get(i));
+	}
+	
+	@Test
+	public void testPrefetchWithBoundedExecutor()
+	{
+		keyspace.setExecutor(Executors.newFixedThreadPool(1));
+		cf.setPageSize(10);
+		cf.setPrefetchPages(3);
+		
+		CassandraRow row = cf.getRow("A");
+		
+		for (int i = 0; i < 95; i++)
+			row.insertColumn(String.format("a%03d", i), "");
+		
+		List<String> names = toList(row.getColumnNames());
+		assertEquals(95, names.size());
+		assertEquals("a094", names.get(94));
+		
+		names = toList(row.getColumnNames("a010", "a029"));
+		assertEquals(20, names.size());
+	}
+	
+	@Test
+	@SuppressWarnings("rawtypes")
+	public void testStoppedIterationsCancelThePrefetchedPages() throws Exception
+	{
+		final AtomicInteger fetches = new AtomicInteger();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>()) {
+			@Override
+			protected void beforeExecute(Thread t, Runnable r)
+			{
+				if (r instanceof Future && !((Future) r).isCancelled())
+					fetches.incrementAndGet();
+			}
+		};
+		keyspace.setExecutor(executor);
+		cf.setPageSize(10);
+		cf.setPrefetchPages(3);
+		
+		CassandraRow row = cf.getRow("A");
+		
+		for (int i = 0; i < 95; i++)
+			row.insertColumn(String.format("a%03d", i), "");
+		
+		// Holds the only thread, so the pages wait in the queue
+		final CountDownLatch blocked = new CountDownLatch(1);
+		executor.execute(new Runnable() {
+			@Override
+			public void run()
+			{
+				try
+				{
+					blocked.await();
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		
+		row.forEachColumn(null, null, new CassandraColumnListener() {
+			@Override
+			public boolean onColumn(Object name, Object value)
+			{
+				return false;
+			}
+		});
+		
+		Iterator<Map.Entry> it = row.iterateColumns(null, null).iterator();
+		assertTrue(it.hasNext());
+		assertEquals("a000", it.next().getKey());
+		((Closeable) it).close();
+		
+		blocked.countDown();
+		executor.shutdown();
+		assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+		assertEquals(0, fetches.get());
+	}
+	
+	@Test
+	public void testCountColumnsInPages()
+	{
+		cf.setPageSize(10);
+		
+		CassandraRow row = cf.getRow("A");
+		
+		for (int i = 0; i < 95; i++)
+			row.insertColumn(String.format("a%03d", i), "");
+		
+		assertEquals(95, row.getColumnCount());
+		assertEquals(95, row.getColumnCount(null, null, 0));
+		assertEquals(20, row.getColumnCount(null, null, 20));
+		assertEquals(31, row.getColumnCount("a010", "a040", 0));
+		assertEquals(5, row.getColumnCount("a090", null, 0));
+		assertEquals(5, row.getColumnCount("a090", null, 6));
+		assertEquals(0, row.getColumnCount("b", null, 0));
+		assertEquals(0, cf.getRow("B").getColumnCount(null, null, 10));
+	}
+	
+	@Test
+	public void testCountColumnsWithoutPaging()
+	{
+		cf.setPageSize(0);
+		
+		CassandraRow row = cf.getRow("A");
+		
+		for (int i = 0; i < 2500; i++)
+			row.insertColumn(String.format("a%04d", i), "");
+		
+		assertEquals(2500, row.getColumnCount());
+		assertEquals(1500, row.getColumnCount(null, null, 1500));
+		assertEquals(1201, row.getColumnCount("a1000", "a2200", 0));
+		assertEquals(1000, row.getColumnCount("a1000", null, 1000));
+	}
+	
+	@Test
+	@SuppressWarnings("rawtypes")
+	public void testGetOrderedColumns()
+	{
+		cf.setPageSize(10);
+		
+		CassandraRow row = cf.getRow("A");
+		
+		for (int i = 94; i >= 0; i--)
+			row.insertColumn(String.format("a%03d", i), "v" + i);
+		
+		CassandraColumns columns = row.getOrderedColumns(null, null);
+		assertEquals(95, columns.size());
+		for (int i = 0; i < 95; i++)
+		{
+			assertEquals(String.format("a%03d", i), columns.getName(i));
+			assertEquals("v" + i, columns.getValue(i));
+		}
+		
+		assertEquals("v50", columns.get("a050"));
+		assertNull(columns.get("b"));
+		assertEquals(20, columns.indexOf("a020"));
+		assertEquals(-1, columns.indexOf("a0201"));
+		
+		int i = 0;
+		for (Object obj : columns.entrySet())
+		{
+			Map.Entry entry = (Map.Entry) obj;
+			assertEquals(String.format("a%03d", i), entry.getKey());
+			i++;
+		}
+		assertEquals(95, i);
+		
+		columns = row.getOrderedColumns("a010", "a019");
+		assertEquals(10, columns.size());
+		assertEquals("a010", columns.getName(0));
+		assertTrue(cf.getRow("B").getOrderedColumns(null, null).isEmpty());
+	}
+	
+	@Test
+	@SuppressWarnings("rawtypes")
+	public void testStreamColumns()
+	{
+		cf.setPageSize(10);
+		
+		CassandraRow row = cf.getRow("A");
+		
+		for (int i = 0; i < 95; i++)
+			row.insertColumn(String.format("a%03d", i), "v" + i);
+		
+		final List<Object> names = new ArrayList<Object>();
+		row.forEachColumn(null, null, new CassandraColumnListener() {
+			@Override
+			public boolean onColumn(Object name, Object value)
+			{
+				assertEquals("v" + names.size(), value);
+				names.add(name);
+				return true;
+			}
+		});
+		assertEquals(95, names.size());
+		assertEquals("a094", names.get(94));
+		
+		names.clear();
+		row.forEachColumn("a010", null, new CassandraColumnListener() {
+			@Override
+			public boolean onColumn(Object name, Object value)
+			{
+				names.add(name);
+				return names.size() < 15;
+			}
+		});
+		assertEquals(15, names.size());
+		assertEquals("a024", names.get(14));
+		
+		int i = 0;
+		for (Map.Entry column : row.iterateColumns(null, "a049"))
+		{
+			assertEquals(String.format("a%03d", i), column.getKey());
+			assertEquals("v" + i, column.getValue());
+			i++;
+		}
+		assertEquals(50, i);
+	}
+	
+	@Test
+	public void testTypedView()
+	{
+		CassandraTypedColumnFamily<String, String, String> typed = cf.typed(String.class, String.class,
+				String.class);
+		
+		typed.insert("A", "a", "1");
+		typed.insert("A", "b", "2");
+		
+		String value = typed.get("A", "a");
+		assertEquals("1", value);
+		assertEquals(2, typed.getColumns("A").size());
+		assertEquals("2", typed.getColumns("A", "b", null).get("b"));
+		
+		List<String> names = new ArrayList<String>();
+		for (String name : typed.getColumnNames("A"))
+			names.add(name);
+		assertEquals(Arrays.asList("a", "b"), names);
+		
+		typed.delete("A", "a");
+		assertNull(typed.get("A", "a"));
+		assertEquals(1, typed.getColumnCount("A"));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testTypedViewWithWrongClass()
+	{
+		cf.typed(String.class, Long.class, String.class);
+	}
+	
+	@Test
+	public void testRawColumns()
+	{
+		CassandraRow row = cf.getRow("A");
+		
+		row.insertColumn("a", "1");
+		row.insertRaw(utf8("b"), utf8("2"));
+		
+		CassandraBatch batch = keyspace.createBatch();
+		row.insertRaw(batch, utf8("c"), utf8("3"));
+		batch.execute();
+		
+		cf.enableWriteBehind(null);
+		row.insertRaw(utf8("d"), utf8("4"));
+		cf.disableWriteBehind();
+		
+		assertEquals("2", row.getColumn("b"));
+		assertEquals("4", row.getColumn("d"));
+		
+		CassandraColumns columns = row.getRawColumns();
+		assertEquals(4, columns.size());
+		assertEquals(utf8("a"), columns.getName(0));
+		assertEquals(utf8("1"), columns.getValue(0));
+		assertEquals(utf8("3"), columns.get(utf8("c")));
+		assertTrue(((ByteBuffer) columns.getValue(1)).isReadOnly());
+		
+		columns = row.getRawColumns(utf8("b"), utf8("c"));
+		assertEquals(2, columns.size());
+		assertEquals(utf8("b"), columns.getName(0));
+	}
+	
+	@Test
+	public void testWriteBehindKeepsTheLastWrite()
+	{
+		CassandraRow row = cf.getRow("A");
+		
+		cf.enableWriteBehind(4, 4, null);
+		for (int i = 0; i < 1000; i++)
+		{
+			if (i % 3 == 0)
+				row.deleteColumn("a");
+			row.insertColumn("a", Integer.toString(i));
+		}
+		cf.disableWriteBehind();
+		
+		assertEquals("999", row.getColumn("a"));
+	}
+	
+	@Test(expected = ClassCastException.class)
+	public void testByteBuffersAreNotInsertedRawInTypedColumns()
+	{
+		cf.getRow("A").insertColumn(utf8("a"), utf8("1"));
+	}
+	
+	@Test
+	public void testValueCompression()
+	{
+		StringBuilder big = new StringBuilder();
+		for (int i = 0; i < 1000; i++)
+			big.append("{\"id\": ").append(i).append("}, ");
+		
+		CassandraRow row = cf.getRow("A");
+		row.insertColumn("old", big.toString());
+		
+		cf.enableValueCompression(100);
+		assertTrue(cf.isValueCompressionEnabled());
+		
+		row.insertColumn("big", big.toString());
+		row.insertColumn("small", "small");
+		
+		assertEquals(big.toString(), row.getColumn("big"));
+		assertEquals(big.toString(), row.getColumn("old"));
+		assertEquals("small", row.getColumn("small"));
+		assertEquals(big.toString(), row.getColumns().get("big"));
+		
+		CassandraColumns raw = row.getRawColumns();
+		ByteBuffer stored = (ByteBuffer) raw.get(utf8("big"));
+		assertEquals((byte) 0xFF, stored.get(stored.position()));
+		assertTrue(stored.remaining() < big.length() / 4);
+		assertEquals(utf8("small"), raw.get(utf8("small")));
+		
+		cf.disableValueCompression();
+		assertFalse(cf.isValueCompressionEnabled());
+		
+		row.insertColumn("new", big.toString());
+		assertEquals(big.length(), ((ByteBuffer) row.getRawColumns().get(utf8("new"))).remaining());
+		assertEquals(big.toString(), row.getColumn("big"));
+	}
+	
+	@Test
+	@SuppressWarnings("rawtypes")
+	public void testGetRows()
+	{
+		cf.setPageSize(10);
+		cf.setMultigetBatchSize(3);
+		
+		List<String> keys = new ArrayList<String>();
+		for (int i = 0; i < 10; i++)
+		{
+			String key = String.format("r%03d", i);
+			keys.add(key);
+			
+			for (int j = 0; j < i * 3; j++)
+				cf.getRow(key).insertColumn(String.format("a%03d", j), "" + j);
+		}
+		keys.add("missing");
+		
+		Map rows = cf.getRows(keys);
+		
+		assertEquals(keys, toList(rows.keySet()));
+		for (int i = 0; i < 10; i++)
+		{
+			Map columns = (Map) rows.get(String.format("r%03d", i));
+			assertEquals(i * 3, columns.size());
+			for (int j = 0; j < i * 3; j++)
+				assertEquals("" + j, columns.get(String.format("a%03d", j)));
+		}
+		assertEquals(0, ((Map) rows.get("missing")).size());
+	}
+	
+	@Test
+	@SuppressWarnings("rawtypes")
+	public void testGetColumnOfManyRows()
+	{
+		cf.setMultigetBatchSize(3);
+		
+		List<String> keys = new ArrayList<String>();
+		for (int i = 0; i < 10; i++)
+		{
+			String key = String.format("r%03d", i);
+			keys.add(key);
+			
+			cf.getRow(key).insertColumn("a", "" + i);
+			cf.getRow(key).insertColumn("b", "");
+		}
+		keys.add("missing");
+		
+		Map values = cf.getColumn(keys, "a");
+		
+		assertEquals(10, values.size());
+		for (int i = 0; i < 10; i++)
+			assertEquals("" + i, values.get(String.format("r%03d", i)));
+	}
+	
+	@Test
+	@SuppressWarnings("rawtypes")
+	public void testGetColumnsByName()
+	{
+		CassandraRow row = cf.getRow("A");
+		
+		for (int i = 0; i < 10; i++)
+			row.insertColumn(String.format("a%03d", i), "" + i);
+		
+		Map columns = row.getColumns(Arrays.asList("a001", "a005", "a009", "b000"));
+		
+		assertEquals(3, columns.size());
+		assertEquals("1", columns.get("a001"));
+		assertEquals("5", columns.get("a005"));
+		assertEquals("9", columns.get("a009"));
+	}
+	
+	@Test
+	public void testScanRowKeys()
+	{
+		Set<String> keys = new HashSet<String>();
+		for (int i = 0; i < 50; i++)
+		{
+			String key = String.format("r%03d", i);
+			keys.add(key);
+			
+			cf.getRow(key).insertColumn("a", "");
+		}
+		
+		List<String> scanned = toList(cf.scanRowKeys(4));
+		
+		assertEquals(keys.size(), scanned.size());
+		assertEquals(keys, new HashSet<String>(scanned));
+	}
+	
+	@Test
+	public void testScanRowKeysWithListener()
+	{
+		Set<String> keys = new HashSet<String>();
+		for (int i = 0; i < 50; i++)
+		{
+			String key = String.format("r%03d", i);
+			keys.add(key);
+			
+			cf.getRow(key).insertColumn("a", "");
+		}
+		
+		final Set<Object> scanned = Collections.synchronizedSet(new HashSet<Object>());
+		cf.scanRowKeys(4, new CassandraRowKeyListener() {
+			@Override
+			public void onRowKey(CassandraTokenRange range, Object rowKey)
+			{
+				scanned.add(rowKey);
+			}
+		});
+		
+		assertEquals(keys, scanned);
+	}
+	
+	@Test
+	@SuppressWarnings("rawtypes")
+	public void testScanRows()
+	{
+		cf.setPageSize(10);
+		
+		for (int i = 0; i < 20; i++)
+			for (int j = 0; j < i * 2; j++)
+				cf.getRow(String.format("r%03d", i)).insertColumn(String.format("a%03d", j), "" + j);
+		
+		Map<Object, Map> rows = new HashMap<Object, Map>();
+		for (Object obj : cf.scanRows(2))
+		{
+			Map.Entry row = (Map.Entry) obj;
+			assertNull(rows.put(row.getKey(), (Map) row.getValue()));
+		}
+		
+		// Row r000 has no columns
+		assertEquals(19, rows.size());
+		for (int i = 1; i < 20; i++)
+		{
+			Map columns = rows.get(String.format("r%03d", i));
+			assertEquals(i * 2, columns.size());
+			for (int j = 0; j < i * 2; j++)
+				assertEquals("" + j, columns.get(String.format("a%03d", j)));
+		}
+	}
+	
+	@Test
+	@SuppressWarnings("rawtypes")
+	public void testResumeScan() throws IOException
+	{
+		Set<String> keys = new HashSet<String>();
+		for (int i = 0; i < 50; i++)
+		{
+			String key = String.format("r%03d", i);
+			keys.add(key);
+			
+			cf.getRow(key).insertColumn("a", "");
+		}
+		
+		List<Object> scanned = new ArrayList<Object>();
+		
+		CassandraScan scan = cf.scanRowKeys(2);
+		Iterator it = scan.iterator();
+		for (int i = 0; i < 20; i++)
+			scanned.add(it.next());
+		scan.close();
+		assertFalse(it.hasNext());
+		
+		File file = File.createTempFile("cursor", ".ser");
+		try
+		{
+			scan.getCursor().save(file);
+			
+			CassandraScanCursor cursor = CassandraScanCursor.load(file);
+			assertFalse(cursor.isFinished());
+			
+			CassandraScan resumed = cf.resumeScan(cursor, 2);
+			for (Object key : resumed)
+				scanned.add(key);
+			
+			assertTrue(resumed.getCursor().isFinished());
+		}
+		finally
+		{
+			file.delete();
+		}
+		
+		assertEquals(keys.size(), scanned.size());
+		assertEquals(keys, new HashSet<Object>(scanned));
+	}
+	
 	@SuppressWarnings({ "unchecked", "rawtypes" })
 	private <T> List<T> toList(Iterable objs)
 	{
@@ -119,4 +660,9 @@ public class CassandraColumnFamilyQueriesTest
 			list.add((T) obj);
 		return list;
 	}
+	
+	private static ByteBuffer utf8(String str)
+	{
+		return ByteBuffer.wrap(str.getBytes(Charset.forName("UTF-8")));
+	}
 }
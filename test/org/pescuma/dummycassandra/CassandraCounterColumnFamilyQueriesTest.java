@@ -3,26 +3,30 @@ package org.pescuma.dummycassandra;
 import static junit.framework.Assert.*;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
-// TODO Start cassandra
-// For now you need to start it manually before the tests
+// Runs in memory. Use -Dcassandra.host=localhost to run against a cassandra node
 public class CassandraCounterColumnFamilyQueriesTest
 {
 	private CassandraCluster cluster;
 	private CassandraKeyspace keyspace;
 	private CassandraColumnFamily cf;
+	private CassandraColumnFamily longs;
 	
 	@Before
 	public void setUp()
 	{
-		cluster = new CassandraCluster("test", "localhost");
+		cluster = new CassandraCluster("test", System.getProperty("cassandra.host", "mem://"));
 		keyspace = cluster.addKeyspace("Test");
 		cf = keyspace.addColumnFamily("cf", CassandraType.UTF8, CassandraType.UTF8, CassandraType.Counter);
+		longs = keyspace.addColumnFamily("longs", CassandraType.UTF8, CassandraType.Long, CassandraType.Counter);
 		cluster.connect();
 	}
 	
@@ -53,6 +57,156 @@ public class CassandraCounterColumnFamilyQueriesTest
 			assertEquals(String.format("a%03d", i), names.get(i));
 	}
 	
+	@Test
+	public void testGetLongColumns()
+	{
+		CassandraRow row = cf.getRow("A");
+		
+		for (int i = 0; i < 10; i++)
+			row.incrementCounter(String.format("a%03d", i), i * 10);
+		
+		CassandraLongColumns columns = row.getLongColumns(null, "a004");
+		assertEquals(5, columns.size());
+		assertFalse(columns.hasLongNames());
+		for (int i = 0; i < 5; i++)
+		{
+			assertEquals(String.format("a%03d", i), columns.getName(i));
+			assertEquals(i * 10, columns.getValue(i));
+		}
+	}
+	
+	@Test
+	public void testGetLongColumnsWithLongNames()
+	{
+		CassandraRow row = longs.getRow("A");
+		
+		for (long i = 200; i > -200; i--)
+			row.incrementCounter(i, i + 1000);
+		
+		CassandraLongColumns columns = row.getLongColumns(null, null);
+		assertEquals(400, columns.size());
+		assertTrue(columns.hasLongNames());
+		for (int i = 0; i < 400; i++)
+		{
+			assertEquals(i - 199, columns.getLongName(i));
+			assertEquals(i - 199 + 1000, columns.getValue(i));
+		}
+		assertEquals(Long.valueOf(-199), columns.getName(0));
+		assertEquals(199, columns.indexOf(0));
+		assertEquals(-1, columns.indexOf(201));
+	}
+	
+	@Test
+	public void testCounterView()
+	{
+		CassandraCounterView view = longs.counterView();
+		
+		view.increment("A", 1L, 10);
+		view.increment("A", 1L, 5);
+		view.increment("A", 2L, -3);
+		
+		assertEquals(15, view.get("A", 1L));
+		assertEquals(-3, view.get("A", 2));
+		assertEquals(0, view.get("A", 3L));
+		assertEquals(0, view.get("B", 1L));
+		
+		CassandraBatch batch = keyspace.createBatch();
+		view.increment(batch, "A", 3L, 7);
+		batch.execute();
+		assertEquals(7, view.get("A", 3L));
+		
+		CassandraLongColumns columns = view.getColumns("A", null, null);
+		assertEquals(3, columns.size());
+		assertEquals(1, columns.getLongName(0));
+		assertEquals(15, columns.getValue(0));
+		
+		CassandraCounterView strings = cf.counterView();
+		strings.increment("A", "a", 2);
+		assertEquals(2, strings.get("A", "a"));
+		try
+		{
+			strings.increment("A", 1L, 2);
+			fail();
+		}
+		catch (IllegalStateException e)
+		{
+			// Expected
+		}
+	}
+	
+	@Test
+	public void testCounterViewWithCoalescing()
+	{
+		CassandraCounterView view = longs.counterView();
+		view.increment("A", 1L, 10);
+		
+		longs.enableCounterCache(60000, 100);
+		longs.enableCounterCoalescing(60000, 1000, null);
+		
+		view.increment("A", 1L, 5);
+		longs.getRow("A").incrementCounter(1L, 1);
+		assertEquals(16, view.get("A", 1L));
+		assertEquals(0, view.get("A", 2L));
+		
+		longs.disableCounterCoalescing();
+		longs.disableCounterCache();
+		assertEquals(16, view.get("A", 1L));
+		assertEquals(16L, longs.getRow("A").getColumn(1L));
+	}
+	
+	@Test
+	public void testCoalescedCountersWithAnySum()
+	{
+		CassandraRow row = cf.getRow("A");
+		cf.enableCounterCache(60000, 100);
+		cf.enableCounterCoalescing(60000, 1000, null);
+		
+		row.incrementCounter("a", Long.MIN_VALUE);
+		assertEquals(Long.MIN_VALUE, row.getColumn("a"));
+		row.incrementCounter("a", 5);
+		assertEquals(Long.MIN_VALUE + 5, row.getColumn("a"));
+		
+		cf.flush();
+		cf.flush();
+		row.incrementCounter("a", -5);
+		row.incrementCounter("b", 1);
+		
+		cf.disableCounterCoalescing();
+		assertEquals(Long.MIN_VALUE, row.getColumn("a"));
+		assertEquals(1L, row.getColumn("b"));
+	}
+	
+	@Test
+	@SuppressWarnings("rawtypes")
+	public void testReadsOfManyCountersSeeCoalescedIncrements()
+	{
+		CassandraRow row = cf.getRow("A");
+		row.incrementCounter("a", 1);
+		
+		cf.enableCounterCoalescing(60000, 1000, null);
+		row.incrementCounter("a", 2);
+		row.incrementCounter("b", 5);
+		cf.getRow("B").incrementCounter("a", 3);
+		
+		assertEquals(3L, row.getColumn("a"));
+		
+		Map columns = row.getColumns(Arrays.asList("a", "b", "c"));
+		assertEquals(2, columns.size());
+		assertEquals(3L, columns.get("a"));
+		assertEquals(5L, columns.get("b"));
+		
+		assertEquals(columns, row.getColumns());
+		assertEquals(Collections.singletonMap("b", 5L), row.getColumns("b", null));
+		
+		Map values = cf.getColumn(Arrays.asList("A", "B", "C"), "a");
+		assertEquals(Arrays.asList("A", "B"), new ArrayList<Object>(values.keySet()));
+		assertEquals(3L, values.get("A"));
+		assertEquals(3L, values.get("B"));
+		
+		cf.disableCounterCoalescing();
+		assertEquals(columns, row.getColumns());
+	}
+	
 	@Test
 	public void testGetColumnNamesRangeAll()
 	{
@@ -0,0 +1,186 @@
+package org.pescuma.dummycassandra;
+
+import static junit.framework.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+// Always runs in the off-heap backend. The other tests can use it with -Dcassandra.host=offheap://
+public class CassandraOffHeapTest
+{
+	private CassandraCluster cluster;
+	private CassandraKeyspace keyspace;
+	private CassandraColumnFamily cf;
+	private CassandraColumnFamily counters;
+	private CassandraSuperColumnFamily scf;
+	
+	@Before
+	public void setUp()
+	{
+		cluster = new CassandraCluster("test", "offheap://test");
+		keyspace = cluster.addKeyspace("Test");
+		cf = keyspace.addColumnFamily("cf", CassandraType.UTF8, CassandraType.Long, CassandraType.UTF8);
+		counters = keyspace.addColumnFamily("counters", CassandraType.UTF8, CassandraType.UTF8,
+				CassandraType.Counter);
+		scf = keyspace.addSuperColumnFamily("scf", CassandraType.UTF8, CassandraType.UTF8, CassandraType.UTF8,
+				CassandraType.UTF8);
+		cluster.connect();
+	}
+	
+	@After
+	public void tearDown()
+	{
+		if (cluster.isConnected())
+		{
+			if (cluster.getKeyspace("Test") != null)
+				cluster.removeKeyspace("Test");
+			
+			cluster.disconnect();
+		}
+	}
+	
+	@Test
+	public void testManyColumnsAreSorted()
+	{
+		CassandraRow row = cf.getRow("A");
+		
+		// More than a batch of the store, inserted out of order
+		for (long i = 500; i > -500; i--)
+			row.insertColumn(i, "v" + i);
+		
+		List<Long> names = toList(row.getColumnNames());
+		assertEquals(1000, names.size());
+		for (int i = 0; i < 1000; i++)
+			assertEquals(Long.valueOf(i - 499), names.get(i));
+		
+		assertEquals(1000, row.getColumnCount());
+		assertEquals(11, row.getColumns(-5L, 5L).size());
+	}
+	
+	@Test
+	public void testOverwriteColumn()
+	{
+		CassandraRow row = cf.getRow("A");
+		
+		row.insertColumn(1L, "a");
+		row.insertColumn(1L, "b");
+		assertEquals("b", row.getColumn(1L));
+		
+		row.insertColumn(1L, "a longer value");
+		assertEquals("a longer value", row.getColumn(1L));
+		assertEquals(1, row.getColumnCount());
+	}
+	
+	@Test
+	public void testDeleteColumns()
+	{
+		cf.getRow("A").insertColumn(1L, "a");
+		cf.getRow("A").insertColumn(2L, "b");
+		cf.getRow("B").insertColumn(1L, "a");
+		
+		cf.getRow("A").deleteColumn(1L);
+		assertNull(cf.getRow("A").getColumn(1L));
+		assertEquals("b", cf.getRow("A").getColumn(2L));
+		
+		// Rows without columns are removed
+		cf.getRow("B").deleteColumn(1L);
+		List<String> keys = toList(cf.getRowKeys());
+		assertEquals(1, keys.size());
+		assertEquals("A", keys.get(0));
+	}
+	
+	@Test
+	public void testIncrementCounters()
+	{
+		CassandraRow row = counters.getRow("A");
+		
+		for (int i = 0; i < 10; i++)
+			row.incrementCounter("a", i);
+		row.incrementCounter("b", -5);
+		
+		assertEquals(45L, row.getColumn("a"));
+		assertEquals(-5L, row.getColumn("b"));
+	}
+	
+	@Test
+	public void testSuperColumns()
+	{
+		CassandraSuperRow row = scf.getRow("A");
+		
+		row.getSuperColumn("s1").insertColumn("a", "1");
+		row.getSuperColumn("s1").insertColumn("b", "2");
+		row.getSuperColumn("s2").insertColumn("a", "3");
+		
+		assertEquals("2", row.getSuperColumn("s1").getColumn("b"));
+		assertEquals(2, row.getSuperColumnCount());
+		
+		row.getSuperColumn("s2").deleteColumn("a");
+		List<String> keys = toList(row.getSuperColumnKeys());
+		assertEquals(1, keys.size());
+		assertEquals("s1", keys.get(0));
+	}
+	
+	@Test
+	public void testFreesRemovedAndOverwrittenColumns() throws Exception
+	{
+		OffHeapColumnFamilyStore store = (OffHeapColumnFamilyStore) LocalStorage.get("offheap://test").getStore(
+				"Test", "cf");
+		OffHeapColumnFamilyStore superStore = (OffHeapColumnFamilyStore) LocalStorage.get("offheap://test")
+				.getStore("Test", "scf");
+		
+		for (long i = 0; i < 100; i++)
+			cf.getRow("B").insertColumn(i, "v" + i);
+		scf.getRow("A").getSuperColumn("s1").insertColumn("a", "1");
+		
+		// The removed columns are reused
+		CassandraRow row = cf.getRow("A");
+		for (int i = 0; i < 10000; i++)
+		{
+			row.insertColumn(1L, "value");
+			row.deleteColumn(1L);
+			scf.getRow("A").getSuperColumn("s2").insertColumn("a", "2");
+			scf.getRow("A").getSuperColumn("s2").deleteColumn("a");
+		}
+		assertTrue(store.getAllocatedBytes() < 64 * 1024);
+		assertTrue(superStore.getAllocatedBytes() < 64 * 1024);
+		
+		// Too big to be reused, so the arena is compacted
+		char[] chars = new char[11000];
+		Arrays.fill(chars, 'x');
+		for (int i = 0; i < 1000; i++)
+			row.insertColumn(2L, new String(chars, 0, 10000 + i));
+		assertTrue(store.getAllocatedBytes() < 4 * 1024 * 1024);
+		
+		assertEquals(10999, ((String) row.getColumn(2L)).length());
+		assertNull(row.getColumn(1L));
+		assertEquals(100, cf.getRow("B").getColumnCount());
+		assertEquals("v50", cf.getRow("B").getColumn(50L));
+		assertEquals("1", scf.getRow("A").getSuperColumn("s1").getColumn("a"));
+		assertEquals(1, scf.getRow("A").getSuperColumnCount());
+	}
+	
+	@Test
+	public void testKeepsDataBetweenConnections()
+	{
+		cf.getRow("A").insertColumn(1L, "a");
+		
+		cluster.disconnect();
+		cluster.connect();
+		
+		assertEquals("a", cf.getRow("A").getColumn(1L));
+	}
+	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private <T> List<T> toList(Iterable objs)
+	{
+		List<T> list = new ArrayList<T>();
+		for (Object obj : objs)
+			list.add((T) obj);
+		return list;
+	}
+}
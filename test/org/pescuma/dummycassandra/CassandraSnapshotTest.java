@@ -0,0 +1,251 @@
+package org.pescuma.dummycassandra;
+
+import static junit.framework.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+// Runs in memory. Use -Dcassandra.host=localhost to run against a cassandra node
+public class CassandraSnapshotTest
+{
+	private CassandraCluster cluster;
+	private CassandraKeyspace keyspace;
+	private CassandraColumnFamily cf;
+	private CassandraColumnFamily counters;
+	private File file;
+	
+	@Before
+	public void setUp() throws IOException
+	{
+		cluster = new CassandraCluster("test", System.getProperty("cassandra.host", "mem://"));
+		keyspace = cluster.addKeyspace("Test");
+		cf = keyspace.addColumnFamily("cf", CassandraType.UTF8, CassandraType.Long, CassandraType.UTF8);
+		counters = keyspace.addColumnFamily("counters", CassandraType.UTF8, CassandraType.UTF8,
+				CassandraType.Counter);
+		cluster.connect();
+		
+		file = File.createTempFile("snapshot", ".db");
+	}
+	
+	@After
+	public void tearDown()
+	{
+		file.delete();
+		
+		if (cluster.isConnected())
+		{
+			if (cluster.getKeyspace("Test") != null)
+				cluster.removeKeyspace("Test");
+			
+			cluster.disconnect();
+		}
+	}
+	
+	@SuppressWarnings("rawtypes")
+	@Test
+	public void testReadsComeFromSnapshot()
+	{
+		cf.getRow("A").insertColumn(1L, "a1");
+		cf.getRow("A").insertColumn(2L, "a2");
+		cf.getRow("B").insertColumn(1L, "b1");
+		
+		cf.exportSnapshot(file);
+		cf.getRow("A").insertColumn(3L, "not exported");
+		cf.enableSnapshot(file);
+		
+		assertTrue(cf.isSnapshotEnabled());
+		assertEquals("a1", cf.getRow("A").getColumn(1L));
+		assertNull(cf.getRow("A").getColumn(3L));
+		assertNull(cf.getRow("C").getColumn(1L));
+		assertEquals(2, cf.getRow("A").getColumnCount());
+		assertEquals(0, cf.getRow("C").getColumnCount());
+		assertEquals(2, toList(cf.getRowKeys()).size());
+		
+		Map columns = cf.getRow("A").getColumns(Arrays.asList(1L, 3L));
+		assertEquals(1, columns.size());
+		assertEquals("a1", columns.get(1L));
+		
+		Map<?, ?> rows = cf.getRows(Arrays.asList("B", "C", "A"));
+		assertEquals(Arrays.asList("B", "C", "A"), new ArrayList<Object>(rows.keySet()));
+		assertEquals(2, ((Map) rows.get("A")).size());
+		assertTrue(((Map) rows.get("C")).isEmpty());
+		
+		Map values = cf.getColumn(Arrays.asList("A", "B", "C"), 1L);
+		assertEquals(2, values.size());
+		assertEquals("b1", values.get("B"));
+		
+		cf.disableSnapshot();
+		
+		assertFalse(cf.isSnapshotEnabled());
+		assertEquals("not exported", cf.getRow("A").getColumn(3L));
+	}
+	
+	@Test
+	public void testWideRowsAndManyRows()
+	{
+		CassandraBatch batch = keyspace.createBatch();
+		for (long i = 500; i > -500; i--)
+			cf.getRow("wide").insertColumn(batch, i, "v" + i);
+		for (int i = 0; i < 300; i++)
+			cf.getRow(String.format("r%04d", i)).insertColumn(batch, (long) i, "v" + i);
+		batch.execute();
+		
+		cf.exportSnapshot(file);
+		cf.enableSnapshot(file);
+		
+		CassandraRow wide = cf.getRow("wide");
+		assertEquals(1000, wide.getColumnCount());
+		assertEquals("v-499", wide.getColumn(-499L));
+		assertEquals("v500", wide.getColumn(500L));
+		assertNull(wide.getColumn(501L));
+		
+		List<Long> names = toList(wide.getColumnNames());
+		assertEquals(1000, names.size());
+		for (int i = 0; i < 1000; i++)
+			assertEquals(Long.valueOf(i - 499), names.get(i));
+		
+		names = toList(wide.getColumnNames(-10L, 10L));
+		assertEquals(21, names.size());
+		assertEquals(Long.valueOf(-10), names.get(0));
+		assertEquals(Long.valueOf(10), names.get(20));
+		
+		assertEquals(11, wide.getColumns(490L, null).size());
+		
+		List<String> keys = toList(cf.getRowKeys());
+		assertEquals(301, keys.size());
+		assertEquals("r0000", keys.get(0));
+		assertEquals("r0299", keys.get(299));
+		assertEquals("wide", keys.get(300));
+		
+		for (int i = 0; i < 300; i++)
+			assertEquals("v" + i, cf.getRow(String.format("r%04d", i)).getColumn((long) i));
+		assertNull(cf.getRow("r").getColumn(0L));
+		assertNull(cf.getRow("r0300").getColumn(0L));
+	}
+	
+	@Test
+	@SuppressWarnings("rawtypes")
+	public void testScansReadWideRowsOnlyFromCassandra()
+	{
+		cf.setPageSize(10);
+		for (long i = 0; i < 30; i++)
+			cf.getRow("A").insertColumn(i, "old");
+		
+		cf.exportSnapshot(file);
+		for (long i = 0; i < 30; i++)
+			cf.getRow("A").insertColumn(i, "new");
+		cf.enableSnapshot(file);
+		
+		List<Map.Entry> rows = toList(cf.scanRows());
+		assertEquals(1, rows.size());
+		Map columns = (Map) rows.get(0).getValue();
+		assertEquals(30, columns.size());
+		for (long i = 0; i < 30; i++)
+			assertEquals("new", columns.get(i));
+	}
+	
+	@Test
+	public void testCounters()
+	{
+		counters.getRow("A").incrementCounter("a", 3);
+		counters.getRow("A").incrementCounter("a", 4);
+		counters.getRow("A").incrementCounter("b", -1);
+		
+		counters.exportSnapshot(file);
+		counters.enableSnapshot(file);
+		
+		assertEquals(7L, counters.getRow("A").getColumn("a"));
+		assertEquals(-1L, counters.getRow("A").getColumn("b"));
+		assertEquals(2, counters.getRow("A").getColumns().size());
+	}
+	
+	@Test
+	public void testWritesFail()
+	{
+		cf.getRow("A").insertColumn(1L, "a1");
+		cf.exportSnapshot(file);
+		cf.enableSnapshot(file);
+		
+		try
+		{
+			cf.getRow("A").insertColumn(2L, "a2");
+			fail();
+		}
+		catch (IllegalStateException e)
+		{
+			// Expected
+		}
+		
+		try
+		{
+			cf.getRow("A").deleteColumn(1L);
+			fail();
+		}
+		catch (IllegalStateException e)
+		{
+			// Expected
+		}
+		
+		CassandraBatch batch = keyspace.createBatch();
+		try
+		{
+			cf.getRow("A").insertColumn(batch, 2L, "a2");
+			fail();
+		}
+		catch (IllegalStateException e)
+		{
+			// Expected
+		}
+	}
+	
+	@Test
+	public void testReplaceSnapshot() throws IOException
+	{
+		cf.getRow("A").insertColumn(1L, "old");
+		cf.exportSnapshot(file);
+		cf.enableSnapshot(file);
+		
+		File newFile = File.createTempFile("snapshot", ".db");
+		try
+		{
+			cf.disableSnapshot();
+			cf.getRow("A").insertColumn(1L, "new");
+			cf.exportSnapshot(newFile);
+			cf.enableSnapshot(file);
+			
+			assertEquals("old", cf.getRow("A").getColumn(1L));
+			
+			cf.enableSnapshot(newFile);
+			
+			assertEquals("new", cf.getRow("A").getColumn(1L));
+		}
+		finally
+		{
+			newFile.delete();
+		}
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testSnapshotOfOtherColumnFamily()
+	{
+		counters.exportSnapshot(file);
+		cf.enableSnapshot(file);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static <T> List<T> toList(Iterable<?> iterable)
+	{
+		List<T> result = new ArrayList<T>();
+		for (Object obj : iterable)
+			result.add((T) obj);
+		return result;
+	}
+}
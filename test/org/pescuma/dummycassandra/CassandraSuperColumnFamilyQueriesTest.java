@@ -0,0 +1,166 @@
+package org.pescuma.dummycassandra;
+
+import static junit.framework.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+// Runs in memory. Use -Dcassandra.host=localhost to run against a cassandra node
+public class CassandraSuperColumnFamilyQueriesTest
+{
+	private CassandraCluster cluster;
+	private CassandraKeyspace keyspace;
+	private CassandraSuperColumnFamily cf;
+	private CassandraSuperColumnFamily counters;
+	
+	@Before
+	public void setUp()
+	{
+		cluster = new CassandraCluster("test", System.getProperty("cassandra.host", "mem://"));
+		keyspace = cluster.addKeyspace("Test");
+		cf = keyspace.addSuperColumnFamily("scf", CassandraType.UTF8, CassandraType.Long, CassandraType.UTF8,
+				CassandraType.UTF8);
+		counters = keyspace.addSuperColumnFamily("counters", CassandraType.UTF8, CassandraType.UTF8,
+				CassandraType.UTF8, CassandraType.Counter);
+		cluster.connect();
+	}
+	
+	@After
+	public void tearDown()
+	{
+		if (cluster.isConnected())
+		{
+			if (cluster.getKeyspace("Test") != null)
+				cluster.removeKeyspace("Test");
+			
+			cluster.disconnect();
+		}
+	}
+	
+	@Test
+	public void testGetSuperColumnKeys()
+	{
+		CassandraSuperRow row = cf.getRow("A");
+		
+		// Inserted out of order: they must come sorted as longs
+		for (long i = 10; i > -10; i--)
+			row.getSuperColumn(i).insertColumn("a", "");
+		
+		List<Long> keys = toList(row.getSuperColumnKeys());
+		assertEquals(20, keys.size());
+		for (int i = 0; i < 20; i++)
+			assertEquals(Long.valueOf(i - 9), keys.get(i));
+		
+		assertEquals(20, row.getSuperColumnCount());
+		
+		keys = toList(row.getSuperColumnKeys(-2L, 2L));
+		assertEquals(5, keys.size());
+		assertEquals(Long.valueOf(-2), keys.get(0));
+	}
+	
+	@Test
+	@SuppressWarnings("rawtypes")
+	public void testGetSubColumns()
+	{
+		CassandraSuperColumn sc = cf.getRow("A").getSuperColumn(1L);
+		
+		for (int i = 0; i < 10; i++)
+			sc.insertColumn(String.format("a%03d", i), "" + i);
+		
+		List<String> names = toList(sc.getColumnNames("a002", "a004"));
+		assertEquals(3, names.size());
+		assertEquals("a002", names.get(0));
+		
+		Map columns = sc.getColumns();
+		assertEquals(10, columns.size());
+		assertEquals("5", columns.get("a005"));
+		
+		assertEquals("7", sc.getColumn("a007"));
+		assertNull(cf.getRow("A").getSuperColumn(2L).getColumn("a007"));
+	}
+	
+	@Test
+	public void testDeleteSubColumns()
+	{
+		CassandraSuperRow row = cf.getRow("A");
+		
+		row.getSuperColumn(1L).insertColumn("a", "");
+		row.getSuperColumn(1L).insertColumn("b", "");
+		row.getSuperColumn(2L).insertColumn("a", "");
+		
+		row.getSuperColumn(1L).deleteColumn("a");
+		assertEquals(1, row.getSuperColumn(1L).getColumnCount());
+		
+		// Super columns without columns are not returned
+		row.getSuperColumn(2L).deleteColumn("a");
+		assertEquals(1, row.getSuperColumnCount());
+		assertEquals(0, row.getSuperColumn(2L).getColumnCount());
+	}
+	
+	@Test
+	public void testCountInPages()
+	{
+		cf.setPageSize(10);
+		
+		CassandraSuperRow row = cf.getRow("A");
+		
+		for (long i = 0; i < 25; i++)
+			row.getSuperColumn(i).insertColumn("a", "");
+		for (int i = 0; i < 25; i++)
+			row.getSuperColumn(0L).insertColumn(String.format("b%02d", i), "");
+		
+		assertEquals(25, row.getSuperColumnCount());
+		assertEquals(12, row.getSuperColumnCount(null, null, 12));
+		assertEquals(6, row.getSuperColumnCount(5L, 10L, 0));
+		
+		CassandraSuperColumn sc = row.getSuperColumn(0L);
+		assertEquals(26, sc.getColumnCount());
+		assertEquals(15, sc.getColumnCount(null, null, 15));
+		assertEquals(25, sc.getColumnCount("b", null, 0));
+	}
+	
+	@Test
+	public void testIncrementCounters()
+	{
+		CassandraSuperColumn sc = counters.getRow("A").getSuperColumn("s");
+		
+		sc.incrementCounter("a", 1);
+		sc.incrementCounter("a", 2);
+		sc.incrementCounter("b", -5);
+		
+		assertEquals(3L, sc.getColumn("a"));
+		assertEquals(-5L, sc.getColumn("b"));
+		assertEquals(2, sc.getColumnCount());
+	}
+	
+	@Test
+	public void testCoalescedCounters()
+	{
+		CassandraSuperColumn sc = counters.getRow("A").getSuperColumn("s");
+		sc.incrementCounter("a", 1);
+		
+		counters.enableCounterCoalescing(60000, 1000, null);
+		sc.incrementCounter("a", 2);
+		sc.incrementCounter("b", 5);
+		assertEquals(3L, sc.getColumn("a"));
+		assertEquals(5L, sc.getColumn("b"));
+		
+		counters.disableCounterCoalescing();
+		assertEquals(3L, sc.getColumn("a"));
+		assertEquals(5L, sc.getColumn("b"));
+	}
+	
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private <T> List<T> toList(Iterable objs)
+	{
+		List<T> list = new ArrayList<T>();
+		for (Object obj : objs)
+			list.add((T) obj);
+		return list;
+	}
+}
@@ -0,0 +1,167 @@
+package org.pescuma.dummycassandra;
+
+import static junit.framework.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import me.prettyprint.cassandra.serializers.TimeUUIDSerializer;
+
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.eaio.uuid.UUID;
+
+// Runs in memory. Use -Dcassandra.host=localhost to run against a cassandra node
+public class CassandraTimeUUIDTest
+{
+	private CassandraCluster cluster;
+	private CassandraColumnFamily times;
+	
+	@Before
+	public void setUp()
+	{
+		cluster = new CassandraCluster("test", System.getProperty("cassandra.host", "mem://"));
+		CassandraKeyspace keyspace = cluster.addKeyspace("Test");
+		times = keyspace.addColumnFamily("times", CassandraType.UTF8, CassandraType.TimeUUID, CassandraType.UTF8);
+		cluster.connect();
+	}
+	
+	@After
+	public void tearDown()
+	{
+		if (cluster.isConnected())
+		{
+			if (cluster.getKeyspace("Test") != null)
+				cluster.removeKeyspace("Test");
+			
+			cluster.disconnect();
+		}
+	}
+	
+	@Test
+	public void testInsertsInTheSameMillisecondDontCollide()
+	{
+		Date date = new Date(1000000);
+		CassandraRow row = times.getRow("A");
+		for (int i = 0; i < 100; i++)
+			row.insertColumn(CassandraTimeUUID.next(date), "v" + i);
+		row.insertColumn(new DateTime(999999), "before");
+		row.insertColumn(new Date(1000001), "after");
+		
+		assertEquals(102, row.getColumnCount());
+		assertEquals(100, row.getColumns(date, date).size());
+		assertEquals(101, row.getColumnCount(new DateTime(999999), date, 1000));
+		assertEquals(0, row.getColumns(new Date(1000002), null).size());
+		
+		for (Object name : row.getColumnNames(date, date))
+			assertEquals(1000000, CassandraTimeUUID.getMillis((UUID) name));
+	}
+	
+	@Test
+	public void testInsertReadAndDeleteByDate()
+	{
+		Date date = new Date(1000000);
+		CassandraRow row = times.getRow("A");
+		row.insertColumn(date, "a");
+		row.insertColumn(new DateTime(1000000), "b");
+		row.insertColumn(CassandraTimeUUID.next(date), "c");
+		
+		assertEquals(2, row.getColumnCount());
+		assertEquals("b", row.getColumn(date));
+		assertEquals("b", row.getColumn(new DateTime(1000000)));
+		
+		row.deleteColumn(date);
+		assertNull(row.getColumn(date));
+		assertEquals(1, row.getColumnCount());
+		assertEquals("c", row.getColumns(date, date).values().iterator().next());
+	}
+	
+	@Test
+	public void testTimeUUIDColumnsAcceptUUIDs()
+	{
+		UUID uuid = CassandraTimeUUID.next();
+		ByteBuffer bytes = toBytes(uuid);
+		java.util.UUID javaUuid = new java.util.UUID(bytes.getLong(0), bytes.getLong(8));
+		
+		times.getRow("A").insertColumn(javaUuid, "a");
+		assertEquals("a", times.getRow("A").getColumn(uuid));
+	}
+	
+	@Test
+	public void testTimeUUIDsAreSortedByTime()
+	{
+		Date date = new Date(5000);
+		List<ByteBuffer> uuids = new ArrayList<ByteBuffer>();
+		uuids.add(toBytes(CassandraTimeUUID.max(new Date(4999))));
+		uuids.add(toBytes(CassandraTimeUUID.min(date)));
+		for (int i = 0; i < 1000; i++)
+			uuids.add(toBytes(CassandraTimeUUID.next(date)));
+		uuids.add(toBytes(CassandraTimeUUID.max(date)));
+		uuids.add(toBytes(CassandraTimeUUID.min(new Date(5001))));
+		
+		List<ByteBuffer> sorted = new ArrayList<ByteBuffer>(uuids);
+		Collections.sort(sorted, LocalComparators.TIME_UUID);
+		assertEquals(uuids, sorted);
+	}
+	
+	@Test
+	public void testTimeUUIDsAreSortedByCreation()
+	{
+		List<ByteBuffer> uuids = new ArrayList<ByteBuffer>();
+		List<ByteBuffer> sameMillisecond = new ArrayList<ByteBuffer>();
+		for (int i = 0; i < 25000; i++)
+		{
+			uuids.add(toBytes(CassandraTimeUUID.next()));
+			sameMillisecond.add(toBytes(CassandraTimeUUID.next(5000)));
+		}
+		
+		assertSorted(uuids);
+		assertSorted(sameMillisecond);
+	}
+	
+	@Test
+	public void testTimeUUIDsAreUniqueAcrossThreads() throws InterruptedException
+	{
+		final Set<UUID> uuids = Collections.synchronizedSet(new HashSet<UUID>());
+		
+		Thread[] threads = new Thread[4];
+		for (int i = 0; i < threads.length; i++)
+		{
+			threads[i] = new Thread() {
+				@Override
+				public void run()
+				{
+					for (int j = 0; j < 10000; j++)
+					{
+						uuids.add(CassandraTimeUUID.next(1000));
+						uuids.add(CassandraTimeUUID.next());
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads)
+			thread.join();
+		
+		assertEquals(80000, uuids.size());
+	}
+	
+	private static void assertSorted(List<ByteBuffer> uuids)
+	{
+		for (int i = 1; i < uuids.size(); i++)
+			assertTrue("Not sorted at " + i, LocalComparators.TIME_UUID.compare(uuids.get(i - 1), uuids.get(i)) < 0);
+	}
+	
+	private static ByteBuffer toBytes(UUID uuid)
+	{
+		return TimeUUIDSerializer.get().toByteBuffer(uuid);
+	}
+}
@@ -0,0 +1,134 @@
+package org.pescuma.dummycassandra;
+
+import static junit.framework.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import me.prettyprint.cassandra.serializers.LongSerializer;
+import me.prettyprint.hector.api.beans.AbstractComposite.ComponentEquality;
+import me.prettyprint.hector.api.beans.Composite;
+
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+// Runs in memory. Use -Dcassandra.host=localhost to run against a cassandra node
+public class CassandraTypesTest
+{
+	private CassandraCluster cluster;
+	private CassandraKeyspace keyspace;
+	private CassandraColumnFamily doubles;
+	private CassandraColumnFamily dates;
+	private CassandraColumnFamily series;
+	
+	@Before
+	public void setUp()
+	{
+		cluster = new CassandraCluster("test", System.getProperty("cassandra.host", "mem://"));
+		keyspace = cluster.addKeyspace("Test");
+		doubles = keyspace.addColumnFamily("doubles", CassandraType.UTF8, CassandraType.Double, CassandraType.Boolean);
+		dates = keyspace.addColumnFamily("dates", CassandraType.UTF8, CassandraType.Date, CassandraType.Bytes);
+		series = keyspace.addCompositeColumnFamily("series", CassandraType.UTF8, new CassandraType[] {
+				CassandraType.Long, CassandraType.UTF8 }, CassandraType.Double);
+		cluster.connect();
+	}
+	
+	@After
+	public void tearDown()
+	{
+		if (cluster.isConnected())
+		{
+			if (cluster.getKeyspace("Test") != null)
+				cluster.removeKeyspace("Test");
+			
+			cluster.disconnect();
+		}
+	}
+	
+	@Test
+	public void testDoubleColumnsAreSortedAsNumbers()
+	{
+		CassandraRow row = doubles.getRow("A");
+		row.insertColumn(10.0, true);
+		row.insertColumn(-1.5, false);
+		row.insertColumn(2.0, true);
+		row.insertColumn(0.25, false);
+		
+		assertEquals(Arrays.asList(-1.5, 0.25, 2.0, 10.0), toList(row.getColumnNames()));
+		assertEquals(Arrays.asList(0.25, 2.0), toList(row.getColumnNames(0.0, 5.0)));
+		assertEquals(true, row.getColumn(2.0));
+		assertEquals(false, row.getColumn(-1.5));
+	}
+	
+	@Test
+	public void testDateColumns()
+	{
+		CassandraRow row = dates.getRow("A");
+		row.insertColumn(new Date(2000), ByteBuffer.wrap(new byte[] { 2 }));
+		row.insertColumn(new DateTime(1000), ByteBuffer.wrap(new byte[] { 1 }));
+		row.insertColumn(new Date(3000), ByteBuffer.wrap(new byte[] { 3 }));
+		
+		assertEquals(Arrays.asList(new Date(1000), new Date(2000), new Date(3000)), toList(row.getColumnNames()));
+		assertEquals(Arrays.asList(new Date(2000)), toList(row.getColumnNames(new Date(1500), new Date(2500))));
+		assertEquals(ByteBuffer.wrap(new byte[] { 1 }), row.getColumn(new Date(1000)));
+	}
+	
+	@Test
+	public void testCompositeRangeSlice()
+	{
+		CassandraRow row = series.getRow("A");
+		for (long time = 9; time >= 0; time--)
+		{
+			row.insertColumn(new Composite(time, "b"), time + 0.5);
+			row.insertColumn(new Composite(time, "a"), (double) time);
+		}
+		
+		List<Composite> names = toList(row.getColumnNames());
+		assertEquals(20, names.size());
+		assertEquals(new Composite(0L, "a"), names.get(0));
+		assertEquals(new Composite(0L, "b"), names.get(1));
+		assertEquals(new Composite(9L, "b"), names.get(19));
+		assertEquals(Long.valueOf(0), names.get(0).get(0));
+		
+		// From the first column with time 3 to the last one with time 5
+		Composite end = new Composite();
+		end.addComponent(5L, LongSerializer.get(), "LongType", ComponentEquality.GREATER_THAN_EQUAL);
+		names = toList(row.getColumnNames(new Composite(3L), end));
+		assertEquals(Arrays.asList(new Composite(3L, "a"), new Composite(3L, "b"), new Composite(4L, "a"),
+				new Composite(4L, "b"), new Composite(5L, "a"), new Composite(5L, "b")), names);
+		
+		assertEquals(4.5, row.getColumn(new Composite(4L, "b")));
+		assertEquals(6, row.getColumnCount(new Composite(3L), end, 100));
+	}
+	
+	@Test
+	public void testCompositeColumnFamilyDefinition()
+	{
+		assertEquals(CassandraType.Composite, series.getColumnKeyType());
+		assertEquals(Arrays.asList(CassandraType.Long, CassandraType.UTF8),
+				Arrays.asList(series.getColumnKeyComponents()));
+		assertEquals("org.apache.cassandra.db.marshal.CompositeType(org.apache.cassandra.db.marshal.LongType,"
+				+ "org.apache.cassandra.db.marshal.UTF8Type)", series.createColumnFamilyDefinition()
+				.getComparatorType().getClassName());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testCompositeNeedsComponentTypes()
+	{
+		keyspace.addColumnFamily("composite", CassandraType.UTF8, CassandraType.Composite, CassandraType.UTF8);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static <T> List<T> toList(Iterable<?> objs)
+	{
+		List<T> list = new ArrayList<T>();
+		for (Object obj : objs)
+			list.add((T) obj);
+		return list;
+	}
+}
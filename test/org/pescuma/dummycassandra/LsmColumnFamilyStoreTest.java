@@ -0,0 +1,257 @@
+package org.pescuma.dummycassandra;
+
+import static junit.framework.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.apache.cassandra.thrift.CfDef;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LsmColumnFamilyStoreTest
+{
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+	
+	private File dir;
+	private CfDef def;
+	private LsmColumnFamilyStore store;
+	
+	@Before
+	public void setUp() throws IOException
+	{
+		dir = File.createTempFile("lsm", "");
+		dir.delete();
+		
+		def = new CfDef("Test", "cf");
+		def.setComparator_type("UTF8Type");
+		
+		// Small memtables, so the tests flush and compact
+		store = new LsmColumnFamilyStore(def, dir, 4 * 1024);
+	}
+	
+	@After
+	public void tearDown()
+	{
+		store.drop();
+	}
+	
+	@Test
+	public void testReadFromSegments()
+	{
+		for (int row = 0; row < 10; row++)
+			for (int i = 0; i < 200; i++)
+				insert("r" + row, String.format("c%03d", i), "v" + i, 1);
+		store.flushMemtable();
+		
+		assertTrue(store.getSegmentCount() > 0);
+		
+		List<String> rows = toStrings(store.rowKeys(null));
+		assertEquals(10, rows.size());
+		assertEquals("r0", rows.get(0));
+		assertEquals("r9", rows.get(9));
+		
+		List<String> names = names(store.columns(bytes("r5"), null, EMPTY, false));
+		assertEquals(200, names.size());
+		assertEquals("c000", names.get(0));
+		assertEquals("c199", names.get(199));
+		
+		assertEquals("v42", toString(store.getColumn(bytes("r3"), null, bytes("c042")).value));
+		assertNull(store.getColumn(bytes("r3"), null, bytes("x")));
+		assertNull(store.getColumn(bytes("x"), null, bytes("c042")));
+	}
+	
+	@Test
+	public void testReversedSlice()
+	{
+		for (int i = 0; i < 300; i++)
+			insert("A", String.format("c%03d", i), "", 1);
+		
+		List<String> names = names(store.columns(bytes("A"), null, bytes("c150"), true));
+		assertEquals(151, names.size());
+		assertEquals("c150", names.get(0));
+		assertEquals("c000", names.get(150));
+	}
+	
+	@Test
+	public void testCompaction() throws InterruptedException
+	{
+		for (int flush = 0; flush < 8; flush++)
+		{
+			for (int i = 0; i < 100; i++)
+				insert("A", String.format("c%03d", i), "v" + flush, flush);
+			store.flushMemtable();
+		}
+		
+		// Compactions run in the background
+		for (int i = 0; i < 100 && store.getSegmentCount() > 4; i++)
+			Thread.sleep(50);
+		assertTrue(store.getSegmentCount() <= 4);
+		
+		List<LocalColumn> columns = toList(store.columns(bytes("A"), null, EMPTY, false));
+		assertEquals(100, columns.size());
+		for (LocalColumn column : columns)
+			assertEquals("v7", toString(column.value));
+	}
+	
+	@Test
+	public void testNewerTimestampWins()
+	{
+		insert("A", "a", "new", 10);
+		store.flushMemtable();
+		insert("A", "a", "old", 5);
+		
+		assertEquals("new", toString(store.getColumn(bytes("A"), null, bytes("a")).value));
+	}
+	
+	@Test
+	public void testDeletesHideOlderSegments()
+	{
+		insert("A", "a", "1", 1);
+		insert("A", "b", "2", 1);
+		insert("B", "a", "3", 1);
+		store.flushMemtable();
+		
+		store.remove(bytes("A"), null, bytes("a"), 2);
+		assertNull(store.getColumn(bytes("A"), null, bytes("a")));
+		assertEquals(1, toList(store.columns(bytes("A"), null, EMPTY, false)).size());
+		
+		store.remove(bytes("B"), null, null, 2);
+		store.flushMemtable();
+		
+		List<String> rows = toStrings(store.rowKeys(null));
+		assertEquals(1, rows.size());
+		assertEquals("A", rows.get(0));
+		
+		// Not newer than the delete
+		store.remove(bytes("A"), null, bytes("b"), 0);
+		assertEquals("2", toString(store.getColumn(bytes("A"), null, bytes("b")).value));
+	}
+	
+	@Test
+	public void testCountersAcrossSegments()
+	{
+		def.setDefault_validation_class("CounterColumnType");
+		store.drop();
+		store = new LsmColumnFamilyStore(def, dir, 4 * 1024);
+		
+		store.add(bytes("A"), null, bytes("a"), 1);
+		store.flushMemtable();
+		store.add(bytes("A"), null, bytes("a"), 2);
+		store.flushMemtable();
+		store.add(bytes("A"), null, bytes("a"), 3);
+		assertEquals(6, store.getColumn(bytes("A"), null, bytes("a")).getCounterValue());
+		
+		store.remove(bytes("A"), null, bytes("a"), Long.MAX_VALUE);
+		assertNull(store.getColumn(bytes("A"), null, bytes("a")));
+		
+		store.add(bytes("A"), null, bytes("a"), 5);
+		assertEquals(5, store.getColumn(bytes("A"), null, bytes("a")).getCounterValue());
+	}
+	
+	@Test
+	public void testSuperColumns()
+	{
+		def.setColumn_type("Super");
+		def.setSubcomparator_type("UTF8Type");
+		store.drop();
+		store = new LsmColumnFamilyStore(def, dir, 4 * 1024);
+		
+		store.insert(bytes("A"), bytes("s1"), column("a", "1", 1));
+		store.insert(bytes("A"), bytes("s2"), column("a", "2", 1));
+		store.flushMemtable();
+		store.insert(bytes("A"), bytes("s2"), column("b", "3", 1));
+		
+		assertEquals(2, toList(store.superColumnNames(bytes("A"), EMPTY, false)).size());
+		assertEquals(2, toList(store.columns(bytes("A"), bytes("s2"), EMPTY, false)).size());
+		
+		store.remove(bytes("A"), bytes("s1"), null, 1);
+		List<String> names = toStrings(store.superColumnNames(bytes("A"), EMPTY, false));
+		assertEquals(1, names.size());
+		assertEquals("s2", names.get(0));
+	}
+	
+	@Test
+	public void testReopen()
+	{
+		insert("A", "a", "flushed", 1);
+		store.flushMemtable();
+		insert("A", "b", "in the log", 1);
+		store.close();
+		
+		store = new LsmColumnFamilyStore(def, dir, 4 * 1024);
+		
+		assertEquals("flushed", toString(store.getColumn(bytes("A"), null, bytes("a")).value));
+		assertEquals("in the log", toString(store.getColumn(bytes("A"), null, bytes("b")).value));
+	}
+	
+	@Test
+	public void testTruncate()
+	{
+		insert("A", "a", "1", 1);
+		store.flushMemtable();
+		insert("B", "a", "1", 1);
+		
+		store.truncate();
+		
+		assertFalse(store.rowKeys(null).hasNext());
+		assertEquals(0, store.getSegmentCount());
+		
+		insert("A", "b", "2", 1);
+		store.close();
+		store = new LsmColumnFamilyStore(def, dir, 4 * 1024);
+		
+		assertEquals(1, toList(store.columns(bytes("A"), null, EMPTY, false)).size());
+	}
+	
+	private void insert(String row, String name, String value, long timestamp)
+	{
+		store.insert(bytes(row), null, column(name, value, timestamp));
+	}
+	
+	private static LocalColumn column(String name, String value, long timestamp)
+	{
+		return new LocalColumn(bytes(name), bytes(value), timestamp, 0, 0);
+	}
+	
+	private static ByteBuffer bytes(String text)
+	{
+		return ByteBuffer.wrap(text.getBytes(UTF8));
+	}
+	
+	private static String toString(ByteBuffer bytes)
+	{
+		return UTF8.decode(bytes.duplicate()).toString();
+	}
+	
+	private static List<String> names(Iterator<LocalColumn> columns)
+	{
+		List<String> result = new ArrayList<String>();
+		while (columns.hasNext())
+			result.add(toString(columns.next().name));
+		return result;
+	}
+	
+	private static List<String> toStrings(Iterator<ByteBuffer> buffers)
+	{
+		List<String> result = new ArrayList<String>();
+		while (buffers.hasNext())
+			result.add(toString(buffers.next()));
+		return result;
+	}
+	
+	private static <T> List<T> toList(Iterator<T> it)
+	{
+		List<T> result = new ArrayList<T>();
+		while (it.hasNext())
+			result.add(it.next());
+		return result;
+	}
+}